@@ -42,6 +42,11 @@ CREATE UNIQUE INDEX certificatedata_idx12 ON CertificateData (serialNumber, issu
 -- If using CVC CA remove the above UNIQUE index, and apply the below NON UNIQUE index instead
 -- Do not apply both of them!
 -- CREATE INDEX certificatedata_idx12 ON CertificateData (serialNumber, issuerDN);
+-- The following index is recommended when ocsp.statusindex.enabled=true or crlgeneration.incremental=true, for the reads of recently updated certificates
+-- CREATE INDEX certificatedata_idx15 ON CertificateData (issuerDN, updateTime);
+-- CRL generation reads revoked certificates in primary key order. On databases where secondary indexes do not include the
+-- primary key (i.e. other than MySQL/MariaDB with InnoDB), the following index avoids sorting all revoked certificates for each batch
+-- CREATE INDEX certificatedata_idx16 ON CertificateData (issuerDN, status, fingerprint);
 
 CREATE INDEX historydata_idx1 ON CertReqHistoryData (username);
 CREATE INDEX historydata_idx3 ON CertReqHistoryData (serialNumber);
@@ -63,6 +68,8 @@ CREATE INDEX noconflictcertificatedata_idx1 ON NoConflictCertificateData (serial
 CREATE INDEX noconflictcertificatedata_idx2 ON NoConflictCertificateData (fingerprint);
 CREATE INDEX noconflictcertificatedata_idx3 ON NoConflictCertificateData (issuerDN,status);
 CREATE INDEX noconflictcertificatedata_idx4 ON NoConflictCertificateData (certificateProfileId);
+-- See certificatedata_idx16 above
+-- CREATE INDEX noconflictcertificatedata_idx5 ON NoConflictCertificateData (issuerDN, status, id);
 
 -- index for searching for ACME accounts by public key
 CREATE INDEX acmeaccountdata_idx1 ON AcmeAccountData (currentKeyId);
@@ -21,6 +21,31 @@ ALTER TABLE AuditRecordData DROP PRIMARY KEY;
 --     SUBPARTITION s04a, SUBPARTITION s04b,
 --     SUBPARTITION s04c, SUBPARTITION s04d )
 -- );
+-- Alternatively, partition by the time stamp (milliseconds since epoch, UTC) to be able to drop
+-- whole periods of exported audit log instead of deleting them row by row. Queries with a time
+-- constraint, such as audit log searches in the AdminGUI, are then only run against the matching
+-- partitions. The unique index must include the partitioning column, and a partition for the next
+-- period must be added before it starts. This example uses one partition per quarter.
+-- Trade-off: with timeStamp in the unique index, the database no longer rejects two rows with the
+-- same nodeId and sequenceNumber. The audit log, including group commit, relies on each node
+-- assigning its own sequence numbers, so this is only safe if every node has a unique
+-- cluster.nodeid. A duplicate is then only detected when the audit log is verified. If uniqueness
+-- must be enforced by the database, partition by sequenceNumber as above instead.
+-- DROP INDEX auditrecorddata_idx2 ON AuditRecordData;
+-- CREATE UNIQUE INDEX auditrecorddata_idx2 ON AuditRecordData (nodeId,sequenceNumber,timeStamp);
+-- ALTER TABLE AuditRecordData PARTITION BY RANGE( timeStamp ) (
+--   PARTITION p2024q1 VALUES LESS THAN (1711929600000),
+--   PARTITION p2024q2 VALUES LESS THAN (1719792000000),
+--   PARTITION p2024q3 VALUES LESS THAN (1727740800000),
+--   PARTITION p2024q4 VALUES LESS THAN (1735689600000),
+--   PARTITION pMax VALUES LESS THAN MAXVALUE
+-- );
+-- ALTER TABLE AuditRecordData REORGANIZE PARTITION pMax INTO (
+--   PARTITION p2025q1 VALUES LESS THAN (1743465600000),
+--   PARTITION pMax VALUES LESS THAN MAXVALUE
+-- );
+-- After a period has been exported, and verified, it can be removed at once:
+-- ALTER TABLE AuditRecordData DROP PARTITION p2024q1;
 
 -- Partition pruning to increase speed of finding CA certificates instead of
 -- having a largely unused index.
@@ -18,6 +18,10 @@ DROP INDEX certificatedata_idx12 ON CertificateData;
 -- Only added when MySQL partition pruning is used:
 -- ALTER TABLE CertificateData DROP INDEX certificatedata_idx13;
 -- ALTER TABLE CertificateData DROP INDEX certificatedata_idx14;
+-- Only added when the OCSP revocation status index is used:
+-- DROP INDEX certificatedata_idx15 ON CertificateData;
+-- Only added on databases where secondary indexes do not include the primary key:
+-- DROP INDEX certificatedata_idx16 ON CertificateData;
 
 DROP INDEX historydata_idx1 ON CertReqHistoryData;
 DROP INDEX historydata_idx3 ON CertReqHistoryData;
@@ -36,6 +40,7 @@ DROP INDEX blocklist_idx1 ON BlacklistData;
 DROP INDEX noconflictcertificatedata_idx1 ON NoConflictCertificateData;
 DROP INDEX noconflictcertificatedata_idx2 ON NoConflictCertificateData;
 DROP INDEX noconflictcertificatedata_idx3 ON NoConflictCertificateData;
+-- DROP INDEX noconflictcertificatedata_idx5 ON NoConflictCertificateData;
 DROP INDEX noconflictcertificatedata_idx4 ON NoConflictCertificateData;
 
 DROP INDEX acmeaccountdata_idx1 ON AcmeAccountData;
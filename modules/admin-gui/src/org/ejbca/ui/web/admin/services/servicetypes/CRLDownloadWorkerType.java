@@ -31,6 +31,7 @@ public class CRLDownloadWorkerType extends BaseWorkerType {
     
     private boolean ignoreNextUpdate = false;
     private String maxDownloadSize = String.valueOf(CRLDownloadWorker.DEFAULT_MAX_DOWNLOAD_SIZE);
+    private String maxConcurrentDownloads = String.valueOf(CRLDownloadWorker.DEFAULT_MAX_CONCURRENT_DOWNLOADS);
 
     public CRLDownloadWorkerType() {
         super(ServiceTypeUtil.CRLDOWNLOADWORKER_SUB_PAGE, NAME, true, CRLDownloadWorker.class.getName());
@@ -60,6 +61,16 @@ public class CRLDownloadWorkerType extends BaseWorkerType {
         this.maxDownloadSize = maxDownloadSize;
     }
 
+    /** @return the maximum number of CRLs that are downloaded at the same time. */
+    public String getMaxConcurrentDownloads() {
+        return maxConcurrentDownloads;
+    }
+
+    /** Set the maximum number of CRLs that are downloaded at the same time. */
+    public void setMaxConcurrentDownloads(String maxConcurrentDownloads) {
+        this.maxConcurrentDownloads = maxConcurrentDownloads;
+    }
+
     @Override
     public Properties getProperties(final ArrayList<String> errorMessages) throws IOException {
         Properties ret = super.getProperties(errorMessages);
@@ -74,6 +85,15 @@ public class CRLDownloadWorkerType extends BaseWorkerType {
         } catch (NumberFormatException e) {
             errorMessages.add("Invalid maximum download size.");
         }
+        try {
+            if (Integer.parseInt(maxConcurrentDownloads) >= 1) {
+                ret.setProperty(CRLDownloadWorker.PROP_MAX_CONCURRENT_DOWNLOADS, maxConcurrentDownloads);
+            } else {
+                errorMessages.add("Invalid maximum number of concurrent downloads.");
+            }
+        } catch (NumberFormatException e) {
+            errorMessages.add("Invalid maximum number of concurrent downloads.");
+        }
         return ret;
     }
     
@@ -82,5 +102,6 @@ public class CRLDownloadWorkerType extends BaseWorkerType {
         super.setProperties(properties);
         ignoreNextUpdate = Boolean.valueOf(properties.getProperty(CRLDownloadWorker.PROP_IGNORE_NEXT_UPDATE, Boolean.valueOf(ignoreNextUpdate).toString()));
         maxDownloadSize = properties.getProperty(CRLDownloadWorker.PROP_MAX_DOWNLOAD_SIZE, maxDownloadSize);
+        maxConcurrentDownloads = properties.getProperty(CRLDownloadWorker.PROP_MAX_CONCURRENT_DOWNLOADS, maxConcurrentDownloads);
     }
 }
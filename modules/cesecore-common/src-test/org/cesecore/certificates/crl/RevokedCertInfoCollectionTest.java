@@ -0,0 +1,123 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.crl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests that {@link RevokedCertInfoCollection} returns the same values as were added.
+ *
+ * @version $Id$
+ */
+public class RevokedCertInfoCollectionTest {
+
+    @Test
+    public void testAddAndRead() {
+        final RevokedCertInfoCollection collection = new RevokedCertInfoCollection(1);
+        assertTrue(collection.isEmpty());
+        final List<RevokedCertInfo> expected = createRevokedCertInfos(1000);
+        collection.addAll(expected);
+        assertEquals(1000, collection.size());
+        final Iterator<RevokedCertInfo> iterator = collection.iterator();
+        for (int i = 0; i < expected.size(); i++) {
+            final RevokedCertInfo revokedCertInfo = expected.get(i);
+            assertRevokedCertInfoEquals(revokedCertInfo, collection.get(i));
+            assertRevokedCertInfoEquals(revokedCertInfo, iterator.next());
+            assertEquals(revokedCertInfo.getUserCertificate(), collection.getSerialNumber(i));
+            final byte[] serialNumber = Arrays.copyOfRange(collection.getSerialNumberBuffer(), collection.getSerialNumberOffset(i),
+                    collection.getSerialNumberOffset(i) + collection.getSerialNumberLength(i));
+            assertArrayEquals(revokedCertInfo.getUserCertificate().toByteArray(), serialNumber);
+            assertEquals(revokedCertInfo.getCertificateFingerprint(), collection.getCertificateFingerprint(i));
+            assertEquals(revokedCertInfo.getRevocationDate().getTime(), collection.getRevocationDate(i));
+            assertEquals(revokedCertInfo.getReason(), collection.getReason(i));
+        }
+        assertFalse(iterator.hasNext());
+        collection.closeForWrite();
+        // Adding entries after closeForWrite is allowed
+        collection.add(new RevokedCertInfo(null, BigInteger.TEN.toByteArray(), 0, RevokedCertInfo.REVOCATION_REASON_CERTIFICATEHOLD, 0));
+        assertEquals(1001, collection.size());
+        final RevokedCertInfo last = collection.get(1000);
+        assertNull(last.getCertificateFingerprint());
+        assertFalse(last.isRevocationDateSet());
+        assertNull(last.getExpireDate());
+        collection.setRevocationDate(1000, 4711L);
+        assertEquals(4711L, collection.getRevocationDate(1000));
+        // Copying entries between collections keeps the packed and missing fingerprints as they are
+        final RevokedCertInfoCollection copy = new RevokedCertInfoCollection(1);
+        for (int i = collection.size() - 1; i >= 0; i--) {
+            copy.add(collection, i);
+        }
+        for (int i = 0; i < collection.size(); i++) {
+            assertRevokedCertInfoEquals(collection.get(i), copy.get(collection.size() - 1 - i));
+        }
+        collection.clear();
+        assertEquals(0, collection.size());
+        assertFalse(collection.iterator().hasNext());
+    }
+
+    @Test
+    public void testSerialization() throws Exception {
+        final List<RevokedCertInfo> expected = createRevokedCertInfos(100);
+        final RevokedCertInfoCollection collection = RevokedCertInfoCollection.valueOf(expected);
+        assertSame(collection, RevokedCertInfoCollection.valueOf(collection));
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (final ObjectOutputStream oos = new ObjectOutputStream(baos)) {
+            oos.writeObject(collection);
+        }
+        try (final ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(baos.toByteArray()))) {
+            final RevokedCertInfoCollection deserialized = (RevokedCertInfoCollection) ois.readObject();
+            assertEquals(expected.size(), deserialized.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertRevokedCertInfoEquals(expected.get(i), deserialized.get(i));
+            }
+        }
+    }
+
+    private static List<RevokedCertInfo> createRevokedCertInfos(final int count) {
+        final List<RevokedCertInfo> ret = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            // Mix of fingerprints in lower case hex, as stored by EJBCA, and other values
+            final String fingerprint = i % 3 == 0 ? String.format("%040x", BigInteger.valueOf(i * 7919L).shiftLeft(100))
+                    : i % 3 == 1 ? "FP-" + i : null;
+            final BigInteger serialNumber = BigInteger.valueOf(i).shiftLeft(i % 160).negate().add(BigInteger.valueOf(i % 2));
+            ret.add(new RevokedCertInfo(fingerprint == null ? null : fingerprint.getBytes(), serialNumber.toByteArray(), 1600000000000L + i,
+                    i % 11, i % 5 == 0 ? 0 : 1700000000000L + i));
+        }
+        return ret;
+    }
+
+    private static void assertRevokedCertInfoEquals(final RevokedCertInfo expected, final RevokedCertInfo actual) {
+        assertEquals(expected.getCertificateFingerprint(), actual.getCertificateFingerprint());
+        assertEquals(expected.getUserCertificate(), actual.getUserCertificate());
+        assertEquals(expected.getRevocationDate(), actual.getRevocationDate());
+        assertEquals(expected.getExpireDate(), actual.getExpireDate());
+        assertEquals(expected.getReason(), actual.getReason());
+    }
+}
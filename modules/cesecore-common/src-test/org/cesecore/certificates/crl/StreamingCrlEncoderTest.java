@@ -0,0 +1,121 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.crl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.CRLNumber;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.cert.X509CRLHolder;
+import org.bouncycastle.cert.X509v2CRLBuilder;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentVerifierProviderBuilder;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests that {@link StreamingCrlEncoder} produces the same CRLs as X509v2CRLBuilder.
+ *
+ * @version $Id$
+ */
+public class StreamingCrlEncoderTest {
+
+    private static final X500Name ISSUER = new X500Name("CN=Streaming CRL Test CA,O=EJBCA,C=SE");
+    private static KeyPair keyPair;
+
+    @BeforeClass
+    public static void beforeClass() throws Exception {
+        Security.addProvider(new BouncyCastleProvider());
+        final KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA", BouncyCastleProvider.PROVIDER_NAME);
+        keyPairGenerator.initialize(1024);
+        keyPair = keyPairGenerator.generateKeyPair();
+    }
+
+    @Test
+    public void testEmptyCrlWithoutNextUpdate() throws Exception {
+        final Date thisUpdate = new Date(1600000000123L);
+        final X509v2CRLBuilder builder = new X509v2CRLBuilder(ISSUER, thisUpdate);
+        final StreamingCrlEncoder encoder = new StreamingCrlEncoder(ISSUER, thisUpdate);
+        final byte[] crl = encoder.build(createSigner());
+        assertArrayEquals(builder.build(createSigner()).getEncoded(), crl);
+        final StreamingCrlEncoder.Header header = StreamingCrlEncoder.readHeader(crl);
+        assertEquals(ISSUER, header.getIssuer());
+        assertEquals(1600000000000L, header.getThisUpdate().getTime());
+        assertNull(header.getNextUpdate());
+        assertNull(StreamingCrlEncoder.readCrlNumber(crl));
+    }
+
+    @Test
+    public void testCrlWithEntriesAndExtensions() throws Exception {
+        final Date thisUpdate = new Date(1600000000000L);
+        final Date nextUpdate = new Date(1600086400000L);
+        final List<RevokedCertInfo> revokedCertInfos = new ArrayList<>();
+        final Random random = new Random(42);
+        // Reasons from unspecified to above the reasons known by BouncyCastle, and dates encoded as both UTCTime and GeneralizedTime
+        final long[] revocationDates = { -631152000001L, -631152000000L, 1L, 1599999999999L, 2524607999000L, 2524608000000L, 253402300799000L };
+        for (int i = 0; i < 300; i++) {
+            final BigInteger serialNumber = i == 0 ? BigInteger.ZERO : new BigInteger(1 + random.nextInt(160), random);
+            final int reason = i % 13;
+            revokedCertInfos.add(new RevokedCertInfo(new byte[] { 1 }, serialNumber.toByteArray(), revocationDates[i % revocationDates.length],
+                    reason == 7 ? RevokedCertInfo.REVOCATION_REASON_REMOVEFROMCRL : reason, 0));
+        }
+        final X509v2CRLBuilder builder = new X509v2CRLBuilder(ISSUER, thisUpdate);
+        builder.setNextUpdate(nextUpdate);
+        final StreamingCrlEncoder encoder = new StreamingCrlEncoder(ISSUER, thisUpdate);
+        encoder.setNextUpdate(nextUpdate);
+        for (final RevokedCertInfo revokedCertInfo : revokedCertInfos) {
+            builder.addCRLEntry(revokedCertInfo.getUserCertificate(), revokedCertInfo.getRevocationDate(), revokedCertInfo.getReason());
+        }
+        encoder.setRevokedCertificates(revokedCertInfos);
+        builder.addExtension(Extension.cRLNumber, false, new CRLNumber(BigInteger.valueOf(4711)));
+        encoder.addExtension(Extension.cRLNumber, false, new CRLNumber(BigInteger.valueOf(4711)));
+        final byte[] crl = encoder.build(createSigner());
+        assertArrayEquals("The streamed CRL differs from the one built by BouncyCastle.", builder.build(createSigner()).getEncoded(), crl);
+        assertEquals(300, new X509CRLHolder(crl).getRevokedCertificates().size());
+        // The columnar collection is encoded without creating a RevokedCertInfo for each entry, but should give the same result
+        final StreamingCrlEncoder columnarEncoder = new StreamingCrlEncoder(ISSUER, thisUpdate);
+        columnarEncoder.setNextUpdate(nextUpdate);
+        columnarEncoder.setRevokedCertificates(RevokedCertInfoCollection.valueOf(revokedCertInfos));
+        columnarEncoder.addExtension(Extension.cRLNumber, false, new CRLNumber(BigInteger.valueOf(4711)));
+        assertArrayEquals("The CRL streamed from columns differs from the one built by BouncyCastle.", crl, columnarEncoder.build(createSigner()));
+        final StreamingCrlEncoder.Header header = StreamingCrlEncoder.readHeader(crl);
+        assertEquals(ISSUER, header.getIssuer());
+        assertEquals(nextUpdate, header.getNextUpdate());
+        assertEquals(BigInteger.valueOf(4711), StreamingCrlEncoder.readCrlNumber(crl));
+        assertTrue(StreamingCrlEncoder.verify(crl, new JcaContentVerifierProviderBuilder().build(keyPair.getPublic())));
+        // Any modification of the signed content should be detected
+        crl[crl.length / 2] ^= 1;
+        assertFalse(StreamingCrlEncoder.verify(crl, new JcaContentVerifierProviderBuilder().build(keyPair.getPublic())));
+    }
+
+    private static ContentSigner createSigner() throws Exception {
+        // PKCS#1 v1.5 signatures are deterministic, so CRLs with the same content have the same encoding
+        return new JcaContentSignerBuilder("SHA256WithRSA").setProvider(BouncyCastleProvider.PROVIDER_NAME).build(keyPair.getPrivate());
+    }
+}
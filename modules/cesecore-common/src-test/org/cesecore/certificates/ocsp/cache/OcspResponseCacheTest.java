@@ -0,0 +1,140 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.ocsp.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.DEROctetString;
+import org.bouncycastle.asn1.nist.NISTObjectIdentifiers;
+import org.bouncycastle.asn1.ocsp.CertID;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.cert.ocsp.CertificateID;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test of the cache of signed OCSP responses for requests without nonce.
+ *
+ * @version $Id$
+ */
+public class OcspResponseCacheTest {
+
+    private static final long GRACE_PERIOD = 60000L;
+    private static final int MAX_SIZE = 1000;
+    private static final AlgorithmIdentifier SHA1 = CertificateID.HASH_SHA1;
+    private static final AlgorithmIdentifier SHA256 = new AlgorithmIdentifier(NISTObjectIdentifiers.id_sha256);
+
+    @Before
+    public void before() {
+        OcspResponseCache.INSTANCE.flush();
+    }
+
+    @After
+    public void after() {
+        OcspResponseCache.INSTANCE.flush();
+    }
+
+    @Test
+    public void testPutAndGet() {
+        final long now = System.currentTimeMillis();
+        assertTrue(OcspResponseCache.INSTANCE.isEmpty());
+        final CertificateID certId = certId(SHA1, 1, 1);
+        final OcspResponseCacheEntry entry = entry(certId, now + 60000L);
+        OcspResponseCache.INSTANCE.put(certId, entry, now, MAX_SIZE);
+        assertFalse(OcspResponseCache.INSTANCE.isEmpty());
+        assertSame(entry, OcspResponseCache.INSTANCE.get(certId(SHA1, 1, 1), now));
+        assertNull("Different serial number should not match.", OcspResponseCache.INSTANCE.get(certId(SHA1, 1, 2), now));
+        assertNull("Different issuer should not match.", OcspResponseCache.INSTANCE.get(certId(SHA1, 2, 1), now));
+        assertNull("Different hash algorithm should not match.", OcspResponseCache.INSTANCE.get(certId(SHA256, 1, 1), now));
+        assertNull("Expired response should not be returned.", OcspResponseCache.INSTANCE.get(certId, now + 60000L));
+    }
+
+    @Test
+    public void testSameSerialNumberDifferentCertIds() {
+        final long now = System.currentTimeMillis();
+        final CertificateID sha1CertId = certId(SHA1, 1, 1);
+        final CertificateID sha256CertId = certId(SHA256, 1, 1);
+        final OcspResponseCacheEntry sha1Entry = entry(sha1CertId, now + 60000L);
+        final OcspResponseCacheEntry sha256Entry = entry(sha256CertId, now + 60000L);
+        OcspResponseCache.INSTANCE.put(sha1CertId, sha1Entry, now, MAX_SIZE);
+        OcspResponseCache.INSTANCE.put(sha256CertId, sha256Entry, now, MAX_SIZE);
+        assertEquals(2, OcspResponseCache.INSTANCE.size());
+        assertSame(sha1Entry, OcspResponseCache.INSTANCE.get(sha1CertId, now));
+        assertSame(sha256Entry, OcspResponseCache.INSTANCE.get(sha256CertId, now));
+        // Replacing a response should not increase the size
+        final OcspResponseCacheEntry replacement = entry(sha1CertId, now + 120000L);
+        OcspResponseCache.INSTANCE.put(sha1CertId, replacement, now, MAX_SIZE);
+        assertEquals(2, OcspResponseCache.INSTANCE.size());
+        assertSame(replacement, OcspResponseCache.INSTANCE.get(sha1CertId, now));
+    }
+
+    @Test
+    public void testInvalidate() {
+        final long now = System.currentTimeMillis();
+        final CertificateID certId = certId(SHA1, 1, 1);
+        OcspResponseCache.INSTANCE.put(certId, entry(certId, now + 60000L), now, MAX_SIZE);
+        OcspResponseCache.INSTANCE.put(certId(SHA1, 1, 2), entry(certId(SHA1, 1, 2), now + 60000L), now, MAX_SIZE);
+        OcspResponseCache.INSTANCE.invalidate(BigInteger.ONE, GRACE_PERIOD);
+        assertNull(OcspResponseCache.INSTANCE.get(certId, now));
+        assertNotNull("Other serial numbers should not be affected.", OcspResponseCache.INSTANCE.get(certId(SHA1, 1, 2), now));
+        assertEquals(1, OcspResponseCache.INSTANCE.size());
+        // A response to a request received before or shortly after the status change may be based on the old status
+        final long afterInvalidation = System.currentTimeMillis();
+        OcspResponseCache.INSTANCE.put(certId, entry(certId, afterInvalidation + 60000L), afterInvalidation, MAX_SIZE);
+        assertNull("Response produced within the grace period should not be cached.", OcspResponseCache.INSTANCE.get(certId, afterInvalidation));
+        final long afterGracePeriod = afterInvalidation + GRACE_PERIOD;
+        OcspResponseCache.INSTANCE.put(certId, entry(certId, afterGracePeriod + 60000L), afterGracePeriod, MAX_SIZE);
+        assertNotNull("Response produced after the grace period should be cached.", OcspResponseCache.INSTANCE.get(certId, afterGracePeriod));
+    }
+
+    @Test
+    public void testMaxSize() {
+        final long now = System.currentTimeMillis();
+        final CertificateID expiredCertId = certId(SHA1, 1, 1);
+        OcspResponseCache.INSTANCE.put(expiredCertId, entry(expiredCertId, now - 1), now - 60000L, 2);
+        final CertificateID validCertId = certId(SHA1, 1, 2);
+        OcspResponseCache.INSTANCE.put(validCertId, entry(validCertId, now + 60000L), now, 2);
+        assertEquals(2, OcspResponseCache.INSTANCE.size());
+        // Expired responses should be removed to make room for new ones
+        final CertificateID newCertId = certId(SHA1, 1, 3);
+        OcspResponseCache.INSTANCE.put(newCertId, entry(newCertId, now + 60000L), now, 2);
+        assertEquals(2, OcspResponseCache.INSTANCE.size());
+        assertNotNull(OcspResponseCache.INSTANCE.get(newCertId, now));
+        // Valid responses should not be evicted
+        final CertificateID rejectedCertId = certId(SHA1, 1, 4);
+        OcspResponseCache.INSTANCE.put(rejectedCertId, entry(rejectedCertId, now + 60000L), now, 2);
+        assertEquals(2, OcspResponseCache.INSTANCE.size());
+        assertNull(OcspResponseCache.INSTANCE.get(rejectedCertId, now));
+        assertNotNull(OcspResponseCache.INSTANCE.get(validCertId, now));
+    }
+
+    private static CertificateID certId(final AlgorithmIdentifier hashAlgorithm, final int issuer, final long serialNumber) {
+        final byte[] nameHash = new byte[] { 1, (byte) issuer };
+        final byte[] keyHash = new byte[] { 2, (byte) issuer };
+        return new CertificateID(new CertID(hashAlgorithm, new DEROctetString(nameHash), new DEROctetString(keyHash),
+                new ASN1Integer(serialNumber)));
+    }
+
+    private static OcspResponseCacheEntry entry(final CertificateID certId, final long expireTime) {
+        return new OcspResponseCacheEntry(certId, new byte[] { 0x30, 0x00 }, expireTime - 60000L, expireTime, 60000L, "etag", null, expireTime);
+    }
+}
@@ -0,0 +1,94 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.ocsp.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.DEROctetString;
+import org.bouncycastle.asn1.ocsp.CertID;
+import org.bouncycastle.cert.ocsp.CertificateID;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test of the tracking of issuers missing in the OCSP signing cache.
+ *
+ * @version $Id$
+ */
+public class OcspSigningCacheMissesTest {
+
+    private static final long NEGATIVE_CACHE_TIME = 60000L;
+
+    @Before
+    public void before() {
+        OcspSigningCacheMisses.INSTANCE.flush();
+    }
+
+    @After
+    public void after() {
+        OcspSigningCacheMisses.INSTANCE.flush();
+    }
+
+    @Test
+    public void testSingleFlight() {
+        final long now = System.currentTimeMillis();
+        assertTrue("First miss should start a reload.", OcspSigningCacheMisses.INSTANCE.addMiss(certId(1, 1), now, NEGATIVE_CACHE_TIME));
+        assertFalse("Second miss for another issuer should not start a concurrent reload.",
+                OcspSigningCacheMisses.INSTANCE.addMiss(certId(2, 1), now, NEGATIVE_CACHE_TIME));
+        List<CertificateID> certIds = OcspSigningCacheMisses.INSTANCE.startReload();
+        assertEquals(2, certIds.size());
+        assertFalse("No misses during the reload, so no further reload is needed.", OcspSigningCacheMisses.INSTANCE.finishReload());
+        assertTrue("A miss after the reload should start a new reload.", OcspSigningCacheMisses.INSTANCE.addMiss(certId(3, 1), now, NEGATIVE_CACHE_TIME));
+        certIds = OcspSigningCacheMisses.INSTANCE.startReload();
+        assertEquals(1, certIds.size());
+        assertFalse(OcspSigningCacheMisses.INSTANCE.addMiss(certId(4, 1), now, NEGATIVE_CACHE_TIME));
+        assertTrue("A miss during the reload should cause another reload.", OcspSigningCacheMisses.INSTANCE.finishReload());
+        certIds = OcspSigningCacheMisses.INSTANCE.startReload();
+        assertEquals(1, certIds.size());
+        assertFalse(OcspSigningCacheMisses.INSTANCE.finishReload());
+    }
+
+    @Test
+    public void testNegativeCache() {
+        final long now = System.currentTimeMillis();
+        assertTrue(OcspSigningCacheMisses.INSTANCE.addMiss(certId(1, 1), now, NEGATIVE_CACHE_TIME));
+        OcspSigningCacheMisses.INSTANCE.startReload();
+        assertFalse(OcspSigningCacheMisses.INSTANCE.finishReload());
+        assertFalse("A recently missing issuer should not start a reload.", OcspSigningCacheMisses.INSTANCE.addMiss(certId(1, 2), now + 1000L, NEGATIVE_CACHE_TIME));
+        assertTrue("A missing issuer should start a reload after the negative cache time.",
+                OcspSigningCacheMisses.INSTANCE.addMiss(certId(1, 3), now + NEGATIVE_CACHE_TIME, NEGATIVE_CACHE_TIME));
+    }
+
+    @Test
+    public void testReloadNotStarted() {
+        final long now = System.currentTimeMillis();
+        assertTrue(OcspSigningCacheMisses.INSTANCE.addMiss(certId(1, 1), now, NEGATIVE_CACHE_TIME));
+        // The asynchronous reload could not be dispatched, so startReload is never invoked
+        OcspSigningCacheMisses.INSTANCE.flush();
+        assertTrue("A miss after a reload that was never started should start a reload.",
+                OcspSigningCacheMisses.INSTANCE.addMiss(certId(1, 2), now + 1000L, NEGATIVE_CACHE_TIME));
+    }
+
+    private static CertificateID certId(final int issuer, final long serialNumber) {
+        final byte[] nameHash = new byte[] { 1, (byte) issuer };
+        final byte[] keyHash = new byte[] { 2, (byte) issuer };
+        return new CertificateID(new CertID(CertificateID.HASH_SHA1, new DEROctetString(nameHash), new DEROctetString(keyHash),
+                new ASN1Integer(serialNumber)));
+    }
+}
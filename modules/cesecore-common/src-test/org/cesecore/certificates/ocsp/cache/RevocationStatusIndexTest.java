@@ -0,0 +1,177 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.ocsp.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+import org.cesecore.certificates.certificate.CertificateStatus;
+import org.cesecore.certificates.crl.RevokedCertInfo;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test of the in-memory revocation status index used by the OCSP responder.
+ *
+ * @version $Id$
+ */
+public class RevocationStatusIndexTest {
+
+    private static final String ISSUER_DN = "CN=RevocationStatusIndexTest";
+    private static final long REBUILD_INTERVAL = 3600000L;
+    private static final long GRACE_PERIOD = 60000L;
+
+    @Before
+    public void before() {
+        RevocationStatusIndex.INSTANCE.flush();
+    }
+
+    @After
+    public void after() {
+        RevocationStatusIndex.INSTANCE.flush();
+    }
+
+    @Test
+    public void testNotIndexed() {
+        assertNull("Lookup in an empty index should fall back to the database.", RevocationStatusIndex.INSTANCE.getStatus(ISSUER_DN, BigInteger.ONE));
+        final RevocationStatusIndex.Refresh refresh = RevocationStatusIndex.INSTANCE.startRefresh(ISSUER_DN, REBUILD_INTERVAL, GRACE_PERIOD);
+        refresh.add("1", ok(1));
+        assertNull("Lookup before the first rebuild was committed should fall back to the database.",
+                RevocationStatusIndex.INSTANCE.getStatus(ISSUER_DN, BigInteger.ONE));
+        refresh.abort();
+        assertEquals(-1, RevocationStatusIndex.INSTANCE.size(ISSUER_DN));
+    }
+
+    @Test
+    public void testRebuildAndLookup() {
+        final RevocationStatusIndex.Refresh refresh = RevocationStatusIndex.INSTANCE.startRefresh(ISSUER_DN, REBUILD_INTERVAL, GRACE_PERIOD);
+        assertTrue(refresh.isFullRebuild());
+        assertEquals(0, refresh.getMinUpdateTime());
+        refresh.add("1", ok(5));
+        refresh.add("2", revoked(1234567890000L, RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE, 6));
+        refresh.commit();
+        assertEquals(2, RevocationStatusIndex.INSTANCE.size(ISSUER_DN));
+        final CertificateStatus okStatus = RevocationStatusIndex.INSTANCE.getStatus(ISSUER_DN, BigInteger.ONE);
+        assertEquals(CertificateStatus.OK, okStatus);
+        assertEquals(RevokedCertInfo.NOT_REVOKED, okStatus.revocationReason);
+        assertEquals(5, okStatus.certificateProfileId);
+        final CertificateStatus revokedStatus = RevocationStatusIndex.INSTANCE.getStatus(ISSUER_DN, BigInteger.valueOf(2));
+        assertEquals(CertificateStatus.REVOKED, revokedStatus);
+        assertEquals(RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE, revokedStatus.revocationReason);
+        assertEquals(1234567890000L, revokedStatus.revocationDate.getTime());
+        assertEquals(6, revokedStatus.certificateProfileId);
+        assertNull("Unknown serial numbers should be looked up in the database.", RevocationStatusIndex.INSTANCE.getStatus(ISSUER_DN, BigInteger.TEN));
+        assertNull("Other issuers should be looked up in the database.", RevocationStatusIndex.INSTANCE.getStatus("CN=Other", BigInteger.ONE));
+        // The next refresh should be incremental
+        final RevocationStatusIndex.Refresh delta = RevocationStatusIndex.INSTANCE.startRefresh(ISSUER_DN, REBUILD_INTERVAL, GRACE_PERIOD);
+        assertFalse(delta.isFullRebuild());
+        assertTrue(delta.getMinUpdateTime() > 0);
+        delta.add("3", ok(5));
+        delta.commit();
+        assertEquals(CertificateStatus.OK, RevocationStatusIndex.INSTANCE.getStatus(ISSUER_DN, BigInteger.valueOf(3)));
+    }
+
+    @Test
+    public void testInvalidation() {
+        final RevocationStatusIndex.Refresh refresh = RevocationStatusIndex.INSTANCE.startRefresh(ISSUER_DN, REBUILD_INTERVAL, GRACE_PERIOD);
+        refresh.add("1", ok(1));
+        refresh.add("2", ok(1));
+        refresh.commit();
+        RevocationStatusIndex.INSTANCE.invalidate(ISSUER_DN, "1");
+        assertNull("Invalidated entries should be looked up in the database.", RevocationStatusIndex.INSTANCE.getStatus(ISSUER_DN, BigInteger.ONE));
+        assertNotNull(RevocationStatusIndex.INSTANCE.getStatus(ISSUER_DN, BigInteger.valueOf(2)));
+        // Data read within the grace period might have been read before the change was committed and must be ignored
+        final RevocationStatusIndex.Refresh delta = RevocationStatusIndex.INSTANCE.startRefresh(ISSUER_DN, REBUILD_INTERVAL, GRACE_PERIOD);
+        delta.add("1", ok(1));
+        delta.commit();
+        assertNull("Stale data should not replace an invalidation.", RevocationStatusIndex.INSTANCE.getStatus(ISSUER_DN, BigInteger.ONE));
+        // Without any grace period, the data is accepted
+        final RevocationStatusIndex.Refresh delta2 = RevocationStatusIndex.INSTANCE.startRefresh(ISSUER_DN, REBUILD_INTERVAL, 0);
+        delta2.add("1", revoked(1000L, RevokedCertInfo.REVOCATION_REASON_SUPERSEDED, 1));
+        delta2.commit();
+        assertEquals(CertificateStatus.REVOKED, RevocationStatusIndex.INSTANCE.getStatus(ISSUER_DN, BigInteger.ONE));
+    }
+
+    @Test
+    public void testInvalidationDuringRebuild() {
+        final RevocationStatusIndex.Refresh refresh = RevocationStatusIndex.INSTANCE.startRefresh(ISSUER_DN, REBUILD_INTERVAL, GRACE_PERIOD);
+        RevocationStatusIndex.INSTANCE.invalidate(ISSUER_DN, "1");
+        refresh.add("1", ok(1));
+        refresh.add("2", ok(1));
+        refresh.commit();
+        assertNull(RevocationStatusIndex.INSTANCE.getStatus(ISSUER_DN, BigInteger.ONE));
+        assertNotNull(RevocationStatusIndex.INSTANCE.getStatus(ISSUER_DN, BigInteger.valueOf(2)));
+        // Invalidating the issuer discards the index and ongoing rebuilds, and blocks new ones during the grace period
+        final RevocationStatusIndex.Refresh rebuild = RevocationStatusIndex.INSTANCE.startRefresh(ISSUER_DN, 0, GRACE_PERIOD);
+        assertTrue(rebuild.isFullRebuild());
+        RevocationStatusIndex.INSTANCE.invalidateIssuer(ISSUER_DN);
+        rebuild.add("3", ok(1));
+        rebuild.commit();
+        assertNull(RevocationStatusIndex.INSTANCE.getStatus(ISSUER_DN, BigInteger.valueOf(2)));
+        assertNull(RevocationStatusIndex.INSTANCE.getStatus(ISSUER_DN, BigInteger.valueOf(3)));
+        assertNull(RevocationStatusIndex.INSTANCE.startRefresh(ISSUER_DN, REBUILD_INTERVAL, GRACE_PERIOD));
+    }
+
+    @Test
+    public void testManyEntries() {
+        final int count = 100000;
+        final RevocationStatusIndex.Refresh refresh = RevocationStatusIndex.INSTANCE.startRefresh(ISSUER_DN, REBUILD_INTERVAL, GRACE_PERIOD);
+        for (int i = 0; i < count; i++) {
+            // Serial numbers of typical size and with the high bit set, which gives a leading zero in the two's complement encoding
+            final BigInteger serialNumber = BigInteger.valueOf(i).setBit(159);
+            if (i % 10 == 0) {
+                refresh.add(serialNumber.toString(), revoked(i, RevokedCertInfo.REVOCATION_REASON_CESSATIONOFOPERATION, i));
+            } else {
+                refresh.add(serialNumber.toString(), ok(i));
+            }
+        }
+        refresh.commit();
+        assertEquals(count, RevocationStatusIndex.INSTANCE.size(ISSUER_DN));
+        for (int i = 0; i < count; i++) {
+            final CertificateStatus status = RevocationStatusIndex.INSTANCE.getStatus(ISSUER_DN, BigInteger.valueOf(i).setBit(159));
+            assertEquals(i % 10 == 0 ? CertificateStatus.REVOKED : CertificateStatus.OK, status);
+            assertEquals(i, status.certificateProfileId);
+        }
+        assertNull(RevocationStatusIndex.INSTANCE.getStatus(ISSUER_DN, BigInteger.valueOf(count).setBit(159)));
+        RevocationStatusIndex.INSTANCE.retainIssuers(Arrays.asList("CN=Other"));
+        assertEquals(-1, RevocationStatusIndex.INSTANCE.size(ISSUER_DN));
+    }
+
+    @Test
+    public void testUnindexableSerialNumbers() {
+        final BigInteger tooLong = BigInteger.ONE.shiftLeft(170);
+        final RevocationStatusIndex.Refresh refresh = RevocationStatusIndex.INSTANCE.startRefresh(ISSUER_DN, REBUILD_INTERVAL, GRACE_PERIOD);
+        refresh.add(tooLong.toString(), ok(1));
+        refresh.add("-5", ok(1));
+        refresh.add("SE1234", ok(1));
+        refresh.commit();
+        assertEquals(0, RevocationStatusIndex.INSTANCE.size(ISSUER_DN));
+        assertNull(RevocationStatusIndex.INSTANCE.getStatus(ISSUER_DN, tooLong));
+        assertNull(RevocationStatusIndex.INSTANCE.getStatus(ISSUER_DN, BigInteger.valueOf(-5)));
+    }
+
+    private static CertificateStatus ok(final int certificateProfileId) {
+        return new CertificateStatus(CertificateStatus.OK.toString(), -1L, RevokedCertInfo.NOT_REVOKED, certificateProfileId);
+    }
+
+    private static CertificateStatus revoked(final long revocationDate, final int reason, final int certificateProfileId) {
+        return new CertificateStatus(CertificateStatus.REVOKED.toString(), revocationDate, reason, certificateProfileId);
+    }
+}
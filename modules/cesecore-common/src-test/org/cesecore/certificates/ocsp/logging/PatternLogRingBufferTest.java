@@ -0,0 +1,107 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.ocsp.logging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+/**
+ * Tests the lock-free ring buffer used by the asynchronous OCSP log writer.
+ *
+ * @version $Id$
+ */
+public class PatternLogRingBufferTest {
+
+    private static final Logger log = Logger.getLogger(PatternLogRingBufferTest.class);
+    private static final PatternLogTemplate TEMPLATE = PatternLogTemplate.getInstance("\\$\\{(.+?)\\}", "${VALUE}");
+
+    @Test
+    public void testOfferUntilFull() {
+        final PatternLogRingBuffer buffer = new PatternLogRingBuffer(3);
+        assertEquals("Capacity should be rounded up to a power of two.", 4, buffer.capacity());
+        assertNull("Empty buffer should not return any record.", buffer.peek());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(i, buffer.offer(log, TEMPLATE, rows(i), i, -1));
+        }
+        assertEquals("Full buffer should reject records.", -1, buffer.offer(log, TEMPLATE, rows(4), 4, -1));
+        final PatternLogRingBuffer.Record first = buffer.peek();
+        assertNotNull(first);
+        assertEquals(0, first.getReplyTime());
+        assertEquals("0", first.getRows().get(0)[0]);
+        assertEquals(1, buffer.release(first));
+        // The freed record is reused for the next lap
+        assertEquals(4, buffer.offer(log, TEMPLATE, rows(4), 4, -1));
+        for (int i = 1; i <= 4; i++) {
+            final PatternLogRingBuffer.Record record = buffer.peek();
+            assertEquals(String.valueOf(i), record.getRows().get(0)[0]);
+            assertEquals(i + 1, buffer.release(record));
+        }
+        assertNull(buffer.peek());
+    }
+
+    @Test
+    public void testConcurrentProducers() throws InterruptedException {
+        final PatternLogRingBuffer buffer = new PatternLogRingBuffer(64);
+        final int producers = 4;
+        final int recordsPerProducer = 5000;
+        final AtomicInteger rejected = new AtomicInteger();
+        final List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            final int producer = p;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < recordsPerProducer; i++) {
+                    final int value = producer * recordsPerProducer + i;
+                    while (buffer.offer(log, TEMPLATE, rows(value), value, -1) < 0) {
+                        rejected.incrementAndGet();
+                        Thread.yield();
+                    }
+                }
+            }));
+        }
+        for (final Thread thread : threads) {
+            thread.start();
+        }
+        final Set<String> consumed = new HashSet<>();
+        while (consumed.size() < producers * recordsPerProducer) {
+            final PatternLogRingBuffer.Record record = buffer.peek();
+            if (record == null) {
+                Thread.yield();
+                continue;
+            }
+            assertTrue("Record was consumed twice.", consumed.add(record.getRows().get(0)[0]));
+            assertEquals(record.getRows().get(0)[0], String.valueOf(record.getReplyTime()));
+            buffer.release(record);
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(buffer.peek());
+        log.debug("Producers were rejected " + rejected.get() + " times.");
+    }
+
+    private static List<String[]> rows(final int value) {
+        return Collections.singletonList(new String[] { String.valueOf(value) });
+    }
+}
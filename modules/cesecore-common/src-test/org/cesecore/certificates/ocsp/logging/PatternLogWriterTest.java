@@ -0,0 +1,133 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.ocsp.logging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.AppenderSkeleton;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.LoggingEvent;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests stopping the asynchronous OCSP log writer, and the bounded wait for records to be written.
+ *
+ * @version $Id$
+ */
+public class PatternLogWriterTest {
+
+    private static final PatternLogTemplate TEMPLATE = PatternLogTemplate.getInstance("\\$\\{(.+?)\\}", "${VALUE}");
+    private static final Logger testLogger = Logger.getLogger(PatternLogWriterTest.class.getName() + ".output");
+
+    private final List<String> lines = Collections.synchronizedList(new ArrayList<String>());
+    /** Released to let the appender write */
+    private volatile CountDownLatch appenderBlocked = new CountDownLatch(0);
+    private final AppenderSkeleton appender = new AppenderSkeleton() {
+        @Override
+        protected void append(final LoggingEvent event) {
+            try {
+                appenderBlocked.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            lines.add(event.getRenderedMessage());
+        }
+
+        @Override
+        public boolean requiresLayout() {
+            return false;
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    @Before
+    public void setUp() {
+        testLogger.setLevel(Level.DEBUG);
+        testLogger.setAdditivity(false);
+        testLogger.addAppender(appender);
+        PatternLogWriter.INSTANCE.start();
+    }
+
+    @After
+    public void tearDown() {
+        appenderBlocked.countDown();
+        PatternLogWriter.INSTANCE.stop(10000L);
+        PatternLogWriter.INSTANCE.start();
+        testLogger.removeAppender(appender);
+    }
+
+    private static List<String[]> rows(final int value) {
+        return Collections.singletonList(new String[] { String.valueOf(value) });
+    }
+
+    private static boolean isWriterThreadAlive() {
+        for (final Thread thread : Thread.getAllStackTraces().keySet()) {
+            if ("OcspLogWriter".equals(thread.getName()) && thread.isAlive()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Test
+    public void testStopWritesRecordsHandedOver() {
+        final int records = 1000;
+        int handedOver = 0;
+        for (int i = 0; i < records; i++) {
+            if (PatternLogWriter.INSTANCE.write(testLogger, TEMPLATE, rows(i), i, -1) >= 0) {
+                handedOver++;
+            }
+        }
+        assertTrue(handedOver > 0);
+        PatternLogWriter.INSTANCE.stop(10000L);
+        assertEquals("All records handed over should be written when the writer is stopped", handedOver, lines.size());
+        assertFalse("The writer thread should have exited", isWriterThreadAlive());
+        assertEquals("Records should not be accepted while stopped", -1, PatternLogWriter.INSTANCE.write(testLogger, TEMPLATE, rows(-1), 0, -1));
+        assertFalse("Writing while stopped should not start the writer thread", isWriterThreadAlive());
+        // The writer thread is started again by the first write after start
+        PatternLogWriter.INSTANCE.start();
+        final long sequence = PatternLogWriter.INSTANCE.write(testLogger, TEMPLATE, rows(records), records, -1);
+        assertEquals("The sequence numbers should restart with the new buffer", 0, sequence);
+        assertTrue(PatternLogWriter.INSTANCE.awaitWritten(sequence, 10000L));
+        assertEquals(String.valueOf(records), lines.get(lines.size() - 1));
+    }
+
+    @Test
+    public void testAwaitWrittenIsBounded() {
+        appenderBlocked = new CountDownLatch(1);
+        final long sequence = PatternLogWriter.INSTANCE.write(testLogger, TEMPLATE, rows(1), 1, -1);
+        assertTrue(sequence >= 0);
+        final long start = System.currentTimeMillis();
+        assertFalse("A record that the appender has not written should not be reported as written",
+                PatternLogWriter.INSTANCE.awaitWritten(sequence, 200L));
+        final long waited = System.currentTimeMillis() - start;
+        assertTrue("The wait should end after the timeout, but took " + waited + " ms", waited >= 200L && waited < 5000L);
+        appenderBlocked.countDown();
+        assertTrue(PatternLogWriter.INSTANCE.awaitWritten(sequence, 10000L));
+        assertEquals(Collections.singletonList("1"), lines);
+    }
+}
@@ -13,9 +13,13 @@
 
 package org.cesecore.certificates.ocsp.logging;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.apache.log4j.Logger;
 import org.junit.Test;
@@ -43,6 +47,20 @@ public class PatternLoggerTest {
         log.trace("<testPatternLogger");
     }
 
+    /** Rows are captured when written and the reply time is inserted when they are formatted. */
+    @Test
+    public void testFormatCapturedRows() {
+        final PatternLogTemplate template = PatternLogTemplate.getInstance("\\$\\{(.+?)\\}", "${VAR1};${" + PatternLogger.REPLY_TIME + "};${UNSET}");
+        final Map<String, String> values = new HashMap<>();
+        values.put("VAR1", "a$1\\b");
+        values.put(PatternLogger.REPLY_TIME, PatternLogger.REPLY_TIME);
+        final String[] first = template.capture(values);
+        values.put("VAR1", "second");
+        final String[] second = template.capture(values);
+        final String output = PatternLogger.format(template, Arrays.asList(first, second), 42, -1);
+        assertEquals("a$1\\b;42;${UNSET}" + System.lineSeparator() + "second;42;${UNSET}", output);
+    }
+
     /** Helper method that replaces all ${VARx} where x={0..10} with "contentx" and asserts that the result is the expected using regexp. */
     private void testPatternLoggerInternal(String pattern, String dateFormat, String timeZone, String expected) throws Exception {
         log.trace(">testPatternLoggerInternal");
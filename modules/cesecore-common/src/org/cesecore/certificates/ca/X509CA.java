@@ -13,7 +13,9 @@
 package org.cesecore.certificates.ca;
 
 import java.io.IOException;
+import java.security.SignatureException;
 import java.security.cert.Certificate;
+import java.util.Collection;
 import java.util.List;
 
 import org.bouncycastle.asn1.x509.Extension;
@@ -21,6 +23,7 @@ import org.bouncycastle.asn1.x509.ExtensionsGenerator;
 import org.cesecore.certificates.certificate.certextensions.AvailableCustomCertificateExtensionsConfiguration;
 import org.cesecore.certificates.certificateprofile.CertificatePolicy;
 import org.cesecore.certificates.certificateprofile.CertificateProfile;
+import org.cesecore.certificates.crl.RevokedCertInfo;
 import org.cesecore.keys.token.CryptoToken;
 import org.cesecore.keys.token.CryptoTokenOfflineException;
 
@@ -181,5 +184,27 @@ public interface X509CA extends CA {
 
     void setRequestPreProcessor(final String preProcessorClass);
 
+    /**
+     * Generates a CRL and returns it DER encoded, without decoding it into a {@link org.bouncycastle.cert.X509CRLHolder}. Prefer this over
+     * {@link #generateCRL(CryptoToken, int, Collection, int, Certificate)} for CRLs that are only going to be stored and published.
+     *
+     * @param cryptoToken the crypto token with the key used to sign the CRL
+     * @param crlPartitionIndex CRL partition index, or CertificateConstants.NO_CRL_PARTITION if partitioning is not used
+     * @param certs the revoked certificates to include in the CRL
+     * @param crlnumber the CRL number of the CRL
+     * @param partitionCaCert CA certificate to verify the CRL against (mainly used for MS compatible CAs), or null
+     * @return the DER encoded CRL
+     */
+    byte[] generateEncodedCRL(CryptoToken cryptoToken, int crlPartitionIndex, Collection<RevokedCertInfo> certs, int crlnumber, Certificate partitionCaCert)
+            throws CryptoTokenOfflineException, IOException, SignatureException;
+
+    /**
+     * Generates a delta CRL and returns it DER encoded, see {@link #generateEncodedCRL(CryptoToken, int, Collection, int, Certificate)}.
+     *
+     * @param basecrlnumber the CRL number of the base CRL that the delta CRL refers to
+     */
+    byte[] generateEncodedDeltaCRL(CryptoToken cryptoToken, int crlPartitionIndex, Collection<RevokedCertInfo> certs, int crlnumber, int basecrlnumber,
+            Certificate latestCaCertForParition) throws CryptoTokenOfflineException, IOException, SignatureException;
+
 
 }
\ No newline at end of file
@@ -0,0 +1,347 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.crl;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.math.BigInteger;
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Collection of revoked certificates stored column by column in primitive arrays.
+ * <p>
+ * Serial numbers and fingerprints are kept back to back in one byte array each, and revocation dates, expire dates and reasons in
+ * one array each, so a collection with a million entries consists of a handful of objects. Fingerprints in lower case hex, as stored in
+ * the database, are packed to half their size.
+ * <p>
+ * Iterating the collection creates a new {@link RevokedCertInfo} for each entry. Code that processes many entries, such as CRL
+ * generation, should read the columns by index instead, which does not allocate any objects. Modifying a RevokedCertInfo returned by
+ * the iterator does not modify the collection.
+ * <p>
+ * The implementation is not thread safe.
+ *
+ * @version $Id$
+ */
+public class RevokedCertInfoCollection extends AbstractCollection<RevokedCertInfo> implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int INITIAL_CAPACITY = 16;
+    /** Length of a SHA-1 fingerprint in hex */
+    private static final int FINGERPRINT_LENGTH = 40;
+
+    private int size;
+    /** Serial number i is stored in serialNumbers[serialNumberOffsets[i]] to serialNumbers[serialNumberOffsets[i+1]-1], as BigInteger.toByteArray() */
+    private int[] serialNumberOffsets;
+    private byte[] serialNumbers;
+    /** Fingerprint i is stored in fingerprints[fingerprintOffsets[i]] to fingerprints[fingerprintOffsets[i+1]-1] */
+    private int[] fingerprintOffsets;
+    private byte[] fingerprints;
+    /** Entries with their fingerprint packed from hex to binary */
+    private BitSet packedFingerprints;
+    /** Entries without fingerprint */
+    private BitSet missingFingerprints;
+    private long[] revocationDates;
+    private long[] expireDates;
+    private byte[] reasons;
+
+    public RevokedCertInfoCollection() {
+        this(INITIAL_CAPACITY);
+    }
+
+    /** @param expectedSize the number of entries to allocate space for */
+    public RevokedCertInfoCollection(final int expectedSize) {
+        allocate(Math.max(1, expectedSize));
+    }
+
+    /**
+     * @return the collection itself if it is a RevokedCertInfoCollection, or a copy of it otherwise
+     */
+    public static RevokedCertInfoCollection valueOf(final Collection<RevokedCertInfo> revokedCertInfos) {
+        if (revokedCertInfos instanceof RevokedCertInfoCollection) {
+            return (RevokedCertInfoCollection) revokedCertInfos;
+        }
+        final RevokedCertInfoCollection ret = new RevokedCertInfoCollection(revokedCertInfos.size());
+        ret.addAll(revokedCertInfos);
+        ret.closeForWrite();
+        return ret;
+    }
+
+    private void allocate(final int capacity) {
+        serialNumberOffsets = new int[capacity + 1];
+        serialNumbers = new byte[capacity * 10];
+        fingerprintOffsets = new int[capacity + 1];
+        fingerprints = new byte[capacity * FINGERPRINT_LENGTH / 2];
+        packedFingerprints = new BitSet();
+        missingFingerprints = new BitSet();
+        revocationDates = new long[capacity];
+        expireDates = new long[capacity];
+        reasons = new byte[capacity];
+    }
+
+    @Override
+    public boolean add(final RevokedCertInfo revokedCertInfo) {
+        if (revokedCertInfo == null) {
+            return false;
+        }
+        final BigInteger serialNumber = revokedCertInfo.getUserCertificate();
+        if (serialNumber == null) {
+            throw new IllegalArgumentException("Revoked certificate without serial number.");
+        }
+        final String fingerprint = revokedCertInfo.getCertificateFingerprint();
+        add(fingerprint == null ? null : fingerprint.getBytes(), serialNumber.toByteArray(),
+                revokedCertInfo.isRevocationDateSet() ? revokedCertInfo.getRevocationDate().getTime() : 0, revokedCertInfo.getReason(),
+                revokedCertInfo.getExpireDate() == null ? 0 : revokedCertInfo.getExpireDate().getTime());
+        return true;
+    }
+
+    /**
+     * Add an entry without creating a RevokedCertInfo. The parameters are the same as for
+     * {@link RevokedCertInfo#RevokedCertInfo(byte[], byte[], long, int, long)}.
+     *
+     * @param fingerprint fingerprint in byte format, String.getBytes(), or null
+     * @param serialNumber serial number in byte format, BigInteger.toByteArray()
+     * @param revocationDate revocation date in milliseconds since epoch, or 0 if not set
+     * @param reason the revocation reason
+     * @param expireDate expire date in milliseconds since epoch, or 0 if not set
+     */
+    public void add(final byte[] fingerprint, final byte[] serialNumber, final long revocationDate, final int reason, final long expireDate) {
+        if (reason < Byte.MIN_VALUE || reason > Byte.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid revocation reason " + reason + ".");
+        }
+        growIfFull();
+        serialNumbers = append(serialNumbers, serialNumberOffsets[size], serialNumber, serialNumber.length);
+        serialNumberOffsets[size + 1] = serialNumberOffsets[size] + serialNumber.length;
+        int fingerprintLength = 0;
+        if (fingerprint == null) {
+            missingFingerprints.set(size);
+        } else if (isLowerCaseHex(fingerprint)) {
+            fingerprintLength = fingerprint.length / 2;
+            fingerprints = ensureCapacity(fingerprints, fingerprintOffsets[size] + fingerprintLength);
+            for (int i = 0; i < fingerprintLength; i++) {
+                fingerprints[fingerprintOffsets[size] + i] = (byte) (Character.digit(fingerprint[2 * i], 16) << 4 | Character.digit(fingerprint[2 * i + 1], 16));
+            }
+            packedFingerprints.set(size);
+        } else {
+            fingerprintLength = fingerprint.length;
+            fingerprints = append(fingerprints, fingerprintOffsets[size], fingerprint, fingerprintLength);
+        }
+        fingerprintOffsets[size + 1] = fingerprintOffsets[size] + fingerprintLength;
+        revocationDates[size] = revocationDate;
+        expireDates[size] = expireDate;
+        reasons[size] = (byte) reason;
+        size++;
+    }
+
+    /**
+     * Add a copy of entry <code>index</code> of another collection, without decoding its serial number and fingerprint.
+     *
+     * @param source the collection to copy from
+     * @param index the index of the entry in <code>source</code>
+     */
+    public void add(final RevokedCertInfoCollection source, final int index) {
+        source.checkIndex(index);
+        growIfFull();
+        final int serialNumberOffset = source.serialNumberOffsets[index];
+        final int serialNumberLength = source.serialNumberOffsets[index + 1] - serialNumberOffset;
+        serialNumbers = ensureCapacity(serialNumbers, serialNumberOffsets[size] + serialNumberLength);
+        System.arraycopy(source.serialNumbers, serialNumberOffset, serialNumbers, serialNumberOffsets[size], serialNumberLength);
+        serialNumberOffsets[size + 1] = serialNumberOffsets[size] + serialNumberLength;
+        final int fingerprintOffset = source.fingerprintOffsets[index];
+        final int fingerprintLength = source.fingerprintOffsets[index + 1] - fingerprintOffset;
+        fingerprints = ensureCapacity(fingerprints, fingerprintOffsets[size] + fingerprintLength);
+        System.arraycopy(source.fingerprints, fingerprintOffset, fingerprints, fingerprintOffsets[size], fingerprintLength);
+        fingerprintOffsets[size + 1] = fingerprintOffsets[size] + fingerprintLength;
+        packedFingerprints.set(size, source.packedFingerprints.get(index));
+        missingFingerprints.set(size, source.missingFingerprints.get(index));
+        revocationDates[size] = source.revocationDates[index];
+        expireDates[size] = source.expireDates[index];
+        reasons[size] = source.reasons[index];
+        size++;
+    }
+
+    private void growIfFull() {
+        if (size == revocationDates.length) {
+            final int capacity = size + Math.max(INITIAL_CAPACITY, size >> 1);
+            serialNumberOffsets = Arrays.copyOf(serialNumberOffsets, capacity + 1);
+            fingerprintOffsets = Arrays.copyOf(fingerprintOffsets, capacity + 1);
+            revocationDates = Arrays.copyOf(revocationDates, capacity);
+            expireDates = Arrays.copyOf(expireDates, capacity);
+            reasons = Arrays.copyOf(reasons, capacity);
+        }
+    }
+
+    private static boolean isLowerCaseHex(final byte[] fingerprint) {
+        if (fingerprint.length % 2 != 0) {
+            return false;
+        }
+        for (final byte b : fingerprint) {
+            if (!(b >= '0' && b <= '9') && !(b >= 'a' && b <= 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] ensureCapacity(final byte[] array, final int capacity) {
+        if (array.length >= capacity) {
+            return array;
+        }
+        return Arrays.copyOf(array, Math.max(capacity, array.length + (array.length >> 1)));
+    }
+
+    private static byte[] append(final byte[] array, final int position, final byte[] data, final int length) {
+        final byte[] ret = ensureCapacity(array, position + length);
+        System.arraycopy(data, 0, ret, position, length);
+        return ret;
+    }
+
+    /** Release unused capacity. Entries can still be added afterwards. */
+    public void closeForWrite() {
+        if (revocationDates.length != size) {
+            final int capacity = Math.max(1, size);
+            serialNumberOffsets = Arrays.copyOf(serialNumberOffsets, capacity + 1);
+            fingerprintOffsets = Arrays.copyOf(fingerprintOffsets, capacity + 1);
+            revocationDates = Arrays.copyOf(revocationDates, capacity);
+            expireDates = Arrays.copyOf(expireDates, capacity);
+            reasons = Arrays.copyOf(reasons, capacity);
+        }
+        serialNumbers = Arrays.copyOf(serialNumbers, serialNumberOffsets[size]);
+        fingerprints = Arrays.copyOf(fingerprints, fingerprintOffsets[size]);
+    }
+
+    @Override
+    public void clear() {
+        size = 0;
+        allocate(INITIAL_CAPACITY);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /** @return the buffer holding all serial numbers, which must not be modified. See {@link #getSerialNumberOffset(int)}. */
+    public byte[] getSerialNumberBuffer() {
+        return serialNumbers;
+    }
+
+    /** @return the offset of the serial number of entry <code>index</code> in {@link #getSerialNumberBuffer()} */
+    public int getSerialNumberOffset(final int index) {
+        checkIndex(index);
+        return serialNumberOffsets[index];
+    }
+
+    /** @return the length of the serial number of entry <code>index</code> in {@link #getSerialNumberBuffer()}, in BigInteger.toByteArray() format */
+    public int getSerialNumberLength(final int index) {
+        checkIndex(index);
+        return serialNumberOffsets[index + 1] - serialNumberOffsets[index];
+    }
+
+    public BigInteger getSerialNumber(final int index) {
+        return new BigInteger(Arrays.copyOfRange(serialNumbers, getSerialNumberOffset(index), serialNumberOffsets[index + 1]));
+    }
+
+    /** @return the fingerprint of entry <code>index</code>, or null if it has no fingerprint */
+    public String getCertificateFingerprint(final int index) {
+        final byte[] fingerprint = getFingerprintBytes(index);
+        return fingerprint == null ? null : new String(fingerprint);
+    }
+
+    private byte[] getFingerprintBytes(final int index) {
+        checkIndex(index);
+        if (missingFingerprints.get(index)) {
+            return null;
+        }
+        final int offset = fingerprintOffsets[index];
+        final int length = fingerprintOffsets[index + 1] - offset;
+        if (!packedFingerprints.get(index)) {
+            return Arrays.copyOfRange(fingerprints, offset, offset + length);
+        }
+        final byte[] ret = new byte[length * 2];
+        for (int i = 0; i < length; i++) {
+            ret[2 * i] = (byte) Character.forDigit((fingerprints[offset + i] >> 4) & 0xf, 16);
+            ret[2 * i + 1] = (byte) Character.forDigit(fingerprints[offset + i] & 0xf, 16);
+        }
+        return ret;
+    }
+
+    /** @return the revocation date of entry <code>index</code> in milliseconds since epoch, or 0 if not set */
+    public long getRevocationDate(final int index) {
+        checkIndex(index);
+        return revocationDates[index];
+    }
+
+    /** Set the revocation date of entry <code>index</code>, in milliseconds since epoch */
+    public void setRevocationDate(final int index, final long revocationDate) {
+        checkIndex(index);
+        revocationDates[index] = revocationDate;
+    }
+
+    /** @return the expire date of entry <code>index</code> in milliseconds since epoch, or 0 if not set */
+    public long getExpireDate(final int index) {
+        checkIndex(index);
+        return expireDates[index];
+    }
+
+    /** @return the revocation reason of entry <code>index</code> */
+    public int getReason(final int index) {
+        checkIndex(index);
+        return reasons[index];
+    }
+
+    /** @return a new RevokedCertInfo with a copy of entry <code>index</code> */
+    public RevokedCertInfo get(final int index) {
+        final int offset = getSerialNumberOffset(index);
+        return new RevokedCertInfo(getFingerprintBytes(index), Arrays.copyOfRange(serialNumbers, offset, serialNumberOffsets[index + 1]),
+                revocationDates[index], reasons[index], expireDates[index]);
+    }
+
+    private void checkIndex(final int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " is out of bounds for " + size + " entries.");
+        }
+    }
+
+    @Override
+    public Iterator<RevokedCertInfo> iterator() {
+        return new Iterator<RevokedCertInfo>() {
+            private int next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return next < size;
+            }
+
+            @Override
+            public RevokedCertInfo next() {
+                if (next >= size) {
+                    throw new NoSuchElementException();
+                }
+                return get(next++);
+            }
+        };
+    }
+
+    private void writeObject(final ObjectOutputStream out) throws IOException {
+        // Don't serialize unused capacity
+        closeForWrite();
+        out.defaultWriteObject();
+    }
+}
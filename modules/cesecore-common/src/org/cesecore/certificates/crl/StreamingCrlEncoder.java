@@ -0,0 +1,472 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.crl;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+
+import org.bouncycastle.asn1.ASN1BitString;
+import org.bouncycastle.asn1.ASN1Encodable;
+import org.bouncycastle.asn1.ASN1Encoding;
+import org.bouncycastle.asn1.ASN1GeneralizedTime;
+import org.bouncycastle.asn1.ASN1InputStream;
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.ASN1Primitive;
+import org.bouncycastle.asn1.ASN1SequenceParser;
+import org.bouncycastle.asn1.ASN1StreamParser;
+import org.bouncycastle.asn1.ASN1UTCTime;
+import org.bouncycastle.asn1.BERTags;
+import org.bouncycastle.asn1.DERBitString;
+import org.bouncycastle.asn1.DEROctetString;
+import org.bouncycastle.asn1.DERSequence;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.asn1.x509.CRLReason;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.Extensions;
+import org.bouncycastle.asn1.x509.ExtensionsGenerator;
+import org.bouncycastle.asn1.x509.Time;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.ContentVerifier;
+import org.bouncycastle.operator.ContentVerifierProvider;
+import org.bouncycastle.operator.OperatorCreationException;
+
+/**
+ * Encodes and signs a version 2 X.509 CRL without building the ASN.1 structure of the revoked certificates in memory.
+ * <p>
+ * The output is identical to the DER produced by BouncyCastle's X509v2CRLBuilder for the same input. The revoked certificates are
+ * iterated twice, once to calculate the length of the CRL and once to encode the entries one by one directly into the CRL, while
+ * the encoded TBSCertList is fed to the signer. This way the heap needed for a CRL is a small multiple of its encoded size, instead
+ * of the size of hundreds of bytes of ASN.1 objects for every entry.
+ *
+ * @version $Id$
+ */
+public class StreamingCrlEncoder {
+
+    private static final int MAX_FIXED_REASON = 10;
+    /** Encoded crlEntryExtensions with only the reasonCode extension, as added by X509v2CRLBuilder, indexed by reason code */
+    private static final byte[][] REASON_EXTENSIONS = new byte[MAX_FIXED_REASON + 1][];
+    static {
+        for (int reason = 1; reason <= MAX_FIXED_REASON; reason++) {
+            REASON_EXTENSIONS[reason] = createReasonExtensions(reason);
+        }
+    }
+
+    private final X500Name issuer;
+    private final Date thisUpdate;
+    private Date nextUpdate;
+    private final ExtensionsGenerator extensionsGenerator = new ExtensionsGenerator();
+    private Collection<RevokedCertInfo> revokedCertificates = Collections.emptyList();
+    /** Scratch buffer for the entry being encoded, grows when needed */
+    private byte[] entryBuffer = new byte[128];
+
+    /**
+     * @param issuer the issuer of the CRL
+     * @param thisUpdate the time of this update
+     */
+    public StreamingCrlEncoder(final X500Name issuer, final Date thisUpdate) {
+        this.issuer = issuer;
+        this.thisUpdate = thisUpdate;
+    }
+
+    /** @param nextUpdate the time of the next update, or null to leave it out */
+    public void setNextUpdate(final Date nextUpdate) {
+        this.nextUpdate = nextUpdate;
+    }
+
+    /** Add a CRL extension, in the same way as X509v2CRLBuilder.addExtension. */
+    public void addExtension(final ASN1ObjectIdentifier oid, final boolean critical, final ASN1Encodable value) throws IOException {
+        extensionsGenerator.addExtension(oid, critical, value);
+    }
+
+    /**
+     * @param revokedCertificates the entries of the CRL, in the order they should be written. The collection is iterated twice, and
+     * must return the same entries both times.
+     */
+    public void setRevokedCertificates(final Collection<RevokedCertInfo> revokedCertificates) {
+        this.revokedCertificates = revokedCertificates == null ? Collections.<RevokedCertInfo>emptyList() : revokedCertificates;
+    }
+
+    /**
+     * Encode and sign the CRL.
+     *
+     * @param signer the signer to sign the CRL with. The encoded TBSCertList is written to its output stream as it is produced.
+     * @return the DER encoded CRL
+     * @throws IOException if the CRL could not be encoded, or would be larger than 2 GiB
+     */
+    public byte[] build(final ContentSigner signer) throws IOException {
+        final byte[] signatureAlgorithm = signer.getAlgorithmIdentifier().getEncoded(ASN1Encoding.DER);
+        final byte[] version = new ASN1Integer(1).getEncoded(ASN1Encoding.DER);
+        final byte[] encodedIssuer = issuer.getEncoded(ASN1Encoding.DER);
+        final byte[] encodedThisUpdate = new Time(thisUpdate).getEncoded(ASN1Encoding.DER);
+        final byte[] encodedNextUpdate = nextUpdate == null ? null : new Time(nextUpdate).getEncoded(ASN1Encoding.DER);
+        final byte[] extensions = extensionsGenerator.isEmpty() ? null : extensionsGenerator.generate().getEncoded(ASN1Encoding.DER);
+        // First pass, calculate the length of the revokedCertificates sequence
+        long entriesLength = 0;
+        int entryCount = 0;
+        if (revokedCertificates instanceof RevokedCertInfoCollection) {
+            final RevokedCertInfoCollection columns = (RevokedCertInfoCollection) revokedCertificates;
+            for (; entryCount < columns.size(); entryCount++) {
+                entriesLength += encodeEntry(columns, entryCount);
+            }
+        } else {
+            for (final RevokedCertInfo revokedCertInfo : revokedCertificates) {
+                entriesLength += encodeEntry(revokedCertInfo);
+                entryCount++;
+            }
+        }
+        long tbsContentLength = version.length + signatureAlgorithm.length + encodedIssuer.length + encodedThisUpdate.length;
+        if (encodedNextUpdate != null) {
+            tbsContentLength += encodedNextUpdate.length;
+        }
+        if (entryCount > 0) {
+            tbsContentLength += getHeaderLength(entriesLength) + entriesLength;
+        }
+        if (extensions != null) {
+            tbsContentLength += getHeaderLength(extensions.length) + extensions.length;
+        }
+        final long tbsLength = getHeaderLength(tbsContentLength) + tbsContentLength;
+        if (tbsLength > Integer.MAX_VALUE - 1024) {
+            throw new IOException("The CRL with " + entryCount + " entries would be too large to encode (" + tbsLength + " bytes).");
+        }
+        // Second pass, write the TBSCertList to the signer and to a buffer
+        final byte[] tbsCertList = new byte[(int) tbsLength];
+        try (final TbsOutputStream out = new TbsOutputStream(tbsCertList, signer.getOutputStream())) {
+            out.writeHeader(BERTags.SEQUENCE | BERTags.CONSTRUCTED, tbsContentLength);
+            out.write(version);
+            out.write(signatureAlgorithm);
+            out.write(encodedIssuer);
+            out.write(encodedThisUpdate);
+            if (encodedNextUpdate != null) {
+                out.write(encodedNextUpdate);
+            }
+            if (entryCount > 0) {
+                out.writeHeader(BERTags.SEQUENCE | BERTags.CONSTRUCTED, entriesLength);
+                int writtenEntries = 0;
+                if (revokedCertificates instanceof RevokedCertInfoCollection) {
+                    final RevokedCertInfoCollection columns = (RevokedCertInfoCollection) revokedCertificates;
+                    for (; writtenEntries < columns.size(); writtenEntries++) {
+                        out.write(entryBuffer, 0, encodeEntry(columns, writtenEntries));
+                    }
+                } else {
+                    for (final RevokedCertInfo revokedCertInfo : revokedCertificates) {
+                        out.write(entryBuffer, 0, encodeEntry(revokedCertInfo));
+                        writtenEntries++;
+                    }
+                }
+                if (writtenEntries != entryCount) {
+                    throw new IOException("The revoked certificates changed while the CRL was encoded.");
+                }
+            }
+            if (extensions != null) {
+                out.writeHeader(BERTags.TAGGED | BERTags.CONSTRUCTED, extensions.length);
+                out.write(extensions);
+            }
+            if (out.getPosition() != tbsCertList.length) {
+                throw new IOException("Encoded " + out.getPosition() + " bytes of TBSCertList, expected " + tbsCertList.length + ".");
+            }
+        }
+        final byte[] signature = signer.getSignature();
+        // CertificateList ::= SEQUENCE { tbsCertList, signatureAlgorithm, signatureValue BIT STRING }
+        final long signatureValueLength = 1L + signature.length;
+        final long crlContentLength = tbsLength + signatureAlgorithm.length + getHeaderLength(signatureValueLength) + signatureValueLength;
+        final byte[] crl = new byte[(int) (getHeaderLength(crlContentLength) + crlContentLength)];
+        int position = writeHeader(crl, 0, BERTags.SEQUENCE | BERTags.CONSTRUCTED, crlContentLength);
+        System.arraycopy(tbsCertList, 0, crl, position, tbsCertList.length);
+        position += tbsCertList.length;
+        System.arraycopy(signatureAlgorithm, 0, crl, position, signatureAlgorithm.length);
+        position += signatureAlgorithm.length;
+        position = writeHeader(crl, position, BERTags.BIT_STRING, signatureValueLength);
+        crl[position++] = 0; // No unused bits
+        System.arraycopy(signature, 0, crl, position, signature.length);
+        return crl;
+    }
+
+    /**
+     * Verify the signature of a DER encoded CRL, without decoding the revoked certificates.
+     *
+     * @param crl a DER encoded CRL
+     * @param verifierProvider provider of a verifier with the public key of the issuer
+     * @return true if the signature is valid
+     * @throws IOException if the CRL could not be parsed
+     * @throws OperatorCreationException if the signature algorithm of the CRL is not supported
+     */
+    public static boolean verify(final byte[] crl, final ContentVerifierProvider verifierProvider) throws IOException, OperatorCreationException {
+        final int tbsCertListOffset = getContentOffset(crl, 0);
+        final int tbsCertListEnd = getContentOffset(crl, tbsCertListOffset) + getContentLength(crl, tbsCertListOffset);
+        final AlgorithmIdentifier signatureAlgorithm;
+        final ASN1BitString signature;
+        try (final ASN1InputStream in = new ASN1InputStream(new ByteArrayInputStream(crl, tbsCertListEnd, crl.length - tbsCertListEnd))) {
+            signatureAlgorithm = AlgorithmIdentifier.getInstance(in.readObject());
+            signature = DERBitString.getInstance(in.readObject());
+        }
+        final ContentVerifier verifier = verifierProvider.get(signatureAlgorithm);
+        try (final OutputStream out = verifier.getOutputStream()) {
+            out.write(crl, tbsCertListOffset, tbsCertListEnd - tbsCertListOffset);
+        }
+        return verifier.verify(signature.getOctets());
+    }
+
+    /**
+     * Read the issuer and update times of a DER encoded CRL, without decoding the revoked certificates.
+     *
+     * @param crl a DER encoded CRL
+     * @return the issuer and update times of the CRL
+     * @throws IOException if the CRL could not be parsed
+     */
+    public static Header readHeader(final byte[] crl) throws IOException {
+        final ASN1SequenceParser certificateList = (ASN1SequenceParser) new ASN1StreamParser(crl).readObject();
+        final ASN1SequenceParser tbsCertList = (ASN1SequenceParser) certificateList.readObject();
+        ASN1Encodable current = tbsCertList.readObject();
+        if (current instanceof ASN1Integer) {
+            // Skip the version
+            current = tbsCertList.readObject();
+        }
+        // Read past the signature algorithm
+        current.toASN1Primitive();
+        final X500Name crlIssuer = X500Name.getInstance(tbsCertList.readObject().toASN1Primitive());
+        final Date crlThisUpdate = Time.getInstance(tbsCertList.readObject().toASN1Primitive()).getDate();
+        // The next update is optional, and is followed by the revoked certificates and extensions which are not read
+        current = tbsCertList.readObject();
+        final Date crlNextUpdate = current instanceof ASN1UTCTime || current instanceof ASN1GeneralizedTime ? Time.getInstance(current).getDate() : null;
+        return new Header(crlIssuer, crlThisUpdate, crlNextUpdate);
+    }
+
+    /** The issuer and update times of a CRL. */
+    public static class Header {
+        private final X500Name issuer;
+        private final Date thisUpdate;
+        private final Date nextUpdate;
+
+        private Header(final X500Name issuer, final Date thisUpdate, final Date nextUpdate) {
+            this.issuer = issuer;
+            this.thisUpdate = thisUpdate;
+            this.nextUpdate = nextUpdate;
+        }
+
+        public X500Name getIssuer() { return issuer; }
+
+        public Date getThisUpdate() { return thisUpdate; }
+
+        /** @return the next update, or null if the CRL has none */
+        public Date getNextUpdate() { return nextUpdate; }
+    }
+
+    /**
+     * Read the CRL number extension of a DER encoded CRL, without decoding the revoked certificates.
+     *
+     * @param crl a DER encoded CRL
+     * @return the CRL number, or null if the CRL has no CRL number extension
+     * @throws IOException if the CRL could not be parsed
+     */
+    public static BigInteger readCrlNumber(final byte[] crl) throws IOException {
+        final int tbsCertListOffset = getContentOffset(crl, 0);
+        final int tbsCertListEnd = getContentOffset(crl, tbsCertListOffset) + getContentLength(crl, tbsCertListOffset);
+        // Skip over the elements of the TBSCertList until the explicitly tagged crlExtensions, which is always the last element
+        int position = getContentOffset(crl, tbsCertListOffset);
+        while (position < tbsCertListEnd) {
+            final int contentOffset = getContentOffset(crl, position);
+            final int end = contentOffset + getContentLength(crl, position);
+            if ((crl[position] & 0xff) == (BERTags.TAGGED | BERTags.CONSTRUCTED)) {
+                final Extensions extensions = Extensions.getInstance(ASN1Primitive.fromByteArray(Arrays.copyOfRange(crl, contentOffset, end)));
+                final Extension crlNumber = extensions.getExtension(Extension.cRLNumber);
+                return crlNumber == null ? null : ASN1Integer.getInstance(crlNumber.getParsedValue()).getValue();
+            }
+            position = end;
+        }
+        return null;
+    }
+
+    /**
+     * Encode a revokedCertificates entry into the entry buffer, in the same way as X509v2CRLBuilder.addCRLEntry(BigInteger, Date, int).
+     *
+     * @return the length of the encoded entry
+     */
+    private int encodeEntry(final RevokedCertInfo revokedCertInfo) throws IOException {
+        final byte[] serialNumber = revokedCertInfo.getUserCertificate().toByteArray();
+        return encodeEntry(serialNumber, 0, serialNumber.length, revokedCertInfo.getRevocationDate().getTime(), revokedCertInfo.getReason());
+    }
+
+    /** Encode entry <code>index</code> of a columnar collection into the entry buffer, without creating a RevokedCertInfo and BigInteger for it. */
+    private int encodeEntry(final RevokedCertInfoCollection columns, final int index) throws IOException {
+        final long revocationDate = columns.getRevocationDate(index);
+        if (revocationDate == 0) {
+            throw new IllegalArgumentException("revocation date not set for entry " + index);
+        }
+        return encodeEntry(columns.getSerialNumberBuffer(), columns.getSerialNumberOffset(index), columns.getSerialNumberLength(index),
+                revocationDate, columns.getReason(index));
+    }
+
+    private int encodeEntry(final byte[] serialNumbers, final int serialNumberOffset, final int serialNumberLength, final long revocationDate,
+            final int reason) throws IOException {
+        if (reason < 0) {
+            throw new IllegalArgumentException("invalid reason value: " + reason);
+        }
+        final byte[] reasonExtensions = reason == 0 ? null : reason <= MAX_FIXED_REASON ? REASON_EXTENSIONS[reason] : createReasonExtensions(reason);
+        final LocalDateTime revocationTime = LocalDateTime.ofEpochSecond(Math.floorDiv(revocationDate, 1000L), 0, ZoneOffset.UTC);
+        final byte[] generalizedTime = revocationTime.getYear() < 1950 || revocationTime.getYear() > 2049
+                ? new Time(new Date(revocationDate)).getEncoded(ASN1Encoding.DER) : null;
+        final int timeLength = generalizedTime != null ? generalizedTime.length : 15;
+        final long contentLength = getHeaderLength(serialNumberLength) + serialNumberLength + timeLength
+                + (reasonExtensions == null ? 0 : reasonExtensions.length);
+        final int entryLength = (int) (getHeaderLength(contentLength) + contentLength);
+        if (entryBuffer.length < entryLength) {
+            entryBuffer = new byte[Math.max(entryLength, entryBuffer.length * 2)];
+        }
+        int position = writeHeader(entryBuffer, 0, BERTags.SEQUENCE | BERTags.CONSTRUCTED, contentLength);
+        position = writeHeader(entryBuffer, position, BERTags.INTEGER, serialNumberLength);
+        System.arraycopy(serialNumbers, serialNumberOffset, entryBuffer, position, serialNumberLength);
+        position += serialNumberLength;
+        if (generalizedTime != null) {
+            System.arraycopy(generalizedTime, 0, entryBuffer, position, generalizedTime.length);
+            position += generalizedTime.length;
+        } else {
+            // UTCTime YYMMDDHHMMSSZ
+            entryBuffer[position++] = BERTags.UTC_TIME;
+            entryBuffer[position++] = 13;
+            position = writeTwoDigits(entryBuffer, position, revocationTime.getYear() % 100);
+            position = writeTwoDigits(entryBuffer, position, revocationTime.getMonthValue());
+            position = writeTwoDigits(entryBuffer, position, revocationTime.getDayOfMonth());
+            position = writeTwoDigits(entryBuffer, position, revocationTime.getHour());
+            position = writeTwoDigits(entryBuffer, position, revocationTime.getMinute());
+            position = writeTwoDigits(entryBuffer, position, revocationTime.getSecond());
+            entryBuffer[position++] = 'Z';
+        }
+        if (reasonExtensions != null) {
+            System.arraycopy(reasonExtensions, 0, entryBuffer, position, reasonExtensions.length);
+            position += reasonExtensions.length;
+        }
+        return position;
+    }
+
+    private static byte[] createReasonExtensions(final int reason) {
+        try {
+            final DERSequence extension = new DERSequence(new ASN1Encodable[] { Extension.reasonCode,
+                    new DEROctetString(CRLReason.lookup(reason).getEncoded(ASN1Encoding.DER)) });
+            return new DERSequence(extension).getEncoded(ASN1Encoding.DER);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("error encoding reason: " + e);
+        }
+    }
+
+    private static int writeTwoDigits(final byte[] buffer, int position, final int value) {
+        buffer[position++] = (byte) ('0' + value / 10);
+        buffer[position++] = (byte) ('0' + value % 10);
+        return position;
+    }
+
+    /** @return the offset of the content of the DER object starting at the specified offset */
+    private static int getContentOffset(final byte[] encoded, final int offset) throws IOException {
+        if (offset + 1 >= encoded.length) {
+            throw new IOException("Truncated DER object at offset " + offset + ".");
+        }
+        final int firstLengthByte = encoded[offset + 1] & 0xff;
+        return firstLengthByte < 128 ? offset + 2 : offset + 2 + (firstLengthByte & 0x7f);
+    }
+
+    /** @return the length of the content of the DER object starting at the specified offset */
+    private static int getContentLength(final byte[] encoded, final int offset) throws IOException {
+        final int firstLengthByte = encoded[offset + 1] & 0xff;
+        if (firstLengthByte < 128) {
+            return firstLengthByte;
+        }
+        final int lengthBytes = firstLengthByte & 0x7f;
+        if (lengthBytes > 4 || offset + 2 + lengthBytes > encoded.length) {
+            throw new IOException("Invalid DER length at offset " + offset + ".");
+        }
+        long length = 0;
+        for (int i = 0; i < lengthBytes; i++) {
+            length = (length << 8) | (encoded[offset + 2 + i] & 0xff);
+        }
+        if (offset + 2 + lengthBytes + length > encoded.length) {
+            throw new IOException("Truncated DER object at offset " + offset + ".");
+        }
+        return (int) length;
+    }
+
+    /** @return the number of bytes needed for the tag and the DER length of content with the specified length */
+    private static int getHeaderLength(final long contentLength) {
+        if (contentLength < 128) {
+            return 2;
+        }
+        int lengthBytes = 1;
+        long remaining = contentLength;
+        while ((remaining >>>= 8) != 0) {
+            lengthBytes++;
+        }
+        return 2 + lengthBytes;
+    }
+
+    private static int writeHeader(final byte[] buffer, int position, final int tag, final long contentLength) {
+        buffer[position++] = (byte) tag;
+        if (contentLength < 128) {
+            buffer[position++] = (byte) contentLength;
+            return position;
+        }
+        final int lengthBytes = getHeaderLength(contentLength) - 2;
+        buffer[position++] = (byte) (0x80 | lengthBytes);
+        for (int i = (lengthBytes - 1) * 8; i >= 0; i -= 8) {
+            buffer[position++] = (byte) (contentLength >>> i);
+        }
+        return position;
+    }
+
+    /** Writes the TBSCertList to a buffer and to the signer at the same time. */
+    private static class TbsOutputStream extends OutputStream {
+        private final byte[] buffer;
+        private final OutputStream signerOutputStream;
+        private int position = 0;
+
+        TbsOutputStream(final byte[] buffer, final OutputStream signerOutputStream) {
+            this.buffer = buffer;
+            this.signerOutputStream = signerOutputStream;
+        }
+
+        int getPosition() {
+            return position;
+        }
+
+        void writeHeader(final int tag, final long contentLength) throws IOException {
+            final int start = position;
+            position = StreamingCrlEncoder.writeHeader(buffer, position, tag, contentLength);
+            signerOutputStream.write(buffer, start, position - start);
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            buffer[position++] = (byte) b;
+            signerOutputStream.write(b);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            System.arraycopy(b, off, buffer, position, len);
+            position += len;
+            signerOutputStream.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            signerOutputStream.close();
+        }
+    }
+}
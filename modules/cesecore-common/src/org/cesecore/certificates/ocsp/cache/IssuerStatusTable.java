@@ -0,0 +1,255 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.ocsp.cache;
+
+import java.math.BigInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.cesecore.certificates.certificate.CertificateStatus;
+
+/**
+ * Compact open addressing hash table mapping the serial numbers of a single issuer to the certificate
+ * status, revocation date, revocation reason and certificate profile id.
+ * <p>
+ * Serial numbers are kept as unsigned magnitude bytes in one shared byte array and the status information is
+ * packed into a single long per row, so the table does not hold any per entry objects. Lookups do not take any
+ * locks, while all modifications are serialized by the monitor of the table.
+ *
+ * @version $Id$
+ */
+final class IssuerStatusTable {
+
+    /** Serial numbers longer than this (RFC 5280 allows at most 20 octets) are never indexed. */
+    static final int MAX_SERIAL_LENGTH = 20;
+    private static final int ROW_LENGTH = MAX_SERIAL_LENGTH + 1;
+    private static final int INITIAL_ROW_CAPACITY = 1024;
+
+    private static final long KIND_MASK = 0x3L;
+    private static final long KIND_OK = 1L;
+    private static final long KIND_REVOKED = 2L;
+    private static final long KIND_INVALIDATED = 3L;
+    private static final int REASON_SHIFT = 2;
+    private static final long REASON_MASK = 0x1fL;
+    private static final int TIME_SHIFT = 7;
+
+    /** The arrays backing the table. Replaced as a whole when the table grows. */
+    private static final class Storage {
+        final byte[] serials;
+        final AtomicLongArray states;
+        final AtomicIntegerArray profiles;
+        /** Row number + 1 of the entry occupying each slot, or 0 for a free slot. */
+        final AtomicIntegerArray slots;
+        final int rowCapacity;
+        final int mask;
+
+        Storage(final int rowCapacity) {
+            this.rowCapacity = rowCapacity;
+            this.serials = new byte[rowCapacity * ROW_LENGTH];
+            this.states = new AtomicLongArray(rowCapacity);
+            this.profiles = new AtomicIntegerArray(rowCapacity);
+            // Keep the load factor at or below 0.5 to keep the probe sequences short
+            this.slots = new AtomicIntegerArray(rowCapacity * 2);
+            this.mask = rowCapacity * 2 - 1;
+        }
+    }
+
+    private volatile Storage storage = new Storage(INITIAL_ROW_CAPACITY);
+    /** Number of used rows. Guarded by this. */
+    private int rows = 0;
+
+    /** @return the number of serial numbers (including invalidated ones) present in this table. */
+    synchronized int size() {
+        return rows;
+    }
+
+    /**
+     * @return the certificate status for the serial number, or null if the serial number is unknown or has been invalidated.
+     */
+    CertificateStatus get(final byte[] key) {
+        final Storage current = storage;
+        final int row = findRow(current, key);
+        if (row < 0) {
+            return null;
+        }
+        return decode(current.states.get(row), current.profiles.get(row));
+    }
+
+    /**
+     * Store status information read from the database.
+     *
+     * @param key the serial number as returned by {@link #toKey(BigInteger)}
+     * @param certificateStatus the status derived from the database row
+     * @param queryStartTime when the query that produced the row was started
+     * @param gracePeriod for how long after an invalidation data from the database should be considered possibly stale
+     * @return false if the row was ignored since the serial number was invalidated too recently
+     */
+    synchronized boolean put(final byte[] key, final CertificateStatus certificateStatus, final long queryStartTime, final long gracePeriod) {
+        final long kind = CertificateStatus.REVOKED.equals(certificateStatus) ? KIND_REVOKED : KIND_OK;
+        final long state = encode(kind, certificateStatus.revocationReason, certificateStatus.revocationDate.getTime());
+        final Storage current = storage;
+        final int row = findRow(current, key);
+        if (row >= 0) {
+            final long previous = current.states.get(row);
+            if ((previous & KIND_MASK) == KIND_INVALIDATED && queryStartTime < (previous >>> TIME_SHIFT) - 1 + gracePeriod) {
+                return false;
+            }
+            current.profiles.set(row, certificateStatus.certificateProfileId);
+            current.states.set(row, state);
+            return true;
+        }
+        insert(key, state, certificateStatus.certificateProfileId);
+        return true;
+    }
+
+    /** Mark a serial number as modified, so lookups fall back to the database until fresh data has been read. */
+    synchronized void invalidate(final byte[] key, final long invalidationTime) {
+        final long state = encode(KIND_INVALIDATED, 0, invalidationTime);
+        final Storage current = storage;
+        final int row = findRow(current, key);
+        if (row >= 0) {
+            current.states.set(row, state);
+        } else {
+            insert(key, state, 0);
+        }
+    }
+
+    /** Copy the invalidation markers newer than the specified time to another table. */
+    synchronized void copyInvalidationsTo(final IssuerStatusTable target, final long notBefore) {
+        final Storage current = storage;
+        for (int row = 0; row < rows; row++) {
+            final long state = current.states.get(row);
+            if ((state & KIND_MASK) == KIND_INVALIDATED && (state >>> TIME_SHIFT) - 1 >= notBefore) {
+                final int offset = row * ROW_LENGTH;
+                final byte[] key = new byte[current.serials[offset]];
+                System.arraycopy(current.serials, offset + 1, key, 0, key.length);
+                target.invalidate(key, (state >>> TIME_SHIFT) - 1);
+            }
+        }
+    }
+
+    /**
+     * @return the unsigned magnitude of the serial number, or null if the serial number is negative or too long to be indexed.
+     */
+    static byte[] toKey(final BigInteger serialNumber) {
+        if (serialNumber == null || serialNumber.signum() < 0) {
+            return null;
+        }
+        final byte[] encoded = serialNumber.toByteArray();
+        final int start = encoded[0] == 0 ? 1 : 0;
+        final int length = encoded.length - start;
+        if (length > MAX_SERIAL_LENGTH) {
+            return null;
+        }
+        final byte[] key = new byte[length];
+        System.arraycopy(encoded, start, key, 0, length);
+        return key;
+    }
+
+    private void insert(final byte[] key, final long state, final int profileId) {
+        Storage current = storage;
+        if (rows == current.rowCapacity) {
+            current = grow(current);
+        }
+        final int row = rows++;
+        final int offset = row * ROW_LENGTH;
+        current.serials[offset] = (byte) key.length;
+        System.arraycopy(key, 0, current.serials, offset + 1, key.length);
+        current.profiles.set(row, profileId);
+        current.states.set(row, state);
+        // Publishing the slot last makes the row visible to readers only once it is complete
+        current.slots.set(freeSlot(current, key), row + 1);
+    }
+
+    private Storage grow(final Storage current) {
+        final Storage grown = new Storage(current.rowCapacity * 2);
+        System.arraycopy(current.serials, 0, grown.serials, 0, rows * ROW_LENGTH);
+        for (int row = 0; row < rows; row++) {
+            grown.states.set(row, current.states.get(row));
+            grown.profiles.set(row, current.profiles.get(row));
+            final int offset = row * ROW_LENGTH;
+            int slot = hash(grown.serials, offset + 1, grown.serials[offset]) & grown.mask;
+            while (grown.slots.get(slot) != 0) {
+                slot = (slot + 1) & grown.mask;
+            }
+            grown.slots.set(slot, row + 1);
+        }
+        storage = grown;
+        return grown;
+    }
+
+    private static int freeSlot(final Storage current, final byte[] key) {
+        int slot = hash(key, 0, key.length) & current.mask;
+        while (current.slots.get(slot) != 0) {
+            slot = (slot + 1) & current.mask;
+        }
+        return slot;
+    }
+
+    private static int findRow(final Storage current, final byte[] key) {
+        int slot = hash(key, 0, key.length) & current.mask;
+        while (true) {
+            final int reference = current.slots.get(slot);
+            if (reference == 0) {
+                return -1;
+            }
+            final int row = reference - 1;
+            if (matches(current.serials, row * ROW_LENGTH, key)) {
+                return row;
+            }
+            slot = (slot + 1) & current.mask;
+        }
+    }
+
+    private static boolean matches(final byte[] serials, final int offset, final byte[] key) {
+        if (serials[offset] != key.length) {
+            return false;
+        }
+        for (int i = 0; i < key.length; i++) {
+            if (serials[offset + 1 + i] != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int hash(final byte[] bytes, final int offset, final int length) {
+        int h = length;
+        for (int i = offset; i < offset + length; i++) {
+            h = 31 * h + bytes[i];
+        }
+        // Spread the bits (MurmurHash3 finalizer), since only the low bits are used for the slot
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    private static long encode(final long kind, final int revocationReason, final long time) {
+        // Reasons are in the range -1 (not revoked) to 10, and the revocation date is -1 for certificates that were never revoked
+        return kind | (((revocationReason + 1) & REASON_MASK) << REASON_SHIFT) | ((Math.max(time, -1L) + 1) << TIME_SHIFT);
+    }
+
+    private static CertificateStatus decode(final long state, final int profileId) {
+        final long kind = state & KIND_MASK;
+        if (kind != KIND_OK && kind != KIND_REVOKED) {
+            return null;
+        }
+        final int revocationReason = (int) ((state >>> REASON_SHIFT) & REASON_MASK) - 1;
+        final long revocationDate = (state >>> TIME_SHIFT) - 1;
+        final String name = kind == KIND_REVOKED ? CertificateStatus.REVOKED.toString() : CertificateStatus.OK.toString();
+        return new CertificateStatus(name, revocationDate, revocationReason, profileId);
+    }
+}
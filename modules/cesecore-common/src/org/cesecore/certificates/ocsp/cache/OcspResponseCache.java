@@ -0,0 +1,160 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.ocsp.cache;
+
+import java.math.BigInteger;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.bouncycastle.cert.ocsp.CertificateID;
+
+/**
+ * Cache of signed OCSP responses for requests without a nonce, so that repeated requests for the same certificate
+ * can be answered without looking up the status or signing a new response.
+ * <p>
+ * Entries are keyed by the CertID (hash algorithm, issuer name hash, issuer key hash and serial number), and are used
+ * until nextUpdate or max-age of the response, whichever comes first. Changing the status of a certificate on this
+ * node invalidates all entries for its serial number, and responses produced while the change may not yet have been
+ * committed are not cached.
+ *
+ * @version $Id$
+ */
+public enum OcspResponseCache {
+    INSTANCE;
+
+    private static final Logger log = Logger.getLogger(OcspResponseCache.class);
+    /** Number of invalidations kept before invalidations older than their grace period are removed */
+    private static final int MAX_INVALIDATIONS = 4096;
+
+    /** Entries by serial number. Usually there is only one entry per serial number. */
+    private final Map<BigInteger, OcspResponseCacheEntry[]> entries = new ConcurrentHashMap<>();
+    /** Until when responses for recently invalidated serial numbers must not be cached */
+    private final Map<BigInteger, Long> invalidations = new ConcurrentHashMap<>();
+    private final AtomicInteger size = new AtomicInteger();
+
+    /** @return true if there is nothing to look up in the cache */
+    public boolean isEmpty() {
+        return size.get() == 0;
+    }
+
+    /** @return the number of cached responses, including expired ones not yet removed. */
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * @param certId the CertID of the single request to find a response for
+     * @param now the current time
+     * @return the cached response, or null if there is no valid cached response
+     */
+    public OcspResponseCacheEntry get(final CertificateID certId, final long now) {
+        final OcspResponseCacheEntry[] candidates = entries.get(certId.getSerialNumber());
+        if (candidates == null) {
+            return null;
+        }
+        for (final OcspResponseCacheEntry entry : candidates) {
+            if (entry.matches(certId)) {
+                return entry.getExpireTime() > now ? entry : null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Cache a response.
+     *
+     * @param certId the CertID of the single request the response was produced for
+     * @param entry the response
+     * @param requestTime when processing of the request started
+     * @param maxSize the maximum number of cached responses
+     */
+    public void put(final CertificateID certId, final OcspResponseCacheEntry entry, final long requestTime, final int maxSize) {
+        final BigInteger serialNumber = certId.getSerialNumber();
+        final Long invalidatedUntil = invalidations.get(serialNumber);
+        if (invalidatedUntil != null && requestTime < invalidatedUntil) {
+            if (log.isDebugEnabled()) {
+                log.debug("Not caching OCSP response for serial number " + serialNumber.toString(16) + " since its status was recently changed.");
+            }
+            return;
+        }
+        if (size.get() >= maxSize) {
+            removeExpired(System.currentTimeMillis());
+            if (size.get() >= maxSize) {
+                return;
+            }
+        }
+        entries.compute(serialNumber, (key, current) -> {
+            if (current == null) {
+                size.incrementAndGet();
+                return new OcspResponseCacheEntry[] { entry };
+            }
+            for (int i = 0; i < current.length; i++) {
+                if (current[i].matches(certId)) {
+                    final OcspResponseCacheEntry[] updated = current.clone();
+                    updated[i] = entry;
+                    return updated;
+                }
+            }
+            final OcspResponseCacheEntry[] updated = new OcspResponseCacheEntry[current.length + 1];
+            System.arraycopy(current, 0, updated, 0, current.length);
+            updated[current.length] = entry;
+            size.incrementAndGet();
+            return updated;
+        });
+    }
+
+    /**
+     * Remove all cached responses for the serial number, regardless of issuer and CertID hash algorithm. Must be invoked whenever
+     * the status of a certificate is modified.
+     *
+     * @param serialNumber the serial number of the certificate
+     * @param gracePeriod for how long responses to requests received from now on may be based on the old status
+     */
+    public void invalidate(final BigInteger serialNumber, final long gracePeriod) {
+        final long now = System.currentTimeMillis();
+        if (invalidations.size() >= MAX_INVALIDATIONS) {
+            invalidations.values().removeIf(invalidatedUntil -> invalidatedUntil <= now);
+        }
+        invalidations.put(serialNumber, now + gracePeriod);
+        final OcspResponseCacheEntry[] removed = entries.remove(serialNumber);
+        if (removed != null) {
+            size.addAndGet(-removed.length);
+        }
+    }
+
+    /** Remove all cached responses. */
+    public void flush() {
+        invalidations.clear();
+        entries.clear();
+        size.set(0);
+    }
+
+    private void removeExpired(final long now) {
+        for (final Iterator<Map.Entry<BigInteger, OcspResponseCacheEntry[]>> iterator = entries.entrySet().iterator(); iterator.hasNext();) {
+            final Map.Entry<BigInteger, OcspResponseCacheEntry[]> mapEntry = iterator.next();
+            for (final OcspResponseCacheEntry entry : mapEntry.getValue()) {
+                if (entry.getExpireTime() <= now) {
+                    // Good enough to drop all entries of the serial number, since they are typically created at the same time
+                    if (entries.remove(mapEntry.getKey(), mapEntry.getValue())) {
+                        size.addAndGet(-mapEntry.getValue().length);
+                    }
+                    break;
+                }
+            }
+        }
+        invalidations.values().removeIf(invalidatedUntil -> invalidatedUntil <= now);
+    }
+}
@@ -0,0 +1,96 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.ocsp.cache;
+
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+
+import org.bouncycastle.cert.ocsp.CertificateID;
+
+/**
+ * An encoded, signed OCSP response held by {@link OcspResponseCache}, together with the information needed to
+ * add HTTP cache headers without parsing the response again.
+ *
+ * @version $Id$
+ */
+public final class OcspResponseCacheEntry {
+
+    private final String hashAlgorithmOid;
+    private final byte[] issuerNameHash;
+    private final byte[] issuerKeyHash;
+    private final byte[] ocspResponse;
+    private final long thisUpdate;
+    private final long nextUpdate;
+    private final long maxAge;
+    private final String responseHeader;
+    private final X509Certificate signerCert;
+    private final long expireTime;
+
+    /**
+     * @param certId the CertID of the single request the response was produced for
+     * @param ocspResponse the encoded OCSPResponse
+     * @param thisUpdate thisUpdate of the single response
+     * @param nextUpdate nextUpdate of the single response
+     * @param maxAge the max-age in milliseconds for HTTP caching of the response
+     * @param responseHeader the ETag of the response
+     * @param signerCert the certificate of the signer of the response, or null
+     * @param expireTime when the entry must no longer be used
+     */
+    public OcspResponseCacheEntry(final CertificateID certId, final byte[] ocspResponse, final long thisUpdate, final long nextUpdate,
+            final long maxAge, final String responseHeader, final X509Certificate signerCert, final long expireTime) {
+        this.hashAlgorithmOid = certId.getHashAlgOID().getId();
+        this.issuerNameHash = certId.getIssuerNameHash();
+        this.issuerKeyHash = certId.getIssuerKeyHash();
+        this.ocspResponse = ocspResponse;
+        this.thisUpdate = thisUpdate;
+        this.nextUpdate = nextUpdate;
+        this.maxAge = maxAge;
+        this.responseHeader = responseHeader;
+        this.signerCert = signerCert;
+        this.expireTime = expireTime;
+    }
+
+    /** @return true if this entry holds the response for the CertID. The serial number is matched by the cache. */
+    boolean matches(final CertificateID certId) {
+        return hashAlgorithmOid.equals(certId.getHashAlgOID().getId()) && Arrays.equals(issuerNameHash, certId.getIssuerNameHash())
+                && Arrays.equals(issuerKeyHash, certId.getIssuerKeyHash());
+    }
+
+    public byte[] getOcspResponse() {
+        return ocspResponse;
+    }
+
+    public long getThisUpdate() {
+        return thisUpdate;
+    }
+
+    public long getNextUpdate() {
+        return nextUpdate;
+    }
+
+    public long getMaxAge() {
+        return maxAge;
+    }
+
+    public String getResponseHeader() {
+        return responseHeader;
+    }
+
+    public X509Certificate getSignerCert() {
+        return signerCert;
+    }
+
+    public long getExpireTime() {
+        return expireTime;
+    }
+}
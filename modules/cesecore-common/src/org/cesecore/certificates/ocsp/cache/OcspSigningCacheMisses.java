@@ -0,0 +1,112 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.ocsp.cache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.bouncycastle.cert.ocsp.CertificateID;
+
+/**
+ * Keeps track of requests for issuers missing in the {@link OcspSigningCache}, so that the cache can be reloaded in the background
+ * without blocking the requests.
+ * <p>
+ * At most one reload runs at a time. Misses while a reload is running cause one more reload when it has finished, and an issuer
+ * that recently caused a reload does not cause another one until its negative cache time has passed.
+ *
+ * @version $Id$
+ */
+public enum OcspSigningCacheMisses {
+    INSTANCE;
+
+    /** Until when each missing issuer, identified by {@link #getIssuerId(CertificateID)}, is known to be missing */
+    private final Map<Integer, Long> negativeCache = new ConcurrentHashMap<>();
+    /** CertificateIDs of missing issuers not yet handled by a reload. Guarded by this. */
+    private final Map<Integer, CertificateID> pending = new HashMap<>();
+    /** Guarded by this */
+    private boolean reloadRunning = false;
+    /** Guarded by this */
+    private boolean reloadRequested = false;
+
+    /**
+     * Register a request for an issuer missing in the OCSP signing cache.
+     *
+     * @param certId the CertificateID of the request
+     * @param now the current time
+     * @param negativeCacheTime for how long in milliseconds the issuer should not cause another reload
+     * @return true if the caller should start a reload, false if the issuer was recently missing or a reload is already running.
+     */
+    public boolean addMiss(final CertificateID certId, final long now, final long negativeCacheTime) {
+        final Integer cacheId = getIssuerId(certId);
+        final Long missingUntil = negativeCache.get(cacheId);
+        if (missingUntil != null && now < missingUntil) {
+            return false;
+        }
+        synchronized (this) {
+            if (negativeCache.size() > 1000) {
+                negativeCache.values().removeIf(until -> until <= now);
+            }
+            negativeCache.put(cacheId, now + negativeCacheTime);
+            pending.put(cacheId, certId);
+            if (reloadRunning) {
+                reloadRequested = true;
+                return false;
+            }
+            reloadRunning = true;
+            return true;
+        }
+    }
+
+    /**
+     * Invoked when a reload started by {@link #addMiss(CertificateID, long, long)} begins.
+     *
+     * @return the CertificateIDs of missing issuers that the reload should try to find
+     */
+    public synchronized List<CertificateID> startReload() {
+        reloadRunning = true;
+        reloadRequested = false;
+        final List<CertificateID> ret = new ArrayList<>(pending.values());
+        pending.clear();
+        return ret;
+    }
+
+    /**
+     * Invoked when a reload has finished, successfully or not.
+     *
+     * @return true if there were new misses during the reload and the caller should reload once more
+     */
+    public synchronized boolean finishReload() {
+        if (reloadRequested) {
+            return true;
+        }
+        reloadRunning = false;
+        return false;
+    }
+
+    /** @return an identifier of the issuer, based on the issuer name and key hashes */
+    private static Integer getIssuerId(final CertificateID certId) {
+        return Integer.valueOf(31 * Arrays.hashCode(certId.getIssuerNameHash()) + Arrays.hashCode(certId.getIssuerKeyHash()));
+    }
+
+    /** Forget all missing issuers and pending reloads. */
+    public synchronized void flush() {
+        negativeCache.clear();
+        pending.clear();
+        reloadRunning = false;
+        reloadRequested = false;
+    }
+}
@@ -0,0 +1,275 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.ocsp.cache;
+
+import java.math.BigInteger;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.log4j.Logger;
+import org.cesecore.certificates.certificate.CertificateStatus;
+
+/**
+ * Optional in-memory index of the revocation status of all certificates issued by the CAs this node answers OCSP requests for.
+ * <p>
+ * The index is populated from CertificateData by a full rebuild per issuer, and kept up to date by periodic refreshes that only
+ * read rows with a recent updateTime. Local changes to the status of a certificate invalidate the entry immediately, so that
+ * lookups for it fall back to the database until a refresh has read the committed change. Lookups never block and return null
+ * whenever the database has to be consulted, e.g. for unknown serial numbers or before the first rebuild of an issuer has completed.
+ *
+ * @version $Id$
+ */
+public enum RevocationStatusIndex {
+    INSTANCE;
+
+    private static final Logger log = Logger.getLogger(RevocationStatusIndex.class);
+
+    /** State of the index for a single issuer. Modifications are guarded by the monitor of the object. */
+    private static final class IssuerEntry {
+        /** The table used for lookups, or null before the first full rebuild has completed. */
+        private volatile IssuerStatusTable live = null;
+        /** The table being populated by an ongoing full rebuild, or null. */
+        private IssuerStatusTable building = null;
+        private long lastRebuild = 0;
+        private long lastRefresh = 0;
+        private long issuerInvalidated = 0;
+    }
+
+    private final Map<String, IssuerEntry> issuers = new ConcurrentHashMap<>();
+
+    /**
+     * Look up the status of a certificate without touching the database.
+     *
+     * @param issuerDn the issuer DN in the same normalized form as CertificateData.issuerDN
+     * @param serialNumber the serial number of the certificate
+     * @return the status of the certificate, or null if the index cannot answer and the database must be queried.
+     */
+    public CertificateStatus getStatus(final String issuerDn, final BigInteger serialNumber) {
+        if (issuers.isEmpty()) {
+            return null;
+        }
+        final IssuerEntry entry = issuers.get(issuerDn);
+        if (entry == null) {
+            return null;
+        }
+        final IssuerStatusTable table = entry.live;
+        if (table == null) {
+            return null;
+        }
+        final byte[] key = IssuerStatusTable.toKey(serialNumber);
+        return key == null ? null : table.get(key);
+    }
+
+    /**
+     * Invalidate the indexed status of a certificate. Must be invoked whenever the status of a certificate is modified.
+     *
+     * @param issuerDn the issuer DN in the same normalized form as CertificateData.issuerDN
+     * @param serialNumber the serial number as stored in CertificateData (decimal)
+     */
+    public void invalidate(final String issuerDn, final String serialNumber) {
+        if (issuers.isEmpty()) {
+            return;
+        }
+        final IssuerEntry entry = issuers.get(issuerDn);
+        if (entry == null) {
+            return;
+        }
+        final byte[] key = toKey(serialNumber);
+        final long now = System.currentTimeMillis();
+        synchronized (entry) {
+            if (key == null) {
+                // Not possible to index, so it will never be answered from the index anyway
+                return;
+            }
+            if (entry.live != null) {
+                entry.live.invalidate(key, now);
+            }
+            if (entry.building != null) {
+                entry.building.invalidate(key, now);
+            }
+        }
+    }
+
+    /**
+     * Invalidate all indexed information about an issuer, e.g. when all certificates issued by a CA are revoked at once.
+     *
+     * @param issuerDn the issuer DN in the same normalized form as CertificateData.issuerDN
+     */
+    public void invalidateIssuer(final String issuerDn) {
+        final IssuerEntry entry = issuers.get(issuerDn);
+        if (entry == null) {
+            return;
+        }
+        synchronized (entry) {
+            entry.live = null;
+            entry.building = null;
+            entry.lastRebuild = 0;
+            entry.lastRefresh = 0;
+            entry.issuerInvalidated = System.currentTimeMillis();
+        }
+        log.info("Invalidated revocation status index for issuer '" + issuerDn + "'.");
+    }
+
+    /** Stop indexing all issuers except the specified ones. */
+    public void retainIssuers(final Collection<String> issuerDns) {
+        final Set<String> removed = new HashSet<>(issuers.keySet());
+        removed.removeAll(issuerDns);
+        for (final String issuerDn : removed) {
+            issuers.remove(issuerDn);
+            if (log.isDebugEnabled()) {
+                log.debug("Removed issuer '" + issuerDn + "' from the revocation status index.");
+            }
+        }
+    }
+
+    /** @return the number of serial numbers indexed for the issuer, or -1 if the issuer is not (yet) indexed. */
+    public int size(final String issuerDn) {
+        final IssuerEntry entry = issuers.get(issuerDn);
+        final IssuerStatusTable table = entry == null ? null : entry.live;
+        return table == null ? -1 : table.size();
+    }
+
+    /** Remove all indexed information. */
+    public void flush() {
+        issuers.clear();
+    }
+
+    /**
+     * Start reading status information about an issuer from the database. A full rebuild is started if the issuer has not been
+     * indexed yet or if the last rebuild is older than rebuildInterval, and otherwise an incremental refresh of recently updated rows.
+     *
+     * @param issuerDn the issuer DN in the same normalized form as CertificateData.issuerDN
+     * @param rebuildInterval milliseconds between full rebuilds
+     * @param gracePeriod the longest time in milliseconds a transaction changing a certificate status is expected to take to commit
+     * @return the refresh to populate from the database, or null if the issuer was invalidated too recently to be read
+     */
+    public Refresh startRefresh(final String issuerDn, final long rebuildInterval, final long gracePeriod) {
+        final IssuerEntry entry = issuers.computeIfAbsent(issuerDn, k -> new IssuerEntry());
+        final long now = System.currentTimeMillis();
+        synchronized (entry) {
+            if (now < entry.issuerInvalidated + gracePeriod) {
+                return null;
+            }
+            if (entry.live == null || entry.lastRefresh == 0 || now >= entry.lastRebuild + rebuildInterval) {
+                final IssuerStatusTable table = new IssuerStatusTable();
+                if (entry.live != null) {
+                    // Serial numbers invalidated before the rebuild started might otherwise be read before their change is committed
+                    entry.live.copyInvalidationsTo(table, now - gracePeriod);
+                }
+                entry.building = table;
+                return new Refresh(issuerDn, entry, table, true, now, 0, gracePeriod);
+            }
+            // Rows committed after the last refresh started have an updateTime of at most one grace period earlier, and rows skipped by
+            // the last refresh since they were recently invalidated were updated at most one more grace period before it started
+            return new Refresh(issuerDn, entry, entry.live, false, now, entry.lastRefresh - 2 * gracePeriod, gracePeriod);
+        }
+    }
+
+    /** Population of the index for one issuer from rows read from the database. Not thread safe. */
+    public static final class Refresh {
+        private final String issuerDn;
+        private final IssuerEntry entry;
+        private final IssuerStatusTable table;
+        private final boolean fullRebuild;
+        private final long queryStartTime;
+        private final long minUpdateTime;
+        private final long gracePeriod;
+        private int rowCount = 0;
+        private int skippedCount = 0;
+
+        private Refresh(final String issuerDn, final IssuerEntry entry, final IssuerStatusTable table, final boolean fullRebuild,
+                final long queryStartTime, final long minUpdateTime, final long gracePeriod) {
+            this.issuerDn = issuerDn;
+            this.entry = entry;
+            this.table = table;
+            this.fullRebuild = fullRebuild;
+            this.queryStartTime = queryStartTime;
+            this.minUpdateTime = minUpdateTime;
+            this.gracePeriod = gracePeriod;
+        }
+
+        /** @return true if all rows of the issuer should be read, false if only rows updated after {@link #getMinUpdateTime()} */
+        public boolean isFullRebuild() {
+            return fullRebuild;
+        }
+
+        /** @return the earliest CertificateData.updateTime that must be read, or 0 to read all rows of the issuer. */
+        public long getMinUpdateTime() {
+            return minUpdateTime;
+        }
+
+        /**
+         * Add status information read from the database.
+         *
+         * @param serialNumber the serial number as stored in CertificateData (decimal)
+         * @param certificateStatus the status as derived from the row in CertificateData
+         */
+        public void add(final String serialNumber, final CertificateStatus certificateStatus) {
+            final byte[] key = toKey(serialNumber);
+            if (key == null) {
+                return;
+            }
+            rowCount++;
+            if (!table.put(key, certificateStatus, queryStartTime, gracePeriod)) {
+                skippedCount++;
+            }
+        }
+
+        /** Make the read status information available for lookups. */
+        public void commit() {
+            synchronized (entry) {
+                if (fullRebuild) {
+                    if (entry.building != table) {
+                        // The issuer was invalidated while we were reading it
+                        log.info("Discarding rebuild of revocation status index for issuer '" + issuerDn + "' since it was invalidated.");
+                        return;
+                    }
+                    entry.building = null;
+                    entry.live = table;
+                    entry.lastRebuild = queryStartTime;
+                } else if (entry.live != table) {
+                    return;
+                }
+                entry.lastRefresh = queryStartTime;
+            }
+            if (fullRebuild) {
+                log.info("Rebuilt revocation status index for issuer '" + issuerDn + "' with " + table.size() + " entries in "
+                        + (System.currentTimeMillis() - queryStartTime) + " ms.");
+            } else if (log.isDebugEnabled()) {
+                log.debug("Refreshed revocation status index for issuer '" + issuerDn + "' with " + rowCount + " updated rows ("
+                        + skippedCount + " recently invalidated rows skipped).");
+            }
+        }
+
+        /** Abandon this refresh, e.g. after a database error. Lookups continue to use the previous state. */
+        public void abort() {
+            synchronized (entry) {
+                if (fullRebuild && entry.building == table) {
+                    entry.building = null;
+                }
+            }
+        }
+    }
+
+    private static byte[] toKey(final String serialNumber) {
+        try {
+            return IssuerStatusTable.toKey(new BigInteger(serialNumber));
+        } catch (NumberFormatException e) {
+            // Not an X.509 serial number, e.g. a CV certificate
+            return null;
+        }
+    }
+}
@@ -0,0 +1,33 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.ocsp.exception;
+
+import org.cesecore.CesecoreException;
+
+/**
+ * Thrown when an OCSP response cannot be signed since too many responses are already waiting to be signed with the same key.
+ * The client should be asked to try again later.
+ *
+ * @version $Id$
+ */
+public class OcspSigningBusyException extends CesecoreException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * @param message Human readable error message, can not be NULL.
+     */
+    public OcspSigningBusyException(final String message) {
+        super(message);
+    }
+}
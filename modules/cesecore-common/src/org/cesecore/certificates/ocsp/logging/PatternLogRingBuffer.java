@@ -0,0 +1,133 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.ocsp.logging;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Bounded lock-free ring buffer of log records, written by any number of request threads and read by a single writer thread.
+ * <p>
+ * The records are allocated once and reused. Each record carries a sequence number telling whether it is free for the producer
+ * that claims the position, or published for the consumer, so neither side ever takes a lock.
+ *
+ * @version $Id$
+ */
+final class PatternLogRingBuffer {
+
+    /** A preallocated slot holding everything needed to format and write the rows of one flush of a {@link PatternLogger}. */
+    static final class Record {
+        private volatile long sequence;
+        private Logger logger;
+        private PatternLogTemplate template;
+        private List<String[]> rows;
+        private long replyTime;
+        private long processTime;
+
+        private Record(final long sequence) {
+            this.sequence = sequence;
+        }
+
+        Logger getLogger() {
+            return logger;
+        }
+
+        PatternLogTemplate getTemplate() {
+            return template;
+        }
+
+        List<String[]> getRows() {
+            return rows;
+        }
+
+        long getReplyTime() {
+            return replyTime;
+        }
+
+        long getProcessTime() {
+            return processTime;
+        }
+    }
+
+    private final Record[] records;
+    private final int mask;
+    /** The next position to be claimed by a producer. */
+    private final AtomicLong tail = new AtomicLong();
+    /** The next position to be read by the consumer. Only accessed by the consumer thread. */
+    private long head = 0;
+
+    /** @param capacity the number of records, rounded up to the nearest power of two */
+    PatternLogRingBuffer(final int capacity) {
+        final int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        records = new Record[size];
+        for (int i = 0; i < size; i++) {
+            records[i] = new Record(i);
+        }
+        mask = size - 1;
+    }
+
+    /** @return the number of records in the buffer */
+    int capacity() {
+        return records.length;
+    }
+
+    /**
+     * Publish a record. May be invoked by any thread.
+     *
+     * @return the sequence number of the record, or -1 if the buffer is full
+     */
+    long offer(final Logger logger, final PatternLogTemplate template, final List<String[]> rows, final long replyTime, final long processTime) {
+        while (true) {
+            final long position = tail.get();
+            final Record record = records[(int) (position & mask)];
+            final long sequence = record.sequence;
+            if (sequence == position) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    record.logger = logger;
+                    record.template = template;
+                    record.rows = rows;
+                    record.replyTime = replyTime;
+                    record.processTime = processTime;
+                    // Publishing the sequence last makes the record visible to the consumer only once it is complete
+                    record.sequence = position + 1;
+                    return position;
+                }
+            } else if (sequence < position) {
+                // The record at this position from the previous lap has not been consumed yet
+                return -1;
+            }
+            // Another producer claimed the position, retry with the next one
+        }
+    }
+
+    /** @return the next published record, or null if there is none. Must only be invoked by the consumer thread. */
+    Record peek() {
+        final Record record = records[(int) (head & mask)];
+        return record.sequence == head + 1 ? record : null;
+    }
+
+    /**
+     * Free the record returned by {@link #peek()} for reuse. Must only be invoked by the consumer thread.
+     *
+     * @return the number of records consumed so far
+     */
+    long release(final Record record) {
+        record.logger = null;
+        record.template = null;
+        record.rows = null;
+        record.sequence = head + records.length;
+        return ++head;
+    }
+}
@@ -0,0 +1,82 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.ocsp.logging;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A log line pattern of a {@link PatternLogger}, parsed once into the literal text and the keys of the values to insert, so that
+ * values can be captured into an array on the request thread and the line can be formatted later without any regular expressions.
+ *
+ * @version $Id$
+ */
+final class PatternLogTemplate {
+
+    private static final Map<String, PatternLogTemplate> templates = new ConcurrentHashMap<>();
+
+    /** Literal text before each key, and after the last key. */
+    private final String[] literals;
+    private final String[] keys;
+    /** The text matched for each key, e.g. "${KEY}", which is kept in the output if no value has been set for the key. */
+    private final String[] placeholders;
+    private final int estimatedLength;
+
+    private PatternLogTemplate(final String matchPattern, final String matchString) {
+        final List<String> literalList = new ArrayList<>();
+        final List<String> keyList = new ArrayList<>();
+        final List<String> placeholderList = new ArrayList<>();
+        final Matcher matcher = Pattern.compile(matchPattern).matcher(matchString);
+        int end = 0;
+        while (matcher.find()) {
+            // when the pattern is ${identifier}, group 1 is 'identifier'
+            literalList.add(matchString.substring(end, matcher.start()));
+            keyList.add(matcher.group(1));
+            placeholderList.add(matcher.group(0));
+            end = matcher.end();
+        }
+        literalList.add(matchString.substring(end));
+        this.literals = literalList.toArray(new String[literalList.size()]);
+        this.keys = keyList.toArray(new String[keyList.size()]);
+        this.placeholders = placeholderList.toArray(new String[placeholderList.size()]);
+        this.estimatedLength = matchString.length();
+    }
+
+    /** @return the parsed template for the pattern and order string, shared by all loggers using the same configuration. */
+    static PatternLogTemplate getInstance(final String matchPattern, final String matchString) {
+        return templates.computeIfAbsent(matchPattern + '\u0000' + matchString, k -> new PatternLogTemplate(matchPattern, matchString));
+    }
+
+    /** @return the values of the keys used by this template, in the order they appear in the output. Unset values are null. */
+    String[] capture(final Map<String, String> valuepairs) {
+        final String[] values = new String[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            values[i] = valuepairs.get(keys[i]);
+        }
+        return values;
+    }
+
+    /** Append a line formatted from values previously returned by {@link #capture(Map)}. */
+    void format(final StringBuilder sb, final String[] values) {
+        sb.ensureCapacity(sb.length() + estimatedLength * 2);
+        for (int i = 0; i < keys.length; i++) {
+            sb.append(literals[i]);
+            sb.append(values[i] != null ? values[i] : placeholders[i]);
+        }
+        sb.append(literals[keys.length]);
+    }
+}
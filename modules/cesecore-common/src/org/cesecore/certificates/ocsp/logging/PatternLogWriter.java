@@ -0,0 +1,183 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.certificates.ocsp.logging;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.log4j.Logger;
+import org.cesecore.config.OcspConfiguration;
+
+/**
+ * Background writer of OCSP transaction and audit log lines. Request threads hand over the captured values in a
+ * {@link PatternLogRingBuffer}, and a single daemon thread formats the lines and writes them to the Log4j appenders.
+ * <p>
+ * The thread is started by the first write, and stopped with {@link #stop(long)} after it has written the records handed over.
+ * While stopped, records are not accepted, so that the request threads write them.
+ *
+ * @version $Id$
+ */
+enum PatternLogWriter {
+    INSTANCE;
+
+    /** Time to wait for a record to be written when ocsp.log-safer is enabled */
+    static final long AWAIT_WRITTEN_TIMEOUT_MS = 10000L;
+
+    private static final Logger log = Logger.getLogger(PatternLogWriter.class);
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private volatile PatternLogRingBuffer buffer;
+    /** The thread consuming the buffer. A thread that is no longer the writer thread writes the remaining records and exits. */
+    private volatile Thread writerThread;
+    private volatile boolean writerIdle = false;
+    private volatile boolean stopped = false;
+    /** The number of records written so far. */
+    private volatile long written = 0;
+    private final Object writtenMonitor = new Object();
+
+    private synchronized PatternLogRingBuffer getBuffer() {
+        if (buffer == null && !stopped) {
+            final PatternLogRingBuffer current = new PatternLogRingBuffer(OcspConfiguration.getLogAsyncBufferSize());
+            written = 0;
+            writerThread = new Thread(() -> run(current), "OcspLogWriter");
+            writerThread.setDaemon(true);
+            buffer = current;
+            writerThread.start();
+            log.info("Started asynchronous OCSP log writer with a buffer of " + current.capacity() + " records.");
+        }
+        return buffer;
+    }
+
+    /**
+     * Hand over log rows to the writer thread.
+     *
+     * @return the sequence number to pass to {@link #awaitWritten(long, long)}, or -1 if the buffer is full or the writer is stopped,
+     *      and the caller must write the rows
+     */
+    long write(final Logger logger, final PatternLogTemplate template, final List<String[]> rows, final long replyTime, final long processTime) {
+        if (stopped) {
+            return -1;
+        }
+        final PatternLogRingBuffer current = buffer != null ? buffer : getBuffer();
+        if (current == null) {
+            return -1;
+        }
+        final long sequence = current.offer(logger, template, rows, replyTime, processTime);
+        if (sequence >= 0 && writerIdle) {
+            LockSupport.unpark(writerThread);
+        }
+        return sequence;
+    }
+
+    /**
+     * Wait until the record with the specified sequence number has been passed to the Log4j appenders.
+     *
+     * @param timeoutMs the maximum time to wait in milliseconds
+     * @return true if the record was written, or false if it was not written in time
+     */
+    boolean awaitWritten(final long sequence, final long timeoutMs) {
+        final long deadline = System.currentTimeMillis() + timeoutMs;
+        synchronized (writtenMonitor) {
+            while (written <= sequence) {
+                final long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                try {
+                    writtenMonitor.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /** Accept records again after {@link #stop(long)}. The writer thread is started by the next write. */
+    synchronized void start() {
+        stopped = false;
+    }
+
+    /**
+     * Stop the writer thread after it has written the records handed over. Records are not accepted after this, until {@link #start()}
+     * is called.
+     *
+     * @param timeoutMs the maximum time in milliseconds to wait for the writer thread
+     */
+    void stop(final long timeoutMs) {
+        final Thread thread;
+        final PatternLogRingBuffer current;
+        synchronized (this) {
+            stopped = true;
+            thread = writerThread;
+            current = buffer;
+            writerThread = null;
+            buffer = null;
+        }
+        if (thread == null) {
+            return;
+        }
+        LockSupport.unpark(thread);
+        try {
+            thread.join(timeoutMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (thread.isAlive()) {
+            log.warn("Asynchronous OCSP log writer did not stop within " + timeoutMs + " ms.");
+            thread.interrupt();
+            return;
+        }
+        // Records handed over while the writer thread was stopping
+        writeAll(current);
+        log.info("Stopped asynchronous OCSP log writer.");
+    }
+
+    private void run(final PatternLogRingBuffer current) {
+        while (writerThread == Thread.currentThread()) {
+            if (current.peek() == null) {
+                writerIdle = true;
+                // Check again after announcing that we are about to park, so that a record published meanwhile is not missed
+                if (current.peek() == null && writerThread == Thread.currentThread()) {
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+                writerIdle = false;
+                continue;
+            }
+            writeAll(current);
+        }
+        writeAll(current);
+    }
+
+    /** Write the published records. Must only be invoked by the thread consuming the buffer. */
+    private void writeAll(final PatternLogRingBuffer current) {
+        PatternLogRingBuffer.Record record = current.peek();
+        if (record == null) {
+            return;
+        }
+        while (record != null && !Thread.currentThread().isInterrupted()) {
+            try {
+                record.getLogger().debug(PatternLogger.format(record.getTemplate(), record.getRows(), record.getReplyTime(), record.getProcessTime()));
+            } catch (Throwable t) { // NOPMD the writer thread must survive any error in an appender
+                log.error("Failed to write OCSP log record.", t);
+            }
+            written = current.release(record);
+            record = current.peek();
+        }
+        synchronized (writtenMonitor) {
+            writtenMonitor.notifyAll();
+        }
+    }
+}
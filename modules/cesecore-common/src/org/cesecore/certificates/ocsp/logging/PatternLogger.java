@@ -17,16 +17,16 @@ import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.time.FastDateFormat;
 import org.apache.log4j.Logger;
 import org.bouncycastle.util.encoders.Hex;
+import org.cesecore.config.OcspConfiguration;
+import org.cesecore.util.log.ProbableErrorHandler;
 
-import java.io.PrintWriter;
 import java.io.Serializable;
-import java.io.StringWriter;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.TimeZone;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * This class can be extended to create highly configurable log classes. Values that are to be logged are stored in a Hashmap and the output is
@@ -34,6 +34,9 @@ import java.util.regex.Pattern;
  * Dates.
  * 
  * Use paramPut(String key, String value) to add values, Use writeln() to log all the stored values and then use flush() to store them to file.
+ * <p>
+ * writeln() only captures the values, and the rows are formatted when they are flushed. With ocsp.log-async enabled, the rows are
+ * formatted and written by a background thread, see {@link PatternLogWriter}.
  * 
  * Roughly based on PatternLogger.java 8663 2010-02-17 10:42:41Z anatom from EJBCA
  * 
@@ -85,9 +88,8 @@ public abstract class PatternLogger implements Serializable {
     private final Map<String, String> valuepairs = new HashMap<>();
     private final String matchString;
     private final String matchPattern;
-    // Matcher is not Serializable
-    private transient Matcher m;
-    private final String orderString;
+    // Parsed on demand, since the template is shared by all loggers with the same configuration
+    private transient PatternLogTemplate template;
     private final Date startTime;
     private Date startProcessTime = null;
     private boolean doLogging;
@@ -95,9 +97,8 @@ public abstract class PatternLogger implements Serializable {
     // Logger is not Serializable
     private transient Logger logger;
 
-    // for writing the output
-    private transient StringWriter sw;
-    private transient PrintWriter pw;
+    // the captured values of each row written since the last flush
+    private List<String[]> rows = new ArrayList<>();
 
     /**
      * @param doLogging
@@ -116,7 +117,6 @@ public abstract class PatternLogger implements Serializable {
         this.doLogging = doLogging;
         this.matchString = matchString;
         this.matchPattern = matchPattern;
-        this.orderString = matchString;
         this.loggerClass = loggerClass;
         this.startTime = new Date();
         final FastDateFormat dateformat;
@@ -130,13 +130,12 @@ public abstract class PatternLogger implements Serializable {
         this.paramPut(LOG_ID, "0");
     }
     
-    private Matcher getMatcher() {
-        if (this.m == null) {
-            // We have to instantiate the Matcher in the class and can not have it as an instance variable.
-            // This is because we are sending this object to a remote EJB (at least in system tests)
-            this.m = Pattern.compile(matchPattern).matcher(matchString);
+    private PatternLogTemplate getTemplate() {
+        if (this.template == null) {
+            // The template is not Serializable, and we are sending this object to a remote EJB (at least in system tests)
+            this.template = PatternLogTemplate.getInstance(matchPattern, matchString);
         }
-        return this.m;
+        return this.template;
     }
 
     private Logger getLogger() {
@@ -148,41 +147,37 @@ public abstract class PatternLogger implements Serializable {
         return this.logger;
     }
 
-    private PrintWriter getPrintWriter() {
-        if (this.pw == null) {
-            this.sw = new StringWriter();
-            this.pw = new PrintWriter(this.sw);
-        }
-        return pw;
-    }
-    
     /**
      * 
      * @return output to be logged
      */
     public String interpolate() {
-        final StringBuffer sb = new StringBuffer(this.orderString.length());
-        final Matcher matcher = getMatcher();
-        matcher.reset();
-        while (matcher.find()) {
-            // when the pattern is ${identifier}, group 0 is 'identifier'
-            final String key = matcher.group(1);
-            final String value = this.valuepairs.get(key);
+        final PatternLogTemplate template = getTemplate();
+        final StringBuilder sb = new StringBuilder();
+        // if the pattern does not exist among the values, the pattern itself is kept
+        template.format(sb, template.capture(valuepairs));
+        return sb.toString();
+    }
 
-            // if the pattern does exists, replace it by its value
-            // otherwise keep the pattern ( it is group(0) )
-            if (value != null) {
-                matcher.appendReplacement(sb, value);
-            } else {
-                // I'm doing this to avoid the backreference problem as there will be a $
-                // if I replace directly with the group 0 (which is also a pattern)
-                matcher.appendReplacement(sb, "");
-                final String unknown = matcher.group(0);
-                sb.append(unknown);
+    /**
+     * Format rows captured by writeln() into the output of a flush.
+     *
+     * @param replyTime milliseconds since the logger was created
+     * @param processTime milliseconds since PROCESS_TIME was set, or -1 if it was never set
+     */
+    static String format(final PatternLogTemplate template, final List<String[]> rows, final long replyTime, final long processTime) {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < rows.size(); i++) {
+            if (i > 0) {
+                sb.append(System.lineSeparator());
             }
+            template.format(sb, rows.get(i));
         }
-        matcher.appendTail(sb);
-        return sb.toString();
+        String output = StringUtils.replace(sb.toString(), REPLY_TIME, String.valueOf(replyTime));
+        if (processTime >= 0) {
+            output = StringUtils.replace(output, PROCESS_TIME, String.valueOf(processTime));
+        }
+        return output;
     }
 
     /**
@@ -230,7 +225,7 @@ public abstract class PatternLogger implements Serializable {
      */
     public void writeln() {
         if (doLogging) {
-            getPrintWriter().println(interpolate());
+            rows.add(getTemplate().capture(valuepairs));
         }
     }
 
@@ -238,21 +233,45 @@ public abstract class PatternLogger implements Serializable {
      * Writes all the rows created by writeln() to the Logger
      */
     public void flush() {
-        if (doLogging) {
-            getPrintWriter().flush();
-            String output = this.sw.toString();
-            output = output.replaceAll(REPLY_TIME, String.valueOf(new Date().getTime() - this.startTime.getTime()));
-            if (startProcessTime != null) {
-                output = output.replaceAll(PROCESS_TIME, String.valueOf(new Date().getTime() - this.startProcessTime.getTime()));
-            }
-            //Remove an extra linebreak between flushes.
-            if(output.endsWith(System.getProperty("line.separator"))) {
-                output = output.substring(0, output.length()-1);
+        if (doLogging && !rows.isEmpty()) {
+            final long now = System.currentTimeMillis();
+            final long replyTime = now - this.startTime.getTime();
+            final long processTime = startProcessTime == null ? -1 : now - this.startProcessTime.getTime();
+            final List<String[]> flushedRows = rows;
+            rows = new ArrayList<>();
+            if (OcspConfiguration.isLogAsync()) {
+                final long sequence = PatternLogWriter.INSTANCE.write(getLogger(), getTemplate(), flushedRows, replyTime, processTime);
+                if (sequence >= 0) {
+                    if (OcspConfiguration.getLogSafer()) {
+                        // The request must not be answered before the appender has had the chance to report that it can not log
+                        if (!PatternLogWriter.INSTANCE.awaitWritten(sequence, PatternLogWriter.AWAIT_WRITTEN_TIMEOUT_MS)) {
+                            // The rows may still be written later, but the request must not be answered as if they had been
+                            ProbableErrorHandler.reportFailure();
+                        }
+                    }
+                    return;
+                }
+                // The writer is falling behind, so write the rows ourselves rather than dropping them
             }
-            getLogger().debug(output); // Finally output the log row to the logging device
+            getLogger().debug(format(getTemplate(), flushedRows, replyTime, processTime)); // Finally output the log row to the logging device
         }
     }
 
+    /** Allow the rows to be written by the background writer of ocsp.log-async again, after {@link #stopAsyncWriter(long)}. */
+    public static void startAsyncWriter() {
+        PatternLogWriter.INSTANCE.start();
+    }
+
+    /**
+     * Stop the background writer of ocsp.log-async after it has written the rows handed over to it. Until {@link #startAsyncWriter()} is
+     * called, rows are written by the threads flushing them.
+     *
+     * @param timeoutMs the maximum time in milliseconds to wait for the rows to be written
+     */
+    public static void stopAsyncWriter(final long timeoutMs) {
+        PatternLogWriter.INSTANCE.stop(timeoutMs);
+    }
+
     /** @return true if this logger is enabled */
     public boolean isEnabled() {
         return doLogging && getLogger().isDebugEnabled();
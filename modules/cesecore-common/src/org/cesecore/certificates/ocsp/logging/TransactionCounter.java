@@ -12,6 +12,7 @@
  *************************************************************************/
 package org.cesecore.certificates.ocsp.logging;
 
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * An enum based singleton which returns transaction numbers. Not a static volatile value, because these are forbidden by the EJB standard.
@@ -22,14 +23,10 @@ package org.cesecore.certificates.ocsp.logging;
 public enum TransactionCounter {
     INSTANCE;
 
-    private TransactionCounter() {
-        transactionNumber = 0;
-    }
+    private final AtomicInteger transactionNumber = new AtomicInteger();
 
-    public synchronized int getTransactionNumber() {
-        return transactionNumber++;
+    public int getTransactionNumber() {
+        return transactionNumber.getAndIncrement();
     }
 
-    private int transactionNumber;
-
 }
@@ -228,6 +228,25 @@ public final class CesecoreConfiguration {
         return getLongValue("authorization.cachetime", 30000L, "milliseconds to cache authorization");
     }
 
+    /**
+     * Whether identical successful authorization checks, by the same authentication token for the same resources in the same transaction,
+     * should be written to the security audit log as a single record with a count. The default is false.
+     */
+    public static boolean isAuthorizationAuditCoalesced() {
+        final String value = ConfigurationHolder.getString("securityeventsaudit.coalesceauthorization");
+        return value != null && value.trim().equalsIgnoreCase(TRUE);
+    }
+
+    /** @return the maximum time in milliseconds successful authorization checks are held before they are written to the audit log. */
+    public static long getAuthorizationAuditCoalesceWindow() {
+        return Math.max(0L, getLongValue("securityeventsaudit.coalesceauthorization.window", 1000L, "milliseconds"));
+    }
+
+    /** @return the maximum number of coalesced authorization checks held, before all of them are written to the audit log. */
+    public static int getAuthorizationAuditCoalesceMaxEntries() {
+        return (int) Math.max(1L, getLongValue("securityeventsaudit.coalesceauthorization.maxentries", 10000L, "number of entries"));
+    }
+
     /**
      * Parameter to specify if retrieving GlobalConfiguration (in GlobalConfigurationSessionBean) should be cached, and in that case for how long.
      */
@@ -397,7 +416,9 @@ public final class CesecoreConfiguration {
     /**
      * Whether EJBCA should request ordered fetching of revoked certificates when generating CRLs.
      * This is a workaround for MS-SQL.
+     * @deprecated Revoked certificates are always fetched in primary key order when generating CRLs.
      */
+    @Deprecated
     public static boolean getDatabaseRevokedCertInfoFetchOrdered() {
         return Boolean.TRUE.toString().equalsIgnoreCase(ConfigurationHolder.getString("database.crlgenfetchordered"));
     }
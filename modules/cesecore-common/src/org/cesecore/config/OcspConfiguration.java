@@ -40,6 +40,28 @@ public class OcspConfiguration {
     public static final String SIGNING_CERTD_VALID_TIME = "ocsp.signingCertsValidTime";
     public static final String REQUEST_SIGNING_CERT_REVOCATION_CACHE_TIME = "ocsp.reqsigncertrevcachetime";
     public static final String SIGNING_TRUSTSTORE_VALID_TIME = "ocsp.signtrustvalidtime";
+    public static final String STATUS_INDEX_ENABLED = "ocsp.statusindex.enabled";
+    public static final String STATUS_INDEX_REFRESH_TIME = "ocsp.statusindex.refreshtime";
+    public static final String STATUS_INDEX_REBUILD_TIME = "ocsp.statusindex.rebuildtime";
+    public static final String STATUS_INDEX_GRACE_TIME = "ocsp.statusindex.gracetime";
+    public static final String PREPRODUCTION_ENABLED = "ocsp.preproduction.enabled";
+    public static final String PREPRODUCTION_INTERVAL = "ocsp.preproduction.interval";
+    public static final String PREPRODUCTION_REFRESH_MARGIN = "ocsp.preproduction.refreshmargin";
+    public static final String PREPRODUCTION_BATCH_SIZE = "ocsp.preproduction.batchsize";
+    public static final String PREPRODUCTION_THREADS = "ocsp.preproduction.threads";
+    public static final String PREPRODUCTION_CERTID_HASH_ALGORITHM = "ocsp.preproduction.certidhashalgorithm";
+    public static final String RESPONSE_CACHE_ENABLED = "ocsp.responsecache.enabled";
+    public static final String RESPONSE_CACHE_MAX_SIZE = "ocsp.responsecache.maxsize";
+    public static final String SIGNING_THREADS_PER_KEY = "ocsp.signing.threadsperkey";
+    public static final String SIGNING_QUEUE_SIZE_PER_KEY = "ocsp.signing.queuesizeperkey";
+    public static final String SIGNING_CACHE_NEGATIVE_CACHE_TIME = "ocsp.signingcache.negativecachetime";
+    public static final String ASYNC_SERVLET_ENABLED = "ocsp.asyncservlet.enabled";
+    public static final String ASYNC_SERVLET_THREADS = "ocsp.asyncservlet.threads";
+    public static final String ASYNC_SERVLET_QUEUE_SIZE = "ocsp.asyncservlet.queuesize";
+    public static final String ASYNC_SERVLET_TIMEOUT = "ocsp.asyncservlet.timeout";
+    public static final String LOG_ASYNC = "ocsp.log-async";
+    public static final String LOG_ASYNC_BUFFER_SIZE = "ocsp.log-async-buffersize";
+    public static final String STAGE_STATISTICS_ENABLED = "ocsp.stagestatistics.enabled";
     public static final String SIGNATUREREQUIRED = "ocsp.signaturerequired";
     public static final String CARD_PASSWORD = "ocsp.keys.cardPassword";
     public static final String REKEYING_WSURL = "ocsp.rekeying.wsurl";
@@ -153,6 +175,169 @@ public class OcspConfiguration {
         return timeInSeconds;
     }
 
+    /**
+     * @return true if the revocation status of certificates issued by the CAs in the OCSP signing cache should be kept in memory
+     */
+    public static boolean isStatusIndexEnabled() {
+        return "true".equalsIgnoreCase(ConfigurationHolder.getString(STATUS_INDEX_ENABLED));
+    }
+
+    /**
+     * @return the interval on which recently updated certificate statuses are read into the revocation status index in milliseconds
+     */
+    public static long getStatusIndexRefreshTimeMs() {
+        return getSecondsAsMs(STATUS_INDEX_REFRESH_TIME, 60L);
+    }
+
+    /**
+     * @return the interval on which the revocation status index is rebuilt from scratch in milliseconds
+     */
+    public static long getStatusIndexRebuildTimeMs() {
+        return getSecondsAsMs(STATUS_INDEX_REBUILD_TIME, 86400L);
+    }
+
+    /**
+     * @return for how long in milliseconds a locally modified certificate status is answered from the database instead of the index
+     */
+    public static long getStatusIndexGraceTimeMs() {
+        return getSecondsAsMs(STATUS_INDEX_GRACE_TIME, 60L);
+    }
+
+    /**
+     * @return true if this node should pre-produce OCSP responses for the CAs where pre-production is enabled
+     */
+    public static boolean isPreProductionEnabled() {
+        return "true".equalsIgnoreCase(ConfigurationHolder.getString(PREPRODUCTION_ENABLED));
+    }
+
+    /**
+     * @return the time between the end of a pre-production run and the start of the next one in milliseconds
+     */
+    public static long getPreProductionIntervalMs() {
+        return getSecondsAsMs(PREPRODUCTION_INTERVAL, 300L);
+    }
+
+    /**
+     * @return how long before nextUpdate a stored OCSP response is replaced by a new one in milliseconds
+     */
+    public static long getPreProductionRefreshMarginMs() {
+        return getSecondsAsMs(PREPRODUCTION_REFRESH_MARGIN, 3600L);
+    }
+
+    /**
+     * @return the number of certificates read from the database and checked for a valid stored response at a time
+     */
+    public static int getPreProductionBatchSize() {
+        return getPositiveInt(PREPRODUCTION_BATCH_SIZE, 500);
+    }
+
+    /**
+     * @return the number of threads that signs OCSP responses in parallel during pre-production
+     */
+    public static int getPreProductionThreads() {
+        return getPositiveInt(PREPRODUCTION_THREADS, 4);
+    }
+
+    /**
+     * @return the hash algorithm, SHA1 or SHA256, of the CertID in the requests that pre-produced OCSP responses are signed for
+     */
+    public static String getPreProductionCertIdHashAlgorithm() {
+        final String value = ConfigurationHolder.getString(PREPRODUCTION_CERTID_HASH_ALGORITHM);
+        if ("SHA1".equalsIgnoreCase(value) || "SHA256".equalsIgnoreCase(value)) {
+            return value.toUpperCase();
+        }
+        log.warn(PREPRODUCTION_CERTID_HASH_ALGORITHM + " must be SHA1 or SHA256. Using default SHA1.");
+        return "SHA1";
+    }
+
+    /**
+     * @return true if signed OCSP responses to requests without nonce should be kept in memory and reused
+     */
+    public static boolean isResponseCacheEnabled() {
+        return "true".equalsIgnoreCase(ConfigurationHolder.getString(RESPONSE_CACHE_ENABLED));
+    }
+
+    /**
+     * @return the maximum number of OCSP responses kept in the response cache
+     */
+    public static int getResponseCacheMaxSize() {
+        return getPositiveInt(RESPONSE_CACHE_MAX_SIZE, 100000);
+    }
+
+    /**
+     * @return the maximum number of OCSP responses signed in parallel with the same key
+     */
+    public static int getSigningThreadsPerKey() {
+        return getPositiveInt(SIGNING_THREADS_PER_KEY, 16);
+    }
+
+    /**
+     * @return the maximum number of OCSP responses waiting to be signed with the same key before "tryLater" is returned
+     */
+    public static int getSigningQueueSizePerKey() {
+        return getPositiveInt(SIGNING_QUEUE_SIZE_PER_KEY, 1000);
+    }
+
+    /**
+     * @return for how long in milliseconds an issuer missing in the OCSP signing cache does not trigger another reload of the cache
+     */
+    public static long getSigningCacheNegativeCacheTimeMs() {
+        return getSecondsAsMs(SIGNING_CACHE_NEGATIVE_CACHE_TIME, 60L);
+    }
+
+    /**
+     * @return true if the OCSP servlet should read requests and write responses asynchronously, and process them on its own threads
+     */
+    public static boolean isAsyncServletEnabled() {
+        return "true".equalsIgnoreCase(ConfigurationHolder.getString(ASYNC_SERVLET_ENABLED));
+    }
+
+    /**
+     * @return the number of threads processing OCSP requests received asynchronously by the OCSP servlet
+     */
+    public static int getAsyncServletThreads() {
+        return getPositiveInt(ASYNC_SERVLET_THREADS, 64);
+    }
+
+    /**
+     * @return the maximum number of OCSP requests received asynchronously waiting to be processed before "tryLater" is returned
+     */
+    public static int getAsyncServletQueueSize() {
+        return getPositiveInt(ASYNC_SERVLET_QUEUE_SIZE, 10000);
+    }
+
+    /**
+     * @return the time in milliseconds an OCSP request received asynchronously may take to read, wait in the queue and sign,
+     *         before "tryLater" is returned
+     */
+    public static long getAsyncServletTimeout() {
+        return getPositiveInt(ASYNC_SERVLET_TIMEOUT, 10000);
+    }
+
+    private static int getPositiveInt(final String key, final int defaultValue) {
+        try {
+            final int value = Integer.parseInt(ConfigurationHolder.getString(key));
+            if (value > 0) {
+                return value;
+            }
+        } catch (NumberFormatException e) {
+            // Handled below
+        }
+        log.warn(key + " is not a positive decimal integer. Using default " + defaultValue + ".");
+        return defaultValue;
+    }
+
+    private static long getSecondsAsMs(final String key, final long defaultTimeInSeconds) {
+        long timeInSeconds;
+        try {
+            timeInSeconds = Long.parseLong(ConfigurationHolder.getString(key));
+        } catch (NumberFormatException e) {
+            timeInSeconds = defaultTimeInSeconds;
+            log.warn(key + " is not a decimal long. Using default " + defaultTimeInSeconds + " s.");
+        }
+        return timeInSeconds * 1000L;
+    }
+
     /**
      * If set to true the responder will enforce OCSP request signing
      */
@@ -402,6 +587,28 @@ public class OcspConfiguration {
         final String value = ConfigurationHolder.getString("ocsp.log-safer");
         return "true".equalsIgnoreCase(value) || "yes".equalsIgnoreCase(value);
     }
+
+    /**
+     * @return true if OCSP transaction and audit log lines should be formatted and written by a background thread
+     */
+    public static boolean isLogAsync() {
+        final String value = ConfigurationHolder.getString(LOG_ASYNC);
+        return "true".equalsIgnoreCase(value) || "yes".equalsIgnoreCase(value);
+    }
+
+    /**
+     * @return the number of flushed OCSP transaction and audit log records that can wait for the background writer
+     */
+    public static int getLogAsyncBufferSize() {
+        return getPositiveInt(LOG_ASYNC_BUFFER_SIZE, 8192);
+    }
+
+    /**
+     * @return true if the time spent in each stage of answering OCSP requests should be recorded
+     */
+    public static boolean isStageStatisticsEnabled() {
+        return "true".equalsIgnoreCase(ConfigurationHolder.getString(STAGE_STATISTICS_ENABLED));
+    }
     
     /**
      * The default number of milliseconds a response is valid, or 0 to disable. See RFC5019.
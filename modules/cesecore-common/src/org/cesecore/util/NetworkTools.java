@@ -15,8 +15,10 @@ package org.cesecore.util;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.net.URLConnection;
 
 import org.apache.log4j.Logger;
 
@@ -47,14 +49,83 @@ public abstract class NetworkTools {
 
     /** @return the data found at the provided URL if available and the size is less the maxSize */
     public static byte[] downloadDataFromUrl(final URL url, final int maxSize) {
+        try (final InputStream is = url.openStream()) {
+            return readData(url, is, maxSize);
+        } catch (IOException e) {
+            if (log.isDebugEnabled()) {
+                log.debug("Failed to download data from " + url.toString(), e);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Download data from an HTTP URL with a conditional GET request, so that data which has not changed since the last download
+     * is not transferred again.
+     *
+     * @param url the HTTP URL to download from
+     * @param maxSize the maximum allowed size of the data in bytes
+     * @param eTag the entity tag returned by the last download, sent as If-None-Match, or null
+     * @param lastModified the last modification time returned by the last download, sent as If-Modified-Since, or 0
+     * @return the result of the download, or null if the download failed or the size exceeded maxSize
+     */
+    public static ConditionalDownload downloadDataFromUrlIfModified(final URL url, final int maxSize, final String eTag, final long lastModified) {
+        try {
+            final URLConnection connection = url.openConnection();
+            if (!(connection instanceof HttpURLConnection)) {
+                final byte[] data = downloadDataFromUrl(url, maxSize);
+                return data == null ? null : new ConditionalDownload(data, null, 0);
+            }
+            final HttpURLConnection httpConnection = (HttpURLConnection) connection;
+            try {
+                if (eTag != null) {
+                    httpConnection.setRequestProperty("If-None-Match", eTag);
+                }
+                if (lastModified > 0) {
+                    httpConnection.setIfModifiedSince(lastModified);
+                }
+                final int responseCode = httpConnection.getResponseCode();
+                if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                    if (log.isDebugEnabled()) {
+                        log.debug("Data at " + url.toString() + " has not been modified.");
+                    }
+                    return new ConditionalDownload(null, eTag, lastModified);
+                }
+                if (responseCode != HttpURLConnection.HTTP_OK) {
+                    if (log.isDebugEnabled()) {
+                        log.debug("Failed to download data from " + url.toString() + ". HTTP response code was " + responseCode + ".");
+                    }
+                    return null;
+                }
+                if (httpConnection.getContentLengthLong() > maxSize) {
+                    if (log.isDebugEnabled()) {
+                        log.debug("Failed to download data from " + url.toString() + ". Size exceedes " + maxSize + " bytes.");
+                    }
+                    return null;
+                }
+                final byte[] data;
+                try (final InputStream is = httpConnection.getInputStream()) {
+                    data = readData(url, is, maxSize);
+                }
+                return data == null ? null : new ConditionalDownload(data, httpConnection.getHeaderField("ETag"), httpConnection.getLastModified());
+            } finally {
+                httpConnection.disconnect();
+            }
+        } catch (IOException e) {
+            if (log.isDebugEnabled()) {
+                log.debug("Failed to download data from " + url.toString(), e);
+            }
+            return null;
+        }
+    }
+
+    /** @return all data read from the stream, or null if the size exceeds maxSize */
+    private static byte[] readData(final URL url, final InputStream is, final int maxSize) throws IOException {
         final ByteArrayOutputStream baos = new ByteArrayOutputStream();
         final byte data[] = new byte[32768];    // 32KiB at the time
         int downloadedBytes = 0;
-        try (final InputStream is = url.openStream()) {
-            int count;
-            while ((count = is.read(data)) != -1) {
-                baos.write(data, 0, count);
-            }
+        int count;
+        while ((count = is.read(data)) != -1) {
             downloadedBytes += count;
             if (downloadedBytes>maxSize) {
                 if (log.isDebugEnabled()) {
@@ -62,12 +133,33 @@ public abstract class NetworkTools {
                 }
                 return null;
             }
-        } catch (IOException e) {
-            if (log.isDebugEnabled()) {
-                log.debug("Failed to download data from " + url.toString(), e);
-            }
-            return null;
+            baos.write(data, 0, count);
         }
         return baos.toByteArray();
     }
+
+    /** The result of a conditional download. */
+    public static class ConditionalDownload {
+        private final byte[] data;
+        private final String eTag;
+        private final long lastModified;
+
+        private ConditionalDownload(final byte[] data, final String eTag, final long lastModified) {
+            this.data = data;
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+        }
+
+        /** @return true if new data was downloaded, false if the server responded that the data was not modified */
+        public boolean isModified() { return data != null; }
+
+        /** @return the downloaded data, or null if the data was not modified */
+        public byte[] getData() { return data; }
+
+        /** @return the entity tag of the data, or null if the server did not send one */
+        public String getETag() { return eTag; }
+
+        /** @return the last modification time of the data, or 0 if the server did not send one */
+        public long getLastModified() { return lastModified; }
+    }
 }
@@ -63,6 +63,14 @@ public class ProbableErrorHandler implements ErrorHandler {
         lastFailure = new Date();
     }
 
+    /**
+     * Records an error writing to the log files that was detected outside of the Log4j appenders, e.g. by the asynchronous OCSP log
+     * writer, so that {@link #hasFailedSince(Date)} reports it.
+     */
+    public static void reportFailure() {
+        lastFailure = new Date();
+    }
+
     /**
      * Returns true if an error writing to the log files have happened since 'date'.
      * 
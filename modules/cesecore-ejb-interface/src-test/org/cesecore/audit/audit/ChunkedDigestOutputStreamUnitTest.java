@@ -0,0 +1,113 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.audit.audit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.bouncycastle.util.encoders.Hex;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests chunking, compression and the chunk digests of {@link ChunkedDigestOutputStream}.
+ *
+ * @version $Id$
+ */
+public class ChunkedDigestOutputStreamUnitTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testCompressedChunks() throws Exception {
+        final byte[] data = getData(2500);
+        final File digestFile = temporaryFolder.newFile("export.digests");
+        final ByteArrayOutputStream export = new ByteArrayOutputStream();
+        try (final ChunkedDigestOutputStream chunkedDigestOutputStream = new ChunkedDigestOutputStream(export, true, 1024, new FileOutputStream(digestFile))) {
+            chunkedDigestOutputStream.write(data, 0, 1000);
+            chunkedDigestOutputStream.write(data[1000]);
+            chunkedDigestOutputStream.write(data, 1001, data.length - 1001);
+        }
+        try (final InputStream inputStream = new GZIPInputStream(new ByteArrayInputStream(export.toByteArray()))) {
+            assertArrayEquals("The chunks should decompress as one gzip file", data, IOUtils.toByteArray(inputStream));
+        }
+        final List<String> digests = Files.readAllLines(digestFile.toPath(), StandardCharsets.UTF_8);
+        assertEquals(3, digests.size());
+        assertEquals("1024", digests.get(0).split(";")[3]);
+        assertEquals("452", digests.get(2).split(";")[3]);
+        verifyDigests(export.toByteArray(), digests);
+        // Each chunk can be decompressed on its own
+        final String[] lastChunk = digests.get(2).split(";");
+        final int offset = Integer.parseInt(lastChunk[1]);
+        try (final InputStream inputStream = new GZIPInputStream(new ByteArrayInputStream(export.toByteArray(), offset, Integer.parseInt(lastChunk[2])))) {
+            assertArrayEquals(Arrays.copyOfRange(data, 2048, 2500), IOUtils.toByteArray(inputStream));
+        }
+    }
+
+    @Test
+    public void testUncompressedChunks() throws Exception {
+        final byte[] data = getData(2048);
+        final File digestFile = temporaryFolder.newFile("export.digests");
+        final ByteArrayOutputStream export = new ByteArrayOutputStream();
+        try (final ChunkedDigestOutputStream chunkedDigestOutputStream = new ChunkedDigestOutputStream(export, false, 1024, new FileOutputStream(digestFile))) {
+            chunkedDigestOutputStream.write(data);
+        }
+        assertArrayEquals(data, export.toByteArray());
+        final List<String> digests = Files.readAllLines(digestFile.toPath(), StandardCharsets.UTF_8);
+        assertEquals("No empty chunk should be written at the end", 2, digests.size());
+        verifyDigests(export.toByteArray(), digests);
+    }
+
+    /** Verify the rolling digest of each chunk, as a reader of the export would */
+    private void verifyDigests(final byte[] export, final List<String> digests) throws Exception {
+        byte[] previousDigest = new byte[0];
+        long expectedOffset = 0;
+        for (int i = 0; i < digests.size(); i++) {
+            final String[] columns = digests.get(i).split(";");
+            assertEquals(String.valueOf(i), columns[0]);
+            final int offset = Integer.parseInt(columns[1]);
+            final int length = Integer.parseInt(columns[2]);
+            assertEquals("Chunks should follow each other", expectedOffset, offset);
+            final MessageDigest messageDigest = MessageDigest.getInstance(ChunkedDigestOutputStream.DIGEST_ALGORITHM);
+            messageDigest.update(export, offset, length);
+            messageDigest.update(previousDigest);
+            previousDigest = messageDigest.digest();
+            assertEquals("Wrong digest of chunk " + i, Hex.toHexString(previousDigest), columns[4]);
+            expectedOffset += length;
+        }
+        assertEquals("The chunks should cover the whole export", export.length, expectedOffset);
+    }
+
+    private byte[] getData(final int length) {
+        final byte[] ret = new byte[length];
+        for (int i = 0; i < length; i++) {
+            ret[i] = (byte) ("audit record " + (i / 16)).charAt(i % 13);
+        }
+        return ret;
+    }
+}
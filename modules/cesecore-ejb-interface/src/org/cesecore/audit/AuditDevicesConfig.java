@@ -187,7 +187,8 @@ public class AuditDevicesConfig {
 	public static File getExportFile(final Properties properties, final Date exportDate) throws IOException {
 		final String p = properties.getProperty("export.dir", System.getProperty("java.io.tmpdir"));
 		final File dir = new File(p);
-		final String file = "cesecore-" + FastDateFormat.getInstance(EXPORTFILE_DATE_FORMAT, ValidityDate.TIMEZONE_UTC).format(exportDate) + ".log";
+		final String file = "cesecore-" + FastDateFormat.getInstance(EXPORTFILE_DATE_FORMAT, ValidityDate.TIMEZONE_UTC).format(exportDate) + ".log"
+		        + (isAuditLogExportCompressed(properties) ? ".gz" : "");
         File ret = new File(dir, file);
         if (log.isDebugEnabled()) {
         	log.debug("Export file: "+p+file);
@@ -196,16 +197,83 @@ public class AuditDevicesConfig {
         return ret;
 	}
 
+    /** @return the signature file of an export, which has the name of the export without extensions, e.g. "cesecore-2026-10-18-120000.sig" */
+    public static File getExportSignatureFile(final File exportFile) {
+        return new File(exportFile.getParentFile(), getExportBaseName(exportFile) + ".sig");
+    }
+
+    /** @return the file with the chunk digests of an export, e.g. "cesecore-2026-10-18-120000.digests", signed in a file with the extension ".digests.sig" */
+    public static File getExportDigestFile(final File exportFile) {
+        return new File(exportFile.getParentFile(), getExportBaseName(exportFile) + ".digests");
+    }
+
+    /** @return the name of an export file without the extensions ".log" and ".gz" */
+    private static String getExportBaseName(final File exportFile) {
+        final String name = exportFile.getName();
+        return name.indexOf('.') == -1 ? name : name.substring(0, name.indexOf('.'));
+    }
+
     /** Parameter to specify the number of logs to be fetched in each validation round trip. */
     public static int getAuditLogValidationFetchSize(final Properties properties) {
         return getInt(properties, "validate.fetchsize", 1000);
     }
 
+    /** Parameter to specify the number of threads verifying the row protection of logs during validation and export. */
+    public static int getAuditLogValidationThreads(final Properties properties) {
+        return Math.max(1, getInt(properties, "validate.threads", Runtime.getRuntime().availableProcessors()));
+    }
+
+    /** @return the file where the progress of a validation is saved so that it can be resumed, or null if validations always start from the beginning */
+    public static File getAuditLogValidationCheckpointFile(final Properties properties) {
+        final String file = properties == null ? null : properties.getProperty("validate.checkpointfile");
+        return file == null || file.trim().isEmpty() ? null : new File(file.trim());
+    }
+
     /** Parameter to specify the number of logs to be fetched in each export round trip. */
     public static int getAuditLogExportFetchSize(final Properties properties) {
         return getInt(properties, "export.fetchsize", 1000);
     }
 
+    /** Parameter to specify if the export should be compressed with gzip ("gzip") or not ("none"). */
+    public static boolean isAuditLogExportCompressed(final Properties properties) {
+        final String compression = properties == null ? "none" : properties.getProperty("export.compression", "none").trim();
+        if ("gzip".equalsIgnoreCase(compression)) {
+            return true;
+        }
+        if (!"none".equalsIgnoreCase(compression)) {
+            log.error("Invalid value in export.compression, must be gzip or none. Using default none.");
+        }
+        return false;
+    }
+
+    /** Parameter to specify the number of bytes, before compression, in each chunk of the export that has its own digest. */
+    public static int getAuditLogExportChunkSize(final Properties properties) {
+        return Math.max(1024, getInt(properties, "export.chunksize", 4 * 1024 * 1024));
+    }
+
+    /**
+     * Parameter to specify the length in hours of the periods that old logs are deleted in. Each period is deleted in a transaction of its own,
+     * so that the table is not locked for a long time. Should divide the periods the table is partitioned by, if any.
+     */
+    public static int getAuditLogDeletePeriodHours(final Properties properties) {
+        return properties == null ? 24 : Math.max(1, getInt(properties, "delete.periodhours", 24));
+    }
+
+    /** Parameter to specify if audit records should be committed to the database in groups by a single writer thread. */
+    public static boolean isAuditLogGroupCommitEnabled(final Properties properties) {
+        return properties != null && Boolean.parseBoolean(properties.getProperty("groupcommit.enabled", "false").trim());
+    }
+
+    /** Parameter to specify the maximum number of audit records committed in one transaction when group commit is enabled. */
+    public static int getAuditLogGroupCommitMaxBatchSize(final Properties properties) {
+        return Math.max(1, getInt(properties, "groupcommit.maxbatchsize", 100));
+    }
+
+    /** Parameter to specify the maximum time in milliseconds that logging an event waits for its audit record to be committed by group commit. */
+    public static long getAuditLogGroupCommitTimeout(final Properties properties) {
+        return Math.max(1, getInt(properties, "groupcommit.timeout", 30000));
+    }
+
     private static int getInt(final Properties properties, final String key, final int defaultValue) {
         int ret = defaultValue;
         try {
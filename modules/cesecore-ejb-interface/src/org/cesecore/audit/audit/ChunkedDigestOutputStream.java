@@ -0,0 +1,165 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.audit.audit;
+
+import java.io.BufferedWriter;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.GZIPOutputStream;
+
+import org.bouncycastle.util.encoders.Hex;
+
+/**
+ * Splits an exported audit log in chunks, that are optionally compressed, and writes a rolling digest of each chunk to a separate stream.
+ * <p>
+ * A chunk ends when the given number of bytes have been written to it. With compression, each chunk is written as a gzip member, and
+ * since a sequence of gzip members is a valid gzip file, the export can be decompressed as a whole with standard tools. The digest of a
+ * chunk is the SHA-256 hash of the bytes of the chunk as stored in the export followed by the digest of the previous chunk, so each chunk
+ * can be verified on its own and the order of the chunks can not be changed. For each chunk a line
+ * <pre>index;offset;length;uncompressed length;digest</pre>
+ * is written to the digest stream, where offset and length refer to the bytes stored in the export and the digest is hex encoded.
+ * The digests can only be trusted if the digest stream is signed, like the export.
+ * <p>
+ * Only the current chunk is kept in memory by the compressor, so memory use does not depend on the size of the export.
+ *
+ * @version $Id$
+ */
+public class ChunkedDigestOutputStream extends OutputStream {
+
+    public static final String DIGEST_ALGORITHM = "SHA-256";
+
+    /** Counts and digests the bytes of a chunk, and does not close the export when a chunk is finished */
+    private final class ChunkOutputStream extends FilterOutputStream {
+        private ChunkOutputStream(final OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            out.write(b);
+            messageDigest.update((byte) b);
+            chunkLength++;
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            out.write(b, off, len);
+            messageDigest.update(b, off, len);
+            chunkLength += len;
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+
+    private final OutputStream exportOutputStream;
+    private final boolean compress;
+    private final int chunkSize;
+    private final Writer digestWriter;
+    private final MessageDigest messageDigest;
+    private final byte[] singleByte = new byte[1];
+    private byte[] previousDigest = new byte[0];
+    private OutputStream chunkOutputStream;
+    private int chunkIndex;
+    private long chunkOffset;
+    private long chunkLength;
+    private int uncompressedChunkLength;
+    private boolean closed = false;
+
+    /**
+     * @param exportOutputStream stream where the chunks are written, which is closed when this stream is closed
+     * @param compress true to compress each chunk with gzip
+     * @param chunkSize the number of bytes written to this stream that make up a chunk, before compression
+     * @param digestOutputStream stream where the digest of each chunk is written, which is closed when this stream is closed
+     */
+    public ChunkedDigestOutputStream(final OutputStream exportOutputStream, final boolean compress, final int chunkSize,
+            final OutputStream digestOutputStream) throws NoSuchAlgorithmException {
+        this.exportOutputStream = exportOutputStream;
+        this.compress = compress;
+        this.chunkSize = Math.max(1, chunkSize);
+        this.messageDigest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+        this.digestWriter = new BufferedWriter(new OutputStreamWriter(digestOutputStream, StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+        singleByte[0] = (byte) b;
+        write(singleByte, 0, 1);
+    }
+
+    @Override
+    public void write(final byte[] b, final int off, final int len) throws IOException {
+        int written = 0;
+        while (written < len) {
+            if (chunkOutputStream == null) {
+                final ChunkOutputStream chunk = new ChunkOutputStream(exportOutputStream);
+                chunkOutputStream = compress ? new GZIPOutputStream(chunk, 64 * 1024) : chunk;
+            }
+            final int length = Math.min(len - written, chunkSize - uncompressedChunkLength);
+            chunkOutputStream.write(b, off + written, length);
+            uncompressedChunkLength += length;
+            written += length;
+            if (uncompressedChunkLength == chunkSize) {
+                endChunk();
+            }
+        }
+    }
+
+    /** Write the last bytes of the current chunk to the export, and its digest to the digest file */
+    private void endChunk() throws IOException {
+        if (chunkOutputStream == null) {
+            return;
+        }
+        // Finishes the gzip member without closing the export
+        chunkOutputStream.close();
+        messageDigest.update(previousDigest);
+        previousDigest = messageDigest.digest();
+        digestWriter.write(chunkIndex + ";" + chunkOffset + ";" + chunkLength + ";" + uncompressedChunkLength + ";" + Hex.toHexString(previousDigest));
+        digestWriter.write('\n');
+        chunkIndex++;
+        chunkOffset += chunkLength;
+        chunkLength = 0;
+        uncompressedChunkLength = 0;
+        chunkOutputStream = null;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (chunkOutputStream != null) {
+            chunkOutputStream.flush();
+        }
+        exportOutputStream.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            endChunk();
+            digestWriter.close();
+        } finally {
+            exportOutputStream.close();
+        }
+    }
+}
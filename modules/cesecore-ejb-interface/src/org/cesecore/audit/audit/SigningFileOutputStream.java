@@ -68,8 +68,20 @@ public class SigningFileOutputStream extends FileOutputStream {
      * @return the full pathname of the signature file
      */
     public SigningFileOutputStream(final File file, final CryptoToken cryptoToken, final Map<String, Object> signatureDetails) throws FileNotFoundException, CryptoTokenOfflineException, NoSuchAlgorithmException, NoSuchProviderException, InvalidKeyException {
+        this(file, new File(String.format("%s.sig", FilenameUtils.removeExtension(file.getAbsolutePath()))), cryptoToken, signatureDetails);
+    }
+
+    /**
+     * Generates a signature file with the given name.
+     * 
+     * @param file the exported file.
+     * @param signatureFile the file where the signature is written.
+     * @param cryptoToken the crypto token that will be used to fetch the necessary keys.
+     * @param signatureDetails see {@link #SigningFileOutputStream(File, CryptoToken, Map)}
+     */
+    public SigningFileOutputStream(final File file, final File signatureFile, final CryptoToken cryptoToken, final Map<String, Object> signatureDetails) throws FileNotFoundException, CryptoTokenOfflineException, NoSuchAlgorithmException, NoSuchProviderException, InvalidKeyException {
 		super(file);
-    	signatureFilename = String.format("%s.sig", FilenameUtils.removeExtension(file.getAbsolutePath()));
+    	signatureFilename = signatureFile.getAbsolutePath();
     	final String keyAlias = (String) signatureDetails.get(SigningFileOutputStream.EXPORT_SIGN_KEYALIAS);
     	final PrivateKey privateKey = cryptoToken.getPrivateKey(keyAlias);
     	final PublicKey publicKey = cryptoToken.getPublicKey(keyAlias);
@@ -39,4 +39,17 @@ public interface IntegrityProtectedAuditorSessionLocal extends Auditable {
 	 * @throws AuthorizationDeniedException unless token has StandardRules.AUDITLOGEXPORT rights
 	 */
 	int deleteRows(AuthenticationToken token, Date timestamp, Properties properties) throws AuthorizationDeniedException;
+
+	/**
+	 * Delete the log entries with a time stamp in the given period, in a transaction of its own, and log the deletion.
+	 * 
+	 * Internal use only. Called by {@link #deleteRows(AuthenticationToken, Date, Properties)} for each period through the business
+	 * interface of the bean, so that each period is deleted in a transaction of its own. Authorization must be checked by the caller.
+	 * 
+	 * @param token the token that requested the deletion, for the audit log
+	 * @param from start of the period in milliseconds since epoch, inclusive
+	 * @param to end of the period in milliseconds since epoch, inclusive
+	 * @return number of rows deleted
+	 */
+	int deleteRowsInPeriod(AuthenticationToken token, long from, long to);
 }
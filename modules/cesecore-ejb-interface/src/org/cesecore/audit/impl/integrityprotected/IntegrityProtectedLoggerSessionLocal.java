@@ -12,6 +12,8 @@
  *************************************************************************/
 package org.cesecore.audit.impl.integrityprotected;
 
+import java.util.List;
+
 import javax.ejb.Local;
 
 import org.cesecore.audit.AuditLogger;
@@ -21,4 +23,19 @@ import org.cesecore.audit.AuditLogger;
  */
 @Local
 public interface IntegrityProtectedLoggerSessionLocal extends AuditLogger {
+
+    /**
+     * Persist an audit record in a new transaction, assigning it the next sequence number of this node. Used when group commit is not enabled.
+     *
+     * @param auditRecordData record without node identifier and sequence number
+     */
+    void writeRecord(AuditRecordData auditRecordData);
+
+    /**
+     * Persist audit records in a new transaction, assigning them the next sequence numbers of this node. Used by the group commit writer
+     * thread (securityeventsaudit.deviceproperty.X.groupcommit.enabled=true) only.
+     *
+     * @param auditRecords records without node identifier and sequence number. The records themselves are not persisted, but copies.
+     */
+    void writeBatch(List<AuditRecordData> auditRecords);
 }
@@ -59,6 +59,29 @@ public enum NodeSequenceHolder {
         return lastSequenceNumberAtomic.incrementAndGet();
     }
 
+    /** @return the last sequence number returned by {@link NodeSequenceHolder#getNext(OnInitCallBack)}, or -1 if not yet initialized. */
+    public long getLast() {
+        return lastSequenceNumberAtomic.get();
+    }
+
+    /**
+     * Give back sequence numbers that were taken for log rows that were never persisted (e.g. since the transaction was rolled back), so
+     * there is no gap in the sequence. The numbers are only given back if no other numbers have been taken since.
+     * 
+     * This is only useful when a single thread takes all sequence numbers, like the group commit writer of the audit log.
+     * 
+     * @param last the value of {@link NodeSequenceHolder#getLast()} before the sequence numbers were taken
+     * @param count the number of sequence numbers taken since
+     */
+    public void release(final long last, final int count) {
+        if (last == -1L) {
+            // The last sequence number will be read from the database again
+            lastSequenceNumberAtomic.set(-1L);
+        } else {
+            lastSequenceNumberAtomic.compareAndSet(last + count, last);
+        }
+    }
+
     /** @return the Node Identifier that this sequence number applies to. */
     public String getNodeId() {
         return nodeId;
@@ -47,6 +47,63 @@ public interface CertificateDataSessionLocal extends CertificateDataSession {
 
     /** @return return the query results as a List. */
     CertificateInfo findFirstCertificateInfo(String issuerDN, String serialNumber);
+
+    /**
+     * Fetch the status information of the certificates issued by a CA, ordered by serial number, one page at a time.
+     *
+     * @param issuerDN the issuer DN in BC normalized form
+     * @param minUpdateTime only return certificates with an updateTime equal to or later than this, or 0 to return all certificates
+     * @param afterSerialNumber only return certificates with a serial number (as string) sorted after this, or null for the first page
+     * @param maxResults the maximum number of rows to return
+     * @return [0] = (String) serialNumber, [1] = (Integer) status, [2] = (Long) revocationDate, [3] = (Integer) revocationReason,
+     *         [4] = (Integer) certificateProfileId (may be null)
+     */
+    List<Object[]> findStatusInfosByIssuerDN(String issuerDN, long minUpdateTime, String afterSerialNumber, int maxResults);
+
+    /**
+     * Fetch the revocation information of the certificates in a CRL partition whose updateTime is equal to or later than minUpdateTime,
+     * ordered by serial number, one page at a time. Only certificates that are revoked or have been revoked are included, i.e. not
+     * certificates that were just issued.
+     *
+     * @param issuerDN the issuer DN in BC normalized form
+     * @param crlPartitionIndex CRL partition index, or CertificateConstants.NO_CRL_PARTITION if partitioning is not used.
+     * @param minUpdateTime only return certificates with an updateTime equal to or later than this
+     * @param afterSerialNumber only return certificates with a serial number (as string) sorted after this, or null for the first page
+     * @param maxResults the maximum number of rows to return
+     * @return [0] = (String) fingerprint, [1] = (String) serialNumber, [2] = (Long) expireDate, [3] = (Long) revocationDate,
+     *         [4] = (Integer) revocationReason, [5] = (Integer) status
+     */
+    List<Object[]> findRevocationChangesByIssuerDN(String issuerDN, int crlPartitionIndex, long minUpdateTime, String afterSerialNumber, int maxResults);
+
+    /**
+     * Fetch the status information of several certificates issued by a CA in one query.
+     *
+     * @param issuerDN the issuer DN in BC normalized form
+     * @param serialNumbers the serial numbers in decimal form
+     * @return the same columns as {@link #findStatusInfosByIssuerDN(String, long, String, int)}, in no particular order. Serial numbers
+     *         that were not found are not included.
+     */
+    List<Object[]> findStatusInfosByIssuerDNAndSerialNumbers(String issuerDN, Collection<String> serialNumbers);
+
+    /**
+     * Fetch several certificates issued by a CA in one query.
+     *
+     * @param issuerDN the issuer DN in BC normalized form
+     * @param serialNumbers the serial numbers in decimal form
+     * @return the matching entities, in no particular order. Serial numbers that were not found are not included.
+     */
+    List<CertificateData> findByIssuerDNAndSerialNumbers(String issuerDN, Collection<String> serialNumbers);
+
+    /**
+     * Fetch the serial numbers of the unexpired certificates issued by a CA, ordered by serial number, one page at a time.
+     *
+     * @param issuerDN the issuer DN in BC normalized form
+     * @param minExpireDate only return certificates that expire after this time
+     * @param afterSerialNumber only return certificates with a serial number (as string) sorted after this, or null for the first page
+     * @param maxResults the maximum number of serial numbers to return
+     * @return the serial numbers in decimal form
+     */
+    List<String> findSerialNumbersByIssuerDNAndExpireDate(String issuerDN, long minExpireDate, String afterSerialNumber, int maxResults);
     
     /** @return the last found username or null if none was found */
     String findLastUsernameByIssuerDNSerialNumber(String issuerDN, String serialNumber);
@@ -17,12 +17,14 @@ import java.security.cert.Certificate;
 import java.util.Collection;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 import javax.ejb.Local;
 
 import org.cesecore.authentication.tokens.AuthenticationToken;
 import org.cesecore.authorization.AuthorizationDeniedException;
 import org.cesecore.certificates.certificate.request.RequestMessage;
+import org.cesecore.certificates.crl.RevokedCertInfo;
 
 /**
  * Local interface for CertificateStoreSession.
@@ -227,12 +229,55 @@ public interface CertificateStoreSessionLocal extends CertificateStoreSession {
     void updateLimitedCertificateDataStatus(final AuthenticationToken admin, final int caId, final String issuerDn, final String subjectDn, final String username, final BigInteger serialNumber,
             final int status, final Date revocationDate, final int reasonCode, final String caFingerprint) throws AuthorizationDeniedException;
     
+    /**
+     * Get the status of several certificates issued by the same CA, with one database query per batch of up to 100
+     * serial numbers instead of one query per certificate.
+     *
+     * @param issuerDN the DN of the issuer
+     * @param serialNumbers the serial numbers of the certificates
+     * @return the status of each certificate by serial number, CertificateStatus.NOT_AVAILABLE for certificates that were not found.
+     */
+    Map<BigInteger, CertificateStatus> getStatuses(String issuerDN, Collection<BigInteger> serialNumbers);
+
+    /**
+     * Get the database entries of several certificates issued by the same CA, with one database query per batch of up to 100
+     * serial numbers instead of one query per certificate. Unlike {@link #getCertificateDataByIssuerAndSerno(String, BigInteger)},
+     * the certificates themselves are not read from the Base64CertData table.
+     *
+     * @param issuerDN the DN of the issuer
+     * @param serialNumbers the serial numbers of the certificates
+     * @return the entry of each certificate that was found by serial number. If there are several entries with the same issuer and
+     *      serial number, the one that expires last is returned.
+     */
+    Map<BigInteger, CertificateData> getCertificateDataByIssuerAndSernos(String issuerDN, Collection<BigInteger> serialNumbers);
+
+    /**
+     * Lists the revocation information of the certificates in a CRL partition whose updateTime is equal to or later than minUpdateTime,
+     * i.e. that have been revoked, unrevoked or archived since then. Newly issued certificates are not included.
+     *
+     * @param issuerdn the dn of the certificates issuer.
+     * @param crlPartitionIndex the CRL Partition Index, or CertificateConstants.NO_CRL_PARTITION if not using a partitioned CRL.
+     * @param minUpdateTime the earliest updateTime, in milliseconds since epoch
+     * @return Collection of RevokedCertInfo, ordered by serial number as string. Certificates that are no longer revoked have the reason
+     *         {@link RevokedCertInfo#REVOCATION_REASON_REMOVEFROMCRL}.
+     */
+    Collection<RevokedCertInfo> listRevocationChanges(String issuerdn, int crlPartitionIndex, long minUpdateTime);
+
     /** Reloads the cache containing CA certificates */
     void reloadCaCertificateCache();
     
     /** Invoked from timer. Reloads the cache containing CA certificates and additionally sets a new timeout. */
     void reloadCaCertificateCacheAndSetTimeout();
 
+    /**
+     * Reads new and updated certificate statuses of the CAs in the OCSP signing cache into the in-memory revocation status index,
+     * and rebuilds the index for a CA from scratch when needed. Does nothing unless ocsp.statusindex.enabled is true.
+     */
+    void refreshRevocationStatusIndex();
+
+    /** Invoked from timer. Refreshes the in-memory revocation status index and additionally sets a new timeout. */
+    void refreshRevocationStatusIndexAndSetTimeout();
+
     /** Initialize all timers and related operations used by this bean. */
     void initTimers();
 
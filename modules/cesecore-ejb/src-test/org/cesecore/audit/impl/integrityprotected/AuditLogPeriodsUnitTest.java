@@ -0,0 +1,66 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.audit.impl.integrityprotected;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Tests the alignment and clamping of the periods that old audit logs are deleted in, see {@link AuditLogPeriods}.
+ *
+ * @version $Id$
+ */
+public class AuditLogPeriodsUnitTest {
+
+    private static final long DAY = 24 * 3600000L;
+
+    @Test
+    public void testPeriodStartIsAligned() {
+        assertEquals(0, AuditLogPeriods.getPeriodStart(0, DAY));
+        assertEquals(0, AuditLogPeriods.getPeriodStart(DAY - 1, DAY));
+        assertEquals(DAY, AuditLogPeriods.getPeriodStart(DAY, DAY));
+        assertEquals(10 * DAY, AuditLogPeriods.getPeriodStart(10 * DAY + 12345, DAY));
+    }
+
+    @Test
+    public void testPeriodStartBeforeEpoch() {
+        assertEquals("A time before epoch should be in the period before it", -DAY, AuditLogPeriods.getPeriodStart(-1, DAY));
+        assertEquals(-DAY, AuditLogPeriods.getPeriodStart(-DAY, DAY));
+        assertEquals(-2 * DAY, AuditLogPeriods.getPeriodStart(-DAY - 1, DAY));
+    }
+
+    @Test
+    public void testPeriodEnd() {
+        assertEquals("The end of a period should be inclusive", DAY - 1, AuditLogPeriods.getPeriodEnd(0, DAY, Long.MAX_VALUE));
+        assertEquals("The period should end at the time logs are deleted until", 5000, AuditLogPeriods.getPeriodEnd(0, DAY, 5000));
+        assertEquals(DAY - 1, AuditLogPeriods.getPeriodEnd(0, DAY, DAY - 1));
+        assertEquals(DAY - 1, AuditLogPeriods.getPeriodEnd(0, DAY, DAY));
+    }
+
+    @Test
+    public void testConsecutivePeriods() {
+        // Periods of a deletion loop cover every time stamp once, and the next period starts right after the previous end
+        final long until = 3 * DAY + 17;
+        long time = AuditLogPeriods.getPeriodStart(123, DAY);
+        int periods = 0;
+        while (time <= until) {
+            final long end = AuditLogPeriods.getPeriodEnd(time, DAY, until);
+            assertEquals(time, AuditLogPeriods.getPeriodStart(end, DAY));
+            time = end + 1;
+            periods++;
+        }
+        assertEquals(4, periods);
+        assertEquals(until + 1, time);
+    }
+}
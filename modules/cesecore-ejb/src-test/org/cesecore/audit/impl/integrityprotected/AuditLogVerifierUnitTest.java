@@ -0,0 +1,146 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.audit.impl.integrityprotected;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.cesecore.audit.audit.AuditLogValidationReport;
+import org.cesecore.audit.enums.EventStatus;
+import org.cesecore.audit.enums.EventTypes;
+import org.cesecore.audit.enums.ModuleTypes;
+import org.cesecore.audit.enums.ServiceTypes;
+import org.cesecore.dbprotection.DatabaseProtectionException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests {@link AuditLogVerifier} with an in-memory audit log.
+ *
+ * @version $Id$
+ */
+public class AuditLogVerifierUnitTest {
+
+    private static final String TAMPERED = "tampered";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final Map<String, List<AuditRecordData>> auditLog = new LinkedHashMap<>();
+    private final List<String> pagesRead = Collections.synchronizedList(new ArrayList<String>());
+
+    private final AuditLogVerifier.PageReader pageReader = (nodeId, afterSequenceNumber, max) -> {
+        pagesRead.add(nodeId + ":" + afterSequenceNumber);
+        final List<AuditRecordData> ret = new ArrayList<>();
+        for (final AuditRecordData auditRecordData : auditLog.get(nodeId)) {
+            if (auditRecordData.getSequenceNumber() > afterSequenceNumber && ret.size() < max) {
+                ret.add(auditRecordData);
+            }
+        }
+        return ret;
+    };
+
+    private final AuditLogVerifier.RowVerifier rowVerifier = auditRecordData -> {
+        if (TAMPERED.equals(auditRecordData.getCustomId())) {
+            throw new DatabaseProtectionException("Row protection failed", auditRecordData);
+        }
+    };
+
+    @Test
+    public void testVerifyNodesInParallel() throws IOException {
+        addLog("node1", 0, 10);
+        addLog("node2", 0, 10);
+        final AuditLogValidationReport report = new AuditLogValidationReport();
+        new AuditLogVerifier(pageReader, rowVerifier, 4, 2, null).verify(Arrays.asList("node1", "node2"), report, null);
+        assertTrue("Unexpected problems: " + report.warnings(), report.warnings().isEmpty());
+        assertEquals("The pages of the nodes should be read in turn", Arrays.asList("node1:-1", "node2:-1", "node1:3", "node2:3", "node1:7", "node2:7"),
+                pagesRead);
+    }
+
+    @Test
+    public void testExportNodesInOrder() throws IOException {
+        addLog("node1", 0, 5);
+        addLog("node2", 0, 5);
+        final List<String> exported = new ArrayList<>();
+        final AuditLogValidationReport report = new AuditLogValidationReport();
+        new AuditLogVerifier(pageReader, rowVerifier, 2, 4, null).verify(Arrays.asList("node1", "node2"), report,
+                auditRecordData -> exported.add(auditRecordData.getNodeId() + ":" + auditRecordData.getSequenceNumber()));
+        assertEquals(Arrays.asList("node1:0", "node1:1", "node1:2", "node1:3", "node1:4", "node2:0", "node2:1", "node2:2", "node2:3", "node2:4"), exported);
+    }
+
+    @Test
+    public void testMissingAndTamperedRecords() throws IOException {
+        addLog("node1", 0, 4);
+        addLog("node1", 5, 10);
+        auditLog.get("node1").get(7).setCustomId(TAMPERED);
+        final List<Long> exported = new ArrayList<>();
+        final AuditLogValidationReport report = new AuditLogValidationReport();
+        new AuditLogVerifier(pageReader, rowVerifier, 3, 3, null).verify(Collections.singletonList("node1"), report,
+                auditRecordData -> exported.add(auditRecordData.getSequenceNumber()));
+        assertEquals(2, report.warnings().size());
+        assertEquals("missing log with sequence number 4 on nodeId node1", report.warnings().get(0).getReasons().get(0));
+        assertEquals(Long.valueOf(8), report.warnings().get(1).getSecond());
+        assertEquals("Records that could not be verified should still be exported", 9, exported.size());
+    }
+
+    @Test
+    public void testResumeFromCheckpoint() throws IOException {
+        final File checkpointFile = new File(temporaryFolder.getRoot(), "checkpoint");
+        addLog("node1", 0, 6);
+        auditLog.get("node1").get(1).setCustomId(TAMPERED);
+        // Stop the first verification when it reads the third page
+        final AuditLogVerifier.PageReader failingReader = (nodeId, afterSequenceNumber, max) -> {
+            if (afterSequenceNumber == 3) {
+                throw new IllegalStateException("Connection lost");
+            }
+            return pageReader.read(nodeId, afterSequenceNumber, max);
+        };
+        try {
+            // A single thread and two pages in flight, so the first page has been processed when the third is read
+            new AuditLogVerifier(failingReader, rowVerifier, 2, 1, checkpointFile).verify(Collections.singletonList("node1"),
+                    new AuditLogValidationReport(), null);
+            fail("The verification should have been interrupted");
+        } catch (IllegalStateException e) {
+            assertTrue("The checkpoint should have been saved", checkpointFile.exists());
+        }
+        pagesRead.clear();
+        final AuditLogValidationReport report = new AuditLogValidationReport();
+        new AuditLogVerifier(pageReader, rowVerifier, 2, 1, checkpointFile).verify(Collections.singletonList("node1"), report, null);
+        assertEquals("The verification should continue after the last verified record", "node1:1", pagesRead.get(0));
+        assertEquals("The problem found before the checkpoint should be reported", 1, report.warnings().size());
+        assertFalse("The checkpoint should be removed when the verification completes", checkpointFile.exists());
+    }
+
+    /** Add records with sequence numbers from first until, but not including, last */
+    private void addLog(final String nodeId, final long first, final long last) {
+        if (!auditLog.containsKey(nodeId)) {
+            auditLog.put(nodeId, new ArrayList<AuditRecordData>());
+        }
+        for (long sequenceNumber = first; sequenceNumber < last; sequenceNumber++) {
+            auditLog.get(nodeId).add(new AuditRecordData(nodeId, sequenceNumber, System.currentTimeMillis(), EventTypes.LOG_VERIFY, EventStatus.SUCCESS,
+                    "test", ServiceTypes.CORE, ModuleTypes.SECURITY_AUDIT, null, null, null, null));
+        }
+    }
+}
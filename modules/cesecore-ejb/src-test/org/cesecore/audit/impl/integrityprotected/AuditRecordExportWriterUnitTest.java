@@ -0,0 +1,118 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.audit.impl.integrityprotected;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.cesecore.audit.enums.EventStatus;
+import org.cesecore.audit.enums.EventTypes;
+import org.cesecore.audit.enums.ModuleTypes;
+import org.cesecore.audit.enums.ServiceTypes;
+import org.cesecore.audit.impl.AuditExporterDummy;
+import org.junit.Test;
+
+/**
+ * Tests that {@link AuditRecordExportWriter} writes all records, and that failures and aborts never leave the exporting thread waiting.
+ *
+ * @version $Id$
+ */
+public class AuditRecordExportWriterUnitTest {
+
+    /** Counts the records written and fails on the given record */
+    private static class TestAuditExporter extends AuditExporterDummy {
+        private final int failingRecord;
+        private final AtomicInteger written = new AtomicInteger();
+        private volatile boolean closed = false;
+
+        private TestAuditExporter(final int failingRecord) {
+            this.failingRecord = failingRecord;
+        }
+
+        @Override
+        public void writeStartObject() throws IOException {
+            if (written.incrementAndGet() == failingRecord) {
+                throw new OutOfMemoryError("Test");
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+        }
+    }
+
+    @Test
+    public void testWriteRecords() throws Exception {
+        final TestAuditExporter auditExporter = new TestAuditExporter(-1);
+        final AuditRecordExportWriter auditRecordExportWriter = new AuditRecordExportWriter(auditExporter, 2);
+        for (int i = 0; i < 100; i++) {
+            auditRecordExportWriter.write(getAuditRecord(i));
+        }
+        auditRecordExportWriter.finish();
+        assertEquals(100, auditExporter.written.get());
+        assertTrue("The exporter should be closed when finished", auditExporter.closed);
+    }
+
+    @Test
+    public void testErrorInExporter() throws Exception {
+        final AuditRecordExportWriter auditRecordExportWriter = new AuditRecordExportWriter(new TestAuditExporter(5), 2);
+        try {
+            // The queue fills up once the export thread has failed
+            for (int i = 0; i < 100; i++) {
+                auditRecordExportWriter.write(getAuditRecord(i));
+            }
+            fail("Writing should fail after an Error in the exporter");
+        } catch (IOException e) {
+            assertTrue(e.getCause() instanceof OutOfMemoryError);
+        }
+        try {
+            auditRecordExportWriter.finish();
+            fail("Finishing should fail after an Error in the exporter");
+        } catch (IOException e) {
+            assertTrue(e.getCause() instanceof OutOfMemoryError);
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testAbort() throws Exception {
+        final TestAuditExporter auditExporter = new TestAuditExporter(-1);
+        final AuditRecordExportWriter auditRecordExportWriter = new AuditRecordExportWriter(auditExporter, 2);
+        auditRecordExportWriter.write(getAuditRecord(0));
+        auditRecordExportWriter.abort();
+        try {
+            auditRecordExportWriter.finish();
+            fail("Finishing should fail after the export has been aborted");
+        } catch (IOException e) {
+            assertTrue(e.getCause() instanceof InterruptedException);
+        }
+        try {
+            auditRecordExportWriter.write(getAuditRecord(1));
+            fail("Writing should fail after the export has been aborted");
+        } catch (IOException e) {
+            assertFalse(e instanceof InterruptedIOException);
+        }
+        assertFalse("The exporter should not be closed when aborted", auditExporter.closed);
+    }
+
+    private AuditRecordData getAuditRecord(final int sequenceNumber) {
+        return new AuditRecordData("node", Long.valueOf(sequenceNumber), System.currentTimeMillis(), EventTypes.LOG_VERIFY, EventStatus.SUCCESS,
+                "test", ServiceTypes.CORE, ModuleTypes.SECURITY_AUDIT, null, null, null, null);
+    }
+}
@@ -0,0 +1,192 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.audit.impl.integrityprotected;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.cesecore.audit.enums.EventStatus;
+import org.cesecore.audit.enums.EventTypes;
+import org.cesecore.audit.enums.ModuleTypes;
+import org.cesecore.audit.enums.ServiceTypes;
+import org.cesecore.audit.log.AuditRecordStorageException;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests grouping and sequence numbering in {@link AuditRecordGroupCommitter}, with a batch writer that does not use a database.
+ *
+ * @version $Id$
+ */
+public class AuditRecordGroupCommitterUnitTest {
+
+    private static final String FAILING_RECORD = "fail";
+
+    private final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<Integer>());
+    private final List<Long> committedSequenceNumbers = Collections.synchronizedList(new ArrayList<Long>());
+    private final CountDownLatch firstBatchReleased = new CountDownLatch(1);
+
+    /** Takes sequence numbers like IntegrityProtectedLoggerSessionBean, and blocks in the first call until the test releases it */
+    private final AuditRecordGroupCommitter.BatchWriter batchWriter = auditRecords -> {
+        final List<Long> sequenceNumbers = new ArrayList<>();
+        for (int i = 0; i < auditRecords.size(); i++) {
+            sequenceNumbers.add(NodeSequenceHolder.INSTANCE.getNext(new NodeSequenceHolder.OnInitCallBack() {
+                @Override
+                public String getNodeId() {
+                    return "AuditRecordGroupCommitterUnitTest";
+                }
+                @Override
+                public long getMaxSequenceNumberForNode(final String nodeId) {
+                    return committedSequenceNumbers.isEmpty() ? -1 : Collections.max(committedSequenceNumbers);
+                }
+            }));
+        }
+        firstBatchReleased.await();
+        for (final AuditRecordData auditRecord : auditRecords) {
+            if (FAILING_RECORD.equals(auditRecord.getCustomId())) {
+                throw new IllegalStateException("Rolled back");
+            }
+        }
+        batchSizes.add(auditRecords.size());
+        committedSequenceNumbers.addAll(sequenceNumbers);
+    };
+
+    @Before
+    public void setUp() {
+        NodeSequenceHolder.INSTANCE.reset();
+        AuditRecordGroupCommitter.INSTANCE.start();
+    }
+
+    @Test
+    public void testGroupCommit() throws Exception {
+        final List<Thread> threads = startCommitThreads(new String[] { "1", "2", "3", "4", "5", "6", "7", "8", "9", "10", "11" }, new AtomicInteger());
+        firstBatchReleased.countDown();
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals("The records waiting while the first was written should be committed together", Integer.valueOf(10), batchSizes.get(1));
+        assertEquals(2, batchSizes.size());
+        assertSequenceWithoutGaps(11);
+    }
+
+    @Test
+    public void testFailedRecord() throws Exception {
+        final AtomicInteger failures = new AtomicInteger();
+        final List<Thread> threads = startCommitThreads(new String[] { "1", "2", "3", FAILING_RECORD, "5", "6" }, failures);
+        firstBatchReleased.countDown();
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals("Only the operation logging the failing record should fail", 1, failures.get());
+        assertSequenceWithoutGaps(5);
+    }
+
+    @Test
+    public void testErrorInBatchWriter() throws Exception {
+        try {
+            AuditRecordGroupCommitter.INSTANCE.commit(getAuditRecord("1"), 100, 10000L, auditRecords -> {
+                throw new OutOfMemoryError("Test");
+            });
+            fail("An Error from the batch writer should fail the record");
+        } catch (AuditRecordStorageException e) {
+            assertTrue(e.getCause() instanceof OutOfMemoryError);
+        }
+        // The writer thread is still running
+        firstBatchReleased.countDown();
+        AuditRecordGroupCommitter.INSTANCE.commit(getAuditRecord("2"), 100, 10000L, batchWriter);
+        assertSequenceWithoutGaps(1);
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        final List<Thread> threads = startCommitThreads(new String[] { "1" }, new AtomicInteger());
+        try {
+            AuditRecordGroupCommitter.INSTANCE.commit(getAuditRecord("2"), 100, 100L, batchWriter);
+            fail("The record should not be committed while the writer is blocked");
+        } catch (AuditRecordStorageException e) {
+            assertEquals("The record that timed out should not be left waiting", 0, AuditRecordGroupCommitter.INSTANCE.getQueueLength());
+        }
+        firstBatchReleased.countDown();
+        threads.get(0).join();
+        assertSequenceWithoutGaps(1);
+    }
+
+    @Test
+    public void testStop() throws Exception {
+        final AtomicInteger failures = new AtomicInteger();
+        final List<Thread> threads = startCommitThreads(new String[] { "1", "2", "3" }, failures);
+        firstBatchReleased.countDown();
+        AuditRecordGroupCommitter.INSTANCE.stop(10000L);
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals("Records waiting when stopped should be committed", 0, failures.get());
+        assertSequenceWithoutGaps(3);
+        try {
+            AuditRecordGroupCommitter.INSTANCE.commit(getAuditRecord("4"), 100, 10000L, batchWriter);
+            fail("Records should be rejected after stop");
+        } catch (AuditRecordStorageException e) {
+            // Expected
+        }
+    }
+
+    private AuditRecordData getAuditRecord(final String customId) {
+        return new AuditRecordData(null, null, System.currentTimeMillis(), EventTypes.LOG_VERIFY, EventStatus.SUCCESS, "test", ServiceTypes.CORE,
+                ModuleTypes.SECURITY_AUDIT, customId, null, null, null);
+    }
+
+    /**
+     * Start a thread committing each record. The first record is written before the other threads start, so its batch writer call
+     * blocks and the other records queue up until the test releases it.
+     */
+    private List<Thread> startCommitThreads(final String[] customIds, final AtomicInteger failures) throws InterruptedException {
+        final List<Thread> threads = new ArrayList<>();
+        for (final String customId : customIds) {
+            final Thread thread = new Thread(() -> {
+                try {
+                    AuditRecordGroupCommitter.INSTANCE.commit(getAuditRecord(customId), 100, 10000L, batchWriter);
+                } catch (AuditRecordStorageException e) {
+                    failures.incrementAndGet();
+                }
+            });
+            thread.start();
+            threads.add(thread);
+            if (threads.size() == 1) {
+                while (NodeSequenceHolder.INSTANCE.getLast() == -1) {
+                    Thread.sleep(1);
+                }
+            }
+        }
+        while (AuditRecordGroupCommitter.INSTANCE.getQueueLength() < customIds.length - 1) {
+            Thread.sleep(1);
+        }
+        return threads;
+    }
+
+    private void assertSequenceWithoutGaps(final int count) {
+        assertEquals(count, committedSequenceNumbers.size());
+        final List<Long> sorted = new ArrayList<>(committedSequenceNumbers);
+        Collections.sort(sorted);
+        for (int i = 0; i < count; i++) {
+            assertEquals("Sequence numbers should not have gaps", Long.valueOf(i), sorted.get(i));
+        }
+        assertEquals(count - 1, NodeSequenceHolder.INSTANCE.getLast());
+    }
+}
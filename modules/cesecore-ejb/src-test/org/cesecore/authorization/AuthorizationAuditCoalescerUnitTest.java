@@ -0,0 +1,142 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.authorization;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.cesecore.authorization.AuthorizationAuditCoalescer.CoalescedAuthorization;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests coalescing of successful authorization checks in {@link AuthorizationAuditCoalescer}.
+ *
+ * @version $Id$
+ */
+public class AuthorizationAuditCoalescerUnitTest {
+
+    private static final long LONG_WINDOW = 3600000L;
+
+    private final List<CoalescedAuthorization> written = Collections.synchronizedList(new ArrayList<CoalescedAuthorization>());
+    private final AuthorizationAuditCoalescer.AuditWriter auditWriter = written::add;
+
+    @Before
+    public void setUp() {
+        AuthorizationAuditCoalescer.INSTANCE.start();
+        // Start without checks held by earlier tests
+        add("setup", new String[] { "/" }, null, 1000);
+        AuthorizationAuditCoalescer.INSTANCE.takeDue(Long.MAX_VALUE / 2);
+    }
+
+    @Test
+    public void testCoalescePerTokenResourcesAndTransaction() {
+        final Object transaction1 = new Object();
+        final Object transaction2 = new Object();
+        add("admin", new String[] { "/ca", "/ra" }, transaction1, 1000);
+        add("admin", new String[] { "/ca", "/ra" }, transaction1, 1000);
+        add("admin", new String[] { "/ca", "/ra" }, transaction1, 1000);
+        add("admin", new String[] { "/ra", "/ca" }, transaction1, 1000);
+        add("admin", new String[] { "/ca", "/ra" }, transaction2, 1000);
+        add("other", new String[] { "/ca", "/ra" }, transaction1, 1000);
+        assertTrue("Checks should be held for the aggregation window", AuthorizationAuditCoalescer.INSTANCE.takeDue(System.currentTimeMillis()).isEmpty());
+        final List<CoalescedAuthorization> due = AuthorizationAuditCoalescer.INSTANCE.takeDue(System.currentTimeMillis() + LONG_WINDOW);
+        assertEquals("Checks with a different token, resource order or transaction should not be coalesced", 4, due.size());
+        int total = 0;
+        for (final CoalescedAuthorization coalescedAuthorization : due) {
+            total += coalescedAuthorization.getCount();
+            if (coalescedAuthorization.getCount() == 3) {
+                assertEquals("admin", coalescedAuthorization.getAuthenticationToken());
+                assertEquals(Arrays.asList("/ca", "/ra"), coalescedAuthorization.getResources());
+            }
+        }
+        assertEquals("No check should be lost", 6, total);
+        assertTrue(AuthorizationAuditCoalescer.INSTANCE.takeDue(Long.MAX_VALUE / 2).isEmpty());
+    }
+
+    @Test
+    public void testFlushWhenWindowExpires() throws InterruptedException {
+        AuthorizationAuditCoalescer.INSTANCE.add("admin", new String[] { "/ca" }, null, 50, 1000, auditWriter);
+        AuthorizationAuditCoalescer.INSTANCE.add("admin", new String[] { "/ca" }, null, 50, 1000, auditWriter);
+        waitForWrites(1);
+        assertEquals(1, written.size());
+        assertEquals(2, written.get(0).getCount());
+        assertTrue(written.get(0).getFirstTime() <= written.get(0).getLastTime());
+    }
+
+    @Test
+    public void testFlushAllWhenMaxEntriesExceeded() throws InterruptedException {
+        for (int i = 0; i < 4; i++) {
+            add("admin", new String[] { "/ca/" + i }, null, 3);
+        }
+        waitForWrites(4);
+        assertEquals("All checks should be written before the aggregation window expires", 4, written.size());
+    }
+
+    @Test
+    public void testFailedWriteIsRetriedAndNewChecksAreNotHeld() throws InterruptedException {
+        final AtomicBoolean fail = new AtomicBoolean(true);
+        final AuthorizationAuditCoalescer.AuditWriter failingWriter = coalescedAuthorization -> {
+            if (fail.get()) {
+                throw new IllegalStateException("Database unavailable");
+            }
+            written.add(coalescedAuthorization);
+        };
+        assertTrue(AuthorizationAuditCoalescer.INSTANCE.add("admin", new String[] { "/ca" }, null, 20, 1000, failingWriter));
+        assertTrue(AuthorizationAuditCoalescer.INSTANCE.add("admin", new String[] { "/ca" }, null, 20, 1000, failingWriter));
+        final long timeout = System.currentTimeMillis() + 10000;
+        while (AuthorizationAuditCoalescer.INSTANCE.add("other", new String[] { "/ra" }, null, 20, 1000, failingWriter)) {
+            assertTrue("Checks should not be held after writing has failed", System.currentTimeMillis() < timeout);
+            Thread.sleep(5);
+        }
+        fail.set(false);
+        waitForWrites(2);
+        assertEquals("The failed checks should be written when writing succeeds", 2, written.size());
+        for (final CoalescedAuthorization coalescedAuthorization : written) {
+            if ("admin".equals(coalescedAuthorization.getAuthenticationToken())) {
+                assertEquals("No failed check should be lost", 2, coalescedAuthorization.getCount());
+            }
+        }
+        assertTrue("Checks should be held again when writing succeeds",
+                AuthorizationAuditCoalescer.INSTANCE.add("admin", new String[] { "/ca" }, null, LONG_WINDOW, 1000, failingWriter));
+    }
+
+    @Test
+    public void testStopWritesChecksHeld() {
+        add("admin", new String[] { "/ca" }, null, 1000);
+        add("admin", new String[] { "/ca" }, null, 1000);
+        AuthorizationAuditCoalescer.INSTANCE.stop(10000L);
+        assertEquals("The checks held should be written when stopped", 1, written.size());
+        assertEquals(2, written.get(0).getCount());
+        assertFalse("Checks should not be held after stop", AuthorizationAuditCoalescer.INSTANCE.add("admin", new String[] { "/ca" }, null,
+                LONG_WINDOW, 1000, auditWriter));
+    }
+
+    private void add(final String token, final String[] resources, final Object transactionKey, final int maxEntries) {
+        AuthorizationAuditCoalescer.INSTANCE.add(token, resources, transactionKey, LONG_WINDOW, maxEntries, auditWriter);
+    }
+
+    private void waitForWrites(final int count) throws InterruptedException {
+        final long timeout = System.currentTimeMillis() + 10000;
+        while (written.size() < count && System.currentTimeMillis() < timeout) {
+            Thread.sleep(5);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.audit.impl.integrityprotected;
+
+/**
+ * Periods that old audit logs are deleted in. Periods start at multiples of the period length since epoch, so that they match time
+ * based partitions of the table when the period length divides the partitions.
+ *
+ * @version $Id$
+ */
+final class AuditLogPeriods {
+
+    private AuditLogPeriods() {}
+
+    /**
+     * @param time a time stamp in milliseconds since epoch
+     * @param periodLength the length of a period in milliseconds
+     * @return the start of the period containing the time, inclusive
+     */
+    static long getPeriodStart(final long time, final long periodLength) {
+        // floorMod, so that periods before epoch also start at a multiple of the period length
+        return time - Math.floorMod(time, periodLength);
+    }
+
+    /**
+     * @param periodStart the start of a period, see {@link #getPeriodStart(long, long)}
+     * @param periodLength the length of a period in milliseconds
+     * @param until no logs after this time should be included
+     * @return the end of the period, inclusive, or until if the period ends later
+     */
+    static long getPeriodEnd(final long periodStart, final long periodLength, final long until) {
+        return Math.min(periodStart + periodLength - 1, until);
+    }
+}
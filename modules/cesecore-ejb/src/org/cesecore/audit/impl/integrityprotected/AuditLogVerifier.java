@@ -0,0 +1,259 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.audit.impl.integrityprotected;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.log4j.Logger;
+import org.cesecore.audit.audit.AuditLogReportElem;
+import org.cesecore.audit.audit.AuditLogValidationReport;
+import org.cesecore.dbprotection.DatabaseProtectionException;
+
+/**
+ * Verifies the audit log of each node, and optionally exports it.
+ * <p>
+ * The log of a node is read in pages ordered by sequence number, where each page starts after the last sequence number of the previous
+ * one (keyset pagination), so reading a page costs the same regardless of how far into the log it is. The row protection of the pages
+ * read is verified by a pool of worker threads while the next pages are read. The results are then processed in the order the pages were
+ * read, checking that no sequence number is missing. When only verifying, the pages of all nodes are read in turn so the nodes are
+ * verified in parallel. When exporting, the nodes are processed one after another, so the export contains the log of each node in order.
+ * <p>
+ * Optionally, the last sequence number verified of each node is saved in a checkpoint file, so that a verification that was interrupted
+ * can be resumed where it stopped. The checkpoint file is removed when the verification completes.
+ *
+ * @version $Id$
+ */
+final class AuditLogVerifier {
+
+    private static final Logger log = Logger.getLogger(AuditLogVerifier.class);
+
+    private static final String CHECKPOINT_NODE_PREFIX = "node.";
+    private static final String CHECKPOINT_WARNINGS = "warnings";
+
+    /** Reads the log of a node */
+    interface PageReader {
+        /**
+         * @return at most max log records of the node with a sequence number greater than afterSequenceNumber, ordered by sequence number.
+         * The records must not be verified when read.
+         */
+        List<AuditRecordData> read(String nodeId, long afterSequenceNumber, int max);
+    }
+
+    /** Verifies the row protection of a log record. Called concurrently by the worker threads. */
+    interface RowVerifier {
+        void verify(AuditRecordData auditRecordData) throws DatabaseProtectionException;
+    }
+
+    /** Receives the verified log records, in order for each node */
+    interface RecordWriter {
+        void write(AuditRecordData auditRecordData) throws IOException;
+    }
+
+    private static final class Page {
+        private final String nodeId;
+        private final List<AuditRecordData> rows;
+        private final Future<BitSet> failedRows;
+
+        private Page(final String nodeId, final List<AuditRecordData> rows, final Future<BitSet> failedRows) {
+            this.nodeId = nodeId;
+            this.rows = rows;
+            this.failedRows = failedRows;
+        }
+    }
+
+    private final PageReader pageReader;
+    private final RowVerifier rowVerifier;
+    private final int fetchSize;
+    private final int threads;
+    private final File checkpointFile;
+
+    /**
+     * @param pageReader reader of the log
+     * @param rowVerifier verifier of the row protection
+     * @param fetchSize the number of log records to read in each page
+     * @param threads the number of threads verifying the row protection
+     * @param checkpointFile file where progress is saved, or null to always start from the beginning
+     */
+    AuditLogVerifier(final PageReader pageReader, final RowVerifier rowVerifier, final int fetchSize, final int threads, final File checkpointFile) {
+        this.pageReader = pageReader;
+        this.rowVerifier = rowVerifier;
+        this.fetchSize = Math.max(1, fetchSize);
+        this.threads = Math.max(1, threads);
+        this.checkpointFile = checkpointFile;
+    }
+
+    /**
+     * Verify the log of the nodes. Results are added to the report.
+     *
+     * @param nodeIds the nodes that have written to the log
+     * @param report is a AuditLogValidationReport or AuditLogExportReport
+     * @param recordWriter receives the verified records, or null if no export should take place
+     */
+    void verify(final List<String> nodeIds, final AuditLogValidationReport report, final RecordWriter recordWriter) throws IOException {
+        final Map<String, Long> readSequenceNumbers = new HashMap<>();
+        final Map<String, Long> verifiedSequenceNumbers = new HashMap<>();
+        final int previousWarnings = loadCheckpoint(verifiedSequenceNumbers);
+        if (previousWarnings > 0) {
+            report.warn(new AuditLogReportElem(-1L, -1L, previousWarnings + " problems were found before resuming the verification from the checkpoint " + checkpointFile));
+        }
+        final int initialWarnings = report.warnings().size();
+        final Deque<String> nodesToRead = new ArrayDeque<>();
+        for (final String nodeId : nodeIds) {
+            nodesToRead.add(nodeId);
+            if (!verifiedSequenceNumbers.containsKey(nodeId)) {
+                verifiedSequenceNumbers.put(nodeId, -1L);
+            }
+            readSequenceNumbers.put(nodeId, verifiedSequenceNumbers.get(nodeId));
+        }
+        final ExecutorService executorService = Executors.newFixedThreadPool(threads, runnable -> {
+            final Thread thread = new Thread(runnable, "AuditLogVerifier");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            // Read ahead so that all workers are busy while the oldest page is processed
+            final Deque<Page> pages = new ArrayDeque<>();
+            while (!nodesToRead.isEmpty() || !pages.isEmpty()) {
+                if (!nodesToRead.isEmpty() && pages.size() < threads * 2) {
+                    final String nodeId = recordWriter == null ? nodesToRead.poll() : nodesToRead.peek();
+                    if (log.isDebugEnabled()) {
+                        log.debug("Reading audit log of nodeId " + nodeId + " after sequence number " + readSequenceNumbers.get(nodeId));
+                    }
+                    final List<AuditRecordData> rows = pageReader.read(nodeId, readSequenceNumbers.get(nodeId), fetchSize);
+                    if (rows.size() < fetchSize) {
+                        if (recordWriter != null) {
+                            nodesToRead.poll();
+                        }
+                    } else if (recordWriter == null) {
+                        nodesToRead.add(nodeId);
+                    }
+                    if (!rows.isEmpty()) {
+                        readSequenceNumbers.put(nodeId, rows.get(rows.size() - 1).getSequenceNumber());
+                        pages.add(new Page(nodeId, rows, executorService.submit(() -> verifyRows(rows))));
+                    }
+                } else {
+                    final Page page = pages.poll();
+                    verifiedSequenceNumbers.put(page.nodeId, processPage(page, verifiedSequenceNumbers.get(page.nodeId), report, recordWriter));
+                    saveCheckpoint(verifiedSequenceNumbers, previousWarnings + report.warnings().size() - initialWarnings);
+                }
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+        if (checkpointFile != null) {
+            Files.deleteIfExists(checkpointFile.toPath());
+        }
+    }
+
+    /** @return the indexes of the rows that failed verification */
+    private BitSet verifyRows(final List<AuditRecordData> rows) {
+        final BitSet ret = new BitSet(rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            try {
+                rowVerifier.verify(rows.get(i));
+            } catch (DatabaseProtectionException e) {
+                ret.set(i);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Add the rows that failed verification and missing sequence numbers to the report, and write the rows.
+     *
+     * @return the last sequence number of the page
+     */
+    private long processPage(final Page page, final long previousSequenceNumber, final AuditLogValidationReport report, final RecordWriter recordWriter)
+            throws IOException {
+        final BitSet failedRows;
+        try {
+            failedRows = page.failedRows.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while verifying the audit log of nodeId " + page.nodeId);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Failed to verify the audit log of nodeId " + page.nodeId + ": " + e.getCause().getMessage(), e.getCause());
+        }
+        long lastSeqNumber = previousSequenceNumber;
+        for (int i = 0; i < page.rows.size(); i++) {
+            final AuditRecordData auditRecordData = page.rows.get(i);
+            final long currentSeqNumber = auditRecordData.getSequenceNumber();
+            if (failedRows.get(i)) {
+                report.warn(new AuditLogReportElem(lastSeqNumber, currentSeqNumber, "log with sequence number after " + lastSeqNumber + " on nodeId " + page.nodeId + " could not be verified"));
+            } else if (currentSeqNumber != lastSeqNumber + 1) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Log verification failure for log on node " + page.nodeId + ". Missing entry. Last sequenceNumber was " + lastSeqNumber + " and current is " + currentSeqNumber);
+                }
+                report.warn(new AuditLogReportElem(lastSeqNumber, currentSeqNumber, "missing log with sequence number " + (lastSeqNumber + 1) + " on nodeId " + page.nodeId));
+            }
+            lastSeqNumber = currentSeqNumber;
+            // Rows that fail verification are still exported
+            if (recordWriter != null) {
+                recordWriter.write(auditRecordData);
+            }
+        }
+        return lastSeqNumber;
+    }
+
+    /** @return the number of problems found before the checkpoint */
+    private int loadCheckpoint(final Map<String, Long> verifiedSequenceNumbers) throws IOException {
+        if (checkpointFile == null || !checkpointFile.exists()) {
+            return 0;
+        }
+        final Properties checkpoint = new Properties();
+        try (final InputStream inputStream = Files.newInputStream(checkpointFile.toPath())) {
+            checkpoint.load(inputStream);
+        }
+        for (final String key : checkpoint.stringPropertyNames()) {
+            if (key.startsWith(CHECKPOINT_NODE_PREFIX)) {
+                verifiedSequenceNumbers.put(key.substring(CHECKPOINT_NODE_PREFIX.length()), Long.valueOf(checkpoint.getProperty(key)));
+            }
+        }
+        log.info("Resuming audit log verification from checkpoint " + checkpointFile + " with the last verified sequence numbers " + verifiedSequenceNumbers);
+        return Integer.parseInt(checkpoint.getProperty(CHECKPOINT_WARNINGS, "0"));
+    }
+
+    private void saveCheckpoint(final Map<String, Long> verifiedSequenceNumbers, final int warnings) throws IOException {
+        if (checkpointFile == null) {
+            return;
+        }
+        final Properties checkpoint = new Properties();
+        for (final Map.Entry<String, Long> entry : verifiedSequenceNumbers.entrySet()) {
+            checkpoint.setProperty(CHECKPOINT_NODE_PREFIX + entry.getKey(), String.valueOf(entry.getValue()));
+        }
+        checkpoint.setProperty(CHECKPOINT_WARNINGS, String.valueOf(warnings));
+        // Replace the checkpoint in one step, so an interruption never leaves a partially written file
+        final File tempFile = new File(checkpointFile.getPath() + ".tmp");
+        try (final OutputStream outputStream = Files.newOutputStream(tempFile.toPath())) {
+            checkpoint.store(outputStream, "Audit log verification checkpoint");
+        }
+        Files.move(tempFile.toPath(), checkpointFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
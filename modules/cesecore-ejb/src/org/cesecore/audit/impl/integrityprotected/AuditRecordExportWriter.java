@@ -0,0 +1,146 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.audit.impl.integrityprotected;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.cesecore.audit.audit.AuditExporter;
+
+/**
+ * Writes audit records to an {@link AuditExporter} on a thread of its own, so that encoding, compression and signing of the export
+ * overlap with reading and verifying the next records. The records are handed over through a bounded queue, so at most the given number
+ * of records are held in memory, however large the export is.
+ * <p>
+ * The exporter is only used by the export thread, which closes it when all records have been written.
+ *
+ * @version $Id$
+ */
+final class AuditRecordExportWriter implements AuditLogVerifier.RecordWriter {
+
+    /** Marks the end of the records in the queue */
+    private static final AuditRecordData END = new AuditRecordData();
+
+    private final AuditExporter auditExporter;
+    private final BlockingQueue<AuditRecordData> queue;
+    private final Thread exportThread;
+    private volatile Throwable failure;
+
+    /**
+     * @param auditExporter the exporter, with its output stream already set
+     * @param capacity the maximum number of records waiting to be written
+     */
+    AuditRecordExportWriter(final AuditExporter auditExporter, final int capacity) {
+        this.auditExporter = auditExporter;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, capacity));
+        this.exportThread = new Thread(this::writeRecords, "AuditRecordExportWriter");
+        this.exportThread.setDaemon(true);
+        this.exportThread.start();
+    }
+
+    @Override
+    public void write(final AuditRecordData auditRecordData) throws IOException {
+        put(auditRecordData);
+    }
+
+    /**
+     * Wait until all records have been written and the exporter has been closed.
+     *
+     * @throws IOException if a record could not be written
+     */
+    void finish() throws IOException {
+        put(END);
+        try {
+            exportThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the audit log export to be written");
+        }
+        throwFailure();
+    }
+
+    /** Stop writing records, if the export was not finished */
+    void abort() {
+        exportThread.interrupt();
+    }
+
+    private void put(final AuditRecordData auditRecordData) throws IOException {
+        try {
+            // Check for failures while waiting, since the queue is not emptied after the export thread has failed
+            while (!queue.offer(auditRecordData, 100, TimeUnit.MILLISECONDS)) {
+                throwFailure();
+                if (!exportThread.isAlive()) {
+                    throwStopped();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while exporting the audit log");
+        }
+        throwFailure();
+        // A record left in the queue after the export thread has stopped would never be written
+        if (!exportThread.isAlive() && queue.remove(auditRecordData)) {
+            throwStopped();
+        }
+    }
+
+    private void throwFailure() throws IOException {
+        if (failure != null) {
+            throw new IOException("Failed to write the audit log export: " + failure.getMessage(), failure);
+        }
+    }
+
+    private void throwStopped() throws IOException {
+        throwFailure();
+        throw new IOException("The audit log export has already been finished or aborted.");
+    }
+
+    private void writeRecords() {
+        try {
+            while (true) {
+                final AuditRecordData auditRecordData = queue.take();
+                if (auditRecordData == END) {
+                    auditExporter.close();
+                    return;
+                }
+                writeToExport(auditRecordData);
+            }
+        } catch (Throwable e) {
+            // InterruptedException if aborted, or any error from the exporter, so that the thread putting records is never left waiting
+            failure = e;
+        }
+    }
+
+    /** We want to export exactly like it was stored in the database, to comply with requirements on logging systems where no altering of the original log data is allowed. */
+    private void writeToExport(final AuditRecordData auditRecordData) throws IOException {
+        auditExporter.writeStartObject();
+        auditExporter.writeField("pk", auditRecordData.getPk());
+        auditExporter.writeField("nodeId", auditRecordData.getNodeId());
+        auditExporter.writeField("sequenceNumber", auditRecordData.getSequenceNumber());
+        auditExporter.writeField("timestamp", auditRecordData.getTimeStamp());
+        auditExporter.writeField("eventType", auditRecordData.getEventTypeValue().toString());
+        auditExporter.writeField("eventStatus", auditRecordData.getEventStatusValue().toString());
+        auditExporter.writeField("authToken", auditRecordData.getAuthToken());
+        auditExporter.writeField("service", auditRecordData.getServiceTypeValue().toString());
+        auditExporter.writeField("module", auditRecordData.getModuleTypeValue().toString());
+        auditExporter.writeField("customId", auditRecordData.getCustomId());
+        auditExporter.writeField("searchDetail1", auditRecordData.getSearchDetail1());
+        auditExporter.writeField("searchDetail2", auditRecordData.getSearchDetail2());
+        auditExporter.writeField("additionalDetails", auditRecordData.getAdditionalDetails());
+        auditExporter.writeField("rowProtection", auditRecordData.getRowProtection());
+        auditExporter.writeEndObject();
+    }
+}
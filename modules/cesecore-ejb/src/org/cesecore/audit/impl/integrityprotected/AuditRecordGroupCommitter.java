@@ -0,0 +1,231 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.audit.impl.integrityprotected;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.cesecore.audit.log.AuditRecordStorageException;
+
+/**
+ * Group commit of audit records. Threads that log an event enqueue its audit record and wait until it has been committed, while a
+ * single writer thread commits all records that are waiting in one transaction. Under load, many audited operations share the cost
+ * of one commit instead of paying for one each.
+ * <p>
+ * Since the writer thread is the only one taking sequence numbers from {@link NodeSequenceHolder}, it can give back the numbers of a
+ * transaction that failed, so the sequence stays without gaps. When a group fails, its records are committed one at a time, so that
+ * a single bad record only fails the operation that logged it.
+ * <p>
+ * The writer thread is started when the first record is committed, and stopped by {@link AuditRecordGroupCommitterShutdownBean} when
+ * the application is undeployed.
+ *
+ * @version $Id$
+ */
+enum AuditRecordGroupCommitter {
+    INSTANCE;
+
+    private static final Logger log = Logger.getLogger(AuditRecordGroupCommitter.class);
+
+    /** Persists audit records in one transaction */
+    interface BatchWriter {
+        /**
+         * Assign the next sequence numbers of this node to the records and persist them in a single transaction, which is committed
+         * before returning.
+         */
+        void write(List<AuditRecordData> auditRecords) throws Exception;
+    }
+
+    private static final class PendingRecord {
+        private final AuditRecordData auditRecordData;
+        private final CountDownLatch committed = new CountDownLatch(1);
+        private volatile Throwable failure;
+
+        private PendingRecord(final AuditRecordData auditRecordData) {
+            this.auditRecordData = auditRecordData;
+        }
+    }
+
+    private final BlockingQueue<PendingRecord> queue = new LinkedBlockingQueue<>();
+    private volatile BatchWriter batchWriter;
+    private volatile int maxBatchSize = 1;
+    private volatile boolean stopped = false;
+    private Thread writerThread;
+
+    /**
+     * Commit an audit record together with the records of other threads, and wait until it has been committed.
+     *
+     * @param auditRecordData the record to commit. The node identifier and sequence number are assigned by the batch writer.
+     * @param maxBatchSize the maximum number of records to commit in one transaction
+     * @param timeoutMs the maximum time in milliseconds to wait for the record to be committed
+     * @param batchWriter writer used to persist the records. The latest writer passed is used for all records.
+     * @throws AuditRecordStorageException if the record could not be persisted, or was not committed in time
+     */
+    void commit(final AuditRecordData auditRecordData, final int maxBatchSize, final long timeoutMs, final BatchWriter batchWriter)
+            throws AuditRecordStorageException {
+        if (stopped) {
+            throw new AuditRecordStorageException("Audit record group commit has been stopped.");
+        }
+        this.batchWriter = batchWriter;
+        this.maxBatchSize = maxBatchSize;
+        startWriterIfNeeded();
+        final PendingRecord pendingRecord = new PendingRecord(auditRecordData);
+        queue.add(pendingRecord);
+        // The record will be written even if this thread is interrupted, so report the real outcome
+        boolean interrupted = false;
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        try {
+            while (pendingRecord.committed.getCount() > 0) {
+                final long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    // If the record is still in the queue it will never be written, otherwise it is part of the group being written
+                    final String msg = queue.remove(pendingRecord) ? "Audit record was not committed within " + timeoutMs + " ms."
+                            : "Audit record was not committed within " + timeoutMs + " ms. It may still be committed.";
+                    log.error(msg + " " + queue.size() + " audit records are waiting to be committed.");
+                    throw new AuditRecordStorageException(msg);
+                }
+                try {
+                    pendingRecord.committed.await(remaining, TimeUnit.NANOSECONDS);
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (pendingRecord.failure != null) {
+            throw new AuditRecordStorageException(pendingRecord.failure.getMessage(), pendingRecord.failure);
+        }
+    }
+
+    /** @return the number of records waiting for the writer thread */
+    int getQueueLength() {
+        return queue.size();
+    }
+
+    /** Allow records to be committed again after {@link #stop(long)}, and start the writer thread when the next record is committed */
+    synchronized void start() {
+        stopped = false;
+    }
+
+    /**
+     * Stop the writer thread after it has committed the records that are waiting. Records that are still waiting when the timeout has
+     * passed are failed, and records committed after this are rejected until {@link #start()} is called.
+     *
+     * @param timeoutMs the maximum time in milliseconds to wait for the writer thread
+     */
+    void stop(final long timeoutMs) {
+        final Thread thread;
+        synchronized (this) {
+            stopped = true;
+            thread = writerThread;
+            writerThread = null;
+        }
+        if (thread != null) {
+            try {
+                thread.join(timeoutMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (thread.isAlive()) {
+                log.warn("Audit record group commit writer did not stop within " + timeoutMs + " ms.");
+                thread.interrupt();
+            }
+        }
+        failWaitingRecords(new AuditRecordStorageException("Audit record group commit has been stopped."));
+    }
+
+    private synchronized void startWriterIfNeeded() {
+        if (!stopped && (writerThread == null || !writerThread.isAlive())) {
+            writerThread = new Thread(this::writeRecords, "AuditRecordGroupCommitter");
+            writerThread.setDaemon(true);
+            writerThread.start();
+        }
+    }
+
+    private void writeRecords() {
+        final List<PendingRecord> batch = new ArrayList<>();
+        // Write the records that are waiting when stopped, before exiting
+        while (!stopped || !queue.isEmpty()) {
+            try {
+                final PendingRecord pendingRecord = queue.poll(1, TimeUnit.SECONDS);
+                if (pendingRecord == null) {
+                    continue;
+                }
+                batch.add(pendingRecord);
+            } catch (InterruptedException e) {
+                log.info("Audit record group commit writer was interrupted.");
+                failWaitingRecords(new AuditRecordStorageException("Audit record group commit writer was interrupted."));
+                return;
+            }
+            queue.drainTo(batch, maxBatchSize - 1);
+            if (!write(batch) && batch.size() > 1) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Failed to commit a group of " + batch.size() + " audit records. Committing them one at a time.");
+                }
+                for (final PendingRecord pendingRecord : batch) {
+                    write(Collections.singletonList(pendingRecord));
+                }
+            }
+            batch.clear();
+        }
+    }
+
+    private void failWaitingRecords(final Throwable failure) {
+        PendingRecord pendingRecord;
+        while ((pendingRecord = queue.poll()) != null) {
+            pendingRecord.failure = failure;
+            pendingRecord.committed.countDown();
+        }
+    }
+
+    /**
+     * Write records in one transaction. If successful or if there was only one record, the waiting threads are released.
+     *
+     * @return true if the records were committed
+     */
+    private boolean write(final List<PendingRecord> batch) {
+        final List<AuditRecordData> auditRecords = new ArrayList<>(batch.size());
+        for (final PendingRecord pendingRecord : batch) {
+            auditRecords.add(pendingRecord.auditRecordData);
+        }
+        final long lastSequenceNumber = NodeSequenceHolder.INSTANCE.getLast();
+        try {
+            batchWriter.write(auditRecords);
+            if (log.isTraceEnabled()) {
+                log.trace("Committed a group of " + batch.size() + " audit records.");
+            }
+            for (final PendingRecord pendingRecord : batch) {
+                pendingRecord.committed.countDown();
+            }
+            return true;
+        } catch (Throwable e) {
+            // Errors too, so that the waiting threads are always released.
+            // The transaction was rolled back, so the sequence numbers taken are not used
+            NodeSequenceHolder.INSTANCE.release(lastSequenceNumber, batch.size());
+            if (batch.size() == 1) {
+                final PendingRecord pendingRecord = batch.get(0);
+                pendingRecord.failure = e;
+                pendingRecord.committed.countDown();
+            }
+            return false;
+        }
+    }
+}
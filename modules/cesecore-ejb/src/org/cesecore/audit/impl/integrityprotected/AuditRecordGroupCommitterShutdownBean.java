@@ -0,0 +1,48 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.audit.impl.integrityprotected;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+
+/**
+ * Ties the writer thread of {@link AuditRecordGroupCommitter} to the life cycle of the application, so that the audit records waiting
+ * are committed and the thread is stopped when the application is undeployed, instead of the thread outliving the deployment.
+ *
+ * @version $Id$
+ */
+@Singleton
+@Startup
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+@TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+public class AuditRecordGroupCommitterShutdownBean {
+
+    /** Time to wait for the audit records waiting to be committed when the application is undeployed */
+    private static final long SHUTDOWN_TIMEOUT_MS = 30000L;
+
+    @PostConstruct
+    public void startup() {
+        AuditRecordGroupCommitter.INSTANCE.start();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        AuditRecordGroupCommitter.INSTANCE.stop(SHUTDOWN_TIMEOUT_MS);
+    }
+}
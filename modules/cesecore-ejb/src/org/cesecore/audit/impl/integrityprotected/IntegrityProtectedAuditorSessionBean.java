@@ -12,8 +12,11 @@
  *************************************************************************/
 package org.cesecore.audit.impl.integrityprotected;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -42,6 +45,7 @@ import org.cesecore.audit.audit.AuditLogExporterException;
 import org.cesecore.audit.audit.AuditLogReportElem;
 import org.cesecore.audit.audit.AuditLogValidationReport;
 import org.cesecore.audit.audit.AuditLogValidatorException;
+import org.cesecore.audit.audit.ChunkedDigestOutputStream;
 import org.cesecore.audit.audit.SigningFileOutputStream;
 import org.cesecore.audit.enums.EventStatus;
 import org.cesecore.audit.enums.EventTypes;
@@ -50,7 +54,6 @@ import org.cesecore.audit.enums.ServiceTypes;
 import org.cesecore.audit.log.SecurityEventsLoggerSessionLocal;
 import org.cesecore.authentication.tokens.AuthenticationToken;
 import org.cesecore.config.CesecoreConfiguration;
-import org.cesecore.dbprotection.DatabaseProtectionException;
 import org.cesecore.keys.token.CryptoToken;
 import org.cesecore.util.ValidityDate;
 import org.cesecore.util.query.Criteria;
@@ -64,7 +67,7 @@ import org.cesecore.util.query.QueryGenerator;
  * instead of custom code for log singing.
  * 
  * The index
- *  "CREATE UNIQUE INDEX auditrecorddata_idx1 ON AuditRecordData (nodeId,timeStamp,sequenceNumber);"
+ *  "CREATE UNIQUE INDEX auditrecorddata_idx2 ON AuditRecordData (nodeId,sequenceNumber);"
  * should be present for proper validation and export performance.
  * 
  * @version $Id$
@@ -96,13 +99,36 @@ public class IntegrityProtectedAuditorSessionBean implements IntegrityProtectedA
         final AuditLogExportReport report = new AuditLogExportReport();
         try {
             final File exportFile = AuditDevicesConfig.getExportFile(properties, timestamp);
-            try (final SigningFileOutputStream signingFileOutputStream = new SigningFileOutputStream(exportFile, cryptoToken, signatureDetails)) {
+            final File digestFile = AuditDevicesConfig.getExportDigestFile(exportFile);
+            final int fetchSize = AuditDevicesConfig.getAuditLogExportFetchSize(properties);
+            // The streams are closed here, and not only by the exporter, which is not required to close its stream
+            try (final SigningFileOutputStream signingFileOutputStream = new SigningFileOutputStream(exportFile,
+                    AuditDevicesConfig.getExportSignatureFile(exportFile), cryptoToken, signatureDetails);
+                    final SigningFileOutputStream digestSigningFileOutputStream = new SigningFileOutputStream(digestFile,
+                            new File(digestFile.getPath() + ".sig"), cryptoToken, signatureDetails);
+                    final OutputStream exportOutputStream = new BufferedOutputStream(new ChunkedDigestOutputStream(signingFileOutputStream,
+                            AuditDevicesConfig.isAuditLogExportCompressed(properties), AuditDevicesConfig.getAuditLogExportChunkSize(properties),
+                            digestSigningFileOutputStream), 64 * 1024)) {
                 final AuditExporter auditExporter = c.newInstance();
-                auditExporter.setOutputStream(signingFileOutputStream);
-                verifyAndOptionalExport(auditExporter, report, timestamp, AuditDevicesConfig.getAuditLogExportFetchSize(properties));
+                auditExporter.setOutputStream(exportOutputStream);
+                // Records are encoded and written by another thread, while the next records are fetched and verified
+                final AuditRecordExportWriter auditRecordExportWriter = new AuditRecordExportWriter(auditExporter, fetchSize * 2);
+                try {
+                    // The export must contain the whole log, so it is not resumed from a checkpoint
+                    verifyAndOptionalExport(auditRecordExportWriter, report, timestamp, fetchSize, AuditDevicesConfig.getAuditLogValidationThreads(properties),
+                            null);
+                    auditRecordExportWriter.finish();
+                } finally {
+                    auditRecordExportWriter.abort();
+                }
+                // Write the last chunk and its digest, so that everything written to the files is covered by the signatures
+                exportOutputStream.close();
                 report.setExportedFile(exportFile.getCanonicalPath());
+                // Sign the chunk digests, so that they can not be recomputed for a modified export
+                final String digestSignatureFilename = digestSigningFileOutputStream.writeSignature();
                 if (log.isDebugEnabled()) {
-                    log.debug("Exported " + report.getExportCount() + " rows.");
+                    log.debug("Exported " + report.getExportCount() + " rows. Chunk digests written to " + digestFile.getCanonicalPath()
+                            + " and signed in " + digestSignatureFilename);
                 }
                 logVerificationResult(report.errors().size(), timestamp, token);
                 // Sign the exported file ... it will write the signature on the side
@@ -123,7 +149,6 @@ public class IntegrityProtectedAuditorSessionBean implements IntegrityProtectedA
                         log.debug("Deleted " + deletedRowCount + " rows from audit log after export.");
                     }
                 }
-                auditExporter.close();
             }
         } catch (final Exception e) {
             throw new AuditLogExporterException(e.getMessage(), e);
@@ -131,16 +156,52 @@ public class IntegrityProtectedAuditorSessionBean implements IntegrityProtectedA
         return report;
 	}
 	
-	/* Since we modify the database we need to run this in a transaction. */
+	/*
+	 * Old logs are deleted one period at a time, oldest first, each in a transaction of its own. Deleting all of them in one transaction
+	 * would lock the table and fill the transaction log for as long as it takes to delete the largest table in the database.
+	 */
 	@Override
-	@TransactionAttribute(TransactionAttributeType.REQUIRED)
+	@TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
 	public int deleteRows(final AuthenticationToken token, final Date timestamp, final Properties properties) {
         final Map<String, Object> detailsDelete = new LinkedHashMap<String, Object>();
         detailsDelete.put("timestamp", FastDateFormat.getInstance(ValidityDate.ISO8601_DATE_FORMAT, TimeZone.getTimeZone("GMT")).format(timestamp));
         securityEventsLogger.log(EventTypes.LOG_DELETE, EventStatus.VOID, ModuleTypes.SECURITY_AUDIT, ServiceTypes.CORE, token.toString(), null, null, null, detailsDelete);
         // Delete all the exported logs (from all nodes)
-		final QueryCriteria queryCriteria = QueryCriteria.create().add(Criteria.leq(AuditLogEntry.FIELD_TIMESTAMP, timestamp.getTime()));
-		return buildConditionalQuery(entityManager, "DELETE FROM AuditRecordData a", queryCriteria, 0, 0).executeUpdate();
+        final long period = AuditDevicesConfig.getAuditLogDeletePeriodHours(properties) * 3600000L;
+        int deletedRowCount = 0;
+        Long oldest = getOldestTimeStamp(Long.MIN_VALUE);
+        while (oldest != null && oldest.longValue() <= timestamp.getTime()) {
+            final long from = AuditLogPeriods.getPeriodStart(oldest.longValue(), period);
+            final long to = AuditLogPeriods.getPeriodEnd(from, period, timestamp.getTime());
+            deletedRowCount += integrityProtectedAuditorSession.deleteRowsInPeriod(token, from, to);
+            if (log.isDebugEnabled()) {
+                log.debug("Deleted audit log up until " + ValidityDate.formatAsUTC(to) + ", " + deletedRowCount + " rows in total.");
+            }
+            // Skip periods without logs
+            oldest = getOldestTimeStamp(to);
+        }
+        return deletedRowCount;
+	}
+
+	@Override
+	@TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+	public int deleteRowsInPeriod(final AuthenticationToken token, final long from, final long to) {
+		final QueryCriteria queryCriteria = QueryCriteria.create().add(Criteria.and(Criteria.geq(AuditLogEntry.FIELD_TIMESTAMP, from),
+		        Criteria.leq(AuditLogEntry.FIELD_TIMESTAMP, to)));
+		final int deletedRowCount = buildConditionalQuery(entityManager, "DELETE FROM AuditRecordData a", queryCriteria, 0, 0).executeUpdate();
+		final Map<String, Object> details = new LinkedHashMap<String, Object>();
+		details.put("from", ValidityDate.formatAsISO8601(new Date(from), ValidityDate.TIMEZONE_UTC));
+		details.put("to", ValidityDate.formatAsISO8601(new Date(to), ValidityDate.TIMEZONE_UTC));
+		details.put("count", deletedRowCount);
+		securityEventsLogger.log(EventTypes.LOG_DELETE, EventStatus.SUCCESS, ModuleTypes.SECURITY_AUDIT, ServiceTypes.CORE, token.toString(), null, null, null, details);
+		return deletedRowCount;
+	}
+
+	/** @return the time stamp of the oldest log entry after the given time, or null if there is none */
+	private Long getOldestTimeStamp(final long after) {
+		final Query query = entityManager.createQuery("SELECT MIN(a.timeStamp) FROM AuditRecordData a WHERE a.timeStamp>:timeStamp");
+		query.setParameter("timeStamp", after);
+		return (Long) query.getSingleResult();
 	}
 
 	@Override
@@ -154,7 +215,8 @@ public class IntegrityProtectedAuditorSessionBean implements IntegrityProtectedA
 	public AuditLogValidationReport verifyLogsIntegrity(final AuthenticationToken token, final Date timestamp, final Properties properties) throws AuditLogValidatorException {
         final AuditLogValidationReport report = new AuditLogValidationReport();
         try {
-            verifyAndOptionalExport(null, report, timestamp, AuditDevicesConfig.getAuditLogExportFetchSize(properties));
+            verifyAndOptionalExport(null, report, timestamp, AuditDevicesConfig.getAuditLogValidationFetchSize(properties),
+                    AuditDevicesConfig.getAuditLogValidationThreads(properties), AuditDevicesConfig.getAuditLogValidationCheckpointFile(properties));
         	// Log the success or failure depending on if verification returns error or not
         	logVerificationResult(report.errors().size(), timestamp, token);
         } catch (final Exception e) {
@@ -164,117 +226,66 @@ public class IntegrityProtectedAuditorSessionBean implements IntegrityProtectedA
 	}
 
 	/**
-	 * Read batches of logs from the database. If the database integrity check fails, the batch will be processed row by row.
+	 * Read pages of logs from the database and verify their integrity on a pool of worker threads, see {@link AuditLogVerifier}.
 	 * Results are added to the report.
-	 * @param auditExporter can be null if no export should take place
+	 * @param auditRecordExportWriter can be null if no export should take place
 	 * @param report is a AuditLogValidationReport or AuditLogExportReport
 	 * @param timestamp process all entries up until this time (should be epoch GMT)
+	 * @param checkpointFile file where the progress is saved, or null if the verification can not be resumed
 	 */
-	private void verifyAndOptionalExport(AuditExporter auditExporter, AuditLogValidationReport report, Date timestamp, final int fetchSize) throws IOException {
-    	// Get a list of the nodes that have data in the database
-    	for (final String nodeId : getNodeIds()) {
-    		if (log.isDebugEnabled()) {
-    			log.debug("exportAuditLogs for nodeId " + nodeId);
-    		}
-    		// Assuming timeStamp is in UTC
-    		final QueryCriteria queryCriteria = QueryCriteria.create().add((Criteria.and(Criteria.eq(AuditLogEntry.FIELD_NODEID, nodeId), Criteria.leq(AuditLogEntry.FIELD_TIMESTAMP, timestamp.getTime())))).add(Criteria.orderAsc(AuditLogEntry.FIELD_SEQUENCENUMBER));
-    		int startIndex = 1;
-    		final Holder<Long> lastSeqNumber = new Holder<Long>(Long.valueOf(-1L));
-    		while (true) {
-    			try {
-        			final List<AuditRecordData> queryResult = verifyLogsIntegritySubset(startIndex, fetchSize, queryCriteria, report, lastSeqNumber, nodeId);
-    				final int results = queryResult.size();
-    				if (results == 0) {
-    					break;	// No more data for this node
-    				}
-    				startIndex += results;
-					if (auditExporter!=null) {
-						for (final AuditRecordData auditRecordData : queryResult) {
-							writeToExport(auditExporter, auditRecordData);
-        					((AuditLogExportReport) report).incExportCount();
-						}
-					}
-    			} catch (DatabaseProtectionException e) {
-    				// One of the FETCH_SIZE entries failed.. we have to go through line by line to find out witch one..
-    				for (int i=0; i<fetchSize; i++) {
-        				try {
-                			final List<AuditRecordData> queryResult = verifyLogsIntegritySubset(startIndex, 1, queryCriteria, report, lastSeqNumber, nodeId);
-            				final int results = queryResult.size();
-            				if (results != 1) {
-            					break;	// No more data for this node
-            				}
-        					if (auditExporter!=null) {
-        						writeToExport(auditExporter, queryResult.get(0));
-            					((AuditLogExportReport) report).incExportCount();
-        					}
-        				} catch (DatabaseProtectionException e2) {
-        					final AuditRecordData auditRecordData = (AuditRecordData) e2.getEntity();
-        					// Add to report
-        					report.warn(new AuditLogReportElem(lastSeqNumber.get().longValue(), auditRecordData.getSequenceNumber(), "log with sequence number after " + lastSeqNumber + " on nodeId " + nodeId + " could not be verified"));
-        					lastSeqNumber.set(auditRecordData.getSequenceNumber());
-        					// We still export it
-        					// TODO: It might make sense to make it configurable to export when verification fails..
-        					if (auditExporter!=null) {
-            					writeToExport(auditExporter, auditRecordData);
-            					((AuditLogExportReport) report).incExportCount();
-        					}
-        				}
-        				startIndex += 1;
-    				}
-    			}
-    		}
-    	}
+	private void verifyAndOptionalExport(final AuditRecordExportWriter auditRecordExportWriter, final AuditLogValidationReport report, final Date timestamp, final int fetchSize,
+	        final int threads, final File checkpointFile) throws IOException {
+	    final AuditLogVerifier auditLogVerifier = new AuditLogVerifier((nodeId, afterSequenceNumber, max) -> selectUnverifiedAuditLogs(nodeId,
+	            afterSequenceNumber, timestamp, max), AuditRecordData::verifyRowProtection, fetchSize, threads, checkpointFile);
+	    // Get a list of the nodes that have data in the database
+	    auditLogVerifier.verify(getNodeIds(), report, auditRecordExportWriter == null ? null : auditRecordData -> {
+	        auditRecordExportWriter.write(auditRecordData);
+	        ((AuditLogExportReport) report).incExportCount();
+	    });
 	}
 
-	/** We want to export exactly like it was stored in the database, to comply with requirements on logging systems where no altering of the original log data is allowed. */
-    private void writeToExport(final AuditExporter auditExporter, final AuditRecordData auditRecordData) throws IOException {
-        auditExporter.writeStartObject();
-        auditExporter.writeField("pk", auditRecordData.getPk());
-        auditExporter.writeField("nodeId", auditRecordData.getNodeId());
-        auditExporter.writeField("sequenceNumber", auditRecordData.getSequenceNumber());
-        auditExporter.writeField("timestamp", auditRecordData.getTimeStamp());
-        auditExporter.writeField("eventType", auditRecordData.getEventTypeValue().toString());
-        auditExporter.writeField("eventStatus", auditRecordData.getEventStatusValue().toString());
-        auditExporter.writeField("authToken", auditRecordData.getAuthToken());
-        auditExporter.writeField("service", auditRecordData.getServiceTypeValue().toString());
-        auditExporter.writeField("module", auditRecordData.getModuleTypeValue().toString());
-        auditExporter.writeField("customId", auditRecordData.getCustomId());
-        auditExporter.writeField("searchDetail1", auditRecordData.getSearchDetail1());
-        auditExporter.writeField("searchDetail2", auditRecordData.getSearchDetail2());
-        auditExporter.writeField("additionalDetails", auditRecordData.getAdditionalDetails());
-        auditExporter.writeField("rowProtection", auditRecordData.getRowProtection());
-        auditExporter.writeEndObject();
-    }
-    
     /**
-     * Fetch a batch of log rows from the database (implying database integrity check) and verifies
-     * that all sequence numbers are present.
-     * @param startIndex start batch from this position 
-     * @param max entries per batch
-     * @param queryCriteria where clause
-     * @param report will be updated when a problem is found
-     * @param lastSeqNumber will be updated to the last sequence number processed in this subset
+     * Fetch a page of log rows of a node from the database, without verifying their integrity. Since the rows are selected as columns
+     * and not as entities, the row protection is not verified when loading, and the integrity can be verified by other threads.
      * @param nodeId identifier of which node that claims to have written this data
-     * @return the log entries we fetched from the database so the caller may export these
-     * @throws DatabaseProtectionException if the intregrity verification fails for one of the entries in the batch during fetch
+     * @param afterSequenceNumber fetch rows with a greater sequence number than this
+     * @param timestamp fetch rows up until this time
+     * @param max entries per page
+     * @return the log entries ordered by sequence number
      */
-	private List<AuditRecordData> verifyLogsIntegritySubset(final int startIndex, final int max, final QueryCriteria queryCriteria, final AuditLogValidationReport report, final Holder<Long> lastSeqNumber, final String nodeId) throws DatabaseProtectionException {
-		final List<AuditRecordData> queryResult = internalSelectAuditLogs(startIndex, max, queryCriteria);	// Might throw DatabaseProtectionException
-		// Loop through results and verify that the sequence order is correct
-		for (int i=0; i<queryResult.size(); i++) {
-			final long currentSeqNumber = queryResult.get(i).getSequenceNumber().longValue();
-			if (currentSeqNumber != lastSeqNumber.get().longValue() + 1) {
-				if (log.isDebugEnabled()) {
-					log.debug("Log verification failure for log on node " + nodeId + ". Missing entry. Last sequenceNumber was " + lastSeqNumber + " and current is " + currentSeqNumber);
-				}
-				// Add to report
-				report.warn(new AuditLogReportElem(lastSeqNumber.get(), Long.valueOf(currentSeqNumber), "missing log with sequence number " + (lastSeqNumber.get().longValue() + 1) + " on nodeId " + nodeId));
-			}
-			lastSeqNumber.set(Long.valueOf(currentSeqNumber));
-		}
-		return queryResult;
-	}
-	
+    private List<AuditRecordData> selectUnverifiedAuditLogs(final String nodeId, final long afterSequenceNumber, final Date timestamp, final int max) {
+        final Query query = entityManager.createQuery("SELECT a.pk, a.nodeId, a.sequenceNumber, a.timeStamp, a.eventType, a.eventStatus, a.authToken,"
+                + " a.service, a.module, a.customId, a.searchDetail1, a.searchDetail2, a.additionalDetails, a.rowVersion, a.rowProtection"
+                + " FROM AuditRecordData a WHERE a.nodeId=:nodeId AND a.sequenceNumber>:sequenceNumber AND a.timeStamp<=:timeStamp ORDER BY a.sequenceNumber");
+        query.setParameter("nodeId", nodeId);
+        query.setParameter("sequenceNumber", afterSequenceNumber);
+        query.setParameter("timeStamp", timestamp.getTime());
+        query.setMaxResults(max);
+        @SuppressWarnings("unchecked")
+        final List<Object[]> rows = query.getResultList();
+        final List<AuditRecordData> ret = new ArrayList<>(rows.size());
+        for (final Object[] row : rows) {
+            final AuditRecordData auditRecordData = new AuditRecordData();
+            auditRecordData.setPk((String) row[0]);
+            auditRecordData.setNodeId((String) row[1]);
+            auditRecordData.setSequenceNumber(((Number) row[2]).longValue());
+            auditRecordData.setTimeStamp(((Number) row[3]).longValue());
+            auditRecordData.setEventType((String) row[4]);
+            auditRecordData.setEventStatus((String) row[5]);
+            auditRecordData.setAuthToken((String) row[6]);
+            auditRecordData.setService((String) row[7]);
+            auditRecordData.setModule((String) row[8]);
+            auditRecordData.setCustomId((String) row[9]);
+            auditRecordData.setSearchDetail1((String) row[10]);
+            auditRecordData.setSearchDetail2((String) row[11]);
+            auditRecordData.setAdditionalDetails((String) row[12]);
+            auditRecordData.setRowVersion(((Number) row[13]).intValue());
+            auditRecordData.setRowProtection((String) row[14]);
+            ret.add(auditRecordData);
+        }
+        return ret;
+    }
+
 	/** Log the outcome of the verification to the secure audit log based on the supplied number of errors. */
 	private void logVerificationResult(final int errors, final Date timestamp, final AuthenticationToken token) {
     	final Map<String, Object> details = new LinkedHashMap<String, Object>();
@@ -327,12 +338,4 @@ public class IntegrityProtectedAuditorSessionBean implements IntegrityProtectedA
         }
         return query;
     }
-    
-    /** Class used internally for holding an object that can updated by a method. */
-    private class Holder<T> {
-    	private T object;
-    	Holder(final T object) { set(object); }
-		public void set(final T object) { this.object = object; }
-		public T get() { return object; }
-    }
 }
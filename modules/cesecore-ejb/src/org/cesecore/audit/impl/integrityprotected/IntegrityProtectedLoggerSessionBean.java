@@ -12,10 +12,14 @@
  *************************************************************************/
 package org.cesecore.audit.impl.integrityprotected;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.ejb.SessionContext;
 import javax.ejb.Stateless;
 import javax.ejb.TransactionAttribute;
 import javax.ejb.TransactionAttributeType;
@@ -24,6 +28,7 @@ import javax.persistence.PersistenceContext;
 import javax.persistence.Query;
 
 import org.apache.log4j.Logger;
+import org.cesecore.audit.AuditDevicesConfig;
 import org.cesecore.audit.enums.EventStatus;
 import org.cesecore.audit.enums.EventType;
 import org.cesecore.audit.enums.ModuleType;
@@ -46,13 +51,20 @@ import org.cesecore.util.QueryResultWrapper;
 public class IntegrityProtectedLoggerSessionBean implements IntegrityProtectedLoggerSessionLocal {
 
     private static final Logger log = Logger.getLogger(IntegrityProtectedLoggerSessionBean.class);
+    /** Number of audit records persisted by writeBatch between each flush of the persistence context, same as hibernate.jdbc.batch_size */
+    private static final int WRITE_BATCH_FLUSH_SIZE = 100;
 
     @PersistenceContext(unitName = CesecoreConfiguration.PERSISTENCE_UNIT)
     private EntityManager entityManager;
+    @Resource
+    private SessionContext sessionContext;
+
+    private IntegrityProtectedLoggerSessionLocal integrityProtectedLoggerSession;
 
     @PostConstruct
     public void postConstruct() {
         CryptoProviderTools.installBCProviderIfNotAvailable();
+        integrityProtectedLoggerSession = sessionContext.getBusinessObject(IntegrityProtectedLoggerSessionLocal.class);
     }
 
     /**
@@ -79,8 +91,8 @@ public class IntegrityProtectedLoggerSessionBean implements IntegrityProtectedLo
     };
 
     @Override
-    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
-    // Always persist audit log
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    // Always persist audit log. The record is persisted in a new transaction of its own by writeRecord, or of its group by writeBatch.
     public void log(final TrustedTime trustedTime, final EventType eventType, final EventStatus eventStatus, final ModuleType module,
             final ServiceType service, final String authToken, final String customId, final String searchDetail1, final String searchDetail2,
             final Map<String, Object> additionalDetails, final Properties properties) throws AuditRecordStorageException {
@@ -88,13 +100,15 @@ public class IntegrityProtectedLoggerSessionBean implements IntegrityProtectedLo
             log.trace(String.format(">log:%s:%s:%s:%s:%s:%s", eventType, eventStatus, module, service, authToken, additionalDetails));
         }
         try {
-            final Long sequenceNumber = NodeSequenceHolder.INSTANCE.getNext(sequenceHolderInitialization);
-            // Make sure to use the Node Identifier that this log sequence was initialized with (for example hostnames reported by the system could change)
-            final String nodeId = NodeSequenceHolder.INSTANCE.getNodeId();
-            final Long timeStamp = trustedTime.getTime().getTime();
-            final AuditRecordData auditRecordData = new AuditRecordData(nodeId, sequenceNumber, timeStamp, eventType, eventStatus, authToken,
-                    service, module, customId, searchDetail1, searchDetail2, additionalDetails);
-            entityManager.persist(auditRecordData);
+            // The node identifier and sequence number are assigned when the record is written
+            final AuditRecordData auditRecordData = new AuditRecordData(null, null, trustedTime.getTime().getTime(), eventType, eventStatus,
+                    authToken, service, module, customId, searchDetail1, searchDetail2, additionalDetails);
+            if (AuditDevicesConfig.isAuditLogGroupCommitEnabled(properties)) {
+                AuditRecordGroupCommitter.INSTANCE.commit(auditRecordData, AuditDevicesConfig.getAuditLogGroupCommitMaxBatchSize(properties),
+                        AuditDevicesConfig.getAuditLogGroupCommitTimeout(properties), integrityProtectedLoggerSession::writeBatch);
+            } else {
+                integrityProtectedLoggerSession.writeRecord(auditRecordData);
+            }
         } catch (Exception e) {
             log.error(e.getMessage(), e);
             throw new AuditRecordStorageException(e.getMessage(), e);
@@ -104,4 +118,53 @@ public class IntegrityProtectedLoggerSessionBean implements IntegrityProtectedLo
             }
         }
     }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public void writeRecord(final AuditRecordData auditRecordData) {
+        auditRecordData.setSequenceNumber(NodeSequenceHolder.INSTANCE.getNext(sequenceHolderInitialization));
+        // Make sure to use the Node Identifier that this log sequence was initialized with (for example hostnames reported by the system could change)
+        auditRecordData.setNodeId(NodeSequenceHolder.INSTANCE.getNodeId());
+        entityManager.persist(auditRecordData);
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public void writeBatch(final List<AuditRecordData> auditRecords) {
+        // Take all sequence numbers first, so that they can be given back if the transaction fails
+        final List<Long> sequenceNumbers = new ArrayList<>(auditRecords.size());
+        for (int i = 0; i < auditRecords.size(); i++) {
+            sequenceNumbers.add(NodeSequenceHolder.INSTANCE.getNext(sequenceHolderInitialization));
+        }
+        final String nodeId = NodeSequenceHolder.INSTANCE.getNodeId();
+        for (int i = 0; i < auditRecords.size(); i++) {
+            // Persist a copy, since a record from a failed group is written again in a new transaction
+            entityManager.persist(copyAuditRecord(auditRecords.get(i), nodeId, sequenceNumbers.get(i)));
+            if ((i + 1) % WRITE_BATCH_FLUSH_SIZE == 0) {
+                // Send the inserts as one JDBC batch, and keep the persistence context small in large groups
+                entityManager.flush();
+                entityManager.clear();
+            }
+        }
+        // Send the remaining inserts, with any error thrown from here rather than on commit
+        entityManager.flush();
+    }
+
+    private static AuditRecordData copyAuditRecord(final AuditRecordData auditRecord, final String nodeId, final Long sequenceNumber) {
+        final AuditRecordData ret = new AuditRecordData();
+        ret.setPk(auditRecord.getPk());
+        ret.setNodeId(nodeId);
+        ret.setSequenceNumber(sequenceNumber);
+        ret.setTimeStamp(auditRecord.getTimeStamp());
+        ret.setEventType(auditRecord.getEventType());
+        ret.setEventStatus(auditRecord.getEventStatus());
+        ret.setAuthToken(auditRecord.getAuthToken());
+        ret.setService(auditRecord.getService());
+        ret.setModule(auditRecord.getModule());
+        ret.setCustomId(auditRecord.getCustomId());
+        ret.setSearchDetail1(auditRecord.getSearchDetail1());
+        ret.setSearchDetail2(auditRecord.getSearchDetail2());
+        ret.setAdditionalDetails(auditRecord.getAdditionalDetails());
+        return ret;
+    }
 }
@@ -0,0 +1,274 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.authorization;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Coalesces identical successful authorization checks, so they can be written to the audit log as a single record with a count
+ * (securityeventsaudit.coalesceauthorization=true).
+ * <p>
+ * Checks are identical if they are made by the same authentication token, for the same resources in the same order, in the same
+ * transaction. A daemon thread writes each coalesced check when it has been held for the aggregation window, or all of them when
+ * more than the maximum number of different checks are held.
+ * <p>
+ * Checks are not held while the coalescer is stopped, or while writing to the audit log fails, so that the caller logs them directly and
+ * sees the failure. Coalesced checks that could not be written are kept and written again after the aggregation window. The thread
+ * is stopped by {@link AuthorizationAuditCoalescerShutdownBean} when the application is undeployed, after writing all checks held.
+ *
+ * @version $Id$
+ */
+enum AuthorizationAuditCoalescer {
+    INSTANCE;
+
+    private static final Logger log = Logger.getLogger(AuthorizationAuditCoalescer.class);
+
+    /** Writes a coalesced authorization check to the audit log */
+    interface AuditWriter {
+        void write(CoalescedAuthorization coalescedAuthorization) throws Exception;
+    }
+
+    /** Identical successful authorization checks */
+    static final class CoalescedAuthorization {
+        private final Key key;
+        private final String authenticationToken;
+        private final List<String> resources;
+        private final long firstTime;
+        private long lastTime;
+        private int count;
+
+        private CoalescedAuthorization(final Key key, final String authenticationToken, final List<String> resources, final long time) {
+            this.key = key;
+            this.authenticationToken = authenticationToken;
+            this.resources = resources;
+            this.firstTime = time;
+            this.lastTime = time;
+        }
+
+        String getAuthenticationToken() { return authenticationToken; }
+
+        List<String> getResources() { return resources; }
+
+        /** @return the time of the first check */
+        long getFirstTime() { return firstTime; }
+
+        /** @return the time of the last check */
+        long getLastTime() { return lastTime; }
+
+        /** @return the number of checks */
+        int getCount() { return count; }
+    }
+
+    private static final class Key {
+        private final String authenticationToken;
+        private final List<String> resources;
+        private final Object transactionKey;
+
+        private Key(final String authenticationToken, final List<String> resources, final Object transactionKey) {
+            this.authenticationToken = authenticationToken;
+            this.resources = resources;
+            this.transactionKey = transactionKey;
+        }
+
+        @Override
+        public int hashCode() {
+            return authenticationToken.hashCode() * 31 + resources.hashCode() + (transactionKey == null ? 0 : transactionKey.hashCode() * 17);
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return authenticationToken.equals(other.authenticationToken) && resources.equals(other.resources)
+                    && (transactionKey == null ? other.transactionKey == null : transactionKey.equals(other.transactionKey));
+        }
+    }
+
+    private final Map<Key, CoalescedAuthorization> pending = new ConcurrentHashMap<>();
+    private final Object flushLock = new Object();
+    private volatile AuditWriter auditWriter;
+    private volatile long window = 1000;
+    private volatile int maxEntries = Integer.MAX_VALUE;
+    private volatile boolean stopped = false;
+    /** True while writing to the audit log fails */
+    private volatile boolean failing = false;
+    private Thread flusherThread;
+
+    /**
+     * Hold a successful authorization check until it is written to the audit log.
+     *
+     * @param authenticationToken the string representation of the authentication token
+     * @param resources the resources the token was authorized to
+     * @param transactionKey identifies the current transaction, or null if there is none
+     * @param window the maximum time in milliseconds to hold the check
+     * @param maxEntries the maximum number of different checks to hold
+     * @param auditWriter writer used for the audit records. The latest writer passed is used for all checks.
+     * @return true if the check is held, or false if the caller must write it to the audit log since the coalescer is stopped or writing
+     *      to the audit log fails
+     */
+    boolean add(final String authenticationToken, final String[] resources, final Object transactionKey, final long window, final int maxEntries,
+            final AuditWriter auditWriter) {
+        if (stopped || failing) {
+            return false;
+        }
+        this.auditWriter = auditWriter;
+        // A shorter window must not wait for the current wait of the flusher thread to end
+        final boolean windowChanged = this.window != window;
+        this.window = window;
+        this.maxEntries = maxEntries;
+        startFlusherIfNeeded();
+        final List<String> resourceList = Arrays.asList(resources.clone());
+        final long now = System.currentTimeMillis();
+        pending.compute(new Key(authenticationToken, resourceList, transactionKey), (key, value) -> {
+            final CoalescedAuthorization ret = value == null ? new CoalescedAuthorization(key, authenticationToken, resourceList, now) : value;
+            ret.lastTime = now;
+            ret.count++;
+            return ret;
+        });
+        if (windowChanged || pending.size() > maxEntries) {
+            synchronized (flushLock) {
+                flushLock.notifyAll();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Remove the checks held for at least the aggregation window, or all checks if more than the maximum number are held.
+     *
+     * @param now the current time
+     * @return the removed checks
+     */
+    List<CoalescedAuthorization> takeDue(final long now) {
+        final boolean all = pending.size() > maxEntries;
+        final List<CoalescedAuthorization> ret = new ArrayList<>();
+        for (final Map.Entry<Key, CoalescedAuthorization> entry : pending.entrySet()) {
+            // Removing the entry exactly as read ensures that no check added concurrently is lost
+            if ((all || entry.getValue().firstTime + window <= now) && pending.remove(entry.getKey(), entry.getValue())) {
+                ret.add(entry.getValue());
+            }
+        }
+        return ret;
+    }
+
+    /** @return the time in milliseconds until the next check held should be written, at most the aggregation window */
+    private long getTimeUntilDue(final long now) {
+        long ret = window;
+        for (final CoalescedAuthorization coalescedAuthorization : pending.values()) {
+            ret = Math.min(ret, coalescedAuthorization.firstTime + window - now);
+        }
+        return Math.max(1, ret);
+    }
+
+    /** Allow checks to be held again after {@link #stop(long)} */
+    synchronized void start() {
+        stopped = false;
+    }
+
+    /**
+     * Stop the flusher thread after it has written all checks held. Checks are not held after this, until {@link #start()} is called.
+     *
+     * @param timeoutMs the maximum time in milliseconds to wait for the flusher thread
+     */
+    void stop(final long timeoutMs) {
+        final Thread thread;
+        synchronized (this) {
+            stopped = true;
+            thread = flusherThread;
+            flusherThread = null;
+        }
+        synchronized (flushLock) {
+            flushLock.notifyAll();
+        }
+        if (thread != null) {
+            try {
+                thread.join(timeoutMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (thread.isAlive()) {
+                log.warn("Authorization audit coalescer did not stop within " + timeoutMs + " ms.");
+                thread.interrupt();
+            }
+        }
+        // Checks added while stopping
+        writeAll();
+    }
+
+    private synchronized void startFlusherIfNeeded() {
+        if (!stopped && (flusherThread == null || !flusherThread.isAlive())) {
+            flusherThread = new Thread(this::flushRecords, "AuthorizationAuditCoalescer");
+            flusherThread.setDaemon(true);
+            flusherThread.start();
+        }
+    }
+
+    private void flushRecords() {
+        while (!stopped) {
+            try {
+                synchronized (flushLock) {
+                    if (!stopped && pending.size() <= maxEntries) {
+                        // Checks that failed are due at once, so wait for the whole window before trying again
+                        flushLock.wait(failing ? window : getTimeUntilDue(System.currentTimeMillis()));
+                    }
+                }
+            } catch (InterruptedException e) {
+                log.info("Authorization audit coalescer was interrupted.");
+                break;
+            }
+            write(takeDue(System.currentTimeMillis()));
+        }
+        writeAll();
+    }
+
+    /** Write all checks held, and report those that could not be written as lost */
+    private void writeAll() {
+        write(takeDue(Long.MAX_VALUE / 2));
+        for (final CoalescedAuthorization coalescedAuthorization : takeDue(Long.MAX_VALUE / 2)) {
+            log.error("Lost " + coalescedAuthorization.count + " successful authorization checks of " + coalescedAuthorization.authenticationToken
+                    + " for resources " + coalescedAuthorization.resources + " since they could not be written to the audit log.");
+        }
+    }
+
+    /** Write coalesced checks to the audit log, and keep those that could not be written to try again */
+    private void write(final List<CoalescedAuthorization> coalescedAuthorizations) {
+        for (final CoalescedAuthorization coalescedAuthorization : coalescedAuthorizations) {
+            try {
+                auditWriter.write(coalescedAuthorization);
+                failing = false;
+            } catch (Throwable e) {
+                log.error("Failed to write " + coalescedAuthorization.count + " successful authorization checks of "
+                        + coalescedAuthorization.authenticationToken + " to the audit log. New checks are written directly until writing succeeds: "
+                        + e.getMessage(), e);
+                failing = true;
+                pending.merge(coalescedAuthorization.key, coalescedAuthorization, AuthorizationAuditCoalescer::merge);
+            }
+        }
+    }
+
+    private static CoalescedAuthorization merge(final CoalescedAuthorization first, final CoalescedAuthorization second) {
+        final CoalescedAuthorization ret = new CoalescedAuthorization(first.key, first.authenticationToken, first.resources,
+                Math.min(first.firstTime, second.firstTime));
+        ret.lastTime = Math.max(first.lastTime, second.lastTime);
+        ret.count = first.count + second.count;
+        return ret;
+    }
+}
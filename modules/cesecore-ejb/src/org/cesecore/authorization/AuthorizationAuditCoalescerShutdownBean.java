@@ -0,0 +1,52 @@
+/*************************************************************************
+ *                                                                       *
+ *  CESeCore: CE Security Core                                           *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.cesecore.authorization;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.DependsOn;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+
+/**
+ * Ties the flusher thread of {@link AuthorizationAuditCoalescer} to the life cycle of the application, so that the checks held are
+ * written to the audit log and the thread is stopped when the application is undeployed.
+ * <p>
+ * Depends on the group commit of the audit log, so that it is stopped after the checks held have been written.
+ *
+ * @version $Id$
+ */
+@Singleton
+@Startup
+@DependsOn("AuditRecordGroupCommitterShutdownBean")
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+@TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+public class AuthorizationAuditCoalescerShutdownBean {
+
+    /** Time to wait for the checks held to be written when the application is undeployed */
+    private static final long SHUTDOWN_TIMEOUT_MS = 30000L;
+
+    @PostConstruct
+    public void startup() {
+        AuthorizationAuditCoalescer.INSTANCE.start();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        AuthorizationAuditCoalescer.INSTANCE.stop(SHUTDOWN_TIMEOUT_MS);
+    }
+}
@@ -23,6 +23,7 @@ import org.cesecore.audit.log.SecurityEventsLoggerSessionLocal;
 import org.cesecore.authentication.AuthenticationFailedException;
 import org.cesecore.authentication.tokens.AuthenticationToken;
 import org.cesecore.authentication.tokens.NestableAuthenticationToken;
+import org.cesecore.authorization.AuthorizationAuditCoalescer.AuditWriter;
 import org.cesecore.authorization.AuthorizationCache.AuthorizationCacheCallback;
 import org.cesecore.authorization.AuthorizationCache.AuthorizationResult;
 import org.cesecore.authorization.access.AuthorizationCacheReloadListener;
@@ -37,6 +38,7 @@ import org.cesecore.roles.member.RoleMemberDataSessionLocal;
 import org.cesecore.time.TrustedTime;
 import org.cesecore.time.TrustedTimeWatcherSessionLocal;
 import org.cesecore.time.providers.TrustedTimeProviderException;
+import org.cesecore.util.ValidityDate;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
@@ -49,6 +51,7 @@ import javax.ejb.TimerConfig;
 import javax.ejb.TimerService;
 import javax.ejb.TransactionAttribute;
 import javax.ejb.TransactionAttributeType;
+import javax.transaction.TransactionSynchronizationRegistry;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -80,6 +83,8 @@ public class AuthorizationSessionBean implements AuthorizationSessionLocal, Auth
 
     @Resource
     private SessionContext sessionContext;
+    @Resource
+    private TransactionSynchronizationRegistry transactionSynchronizationRegistry;
     private TimerService timerService; // When the sessionContext is injected, the timerService should be looked up.
     private AuthorizationSessionLocal authorizationSession;
 
@@ -150,8 +155,15 @@ public class AuthorizationSessionBean implements AuthorizationSessionLocal, Auth
                 }
             }
             if (doLogging) {
-                internalSecurityEventsLoggerSession.log(getTrustedTime(), EventTypes.ACCESS_CONTROL, EventStatus.SUCCESS, ModuleTypes.ACCESSCONTROL,
-                        ServiceTypes.CORE, authenticationToken.toString(), null, null, null, details);
+                // Identical checks in the same transaction are written later as a single record with a count, unless the coalescer
+                // is stopped or fails to write to the audit log
+                if (!CesecoreConfiguration.isAuthorizationAuditCoalesced() || !AuthorizationAuditCoalescer.INSTANCE.add(authenticationToken.toString(),
+                        resources, transactionSynchronizationRegistry.getTransactionKey(), CesecoreConfiguration.getAuthorizationAuditCoalesceWindow(),
+                        CesecoreConfiguration.getAuthorizationAuditCoalesceMaxEntries(),
+                        getCoalescedAuthorizationWriter(internalSecurityEventsLoggerSession, trustedTimeWatcherSession))) {
+                    internalSecurityEventsLoggerSession.log(getTrustedTime(), EventTypes.ACCESS_CONTROL, EventStatus.SUCCESS, ModuleTypes.ACCESSCONTROL,
+                            ServiceTypes.CORE, authenticationToken.toString(), null, null, null, details);
+                }
             }
             return true;
         } catch (AuthenticationFailedException e) {
@@ -285,6 +297,28 @@ public class AuthorizationSessionBean implements AuthorizationSessionLocal, Auth
         return accessRules;
     }
 
+    /**
+     * The writer is run by the thread of {@link AuthorizationAuditCoalescer}, so it only uses the session references passed and not
+     * this bean instance.
+     *
+     * @return a writer that logs coalesced successful authorization checks with the resources, the number of checks and the time of the first
+     */
+    private static AuditWriter getCoalescedAuthorizationWriter(final InternalSecurityEventsLoggerSessionLocal internalSecurityEventsLoggerSession,
+            final TrustedTimeWatcherSessionLocal trustedTimeWatcherSession) {
+        return coalescedAuthorization -> {
+            final Map<String, Object> details = new LinkedHashMap<>();
+            final List<String> resources = coalescedAuthorization.getResources();
+            for (int i=0; i<resources.size(); i++) {
+                details.put("resource"+i, resources.get(i));
+            }
+            details.put("count", coalescedAuthorization.getCount());
+            details.put("firstTime", ValidityDate.formatAsUTC(coalescedAuthorization.getFirstTime()));
+            details.put("lastTime", ValidityDate.formatAsUTC(coalescedAuthorization.getLastTime()));
+            internalSecurityEventsLoggerSession.log(trustedTimeWatcherSession.getTrustedTime(false), EventTypes.ACCESS_CONTROL, EventStatus.SUCCESS,
+                    ModuleTypes.ACCESSCONTROL, ServiceTypes.CORE, coalescedAuthorization.getAuthenticationToken(), null, null, null, details);
+        };
+    }
+
     /** @return the trusted time requires for audit logging */
     private TrustedTime getTrustedTime() throws AuditRecordStorageException {
         try {
@@ -14,15 +14,17 @@ package org.cesecore.certificates.certificate;
 
 import java.math.BigInteger;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.persistence.EntityManager;
 import javax.persistence.Query;
 
 import org.apache.log4j.Logger;
 import org.cesecore.certificates.crl.RevokedCertInfo;
+import org.cesecore.certificates.crl.RevokedCertInfoCollection;
 import org.cesecore.config.CesecoreConfiguration;
-import org.cesecore.util.CompressedCollection;
 import org.cesecore.util.ValueExtractor;
 
 /**
@@ -37,74 +39,70 @@ public abstract class BaseCertificateDataSessionBean {
     /** Returns the name of the table in the database. Either "CertificateData" or "NoConflictCertificateData" */
     protected abstract String getTableName();
     
+    /** Returns the name of the primary key column of the table. Either "fingerprint" or "id" */
+    protected abstract String getPrimaryKeyColumn();
+    
     /** Returns the entity manager to use. */
     protected abstract EntityManager getEntityManager();
     
     /**
      * Returns a list with information about revoked certificates. Depending on the table, the result can
      * either contain at most one entry per certificate, or it may contain duplicates.
+     * <p>
+     * The rows are read in batches of database.crlgenfetchsize rows, in primary key order. Each batch continues after the last
+     * primary key of the previous batch (keyset pagination), so that the database does not have to skip the rows of all previous
+     * batches, and the time to read all revoked certificates grows linearly with their number.
      */
     protected Collection<RevokedCertInfo> getRevokedCertInfosInternal(final String issuerDN, final int crlPartitionIndex, final long lastbasecrldate, final boolean forceGetAll) {
-        final String tableName = getTableName();
+        final String primaryKeyColumn = getPrimaryKeyColumn();
         final String crlPartitionExpression;
-        final String ordering;
-        final Query query;
+        final String condition;
+        final Map<String, Object> parameters = new HashMap<>();
         if (crlPartitionIndex != 0) {
-            crlPartitionExpression = " AND crlPartitionIndex = :crlPartitionIndex";
-        } else {
-            crlPartitionExpression = " AND (crlPartitionIndex = :crlPartitionIndex OR crlPartitionIndex IS NULL)";
-        }
-        if (CesecoreConfiguration.getDatabaseRevokedCertInfoFetchOrdered()) {
-            ordering = " ORDER BY revocationDate ASC";
+            crlPartitionExpression = " AND a.crlPartitionIndex = :crlPartitionIndex";
         } else {
-            ordering = "";
+            crlPartitionExpression = " AND (a.crlPartitionIndex = :crlPartitionIndex OR a.crlPartitionIndex IS NULL)";
         }
         if (lastbasecrldate > 0) {
             // Delta CRL
-            query = getEntityManager().createNativeQuery(
-                    "SELECT a.fingerprint as fingerprint, a.serialNumber as serialNumber, a.expireDate as expireDate, a.revocationDate as revocationDate, a.revocationReason as revocationReason FROM " + tableName + " a WHERE "
-                            + "a.issuerDN=:issuerDN AND a.revocationDate>:revocationDate AND (a.status=:status1 OR a.status=:status2 OR a.status=:status3)"
-                            + crlPartitionExpression + ordering,
-                    "RevokedCertInfoSubset");
-            query.setParameter("revocationDate", lastbasecrldate);
-            query.setParameter("status1", CertificateConstants.CERT_REVOKED);
-            query.setParameter("status2", CertificateConstants.CERT_ACTIVE); // in case the certificate has been changed from on hold, we need to include it as "removeFromCRL" in the Delta CRL
-            query.setParameter("status3", CertificateConstants.CERT_NOTIFIEDABOUTEXPIRATION); // could happen if a cert is re-activated just before expiration
+            condition = "a.issuerDN=:issuerDN AND a.revocationDate>:revocationDate AND (a.status=:status1 OR a.status=:status2 OR a.status=:status3)";
+            parameters.put("revocationDate", lastbasecrldate);
+            parameters.put("status1", CertificateConstants.CERT_REVOKED);
+            parameters.put("status2", CertificateConstants.CERT_ACTIVE); // in case the certificate has been changed from on hold, we need to include it as "removeFromCRL" in the Delta CRL
+            parameters.put("status3", CertificateConstants.CERT_NOTIFIEDABOUTEXPIRATION); // could happen if a cert is re-activated just before expiration
         } else if (forceGetAll) {
             // Base CRL
-            query = getEntityManager().createNativeQuery(
-                    "SELECT a.fingerprint as fingerprint, a.serialNumber as serialNumber, a.expireDate as expireDate, a.revocationDate as revocationDate, a.revocationReason as revocationReason FROM " + tableName + " a WHERE "
-                            + "a.issuerDN=:issuerDN AND (a.status=:status1 OR a.status=:status2 OR a.status=:status3)"
-                            + crlPartitionExpression + ordering,
-                    "RevokedCertInfoSubset");
-            query.setParameter("status1", CertificateConstants.CERT_REVOKED);
-            query.setParameter("status2", CertificateConstants.CERT_ACTIVE); // in case the certificate has been changed from on hold, we need to include it as "removeFromCRL" in the Delta CRL
-            query.setParameter("status3", CertificateConstants.CERT_NOTIFIEDABOUTEXPIRATION); // could happen if a cert is re-activated just before expiration
+            condition = "a.issuerDN=:issuerDN AND (a.status=:status1 OR a.status=:status2 OR a.status=:status3)";
+            parameters.put("status1", CertificateConstants.CERT_REVOKED);
+            parameters.put("status2", CertificateConstants.CERT_ACTIVE); // in case the certificate has been changed from on hold, we need to include it as "removeFromCRL" in the Delta CRL
+            parameters.put("status3", CertificateConstants.CERT_NOTIFIEDABOUTEXPIRATION); // could happen if a cert is re-activated just before expiration
         } else {
             // Base CRL
-            query = getEntityManager().createNativeQuery(
-                    "SELECT a.fingerprint as fingerprint, a.serialNumber as serialNumber, a.expireDate as expireDate, a.revocationDate as revocationDate, a.revocationReason as revocationReason FROM " + tableName + " a WHERE "
-                            + "a.issuerDN=:issuerDN AND a.status=:status" + crlPartitionExpression + ordering,
-                    "RevokedCertInfoSubset");
-            query.setParameter("status", CertificateConstants.CERT_REVOKED);
+            condition = "a.issuerDN=:issuerDN AND a.status=:status";
+            parameters.put("status", CertificateConstants.CERT_REVOKED);
         }
-        query.setParameter("issuerDN", issuerDN);
-        query.setParameter("crlPartitionIndex", crlPartitionIndex);
-        return getRevokedCertInfosInternal(query);
-    }
-    
-    private Collection<RevokedCertInfo> getRevokedCertInfosInternal(final Query query) {
+        parameters.put("issuerDN", issuerDN);
+        parameters.put("crlPartitionIndex", crlPartitionIndex);
+        final String sql = "SELECT a.fingerprint as fingerprint, a.serialNumber as serialNumber, a.expireDate as expireDate, a.revocationDate as revocationDate, a.revocationReason as revocationReason, a."
+                + primaryKeyColumn + " as pagingKey FROM " + getTableName() + " a WHERE " + condition + crlPartitionExpression;
+        final String orderBy = " ORDER BY a." + primaryKeyColumn + " ASC";
         final int maxResults = CesecoreConfiguration.getDatabaseRevokedCertInfoFetchSize();
-        query.setMaxResults(maxResults);
-        int firstResult = 0;
-        final CompressedCollection<RevokedCertInfo> revokedCertInfos = new CompressedCollection<>(RevokedCertInfo.class);
+        final RevokedCertInfoCollection revokedCertInfos = new RevokedCertInfoCollection();
+        String lastPagingKey = null;
         while (true) {
-            query.setFirstResult(firstResult);
+            final Query query;
+            if (lastPagingKey == null) {
+                query = getEntityManager().createNativeQuery(sql + orderBy, "RevokedCertInfoSubset");
+            } else {
+                query = getEntityManager().createNativeQuery(sql + " AND a." + primaryKeyColumn + ">:pagingKey" + orderBy, "RevokedCertInfoSubset");
+                query.setParameter("pagingKey", lastPagingKey);
+            }
+            for (final Map.Entry<String, Object> parameter : parameters.entrySet()) {
+                query.setParameter(parameter.getKey(), parameter.getValue());
+            }
+            query.setMaxResults(maxResults);
             @SuppressWarnings("unchecked")
             final List<Object[]> incompleteCertificateDatas = query.getResultList();
-            if (incompleteCertificateDatas.size()==0) {
-                break;
-            }
             if (log.isDebugEnabled()) {
                 log.debug("Read batch of " + incompleteCertificateDatas.size() + " RevokedCertInfo.");
             }
@@ -118,9 +116,12 @@ public abstract class BaseCertificateDataSessionBean {
                 if (revocationReason == -1) {
                     revocationReason = RevokedCertInfo.REVOCATION_REASON_REMOVEFROMCRL;
                 }
-                revokedCertInfos.add(new RevokedCertInfo(fingerprint, serialNumber, revocationDate, revocationReason, expireDate));
+                revokedCertInfos.add(fingerprint, serialNumber, revocationDate, revocationReason, expireDate);
+                lastPagingKey = (String) current[5];
+            }
+            if (incompleteCertificateDatas.size() < maxResults) {
+                break;
             }
-            firstResult += maxResults;
         }
         revokedCertInfos.closeForWrite();
         return revokedCertInfos;
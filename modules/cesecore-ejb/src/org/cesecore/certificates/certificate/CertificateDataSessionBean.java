@@ -14,6 +14,7 @@ package org.cesecore.certificates.certificate;
 
 import java.math.BigInteger;
 import java.security.cert.Certificate;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.LinkedList;
@@ -56,6 +57,11 @@ public class CertificateDataSessionBean extends BaseCertificateDataSessionBean i
         return "CertificateData";
     }
 
+    @Override
+    protected String getPrimaryKeyColumn() {
+        return "fingerprint";
+    }
+
     @Override
     protected EntityManager getEntityManager() {
         return entityManager;
@@ -105,6 +111,89 @@ public class CertificateDataSessionBean extends BaseCertificateDataSessionBean i
         return query.getResultList();
     }
 
+    @Override
+    public List<Object[]> findStatusInfosByIssuerDN(final String issuerDN, final long minUpdateTime, final String afterSerialNumber,
+            final int maxResults) {
+        // Keyset paging on (issuerDN, serialNumber) is independent of the number of rows already read, unlike offset paging
+        final TypedQuery<Object[]> query = entityManager.createQuery(
+                "SELECT a.serialNumber, a.status, a.revocationDate, a.revocationReason, a.certificateProfileId FROM CertificateData a WHERE a.issuerDN=:issuerDN"
+                        + (afterSerialNumber != null ? " AND a.serialNumber>:serialNumber" : "")
+                        + (minUpdateTime > 0 ? " AND a.updateTime>=:updateTime" : "")
+                        + " ORDER BY a.serialNumber ASC", Object[].class);
+        query.setParameter("issuerDN", issuerDN);
+        if (afterSerialNumber != null) {
+            query.setParameter("serialNumber", afterSerialNumber);
+        }
+        if (minUpdateTime > 0) {
+            query.setParameter("updateTime", minUpdateTime);
+        }
+        query.setMaxResults(maxResults);
+        return query.getResultList();
+    }
+
+    @Override
+    public List<Object[]> findRevocationChangesByIssuerDN(final String issuerDN, final int crlPartitionIndex, final long minUpdateTime,
+            final String afterSerialNumber, final int maxResults) {
+        // Certificates that were never revoked have revocationDate -1, which excludes newly issued certificates
+        final TypedQuery<Object[]> query = entityManager.createQuery(
+                "SELECT a.fingerprint, a.serialNumber, a.expireDate, a.revocationDate, a.revocationReason, a.status FROM CertificateData a"
+                        + " WHERE a.issuerDN=:issuerDN AND a.updateTime>=:updateTime AND (a.status=:status OR a.revocationDate>0)"
+                        + (crlPartitionIndex != 0 ? " AND a.crlPartitionIndex=:crlPartitionIndex"
+                                : " AND (a.crlPartitionIndex=:crlPartitionIndex OR a.crlPartitionIndex IS NULL)")
+                        + (afterSerialNumber != null ? " AND a.serialNumber>:serialNumber" : "")
+                        + " ORDER BY a.serialNumber ASC", Object[].class);
+        query.setParameter("issuerDN", issuerDN);
+        query.setParameter("updateTime", minUpdateTime);
+        query.setParameter("status", CertificateConstants.CERT_REVOKED);
+        query.setParameter("crlPartitionIndex", crlPartitionIndex);
+        if (afterSerialNumber != null) {
+            query.setParameter("serialNumber", afterSerialNumber);
+        }
+        query.setMaxResults(maxResults);
+        return query.getResultList();
+    }
+
+    @Override
+    public List<Object[]> findStatusInfosByIssuerDNAndSerialNumbers(final String issuerDN, final Collection<String> serialNumbers) {
+        if (serialNumbers.isEmpty()) {
+            return new ArrayList<>();
+        }
+        final TypedQuery<Object[]> query = entityManager.createQuery(
+                "SELECT a.serialNumber, a.status, a.revocationDate, a.revocationReason, a.certificateProfileId FROM CertificateData a"
+                        + " WHERE a.issuerDN=:issuerDN AND a.serialNumber IN (:serialNumbers)", Object[].class);
+        query.setParameter("issuerDN", issuerDN);
+        query.setParameter("serialNumbers", serialNumbers);
+        return query.getResultList();
+    }
+
+    @Override
+    public List<CertificateData> findByIssuerDNAndSerialNumbers(final String issuerDN, final Collection<String> serialNumbers) {
+        if (serialNumbers.isEmpty()) {
+            return new ArrayList<>();
+        }
+        final TypedQuery<CertificateData> query = entityManager.createQuery(
+                "SELECT a FROM CertificateData a WHERE a.issuerDN=:issuerDN AND a.serialNumber IN (:serialNumbers)", CertificateData.class);
+        query.setParameter("issuerDN", issuerDN);
+        query.setParameter("serialNumbers", serialNumbers);
+        return query.getResultList();
+    }
+
+    @Override
+    public List<String> findSerialNumbersByIssuerDNAndExpireDate(final String issuerDN, final long minExpireDate, final String afterSerialNumber,
+            final int maxResults) {
+        final TypedQuery<String> query = entityManager.createQuery(
+                "SELECT a.serialNumber FROM CertificateData a WHERE a.issuerDN=:issuerDN AND a.expireDate>:expireDate"
+                        + (afterSerialNumber != null ? " AND a.serialNumber>:serialNumber" : "")
+                        + " ORDER BY a.serialNumber ASC", String.class);
+        query.setParameter("issuerDN", issuerDN);
+        query.setParameter("expireDate", minExpireDate);
+        if (afterSerialNumber != null) {
+            query.setParameter("serialNumber", afterSerialNumber);
+        }
+        query.setMaxResults(maxResults);
+        return query.getResultList();
+    }
+
     @Override
     public CertificateInfo findFirstCertificateInfo(final String issuerDN, final String serialNumber) {
         CertificateInfo ret = null;
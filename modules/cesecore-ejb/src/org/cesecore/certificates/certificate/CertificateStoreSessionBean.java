@@ -24,6 +24,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
@@ -66,6 +67,11 @@ import org.cesecore.certificates.certificateprofile.CertificateProfile;
 import org.cesecore.certificates.certificateprofile.CertificateProfileConstants;
 import org.cesecore.certificates.certificateprofile.CertificateProfileSessionLocal;
 import org.cesecore.certificates.crl.RevokedCertInfo;
+import org.cesecore.certificates.crl.RevokedCertInfoCollection;
+import org.cesecore.certificates.ocsp.cache.OcspResponseCache;
+import org.cesecore.certificates.ocsp.cache.OcspSigningCache;
+import org.cesecore.certificates.ocsp.cache.OcspSigningCacheEntry;
+import org.cesecore.certificates.ocsp.cache.RevocationStatusIndex;
 import org.cesecore.certificates.endentity.EndEntityConstants;
 import org.cesecore.config.CesecoreConfiguration;
 import org.cesecore.config.GlobalCesecoreConfiguration;
@@ -92,6 +98,9 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
     /** Internal localization of logs and errors */
     private static final InternalResources INTRES = InternalResources.getInstance();
     private static final int TIMERID_CACERTIFICATECACHE = 1;
+    private static final int TIMERID_REVOCATIONSTATUSINDEX = 2;
+    /** Maximum number of serial numbers in the IN clause of a single query in getStatuses */
+    private static final int MAX_SERIAL_NUMBERS_PER_STATUS_QUERY = 100;
 
     @PersistenceContext(unitName = CesecoreConfiguration.PERSISTENCE_UNIT)
     private EntityManager entityManager;
@@ -135,6 +144,10 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
         } else {
             log.info("Not initing CaCertificateCache reload timers, there are already some.");
         }
+        if (OcspConfiguration.isStatusIndexEnabled() && getTimerCount(TIMERID_REVOCATIONSTATUSINDEX)==0) {
+            // Run the first refresh in a timer thread, since rebuilding the index of a large CA will take a while
+            timerService.createSingleActionTimer(0, new TimerConfig(Integer.valueOf(TIMERID_REVOCATIONSTATUSINDEX), false));
+        }
     }
 
     private GlobalCesecoreConfiguration getGlobalCesecoreConfiguration() {
@@ -378,6 +391,38 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
         return certificateDataSession.getRevokedCertInfos(CertTools.stringToBCDNString(StringTools.strip(issuerdn)), crlPartitionIndex, lastbasecrldate);
     }
 
+    @Override
+    public Collection<RevokedCertInfo> listRevocationChanges(final String issuerdn, final int crlPartitionIndex, final long minUpdateTime) {
+        if (log.isTraceEnabled()) {
+            log.trace(">listRevocationChanges()");
+        }
+        final String dn = CertTools.stringToBCDNString(StringTools.strip(issuerdn));
+        final int pageSize = CesecoreConfiguration.getDatabaseRevokedCertInfoFetchSize();
+        final RevokedCertInfoCollection ret = new RevokedCertInfoCollection();
+        String lastSerialNumber = null;
+        while (true) {
+            final List<Object[]> rows = certificateDataSession.findRevocationChangesByIssuerDN(dn, crlPartitionIndex, minUpdateTime, lastSerialNumber, pageSize);
+            for (final Object[] row : rows) {
+                lastSerialNumber = (String) row[1];
+                final int status = ValueExtractor.extractIntValue(row[5]);
+                int reason = ValueExtractor.extractIntValue(row[4]);
+                if (status != CertificateConstants.CERT_REVOKED || reason == RevokedCertInfo.NOT_REVOKED) {
+                    reason = RevokedCertInfo.REVOCATION_REASON_REMOVEFROMCRL;
+                }
+                ret.add(((String) row[0]).getBytes(), new BigInteger(lastSerialNumber).toByteArray(), ValueExtractor.extractLongValue(row[3]), reason,
+                        ValueExtractor.extractLongValue(row[2]));
+            }
+            if (rows.size() < pageSize) {
+                break;
+            }
+        }
+        ret.closeForWrite();
+        if (log.isTraceEnabled()) {
+            log.trace("<listRevocationChanges() found " + ret.size() + " changes since " + minUpdateTime);
+        }
+        return ret;
+    }
+
     @Override
     public List<Certificate> findCertificatesBySubjectAndIssuer(String subjectDN, String issuerDN) {
         return findCertificatesBySubjectAndIssuer(subjectDN, issuerDN, false);
@@ -1180,6 +1225,7 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
             } else {
                 entityManager.merge(certificateData);
             }
+            invalidateCachedStatus(issuerDn, certificateData.getSerialNumber());
         }
         if (log.isTraceEnabled()) {
             log.trace("<private setRevokeStatusNoAuth(), issuerdn=" + issuerDn + ", serno=" + serialNumber);
@@ -1196,6 +1242,8 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
         String bcdn = CertTools.stringToBCDNString(issuerdn);
     	int caid = bcdn.hashCode();
         authorizedToCA(admin, caid);
+        RevocationStatusIndex.INSTANCE.invalidateIssuer(bcdn);
+        OcspResponseCache.INSTANCE.flush();
         try {
             final int maxRows = 10000;
             int firstResult = 0;
@@ -1210,6 +1258,7 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
                 	d.setStatus(CertificateConstants.CERT_REVOKED);
                 	d.setRevocationDate(System.currentTimeMillis());
                 	d.setRevocationReason(reason);
+                	d.setUpdateTime(System.currentTimeMillis());
                 	revoked++;
             	}
             	firstResult += maxRows;
@@ -1316,6 +1365,72 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
         return CertificateStatus.NOT_AVAILABLE;
     }
 
+    @Override
+    public Map<BigInteger, CertificateStatus> getStatuses(final String issuerDN, final Collection<BigInteger> serialNumbers) {
+        if (log.isTraceEnabled()) {
+            log.trace(">getStatuses(), dn:" + issuerDN + ", " + serialNumbers.size() + " serial numbers");
+        }
+        // First make a DN in our well-known format
+        final String dn = CertTools.stringToBCDNString(issuerDN);
+        final Map<BigInteger, CertificateStatus> ret = new HashMap<>();
+        final List<String> batch = new ArrayList<>();
+        for (final BigInteger serno : serialNumbers) {
+            if (ret.put(serno, CertificateStatus.NOT_AVAILABLE) == null) {
+                batch.add(serno.toString());
+            }
+        }
+        for (int i = 0; i < batch.size(); i += MAX_SERIAL_NUMBERS_PER_STATUS_QUERY) {
+            final List<String> page = batch.subList(i, Math.min(i + MAX_SERIAL_NUMBERS_PER_STATUS_QUERY, batch.size()));
+            final Set<BigInteger> found = new HashSet<>();
+            for (final Object[] row : certificateDataSession.findStatusInfosByIssuerDNAndSerialNumbers(dn, page)) {
+                final BigInteger serno = new BigInteger((String) row[0]);
+                if (!found.add(serno)) {
+                    final String msg = INTRES.getLocalizedMessage("store.errorseveralissuerserno", issuerDN, serno.toString(16));
+                    log.error(msg);
+                    continue;
+                }
+                final Integer certificateProfileId = (Integer) row[4];
+                ret.put(serno, CertificateStatusHelper.getCertificateStatus(ValueExtractor.extractIntValue(row[1]),
+                        ValueExtractor.extractLongValue(row[2]), ValueExtractor.extractIntValue(row[3]),
+                        certificateProfileId != null ? certificateProfileId.intValue() : CertificateProfileConstants.CERTPROFILE_NO_PROFILE));
+            }
+        }
+        if (log.isTraceEnabled()) {
+            log.trace("<getStatuses() looked up " + batch.size() + " serial numbers with dn " + dn);
+        }
+        return ret;
+    }
+
+    @Override
+    public Map<BigInteger, CertificateData> getCertificateDataByIssuerAndSernos(final String issuerDN, final Collection<BigInteger> serialNumbers) {
+        if (log.isTraceEnabled()) {
+            log.trace(">getCertificateDataByIssuerAndSernos(), dn:" + issuerDN + ", " + serialNumbers.size() + " serial numbers");
+        }
+        final String dn = CertTools.stringToBCDNString(StringTools.strip(issuerDN));
+        final Map<BigInteger, CertificateData> ret = new HashMap<>();
+        final List<String> batch = new ArrayList<>();
+        for (final BigInteger serno : new HashSet<>(serialNumbers)) {
+            batch.add(serno.toString());
+        }
+        for (int i = 0; i < batch.size(); i += MAX_SERIAL_NUMBERS_PER_STATUS_QUERY) {
+            final List<String> page = batch.subList(i, Math.min(i + MAX_SERIAL_NUMBERS_PER_STATUS_QUERY, batch.size()));
+            for (final CertificateData certificateData : certificateDataSession.findByIssuerDNAndSerialNumbers(dn, page)) {
+                final BigInteger serno = new BigInteger(certificateData.getSerialNumber());
+                final CertificateData previous = ret.put(serno, certificateData);
+                if (previous != null) {
+                    log.error(INTRES.getLocalizedMessage("store.errorseveralissuerserno", issuerDN, serno.toString(16)));
+                    if (previous.getExpireDate() > certificateData.getExpireDate()) {
+                        ret.put(serno, previous);
+                    }
+                }
+            }
+        }
+        if (log.isTraceEnabled()) {
+            log.trace("<getCertificateDataByIssuerAndSernos() found " + ret.size() + " of " + batch.size() + " serial numbers with dn " + dn);
+        }
+        return ret;
+    }
+
     @Override
     public CertificateStatusHolder getCertificateAndStatus(String issuerDN, BigInteger serno) {
         if (log.isTraceEnabled()) {
@@ -1359,6 +1474,9 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
         authorizedToCA(admin, caid);
 
         certificateData.setStatus(status);
+        // Incremental CRL generation reads status changes by updateTime
+        certificateData.setUpdateTime(System.currentTimeMillis());
+        invalidateCachedStatus(bcdn, certificateData.getSerialNumber());
         final Certificate certificate = certificateData.getCertificate(this.entityManager);
         String serialNo;
         if (certificate==null) {
@@ -1588,6 +1706,9 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
         }
         final String limitedFingerprint = getLimitedCertificateDataFingerprint(issuerDn, serialNumber);
         final CertificateDataWrapper cdw = getCertificateDataByIssuerAndSerno(issuerDn, serialNumber);
+        if (cdw==null || limitedFingerprint.equals(cdw.getCertificateData().getFingerprint())) {
+            invalidateCachedStatus(CertTools.stringToBCDNString(StringTools.strip(issuerDn)), serialNumber.toString());
+        }
         if (cdw==null) {
             if (reasonCode==RevokedCertInfo.REVOCATION_REASON_REMOVEFROMCRL) {
                 deleteLimitedCertificateData(limitedFingerprint);
@@ -1664,6 +1785,8 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
             final int currentTimerId = ((Integer)timer.getInfo()).intValue();
             if (currentTimerId==TIMERID_CACERTIFICATECACHE) {
             	reloadCaCertificateCacheAndSetTimeout();
+            } else if (currentTimerId==TIMERID_REVOCATIONSTATUSINDEX) {
+                refreshRevocationStatusIndexAndSetTimeout();
             }
         }
         if (log.isTraceEnabled()) {
@@ -1698,6 +1821,98 @@ public class CertificateStoreSessionBean implements CertificateStoreSessionRemot
         }
     }
 
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public void refreshRevocationStatusIndexAndSetTimeout() {
+        // Cancel any waiting timers of this type
+        for (final Timer timer : timerService.getTimers()) {
+            if (timer.getInfo() instanceof Integer && ((Integer)timer.getInfo()).intValue()==TIMERID_REVOCATIONSTATUSINDEX) {
+                timer.cancel();
+            }
+        }
+        if (!OcspConfiguration.isStatusIndexEnabled()) {
+            RevocationStatusIndex.INSTANCE.flush();
+            return;
+        }
+        try {
+            certificateStoreSession.refreshRevocationStatusIndex();
+        } finally {
+            // Schedule a new timer of this type
+            final long interval = OcspConfiguration.getStatusIndexRefreshTimeMs();
+            if (interval > 0) {
+                timerService.createSingleActionTimer(interval, new TimerConfig(Integer.valueOf(TIMERID_REVOCATIONSTATUSINDEX), false));
+            }
+        }
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.SUPPORTS)
+    public void refreshRevocationStatusIndex() {
+        if (!OcspConfiguration.isStatusIndexEnabled()) {
+            return;
+        }
+        final long rebuildInterval = OcspConfiguration.getStatusIndexRebuildTimeMs();
+        final long gracePeriod = OcspConfiguration.getStatusIndexGraceTimeMs();
+        final int pageSize = CesecoreConfiguration.getDatabaseRevokedCertInfoFetchSize();
+        // Index the CAs that this node signs OCSP responses for
+        final Set<String> issuerDns = new HashSet<>();
+        for (final OcspSigningCacheEntry entry : OcspSigningCache.INSTANCE.getEntries()) {
+            if (entry.getIssuerCaCertificate() != null) {
+                issuerDns.add(CertTools.getSubjectDN(entry.getIssuerCaCertificate()));
+            }
+        }
+        RevocationStatusIndex.INSTANCE.retainIssuers(issuerDns);
+        for (final String issuerDn : issuerDns) {
+            final RevocationStatusIndex.Refresh refresh = RevocationStatusIndex.INSTANCE.startRefresh(issuerDn, rebuildInterval, gracePeriod);
+            if (refresh == null) {
+                continue;
+            }
+            boolean completed = false;
+            try {
+                String lastSerialNumber = null;
+                while (true) {
+                    final List<Object[]> rows = certificateDataSession.findStatusInfosByIssuerDN(issuerDn, refresh.getMinUpdateTime(), lastSerialNumber, pageSize);
+                    for (final Object[] row : rows) {
+                        lastSerialNumber = (String) row[0];
+                        final Integer certificateProfileId = (Integer) row[4];
+                        refresh.add(lastSerialNumber, CertificateStatusHelper.getCertificateStatus(ValueExtractor.extractIntValue(row[1]),
+                                ValueExtractor.extractLongValue(row[2]), ValueExtractor.extractIntValue(row[3]),
+                                certificateProfileId != null ? certificateProfileId.intValue() : CertificateProfileConstants.CERTPROFILE_NO_PROFILE));
+                    }
+                    if (rows.size() < pageSize) {
+                        break;
+                    }
+                }
+                refresh.commit();
+                completed = true;
+            } catch (RuntimeException e) {
+                log.warn("Failed to refresh revocation status index for issuer '" + issuerDn + "': " + e.getMessage());
+                if (log.isDebugEnabled()) {
+                    log.debug("Failed to refresh revocation status index.", e);
+                }
+            } finally {
+                if (!completed) {
+                    refresh.abort();
+                }
+            }
+        }
+    }
+
+    /**
+     * Invalidate the status of a certificate held in memory for OCSP. Must be invoked whenever the status of a certificate is modified.
+     *
+     * @param issuerDn the issuer DN in the same normalized form as CertificateData.issuerDN
+     * @param serialNumber the serial number as stored in CertificateData (decimal)
+     */
+    private void invalidateCachedStatus(final String issuerDn, final String serialNumber) {
+        RevocationStatusIndex.INSTANCE.invalidate(issuerDn, serialNumber);
+        try {
+            OcspResponseCache.INSTANCE.invalidate(new BigInteger(serialNumber), OcspConfiguration.getStatusIndexGraceTimeMs());
+        } catch (NumberFormatException e) {
+            // Not an X.509 serial number, so there are no OCSP responses for it
+        }
+    }
+
     /** @return the number of timers where TimerInfo is an Integer and hold the specified value */
     private int getTimerCount(final int id) {
         if (log.isTraceEnabled()) {
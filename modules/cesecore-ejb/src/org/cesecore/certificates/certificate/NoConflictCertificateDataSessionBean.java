@@ -48,6 +48,11 @@ public class NoConflictCertificateDataSessionBean extends BaseCertificateDataSes
         return "NoConflictCertificateData";
     }
     
+    @Override
+    protected String getPrimaryKeyColumn() {
+        return "id";
+    }
+    
     @Override
     protected EntityManager getEntityManager() {
         return entityManager;
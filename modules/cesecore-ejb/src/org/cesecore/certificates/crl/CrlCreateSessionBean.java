@@ -96,8 +96,6 @@ public class CrlCreateSessionBean implements CrlCreateSessionLocal, CrlCreateSes
     			String msg = intres.getLocalizedMessage("createcert.canotactive", ca.getSubjectDN());
     			throw new CryptoTokenOfflineException(msg);
     		}
-    		final X509CRLHolder crl;
-    		
     		boolean deltaCRL = (basecrlnumber > -1);
     		final CryptoToken cryptoToken = cryptoTokenManagementSession.getCryptoToken(ca.getCAToken().getCryptoTokenId());
     		if (cryptoToken==null) {
@@ -133,23 +131,34 @@ public class CrlCreateSessionBean implements CrlCreateSessionLocal, CrlCreateSes
     			if (nextCrlNumber == basecrlnumber) {
     				nextCrlNumber++;
     			}
-    			crl = ca.generateDeltaCRL(cryptoToken, crlPartitionIndex, certs, nextCrlNumber, basecrlnumber, latestCaCertForPartition);       
+    		}
+    		final byte[] tmpcrlBytes;
+    		if (ca instanceof X509CA) {
+    		    // X509 CAs encode the CRL directly, so we don't have to decode it into an ASN.1 structure and encode it again
+    		    final X509CA x509ca = (X509CA) ca;
+    		    if (deltaCRL) {
+    		        tmpcrlBytes = x509ca.generateEncodedDeltaCRL(cryptoToken, crlPartitionIndex, certs, nextCrlNumber, basecrlnumber, latestCaCertForPartition);
+    		    } else {
+    		        tmpcrlBytes = x509ca.generateEncodedCRL(cryptoToken, crlPartitionIndex, certs, nextCrlNumber, latestCaCertForPartition);
+    		    }
     		} else {
-    			crl = ca.generateCRL(cryptoToken, crlPartitionIndex, certs, nextCrlNumber, latestCaCertForPartition);
+    		    final X509CRLHolder crl;
+    		    if (deltaCRL) {
+    		        crl = ca.generateDeltaCRL(cryptoToken, crlPartitionIndex, certs, nextCrlNumber, basecrlnumber, latestCaCertForPartition);
+    		    } else {
+    		        crl = ca.generateCRL(cryptoToken, crlPartitionIndex, certs, nextCrlNumber, latestCaCertForPartition);
+    		    }
+    		    tmpcrlBytes = crl != null ? crl.getEncoded() : null;
     		}
-    		if (crl != null) {
+    		if (tmpcrlBytes != null) {
     			// Store CRL in the database, this can still fail so the whole thing is rolled back
     			String cafp = CertTools.getFingerprintAsString(ca.getCACertificate());
+    			final StreamingCrlEncoder.Header header = StreamingCrlEncoder.readHeader(tmpcrlBytes);
     			if (log.isDebugEnabled()) {
-    			    log.debug("Encoding CRL to byte array. Free memory="+Runtime.getRuntime().freeMemory());
-    			}          
-    			byte[] tmpcrlBytes = crl.getEncoded();                    
-    			if (log.isDebugEnabled()) {
-    			    log.debug("Finished encoding CRL to byte array. Free memory="+Runtime.getRuntime().freeMemory());
-    				log.debug("Storing CRL in certificate store.");
+    				log.debug("Storing CRL of " + tmpcrlBytes.length + " bytes in certificate store. Free memory=" + Runtime.getRuntime().freeMemory());
     			}
-    			crlSession.storeCRL(admin, tmpcrlBytes, cafp, nextCrlNumber, crl.getIssuer().toString(), crlPartitionIndex,
-    			        crl.toASN1Structure().getThisUpdate().getDate(), crl.toASN1Structure().getNextUpdate().getDate(), (deltaCRL ? 1 : -1));
+    			crlSession.storeCRL(admin, tmpcrlBytes, cafp, nextCrlNumber, header.getIssuer().toString(), crlPartitionIndex,
+    			        header.getThisUpdate(), header.getNextUpdate(), (deltaCRL ? 1 : -1));
     			String msg = intres.getLocalizedMessage("createcrl.createdcrl", Integer.valueOf(nextCrlNumber), ca.getName(), ca.getSubjectDN());
     			Map<String, Object> details = new LinkedHashMap<String, Object>();
     			details.put("msg", msg);
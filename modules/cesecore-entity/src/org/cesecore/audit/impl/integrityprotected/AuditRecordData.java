@@ -335,6 +335,15 @@ public class AuditRecordData extends ProtectedData implements Serializable, Audi
 		super.verifyData();
 	}
 
+	/**
+	 * Verify the row protection of a record that was not loaded as an entity, for example when read with a projection query, so that it can
+	 * be verified by another thread than the one reading it.
+	 * @throws DatabaseProtectionException if the verification failed and erroronverifyfail is enabled
+	 */
+	public void verifyRowProtection() throws DatabaseProtectionException {
+		verifyData();
+	}
+
 	@Override 
     @Transient
 	protected String getRowId() {
@@ -53,7 +53,8 @@ import org.cesecore.util.StringTools;
                 @ColumnResult(name = "serialNumber"),
                 @ColumnResult(name = "expireDate"),
                 @ColumnResult(name = "revocationDate"),
-                @ColumnResult(name = "revocationReason") }),
+                @ColumnResult(name = "revocationReason"),
+                @ColumnResult(name = "pagingKey") }),
         @SqlResultSetMapping(name = "CertificateInfoSubset", columns = {
                 @ColumnResult(name = "issuerDN"),
                 @ColumnResult(name = "subjectDN"),
@@ -40,9 +40,17 @@ public abstract class CertificateStatusHelper {
             final Integer tmp = certificateData.getCertificateProfileId();
             certProfileId = tmp != null ? tmp.intValue() : CertificateProfileConstants.CERTPROFILE_NO_PROFILE;
         }
-        final int status = certificateData.getStatus();
-        final int revReason = certificateData.getRevocationReason();
-        final long revDate = certificateData.getRevocationDate();
+        return getCertificateStatus(certificateData.getStatus(), certificateData.getRevocationDate(), certificateData.getRevocationReason(),
+                certProfileId);
+    }
+
+    /**
+     * Same as {@link #getCertificateStatus(BaseCertificateData)}, but using the raw column values, e.g. from a query that does not load
+     * the entire row.
+     *
+     * @return CertificateStatus, can be compared (==) with CertificateStatus.OK and CertificateStatus.REVOKED
+     */
+    public static CertificateStatus getCertificateStatus(final int status, final long revDate, final int revReason, final int certProfileId) {
         if (status == CertificateConstants.CERT_REVOKED) {
             return new CertificateStatus(CertificateStatus.REVOKED.toString(), revDate, revReason, certProfileId);
         }
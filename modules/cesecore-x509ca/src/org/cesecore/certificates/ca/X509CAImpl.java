@@ -84,10 +84,8 @@ import org.bouncycastle.asn1.x509.IssuingDistributionPoint;
 import org.bouncycastle.asn1.x509.KeyUsage;
 import org.bouncycastle.asn1.x509.SubjectPublicKeyInfo;
 import org.bouncycastle.asn1.x9.X9ObjectIdentifiers;
-import org.bouncycastle.cert.CertException;
 import org.bouncycastle.cert.X509CRLHolder;
 import org.bouncycastle.cert.X509CertificateHolder;
-import org.bouncycastle.cert.X509v2CRLBuilder;
 import org.bouncycastle.cert.X509v3CertificateBuilder;
 import org.bouncycastle.cert.jcajce.JcaX509CertificateHolder;
 import org.bouncycastle.cert.jcajce.JcaX509ExtensionUtils;
@@ -133,6 +131,7 @@ import org.cesecore.certificates.certificatetransparency.CTLogInfo;
 import org.cesecore.certificates.certificatetransparency.CertificateTransparency;
 import org.cesecore.certificates.certificatetransparency.CertificateTransparencyFactory;
 import org.cesecore.certificates.crl.RevokedCertInfo;
+import org.cesecore.certificates.crl.StreamingCrlEncoder;
 import org.cesecore.certificates.endentity.EndEntityInformation;
 import org.cesecore.certificates.endentity.EndEntityType;
 import org.cesecore.certificates.endentity.EndEntityTypes;
@@ -1844,7 +1843,13 @@ public class X509CAImpl extends CABase implements Serializable, X509CA {
     @Override
     public X509CRLHolder generateCRL(CryptoToken cryptoToken, int crlPartitionIndex, Collection<RevokedCertInfo> certs, int crlnumber, Certificate partitionCaCert) throws CryptoTokenOfflineException, IllegalCryptoTokenException,
             IOException, SignatureException, NoSuchProviderException, InvalidKeyException, CRLException, NoSuchAlgorithmException {
-        return generateCRL(cryptoToken, crlPartitionIndex, certs, getCRLPeriod(), crlnumber, false, 0, partitionCaCert);
+        return new X509CRLHolder(generateEncodedCRL(cryptoToken, crlPartitionIndex, certs, crlnumber, partitionCaCert));
+    }
+
+    @Override
+    public byte[] generateEncodedCRL(CryptoToken cryptoToken, int crlPartitionIndex, Collection<RevokedCertInfo> certs, int crlnumber, Certificate partitionCaCert)
+            throws CryptoTokenOfflineException, IOException, SignatureException {
+        return generateEncodedCRL(cryptoToken, crlPartitionIndex, certs, getCRLPeriod(), crlnumber, false, 0, partitionCaCert);
     }
 
     /* (non-Javadoc)
@@ -1854,7 +1859,13 @@ public class X509CAImpl extends CABase implements Serializable, X509CA {
     public X509CRLHolder generateDeltaCRL(CryptoToken cryptoToken, int crlPartitionIndex, Collection<RevokedCertInfo> certs, int crlnumber, int basecrlnumber, Certificate latestCaCertForParition) throws CryptoTokenOfflineException,
             IllegalCryptoTokenException, IOException, SignatureException, NoSuchProviderException, InvalidKeyException, CRLException,
             NoSuchAlgorithmException {
-        return generateCRL(cryptoToken, crlPartitionIndex, certs, getDeltaCRLPeriod(), crlnumber, true, basecrlnumber, latestCaCertForParition);
+        return new X509CRLHolder(generateEncodedDeltaCRL(cryptoToken, crlPartitionIndex, certs, crlnumber, basecrlnumber, latestCaCertForParition));
+    }
+
+    @Override
+    public byte[] generateEncodedDeltaCRL(CryptoToken cryptoToken, int crlPartitionIndex, Collection<RevokedCertInfo> certs, int crlnumber, int basecrlnumber,
+            Certificate latestCaCertForParition) throws CryptoTokenOfflineException, IOException, SignatureException {
+        return generateEncodedCRL(cryptoToken, crlPartitionIndex, certs, getDeltaCRLPeriod(), crlnumber, true, basecrlnumber, latestCaCertForParition);
     }
 
     @Override
@@ -1951,12 +1962,12 @@ public class X509CAImpl extends CABase implements Serializable, X509CA {
      * @param isDeltaCRL true if we should generate a DeltaCRL
      * @param basecrlnumber caseCRLNumber for a delta CRL, use 0 for full CRLs
      * @param partitionCaCert CA certificate to verify CRL against (mainly used for MS compatible CAs)
-     * @return X509CRLHolder with the generated CRL
+     * @return the DER encoded CRL
      * @throws CryptoTokenOfflineException
      * @throws IOException
      * @throws SignatureException
      */
-    private X509CRLHolder generateCRL(CryptoToken cryptoToken, int crlPartitionIndex, Collection<RevokedCertInfo> certs, long crlPeriod, int crlnumber, 
+    private byte[] generateEncodedCRL(CryptoToken cryptoToken, int crlPartitionIndex, Collection<RevokedCertInfo> certs, long crlPeriod, int crlnumber, 
             boolean isDeltaCRL, int basecrlnumber, Certificate partitionCaCert) throws CryptoTokenOfflineException, IOException, SignatureException {
         final String sigAlg = getCAInfo().getCAToken().getSignatureAlgorithm();
 
@@ -2002,18 +2013,12 @@ public class X509CAImpl extends CABase implements Serializable, X509CA {
             }
         }
 
-        final X509v2CRLBuilder crlgen = new X509v2CRLBuilder(issuer, thisUpdate);
+        // The revoked certificates are encoded directly from the RevokedCertInfos when the CRL is signed, without building an ASN.1
+        // object for each entry, to keep the memory usage down for large CRLs
+        final StreamingCrlEncoder crlgen = new StreamingCrlEncoder(issuer, thisUpdate);
         crlgen.setNextUpdate(nextUpdate);
         if (certs != null) {
-            if (log.isDebugEnabled()) {
-                log.debug("Adding "+certs.size()+" revoked certificates to CRL. Free memory="+Runtime.getRuntime().freeMemory());
-            }
-            for (final RevokedCertInfo certinfo : certs) {
-                crlgen.addCRLEntry(certinfo.getUserCertificate(), certinfo.getRevocationDate(), certinfo.getReason());
-            }
-            if (log.isDebugEnabled()) {
-                log.debug("Finished adding "+certs.size()+" revoked certificates to CRL. Free memory="+Runtime.getRuntime().freeMemory());
-            }
+            crlgen.setRevokedCertificates(certs);
         }
 
 
@@ -2120,9 +2125,9 @@ public class X509CAImpl extends CABase implements Serializable, X509CA {
             }
         }
 
-        final X509CRLHolder crl;
+        final byte[] crl;
         if (log.isDebugEnabled()) {
-            log.debug("Signing CRL. Free memory="+Runtime.getRuntime().freeMemory());
+            log.debug("Signing CRL with " + (certs != null ? certs.size() : 0) + " revoked certificates. Free memory="+Runtime.getRuntime().freeMemory());
         }
         String alias = getCAToken().getAliasFromPurpose(CATokenConstants.CAKEYPURPOSE_CRLSIGN);
         if (isMsCaCompatible() && partitionCaCert != null) {
@@ -2157,10 +2162,10 @@ public class X509CAImpl extends CABase implements Serializable, X509CA {
         }
         try {
             final ContentVerifierProvider verifier = CertTools.genContentVerifierProvider(verifyKey);
-            if (!crl.isSignatureValid(verifier)) {
+            if (!StreamingCrlEncoder.verify(crl, verifier)) {
                 if (log.isTraceEnabled()) {
                     log.trace("The public key used to verify the CRL:" + System.lineSeparator() + KeyTools.getAsPem(verifyKey));
-                    log.trace("The CRL whose signature could not be verified:" + System.lineSeparator() + KeyTools.getAsPem(crl));
+                    log.trace("The CRL whose signature could not be verified:" + System.lineSeparator() + KeyTools.getAsPem(new X509CRLHolder(crl)));
                 }
                 throw new SignatureException("Cannot verify the signature of the CRL for issuer " + "'" + issuer
                         + "' using the public key with SHA-1 fingerprint " + CertTools.createPublicKeyFingerprint(verifyKey, "SHA-1")
@@ -2170,8 +2175,6 @@ public class X509CAImpl extends CABase implements Serializable, X509CA {
         } catch (OperatorCreationException e) {
             // Very fatal error
             throw new RuntimeException("Can not create Jca content signer: ", e);
-        } catch (CertException e) {
-            throw new SignatureException(e.getMessage(), e);
         }
         if (log.isDebugEnabled()) {
             log.debug("Returning CRL. Free memory="+Runtime.getRuntime().freeMemory());
@@ -29,6 +29,7 @@ import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Random;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -70,72 +71,6 @@ public class Ocsp extends ClientToolBox {
             }
         }
 
-        private class SerialNrs {
-            final private List<BigInteger> vSerialNrs;
-
-            SerialNrs(String fileName) throws IOException, ClassNotFoundException {
-                List<BigInteger> vSerialNrsTmp;
-                // Try to parse it as pure text-file with one dec-encoded certificate serialnumber on each line, like the one you would get with
-                // echo "select serialNumber from CertificateData where issuerDN like 'CN=ManagementCA%';" | mysql -u ejbca -p ejbca | grep -v serialNumber > ../sns.txt
-                try {
-                    vSerialNrsTmp = new ArrayList<>();
-                    BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(new DataInputStream(new FileInputStream(fileName))));
-                    String nextLine;
-                    while ((nextLine = bufferedReader.readLine()) != null) {
-                        nextLine = nextLine.trim();
-                        if (nextLine.length() < 1 || nextLine.startsWith("#") || nextLine.startsWith(";")) {
-                            continue;
-                        }
-                        if (nextLine.startsWith("0x")) {
-                            vSerialNrsTmp.add(new BigInteger(nextLine.substring(2), 16));
-                        } else {
-                            vSerialNrsTmp.add(new BigInteger(nextLine));
-                        }
-                    }
-                    bufferedReader.close();
-                } catch (Exception e1) {
-                    // Fall back to the format used by EJBCA WS RA CLI stress test
-                    System.out.println("Parsing as textfile failed (" + e1.getMessage() + "). Trying to use it as a file with Java Objects.");
-                    vSerialNrsTmp = new ArrayList<>();
-                    InputStream is = new BufferedInputStream(new FileInputStream(fileName));
-                    is.mark(1);
-                    try {
-                        LookAheadObjectInputStream oi = null;
-                        while (true) {
-                            for (int i = 100; oi == null && i > 0; i--) {
-                                is.reset();
-                                try {
-                                    is.mark(i);
-                                    oi = new LookAheadObjectInputStream(is);
-                                    oi.setAcceptedClasses(Collections.singletonList(BigInteger.class));
-                                    oi.setEnabledMaxObjects(false);
-                                } catch (StreamCorruptedException e) {
-                                    is.reset();
-                                    is.read();
-                                }
-                            }
-                            if (oi == null) {
-                                break;
-                            }
-                            try {
-                                is.mark(100);
-                                vSerialNrsTmp.add((BigInteger) oi.readObject());
-                            } catch (StreamCorruptedException e) {
-                                oi = null;
-                            }
-                        }
-                    } catch (EOFException e) {/* do nothing*/
-                    }
-                }
-                this.vSerialNrs = vSerialNrsTmp;
-                System.out.println("Number of certificates in list: " + this.vSerialNrs.size());
-            }
-
-            BigInteger getRandom() {
-                return this.vSerialNrs.get(StressTest.this.performanceTest.getRandom().nextInt(this.vSerialNrs.size()));
-            }
-        }
-
         private class Lookup implements Command {
             private final OCSPUnidClient client;
 
@@ -145,7 +80,7 @@ public class Ocsp extends ClientToolBox {
             }
 
             public boolean doIt() throws Exception {
-                final BigInteger currentSerialNumber = StressTest.this.serialNrs.getRandom();
+                final BigInteger currentSerialNumber = StressTest.this.serialNrs.getRandom(StressTest.this.performanceTest.getRandom());
                 final OCSPUnidResponse response = this.client.lookup(currentSerialNumber, StressTest.this.cacert, StressTest.this.useGet);
                 if (response.getErrorCode() != OCSPUnidResponse.ERROR_NO_ERROR) {
                     StressTest.this.performanceTest.getLog().error(
@@ -211,6 +146,81 @@ public class Ocsp extends ClientToolBox {
         }
     }
 
+    /** Serial numbers of the certificates to request the status of, read from a file. */
+    static class SerialNrs {
+        final private List<BigInteger> vSerialNrs;
+
+        SerialNrs(String fileName) throws IOException, ClassNotFoundException {
+            List<BigInteger> vSerialNrsTmp;
+            // Try to parse it as pure text-file with one dec-encoded certificate serialnumber on each line, like the one you would get with
+            // echo "select serialNumber from CertificateData where issuerDN like 'CN=ManagementCA%';" | mysql -u ejbca -p ejbca | grep -v serialNumber > ../sns.txt
+            try {
+                vSerialNrsTmp = new ArrayList<>();
+                BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(new DataInputStream(new FileInputStream(fileName))));
+                String nextLine;
+                while ((nextLine = bufferedReader.readLine()) != null) {
+                    nextLine = nextLine.trim();
+                    if (nextLine.length() < 1 || nextLine.startsWith("#") || nextLine.startsWith(";")) {
+                        continue;
+                    }
+                    if (nextLine.startsWith("0x")) {
+                        vSerialNrsTmp.add(new BigInteger(nextLine.substring(2), 16));
+                    } else {
+                        vSerialNrsTmp.add(new BigInteger(nextLine));
+                    }
+                }
+                bufferedReader.close();
+            } catch (Exception e1) {
+                // Fall back to the format used by EJBCA WS RA CLI stress test
+                System.out.println("Parsing as textfile failed (" + e1.getMessage() + "). Trying to use it as a file with Java Objects.");
+                vSerialNrsTmp = new ArrayList<>();
+                InputStream is = new BufferedInputStream(new FileInputStream(fileName));
+                is.mark(1);
+                try {
+                    LookAheadObjectInputStream oi = null;
+                    while (true) {
+                        for (int i = 100; oi == null && i > 0; i--) {
+                            is.reset();
+                            try {
+                                is.mark(i);
+                                oi = new LookAheadObjectInputStream(is);
+                                oi.setAcceptedClasses(Collections.singletonList(BigInteger.class));
+                                oi.setEnabledMaxObjects(false);
+                            } catch (StreamCorruptedException e) {
+                                is.reset();
+                                is.read();
+                            }
+                        }
+                        if (oi == null) {
+                            break;
+                        }
+                        try {
+                            is.mark(100);
+                            vSerialNrsTmp.add((BigInteger) oi.readObject());
+                        } catch (StreamCorruptedException e) {
+                            oi = null;
+                        }
+                    }
+                } catch (EOFException e) {/* do nothing*/
+                }
+            }
+            this.vSerialNrs = vSerialNrsTmp;
+            System.out.println("Number of certificates in list: " + this.vSerialNrs.size());
+        }
+
+        int size() {
+            return this.vSerialNrs.size();
+        }
+
+        BigInteger get(final int index) {
+            return this.vSerialNrs.get(index);
+        }
+
+        BigInteger getRandom(final Random random) {
+            return this.vSerialNrs.get(random.nextInt(this.vSerialNrs.size()));
+        }
+    }
+
     static X509Certificate getCertFromPemFile(String fileName) throws IOException, CertificateException {
         byte[] bytes = FileTools.getBytesFromPEM(FileTools.readFiletoBuffer(fileName), "-----BEGIN CERTIFICATE-----", "-----END CERTIFICATE-----");
         return CertTools.getCertfromByteArray(bytes, X509Certificate.class);
@@ -234,6 +244,9 @@ public class Ocsp extends ClientToolBox {
             if (args.length > 1 && args[1].equals("stress")) {
                 new StressTest(args);
                 return;
+            } else if (args.length > 1 && args[1].equals("openloop")) {
+                new OcspOpenLoopTest(args).run();
+                return;
             } else if (args.length >= 6) {
                 ksfilename = args[1];
                 kspwd = args[2];
@@ -259,6 +272,7 @@ public class Ocsp extends ClientToolBox {
                 System.out
                         .println("Usage 2: OCSP <OCSPUrl | null> <CertificateFileName | HexEncodedCertificateSerialNumber> <CA-CertificateFileName> [<POST | GET>]");
                 System.out.println("Usage 3: OCSP stress ...");
+                System.out.println("Usage 4: OCSP openloop ...");
                 System.out.println("Keystore should be a PKCS12. GET requests will not use a nonce.");
                 System.out
                         .println("OCSPUrl is like: http://127.0.0.1:8080/ejbca/publicweb/status/ocsp or https://127.0.0.1:8443/ejbca/publicweb/status/ocsp");
@@ -266,6 +280,7 @@ public class Ocsp extends ClientToolBox {
                         + ", UNKNOWN=" + OCSPUnidResponse.OCSP_UNKNOWN);
                 System.out.println("OcspUrl can be set to 'null', in that case the program looks for an AIA extension containing the OCSP URI.");
                 System.out.println("Just the stress argument gives further info about the stress test.");
+                System.out.println("Just the openloop argument gives further info about the open-loop load test, which sends requests at a fixed rate.");
                 return;
             }
             OCSPUnidResponse response = null;
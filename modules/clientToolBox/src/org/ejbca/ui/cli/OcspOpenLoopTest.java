@@ -0,0 +1,424 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+
+package org.ejbca.ui.cli;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.math.BigInteger;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.cert.X509Certificate;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.commons.io.IOUtils;
+import org.bouncycastle.asn1.DEROctetString;
+import org.bouncycastle.asn1.ocsp.OCSPObjectIdentifiers;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.Extensions;
+import org.bouncycastle.cert.ocsp.BasicOCSPResp;
+import org.bouncycastle.cert.ocsp.CertificateStatus;
+import org.bouncycastle.cert.ocsp.OCSPReqBuilder;
+import org.bouncycastle.cert.ocsp.OCSPResp;
+import org.bouncycastle.cert.ocsp.RevokedStatus;
+import org.bouncycastle.cert.ocsp.SingleResp;
+import org.bouncycastle.cert.ocsp.jcajce.JcaCertificateID;
+import org.cesecore.certificates.ocsp.SHA1DigestCalculator;
+import org.cesecore.util.Base64;
+import org.ejbca.util.LatencyHistogram;
+
+/**
+ * Open-loop load test of an OCSP responder.
+ * <p>
+ * Requests are started at a fixed rate, regardless of how fast the responder answers. The latency of a request is measured from
+ * when it was scheduled to be sent, so time spent waiting for a free connection is included, and a slow responder can not hide
+ * its tail latency by slowing down the load generator (coordinated omission). The share of GET requests, of requests with a nonce
+ * and of requests for a "hot" subset of the serial numbers can be configured, to match the traffic of a real responder.
+ *
+ * @version $Id$
+ */
+class OcspOpenLoopTest {
+
+    private static final int PROGRESS_PERIOD_IN_SECONDS = 10;
+    private static final double[] PERCENTILES = { 50, 90, 99, 99.9, 99.99 };
+
+    private final String ocspUrl;
+    private final Ocsp.SerialNrs serialNrs;
+    private final X509Certificate caCert;
+    private final double requestsPerSecond;
+    private final int durationSeconds;
+    private int getPercent = 0;
+    private int noncePercent = 100;
+    private int hotSerialsPercent = 0;
+    private int hotRequestsPercent = 0;
+    private int concurrency = 200;
+    private int warmupSeconds = 0;
+    private int timeoutMs = 10000;
+    private String reportPrefix = null;
+
+    /** Latency from when a request was scheduled until the response was read. */
+    private final LatencyHistogram latency = new LatencyHistogram();
+    /** Latency from when a request was actually sent until the response was read. */
+    private final LatencyHistogram serviceTime = new LatencyHistogram();
+    private final LatencyHistogram getLatency = new LatencyHistogram();
+    private final LatencyHistogram postLatency = new LatencyHistogram();
+    private final Map<String, AtomicLong> outcomes = new LinkedHashMap<>();
+    private final AtomicLong completed = new AtomicLong();
+
+    static void printUsage() {
+        System.out.println("Usage: OCSP openloop <OCSP URL> <Certificate serial number file> <ca cert file> <requests per second> <duration in seconds> [<option>=<value> ...]");
+        System.out.println("Options:");
+        System.out.println("  get=<0-100>               Percentage of requests sent with HTTP GET instead of POST. Default: 0");
+        System.out.println("  nonce=<0-100>             Percentage of requests with a nonce. Default: 100");
+        System.out.println("  hot=<serials>:<requests>  Send <requests> percent of the requests for the first <serials> percent of the serial numbers. Default: uniform");
+        System.out.println("  concurrency=<n>           Maximum number of outstanding requests. Default: 200");
+        System.out.println("  warmup=<seconds>          Do not include requests scheduled during the first seconds in the results. Default: 0");
+        System.out.println("  timeout=<ms>              Connect and read timeout. Default: 10000");
+        System.out.println("  report=<file prefix>      Write the results to <file prefix>.csv and <file prefix>.json");
+        System.out.println("The serial number file has the same format as for the stress test. Latencies are reported in milliseconds.");
+        System.out.println("Example: ocsp openloop http://va.example.com:8080/ejbca/publicweb/status/ocsp sns.txt cacert.pem 500 300 get=80 nonce=20 hot=5:80 warmup=30 report=va-500rps");
+    }
+
+    OcspOpenLoopTest(final String[] args) throws Exception {
+        // args[0] is the command name and args[1] is "openloop"
+        if (args.length < 7) {
+            printUsage();
+            System.exit(1); // NOPMD, it's not a JEE app
+        }
+        this.ocspUrl = args[2];
+        this.serialNrs = new Ocsp.SerialNrs(args[3]);
+        this.caCert = Ocsp.getCertFromPemFile(args[4]);
+        this.requestsPerSecond = Double.parseDouble(args[5]);
+        this.durationSeconds = Integer.parseInt(args[6]);
+        for (int i = 7; i < args.length; i++) {
+            final int separator = args[i].indexOf('=');
+            if (separator < 0) {
+                throw new IllegalArgumentException("Option '" + args[i] + "' is not on the form <option>=<value>.");
+            }
+            final String name = args[i].substring(0, separator).toLowerCase(Locale.ROOT);
+            final String value = args[i].substring(separator + 1);
+            switch (name) {
+            case "get":
+                this.getPercent = parsePercent(name, value);
+                break;
+            case "nonce":
+                this.noncePercent = parsePercent(name, value);
+                break;
+            case "hot":
+                final String[] hot = value.split(":");
+                if (hot.length != 2) {
+                    throw new IllegalArgumentException("Option hot must be on the form hot=<serials>:<requests>.");
+                }
+                this.hotSerialsPercent = parsePercent(name, hot[0]);
+                this.hotRequestsPercent = parsePercent(name, hot[1]);
+                break;
+            case "concurrency":
+                this.concurrency = Integer.parseInt(value);
+                break;
+            case "warmup":
+                this.warmupSeconds = Integer.parseInt(value);
+                break;
+            case "timeout":
+                this.timeoutMs = Integer.parseInt(value);
+                break;
+            case "report":
+                this.reportPrefix = value;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown option '" + name + "'.");
+            }
+        }
+        if (this.requestsPerSecond <= 0 || this.durationSeconds <= 0 || this.concurrency <= 0 || this.serialNrs.size() == 0) {
+            throw new IllegalArgumentException("The request rate, duration, concurrency and number of serial numbers must be positive.");
+        }
+        for (final String outcome : new String[] { "good", "revoked", "unknown", "malformedRequest", "internalError", "tryLater", "sigRequired",
+                "unauthorized", "httpError", "ioError", "invalidResponse" }) {
+            this.outcomes.put(outcome, new AtomicLong());
+        }
+    }
+
+    private static int parsePercent(final String name, final String value) {
+        final int percent = Integer.parseInt(value.trim());
+        if (percent < 0 || percent > 100) {
+            throw new IllegalArgumentException("Option " + name + " must be a percentage between 0 and 100.");
+        }
+        return percent;
+    }
+
+    void run() throws Exception {
+        if (System.getProperty("http.maxConnections") == null) {
+            // Allow every worker to keep its connection alive
+            System.setProperty("http.maxConnections", String.valueOf(this.concurrency));
+        }
+        final ThreadPoolExecutor workers = new ThreadPoolExecutor(this.concurrency, this.concurrency, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>());
+        final long periodNanos = (long) (TimeUnit.SECONDS.toNanos(1) / this.requestsPerSecond);
+        final long totalRequests = (long) (this.requestsPerSecond * this.durationSeconds);
+        final long startTime = System.nanoTime();
+        final long warmupEnd = startTime + TimeUnit.SECONDS.toNanos(this.warmupSeconds);
+        long nextProgress = startTime + TimeUnit.SECONDS.toNanos(PROGRESS_PERIOD_IN_SECONDS);
+        System.out.println("Sending " + totalRequests + " requests at " + this.requestsPerSecond + " requests per second to " + this.ocspUrl + ".");
+        for (long i = 0; i < totalRequests; i++) {
+            final long intendedStart = startTime + i * periodNanos;
+            long now;
+            while ((now = System.nanoTime()) < intendedStart) {
+                LockSupport.parkNanos(intendedStart - now);
+            }
+            final boolean recorded = intendedStart >= warmupEnd;
+            workers.execute(() -> sendRequest(intendedStart, recorded));
+            if (now >= nextProgress) {
+                printProgress(i + 1, workers.getQueue().size() + workers.getActiveCount(), now - startTime);
+                nextProgress += TimeUnit.SECONDS.toNanos(PROGRESS_PERIOD_IN_SECONDS);
+            }
+        }
+        workers.shutdown();
+        if (!workers.awaitTermination(this.timeoutMs + 60000L, TimeUnit.MILLISECONDS)) {
+            System.out.println("Gave up waiting for " + (workers.getQueue().size() + workers.getActiveCount()) + " outstanding requests.");
+            workers.shutdownNow();
+        }
+        final double elapsedSeconds = (System.nanoTime() - startTime) / 1e9;
+        printResults(elapsedSeconds);
+        if (this.reportPrefix != null) {
+            writeCsvReport(this.reportPrefix + ".csv");
+            writeJsonReport(this.reportPrefix + ".json", elapsedSeconds);
+            System.out.println("Wrote " + this.reportPrefix + ".csv and " + this.reportPrefix + ".json");
+        }
+    }
+
+    private void sendRequest(final long intendedStart, final boolean recorded) {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final boolean useGet = random.nextInt(100) < this.getPercent;
+        final boolean useNonce = random.nextInt(100) < this.noncePercent;
+        final long actualStart = System.nanoTime();
+        String outcome;
+        try {
+            final byte[] request = createRequest(selectSerialNr(random), useNonce, random);
+            outcome = send(request, useGet);
+        } catch (IOException e) {
+            outcome = "ioError";
+        } catch (Exception e) {
+            outcome = "invalidResponse";
+        }
+        final long end = System.nanoTime();
+        this.completed.incrementAndGet();
+        if (recorded) {
+            final long latencyMicros = TimeUnit.NANOSECONDS.toMicros(end - intendedStart);
+            this.latency.record(latencyMicros);
+            this.serviceTime.record(TimeUnit.NANOSECONDS.toMicros(end - actualStart));
+            (useGet ? this.getLatency : this.postLatency).record(latencyMicros);
+            this.outcomes.get(outcome).incrementAndGet();
+        }
+    }
+
+    private BigInteger selectSerialNr(final ThreadLocalRandom random) {
+        final int size = this.serialNrs.size();
+        final int hotSize = Math.max(1, (int) ((long) size * this.hotSerialsPercent / 100));
+        if (this.hotSerialsPercent == 0 || hotSize >= size) {
+            return this.serialNrs.get(random.nextInt(size));
+        }
+        if (random.nextInt(100) < this.hotRequestsPercent) {
+            return this.serialNrs.get(random.nextInt(hotSize));
+        }
+        return this.serialNrs.get(hotSize + random.nextInt(size - hotSize));
+    }
+
+    private byte[] createRequest(final BigInteger serialNr, final boolean useNonce, final ThreadLocalRandom random) throws Exception {
+        final OCSPReqBuilder builder = new OCSPReqBuilder();
+        builder.addRequest(new JcaCertificateID(SHA1DigestCalculator.buildSha1Instance(), this.caCert, serialNr));
+        if (useNonce) {
+            final byte[] nonce = new byte[16];
+            random.nextBytes(nonce);
+            builder.setRequestExtensions(new Extensions(new Extension(OCSPObjectIdentifiers.id_pkix_ocsp_nonce, false, new DEROctetString(nonce))));
+        }
+        return builder.build().getEncoded();
+    }
+
+    /** @return the outcome of the request */
+    private String send(final byte[] request, final boolean useGet) throws Exception {
+        final HttpURLConnection con;
+        if (useGet) {
+            final String b64 = new String(Base64.encode(request, false), StandardCharsets.US_ASCII);
+            con = (HttpURLConnection) new URL(this.ocspUrl + '/' + b64).openConnection();
+        } else {
+            con = (HttpURLConnection) new URL(this.ocspUrl).openConnection();
+            con.setDoOutput(true);
+            con.setRequestMethod("POST");
+            con.setRequestProperty("Content-Type", "application/ocsp-request");
+        }
+        con.setConnectTimeout(this.timeoutMs);
+        con.setReadTimeout(this.timeoutMs);
+        if (!useGet) {
+            try (final OutputStream os = con.getOutputStream()) {
+                os.write(request);
+            }
+        }
+        if (con.getResponseCode() != HttpURLConnection.HTTP_OK) {
+            // Read the error body, so that the connection can be reused
+            final InputStream errorStream = con.getErrorStream();
+            if (errorStream != null) {
+                try {
+                    IOUtils.toByteArray(errorStream);
+                } finally {
+                    errorStream.close();
+                }
+            }
+            return "httpError";
+        }
+        final byte[] responseBytes;
+        try (final InputStream in = con.getInputStream()) {
+            responseBytes = IOUtils.toByteArray(in);
+        }
+        final OCSPResp response = new OCSPResp(responseBytes);
+        switch (response.getStatus()) {
+        case OCSPResp.SUCCESSFUL:
+            break;
+        case OCSPResp.MALFORMED_REQUEST:
+            return "malformedRequest";
+        case OCSPResp.TRY_LATER:
+            return "tryLater";
+        case OCSPResp.SIG_REQUIRED:
+            return "sigRequired";
+        case OCSPResp.UNAUTHORIZED:
+            return "unauthorized";
+        default:
+            return "internalError";
+        }
+        final SingleResp[] singleResponses = ((BasicOCSPResp) response.getResponseObject()).getResponses();
+        if (singleResponses.length == 0) {
+            return "invalidResponse";
+        }
+        final CertificateStatus status = singleResponses[0].getCertStatus();
+        if (status == CertificateStatus.GOOD) {
+            return "good";
+        }
+        return status instanceof RevokedStatus ? "revoked" : "unknown";
+    }
+
+    private void printProgress(final long sent, final long outstanding, final long elapsedNanos) {
+        System.out.println(String.format(Locale.ROOT, "%6ds: sent %d, completed %d, outstanding %d, p99 latency so far %.3f ms",
+                TimeUnit.NANOSECONDS.toSeconds(elapsedNanos), sent, this.completed.get(), outstanding, toMillis(this.latency.getValueAtPercentile(99))));
+    }
+
+    private void printResults(final double elapsedSeconds) {
+        System.out.println();
+        System.out.println(String.format(Locale.ROOT, "Completed %d requests in %.1f s (%.1f requests per second).", this.completed.get(),
+                elapsedSeconds, this.completed.get() / elapsedSeconds));
+        System.out.println("Outcomes: " + this.outcomes);
+        System.out.println(getCsvHeader());
+        for (final Map.Entry<String, LatencyHistogram> entry : getHistograms().entrySet()) {
+            System.out.println(getCsvRow(entry.getKey(), entry.getValue()));
+        }
+    }
+
+    private Map<String, LatencyHistogram> getHistograms() {
+        final Map<String, LatencyHistogram> histograms = new LinkedHashMap<>();
+        histograms.put("latency", this.latency);
+        histograms.put("serviceTime", this.serviceTime);
+        histograms.put("getLatency", this.getLatency);
+        histograms.put("postLatency", this.postLatency);
+        return histograms;
+    }
+
+    private static String getCsvHeader() {
+        final StringBuilder sb = new StringBuilder("metric,count,min,mean");
+        for (final double percentile : PERCENTILES) {
+            sb.append(",p").append(formatPercentile(percentile));
+        }
+        return sb.append(",max").toString();
+    }
+
+    private static String getCsvRow(final String name, final LatencyHistogram histogram) {
+        final StringBuilder sb = new StringBuilder(name);
+        sb.append(',').append(histogram.getCount());
+        sb.append(',').append(formatMillis(toMillis(histogram.getMin())));
+        sb.append(',').append(formatMillis(histogram.getMean() / 1000.0));
+        for (final double percentile : PERCENTILES) {
+            sb.append(',').append(formatMillis(toMillis(histogram.getValueAtPercentile(percentile))));
+        }
+        return sb.append(',').append(formatMillis(toMillis(histogram.getMax()))).toString();
+    }
+
+    private void writeCsvReport(final String fileName) throws IOException {
+        try (final PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(fileName), StandardCharsets.UTF_8))) {
+            out.println(getCsvHeader());
+            for (final Map.Entry<String, LatencyHistogram> entry : getHistograms().entrySet()) {
+                out.println(getCsvRow(entry.getKey(), entry.getValue()));
+            }
+        }
+    }
+
+    private void writeJsonReport(final String fileName, final double elapsedSeconds) throws IOException {
+        final StringBuilder sb = new StringBuilder("{\n");
+        sb.append("  \"url\": \"").append(this.ocspUrl.replace("\\", "\\\\").replace("\"", "\\\"")).append("\",\n");
+        sb.append("  \"requestsPerSecond\": ").append(this.requestsPerSecond).append(",\n");
+        sb.append("  \"durationSeconds\": ").append(this.durationSeconds).append(",\n");
+        sb.append("  \"warmupSeconds\": ").append(this.warmupSeconds).append(",\n");
+        sb.append("  \"getPercent\": ").append(this.getPercent).append(",\n");
+        sb.append("  \"noncePercent\": ").append(this.noncePercent).append(",\n");
+        sb.append("  \"hotSerialsPercent\": ").append(this.hotSerialsPercent).append(",\n");
+        sb.append("  \"hotRequestsPercent\": ").append(this.hotRequestsPercent).append(",\n");
+        sb.append("  \"concurrency\": ").append(this.concurrency).append(",\n");
+        sb.append("  \"elapsedSeconds\": ").append(formatMillis(elapsedSeconds)).append(",\n");
+        sb.append("  \"completed\": ").append(this.completed.get()).append(",\n");
+        sb.append("  \"outcomes\": {");
+        String separator = "";
+        for (final Map.Entry<String, AtomicLong> entry : this.outcomes.entrySet()) {
+            sb.append(separator).append("\"").append(entry.getKey()).append("\": ").append(entry.getValue().get());
+            separator = ", ";
+        }
+        sb.append("},\n");
+        sb.append("  \"latencyMs\": {\n");
+        separator = "";
+        for (final Map.Entry<String, LatencyHistogram> entry : getHistograms().entrySet()) {
+            final LatencyHistogram histogram = entry.getValue();
+            sb.append(separator).append("    \"").append(entry.getKey()).append("\": {\"count\": ").append(histogram.getCount());
+            sb.append(", \"min\": ").append(formatMillis(toMillis(histogram.getMin())));
+            sb.append(", \"mean\": ").append(formatMillis(histogram.getMean() / 1000.0));
+            for (final double percentile : PERCENTILES) {
+                sb.append(", \"p").append(formatPercentile(percentile)).append("\": ")
+                        .append(formatMillis(toMillis(histogram.getValueAtPercentile(percentile))));
+            }
+            sb.append(", \"max\": ").append(formatMillis(toMillis(histogram.getMax()))).append("}");
+            separator = ",\n";
+        }
+        sb.append("\n  }\n}\n");
+        try (final OutputStream out = new FileOutputStream(fileName)) {
+            out.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static double toMillis(final long micros) {
+        return micros / 1000.0;
+    }
+
+    private static String formatMillis(final double millis) {
+        return String.format(Locale.ROOT, "%.3f", millis);
+    }
+
+    private static String formatPercentile(final double percentile) {
+        return percentile == Math.rint(percentile) ? String.valueOf((long) percentile) : String.valueOf(percentile);
+    }
+}
@@ -0,0 +1,201 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.protocol.crlstore;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.cesecore.certificates.crl.CrlStoreSessionLocal;
+import org.ejbca.core.protocol.crlstore.CRLCache.CachedCRL;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link CRLCache}, with the CRLs stored in memory instead of in the database.
+ *
+ * @version $Id$
+ */
+public class CRLCacheUnitTest {
+
+    private static final String ISSUER1 = "CN=Issuer 1";
+    private static final String ISSUER2 = "CN=Issuer 2";
+    private static final String ISSUER3 = "CN=Issuer 3";
+    private static final int CRL_SIZE = 100;
+
+    /** The stored CRLs by issuer DN and partition index. Only the latest CRL of each is kept. */
+    private final Map<String, byte[]> storedCrls = new ConcurrentHashMap<>();
+    private final Map<String, Integer> storedCrlNumbers = new ConcurrentHashMap<>();
+    /** The number of CRLs read from the store */
+    private final AtomicInteger crlReads = new AtomicInteger();
+    /** The number of lookups of the latest CRL number in the store */
+    private final AtomicInteger crlNumberReads = new AtomicInteger();
+    private CRLCache crlCache;
+
+    @After
+    public void closeCache() {
+        if (crlCache != null) {
+            crlCache.close();
+        }
+    }
+
+    private CrlStoreSessionLocal getCrlStoreSession() {
+        return (CrlStoreSessionLocal) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { CrlStoreSessionLocal.class },
+                (proxy, method, args) -> {
+                    final String key = args[0] + ";" + args[1];
+                    switch (method.getName()) {
+                    case "getLastCRLNumber":
+                        crlNumberReads.incrementAndGet();
+                        final Integer crlNumber = storedCrlNumbers.get(key);
+                        return crlNumber == null ? 0 : crlNumber;
+                    case "getCRL":
+                        crlReads.incrementAndGet();
+                        return Integer.valueOf((int) args[2]).equals(storedCrlNumbers.get(key)) ? storedCrls.get(key) : null;
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    private byte[] storeCrl(final String issuerDn, final int crlPartitionIndex, final int crlNumber) {
+        final byte[] crl = new byte[CRL_SIZE];
+        final byte[] name = (issuerDn + ";" + crlPartitionIndex + ";" + crlNumber).getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(name, 0, crl, 0, name.length);
+        storedCrls.put(issuerDn + ";" + crlPartitionIndex, crl);
+        storedCrlNumbers.put(issuerDn + ";" + crlPartitionIndex, crlNumber);
+        return crl;
+    }
+
+    private CachedCRL findLatestCrl(final String issuerDn) {
+        return crlCache.findCRL(issuerDn, 0, false, -1);
+    }
+
+    @Test
+    public void testHit() {
+        crlCache = new CRLCache(getCrlStoreSession(), null, 60000, 10 * CRL_SIZE, 10);
+        final byte[] crl = storeCrl(ISSUER1, 0, 1);
+        final CachedCRL first = findLatestCrl(ISSUER1);
+        assertNotNull(first);
+        assertEquals(1, first.getCrlNumber());
+        assertArrayEquals(crl, first.getEncoded());
+        assertEquals(1, crlReads.get());
+        for (int i = 0; i < 10; i++) {
+            assertEquals("The cached CRL should be returned", first, findLatestCrl(ISSUER1));
+        }
+        assertEquals("The CRL should only be read once", 1, crlReads.get());
+        assertEquals(1, crlNumberReads.get());
+        assertEquals(1, crlCache.getCachedCount());
+        // A specific CRL number is always read from the store, and not cached
+        assertArrayEquals(crl, crlCache.findCRL(ISSUER1, 0, false, 1).getEncoded());
+        assertEquals(2, crlReads.get());
+        assertNull(crlCache.findCRL(ISSUER1, 0, false, 2));
+        assertEquals(1, crlCache.getCachedCount());
+    }
+
+    @Test
+    public void testRefresh() throws InterruptedException {
+        final long checkInterval = 200;
+        crlCache = new CRLCache(getCrlStoreSession(), null, checkInterval, 10 * CRL_SIZE, 10);
+        storeCrl(ISSUER1, 0, 1);
+        assertEquals(1, findLatestCrl(ISSUER1).getCrlNumber());
+        final byte[] newCrl = storeCrl(ISSUER1, 0, 2);
+        assertEquals("The cached CRL should be returned until the store has been checked", 1, findLatestCrl(ISSUER1).getCrlNumber());
+        Thread.sleep(checkInterval + 10);
+        // The request that finds that the CRL has not been checked for the check interval is still answered with the cached CRL,
+        // unless the background check has already completed
+        assertNotNull(findLatestCrl(ISSUER1));
+        final long deadline = System.currentTimeMillis() + checkInterval;
+        CachedCRL refreshed = findLatestCrl(ISSUER1);
+        while (refreshed.getCrlNumber() != 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+            refreshed = findLatestCrl(ISSUER1);
+        }
+        assertEquals("The newer CRL should be cached by the background check", 2, refreshed.getCrlNumber());
+        assertArrayEquals(newCrl, refreshed.getEncoded());
+        assertEquals(2, crlReads.get());
+        assertEquals(1, crlCache.getCachedCount());
+    }
+
+    @Test
+    public void testEviction() throws InterruptedException {
+        // Room for two CRLs
+        crlCache = new CRLCache(getCrlStoreSession(), null, 60000, 2 * CRL_SIZE, 10);
+        storeCrl(ISSUER1, 0, 1);
+        storeCrl(ISSUER2, 0, 1);
+        storeCrl(ISSUER3, 0, 1);
+        findLatestCrl(ISSUER1);
+        Thread.sleep(2);
+        findLatestCrl(ISSUER2);
+        Thread.sleep(2);
+        // Issuer 2 is now the least recently requested
+        findLatestCrl(ISSUER1);
+        Thread.sleep(2);
+        findLatestCrl(ISSUER3);
+        assertEquals(2, crlCache.getCachedCount());
+        assertEquals(3, crlReads.get());
+        findLatestCrl(ISSUER1);
+        findLatestCrl(ISSUER3);
+        assertEquals("The most recently requested CRLs should be kept", 3, crlReads.get());
+        findLatestCrl(ISSUER2);
+        assertEquals("The least recently requested CRL should have been evicted", 4, crlReads.get());
+        assertEquals(2, crlCache.getCachedCount());
+        // A CRL larger than the cache is never cached
+        crlCache.close();
+        crlCache = new CRLCache(getCrlStoreSession(), null, 60000, CRL_SIZE - 1, 10);
+        assertNotNull(findLatestCrl(ISSUER1));
+        assertNotNull(findLatestCrl(ISSUER1));
+        assertEquals(6, crlReads.get());
+        assertEquals(0, crlCache.getCachedCount());
+    }
+
+    @Test
+    public void testMaxEntries() throws InterruptedException {
+        crlCache = new CRLCache(getCrlStoreSession(), null, 60000, 1000 * CRL_SIZE, 3);
+        for (int i = 0; i < 10; i++) {
+            storeCrl(ISSUER1, i, 1);
+            assertNotNull(crlCache.findCRL(ISSUER1, i, false, -1));
+            Thread.sleep(2);
+        }
+        assertEquals("The number of cached CRLs should be bounded, even if their total size is not exceeded", 3, crlCache.getCachedCount());
+        crlReads.set(0);
+        for (int i = 7; i < 10; i++) {
+            crlCache.findCRL(ISSUER1, i, false, -1);
+        }
+        assertEquals("The most recently requested CRLs should be kept", 0, crlReads.get());
+    }
+
+    @Test
+    public void testMissesAreNotCached() {
+        crlCache = new CRLCache(getCrlStoreSession(), null, 60000, 10 * CRL_SIZE, 10);
+        storeCrl(ISSUER1, 0, 1);
+        assertNotNull(findLatestCrl(ISSUER1));
+        for (int i = 1; i < 10000; i++) {
+            assertNull("There is no CRL with partition index " + i, crlCache.findCRL(ISSUER1, i, false, -1));
+            assertNull(crlCache.findCRL(ISSUER1, i, true, -1));
+        }
+        assertNull(findLatestCrl(ISSUER2));
+        assertEquals("Lookups that find no CRL should not be cached", 1, crlCache.getCachedCount());
+        assertEquals("A CRL should only be read when its CRL number was found", 1, crlReads.get());
+        // A CRL that is stored after a lookup found none is returned by the next request
+        storeCrl(ISSUER2, 0, 1);
+        assertNotNull(findLatestCrl(ISSUER2));
+        assertEquals(2, crlCache.getCachedCount());
+    }
+}
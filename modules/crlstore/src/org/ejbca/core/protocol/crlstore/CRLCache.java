@@ -13,80 +13,189 @@
 
 package org.ejbca.core.protocol.crlstore;
 
+import java.io.IOException;
 import java.security.cert.X509Certificate;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.log4j.Logger;
 import org.cesecore.certificates.ca.internal.CaCertificateCache;
 import org.cesecore.certificates.certificate.HashID;
-import org.cesecore.certificates.crl.CRLInfo;
 import org.cesecore.certificates.crl.CrlStoreSessionLocal;
+import org.cesecore.certificates.crl.StreamingCrlEncoder;
 import org.cesecore.util.CertTools;
+import org.ejbca.config.EjbcaConfiguration;
 
 /**
- * An implementation of this is managing a cache of CRLs. The implementation should be optimized for quick lookups of CRLs that the 
+ * An implementation of this is managing a cache of CRLs. The implementation should be optimized for quick lookups of CRLs that the
  * VA responder needs to fetch.
+ * <p>
+ * The latest CRL of each issuer, CRL partition and type (full or delta) is cached. Lookups never lock: a cached CRL is returned directly,
+ * and when it has not been checked for crlstore.cachetime milliseconds, a background thread checks if a newer CRL has been stored and
+ * replaces the cached one, while the requests in the meantime are answered with the CRL that was cached. If the CRL has not been checked
+ * for twice that time, e.g. since the background check failed, the requesting thread reads the latest CRL from the database. The total size of the cached
+ * CRLs is bounded by crlstore.cachemaxsize and their number by crlstore.cachemaxentries, and the least recently requested CRLs are evicted first.
+ * Lookups that find no CRL are not cached, so requests for CRLs that do not exist, e.g. for any CRL partition index, can not fill the cache.
  *
  * @version $Id$
  */
 public class CRLCache {
 	private static final Logger log = Logger.getLogger(CRLCache.class);
-	
-    private static CRLCache instance = null;
-    private static final Lock lock = new ReentrantLock();
-	
+	/** A cached CRL that has not been checked for this many check intervals is read from the database by the requesting thread */
+	private static final int MAX_STALENESS_FACTOR = 2;
+
+    private static volatile CRLCache instance = null;
+
 	private final CrlStoreSessionLocal crlSession;
 	private final CaCertificateCache certCache;
-	final private Map<Integer, CRLEntity> crls = new HashMap<>();
-	final private Map<Integer, CRLEntity> deltaCrls = new HashMap<>();
-	private class CRLEntity {
-		final CRLInfo crlInfo;
-		final byte encoded[];
-		/**
-		 * @param crlInfo
-		 * @param encoded
-		 */
-		CRLEntity(CRLInfo crlInfo, byte[] encoded) {
-			super();
-			this.crlInfo = crlInfo;
-			this.encoded = encoded;
+	private final long checkInterval;
+	private final long maxCacheSize;
+	private final int maxEntries;
+	private final ConcurrentMap<CRLKey, CRLEntity> crls = new ConcurrentHashMap<>();
+	private final ExecutorService refreshExecutor = Executors.newSingleThreadExecutor(runnable -> {
+	    final Thread thread = new Thread(runnable, "CRLCacheRefresh");
+	    thread.setDaemon(true);
+	    return thread;
+	});
+
+	/** Identifies the latest CRL of an issuer */
+	private static final class CRLKey {
+	    final String issuerDN;
+	    final int crlPartitionIndex;
+	    final boolean isDelta;
+
+	    CRLKey(final String issuerDN, final int crlPartitionIndex, final boolean isDelta) {
+	        this.issuerDN = issuerDN;
+	        this.crlPartitionIndex = crlPartitionIndex;
+	        this.isDelta = isDelta;
+	    }
+
+	    @Override
+	    public boolean equals(final Object obj) {
+	        if (!(obj instanceof CRLKey)) {
+	            return false;
+	        }
+	        final CRLKey other = (CRLKey) obj;
+	        return crlPartitionIndex == other.crlPartitionIndex && isDelta == other.isDelta && issuerDN.equals(other.issuerDN);
+	    }
+
+	    @Override
+	    public int hashCode() {
+	        return (issuerDN.hashCode() * 31 + crlPartitionIndex) * 2 + (isDelta ? 1 : 0);
+	    }
+
+	    @Override
+	    public String toString() {
+	        return "issuerDN '" + issuerDN + "', partition " + crlPartitionIndex + (isDelta ? ", delta CRL" : "");
+	    }
+	}
+
+	/** A CRL with the metadata needed to answer conditional HTTP requests for it */
+	public static final class CachedCRL {
+	    private final int crlNumber;
+	    private final byte[] encoded;
+	    private final String eTag;
+	    private final long lastModified;
+
+	    CachedCRL(final int crlNumber, final byte[] encoded) {
+	        this.crlNumber = crlNumber;
+	        this.encoded = encoded;
+	        // A strong entity tag, since a CRL with the same fingerprint is the same sequence of bytes
+	        this.eTag = "\"" + CertTools.getFingerprintAsString(encoded) + "\"";
+	        long thisUpdate;
+	        try {
+	            thisUpdate = StreamingCrlEncoder.readHeader(encoded).getThisUpdate().getTime();
+	        } catch (IOException | RuntimeException e) {
+	            log.info("Could not read thisUpdate of CRL with CRL number " + crlNumber + ": " + e.getMessage());
+	            thisUpdate = -1;
+	        }
+	        this.lastModified = thisUpdate;
+	    }
+
+	    /** @return the CRL number of the CRL */
+	    public int getCrlNumber() { return crlNumber; }
+	    /** @return the DER encoded CRL. Must not be modified. */
+	    public byte[] getEncoded() { return encoded; }
+	    /** @return a quoted strong HTTP entity tag for the CRL */
+	    public String getETag() { return eTag; }
+	    /** @return thisUpdate of the CRL in milliseconds since epoch, or -1 if unknown */
+	    public long getLastModified() { return lastModified; }
+	}
+
+	private static final class CRLEntity {
+		/** CRL number of the CRL, or 0 if the issuer had no CRL */
+		final int crlNumber;
+		/** The CRL, or null if the issuer had no CRL. Only entities with a CRL are cached. */
+		final CachedCRL crl;
+		/** When the database was last checked for a newer CRL */
+		volatile long checkTime;
+		/** When the CRL was last requested, used for evicting the least recently used CRLs */
+		volatile long accessTime;
+		final AtomicBoolean refreshing = new AtomicBoolean();
+
+		CRLEntity(final int crlNumber, final CachedCRL crl, final long now) {
+			this.crlNumber = crlNumber;
+			this.crl = crl;
+			this.checkTime = now;
+			this.accessTime = now;
+		}
+
+		long getSize() {
+		    return crl == null ? 0 : crl.getEncoded().length;
 		}
 	}
-	/** We need an object to synchronize around when rebuilding and reading the cache. When rebuilding the cache no thread
-	 * can be allowed to read the cache, since the cache will be in an inconsistent state. In the normal case we want to use
-	 * as fast objects as possible (HashMap) for reading fast.
-	 */
-	final private Lock rebuildlock = new ReentrantLock();
 
 	 /**
      * @return  {@link CRLCache} for the CA.
      */
     public static CRLCache getInstance(CrlStoreSessionLocal crlSession, CaCertificateCache certCache) {
-        if (instance != null) {
-            return instance;
+        CRLCache ret = instance;
+        if (ret == null) {
+            synchronized (CRLCache.class) {
+                ret = instance;
+                if (ret == null) {
+                    ret = new CRLCache(crlSession, certCache, EjbcaConfiguration.getCrlStoreCacheTime(), EjbcaConfiguration.getCrlStoreCacheMaxSize(),
+                            EjbcaConfiguration.getCrlStoreCacheMaxEntries());
+                    instance = ret;
+                }
+            }
         }
-        lock.lock();
-        try {
-            if ( instance==null ) {
-                instance = new CRLCache(crlSession, certCache);
+        return ret;
+    }
+
+    /** Stops the background refresh and forgets the cached CRLs. A new cache is created by the next call to getInstance. */
+    public static void shutdown() {
+        synchronized (CRLCache.class) {
+            if (instance != null) {
+                instance.close();
+                instance.crls.clear();
+                instance = null;
             }
-            return instance;
-        } finally {
-            lock.unlock();
         }
     }
-	
+
 	/**
 	 * @param crlSession reference to CRLStoreSession
-	 * @param certStore references to needed CA certificates.
+	 * @param certCache references to needed CA certificates.
+	 * @param checkInterval how often in milliseconds to check if a newer CRL has been stored
+	 * @param maxCacheSize the maximum total size in bytes of the cached CRLs
+	 * @param maxEntries the maximum number of cached CRLs
 	 */
-	private CRLCache(CrlStoreSessionLocal crlSession, CaCertificateCache certCache) {
+	CRLCache(CrlStoreSessionLocal crlSession, CaCertificateCache certCache, long checkInterval, long maxCacheSize, int maxEntries) {
 		super();
 		this.crlSession = crlSession;
 		this.certCache = certCache;
+		this.checkInterval = checkInterval;
+		this.maxCacheSize = maxCacheSize;
+		this.maxEntries = maxEntries;
 	}
 
 	/**
@@ -95,7 +204,7 @@ public class CRLCache {
      * @param crlNumber specific crlNumber of the CRL to be retrieved, when not the latest, or -1 for the latest
      * @return CRL or null if the CRL does not exist in the cache.
      */
-	public byte[] findBySubjectKeyIdentifier(HashID id, int crlPartitionIndex, boolean isDelta, int crlNumber) {
+	public CachedCRL findBySubjectKeyIdentifier(HashID id, int crlPartitionIndex, boolean isDelta, int crlNumber) {
 		return findCRL(certCache.findBySubjectKeyIdentifier(id), crlPartitionIndex, isDelta, crlNumber);
 	}
 
@@ -105,56 +214,152 @@ public class CRLCache {
      * @param crlNumber specific crlNumber of the CRL to be retrieved, when not the latest, or -1 for the latest
      * @return CRL or null if the CRL does not exist in the cache.
      */
-	public byte[] findByIssuerDN(HashID id, int crlPartitionIndex, boolean isDelta, int crlNumber) {
+	public CachedCRL findByIssuerDN(HashID id, int crlPartitionIndex, boolean isDelta, int crlNumber) {
 		return findCRL(certCache.findLatestBySubjectDN(id), crlPartitionIndex, isDelta, crlNumber);
 	}
 
-	private byte[] findCRL(final X509Certificate caCert, final int crlPartitionIndex, final boolean isDelta, final int crlNumber) {
+	/** Forgets all cached CRLs, so that the next request for each CRL reads it from the database. */
+	public void clear() {
+	    crls.clear();
+	}
+
+	/** @return the number of cached CRLs */
+	int getCachedCount() {
+	    return crls.size();
+	}
+
+	/** Stops the background refresh of this cache */
+	void close() {
+	    refreshExecutor.shutdownNow();
+	}
+
+	private CachedCRL findCRL(final X509Certificate caCert, final int crlPartitionIndex, final boolean isDelta, final int crlNumber) {
 		if ( caCert==null ) {
 			if (log.isDebugEnabled()) {
 				log.debug("No CA certificate, returning null.");
 			}
 			return null;
 		}
-		final HashID id = HashID.getFromSubjectDN(caCert);
-		final String issuerDN = CertTools.getSubjectDN(caCert);
-		this.rebuildlock.lock();
-		try {
-			final CRLInfo crlInfo = this.crlSession.getLastCRLInfo(issuerDN, crlPartitionIndex, isDelta);
-			if ( crlInfo==null ) {
-				if (log.isDebugEnabled()) {
-					log.debug("No CRL found with issuerDN '"+issuerDN+"', returning null.");
-				}
-				return null;
-			}
-            final Map<Integer, CRLEntity> usedCrls = isDelta ? this.deltaCrls : this.crls;
-			// If we have not specified a crlNumber we can try to find the latest CRL in the cache
-			if (crlNumber == -1) {
-			    final CRLEntity cachedCRL = usedCrls.get(id.getKey());
-			    if ( cachedCRL!=null && !crlInfo.getCreateDate().after(cachedCRL.crlInfo.getCreateDate()) ) {
-			        if (log.isDebugEnabled()) {
-			            log.debug("Retrieved CRL (from cache) with issuerDN '"+issuerDN+"', with CRL number "+crlInfo.getLastCRLNumber() + " and partition " + crlInfo.getCrlPartitionIndex());
-			        }
-			        return cachedCRL.encoded;
-			    }
-			}
-			final CRLEntity entry;
-			if (crlNumber > -1) {
-			    if (log.isDebugEnabled()) {
-			        log.debug("Getting CRL with CRL number "+crlNumber);
-			    }
-			    entry = new CRLEntity( crlInfo, this.crlSession.getCRL(issuerDN, crlPartitionIndex, crlNumber) );
-			} else {
-			    entry = new CRLEntity( crlInfo, this.crlSession.getLastCRL(issuerDN, crlPartitionIndex, isDelta) );
-			    // Only cache latest CRLs, these should be the ones accessed regularly, and we don't want to fill the cache with old CRLs
-	            usedCrls.put(id.getKey(), entry);
-			}
-			if (log.isDebugEnabled()) {
-				log.debug("Retrieved CRL (not from cache) with issuerDN '"+issuerDN+"', with CRL number "+crlInfo.getLastCRLNumber() + " and partition " + crlInfo.getCrlPartitionIndex());
-			}
-			return entry.encoded;
-		} finally {
-			this.rebuildlock.unlock();
+		return findCRL(CertTools.getSubjectDN(caCert), crlPartitionIndex, isDelta, crlNumber);
+	}
+
+	/**
+	 * @param issuerDN the subject DN of the CA certificate, as returned by CertTools.getSubjectDN
+	 * @param crlNumber specific crlNumber of the CRL to be retrieved, when not the latest, or -1 for the latest
+	 * @return CRL or null if the CRL does not exist.
+	 */
+	CachedCRL findCRL(final String issuerDN, final int crlPartitionIndex, final boolean isDelta, final int crlNumber) {
+		if (crlNumber > -1) {
+		    // Only cache latest CRLs, these should be the ones accessed regularly, and we don't want to fill the cache with old CRLs
+		    if (log.isDebugEnabled()) {
+		        log.debug("Getting CRL with CRL number "+crlNumber);
+		    }
+		    final byte[] encoded = crlSession.getCRL(issuerDN, crlPartitionIndex, crlNumber);
+		    return encoded == null ? null : new CachedCRL(crlNumber, encoded);
 		}
+		return findLatestCRL(new CRLKey(issuerDN, crlPartitionIndex, isDelta));
+	}
+
+	private CachedCRL findLatestCRL(final CRLKey key) {
+	    final long now = System.currentTimeMillis();
+	    final CRLEntity cached = crls.get(key);
+	    if (cached != null) {
+	        cached.accessTime = now;
+	        if (now - cached.checkTime >= MAX_STALENESS_FACTOR * checkInterval) {
+	            // The background check has not completed in time, e.g. since it failed, so never serve a CRL that has not been checked for longer
+	            final CRLEntity loaded = load(key, now);
+	            if (log.isDebugEnabled()) {
+	                log.debug("Retrieved CRL (not from cache, since the cached one is stale) with " + key + ", with CRL number " + loaded.crlNumber);
+	            }
+	            return loaded.crl;
+	        }
+	        if (now - cached.checkTime >= checkInterval && cached.refreshing.compareAndSet(false, true)) {
+	            try {
+	                refreshExecutor.execute(() -> refresh(key, cached));
+	            } catch (RejectedExecutionException e) {
+	                // The cache is shutting down
+	                cached.refreshing.set(false);
+	            }
+	        }
+	        if (log.isDebugEnabled()) {
+	            log.debug("Retrieved CRL (from cache) with " + key + ", with CRL number " + cached.crlNumber);
+	        }
+	        return cached.crl;
+	    }
+	    final CRLEntity loaded = load(key, now);
+	    if (log.isDebugEnabled()) {
+	        log.debug("Retrieved CRL (not from cache) with " + key + ", with CRL number " + loaded.crlNumber);
+	    }
+	    return loaded.crl;
+	}
+
+	/** Checks if a newer CRL than the cached one has been stored, and if so replaces the cached CRL. */
+	private void refresh(final CRLKey key, final CRLEntity cached) {
+	    try {
+	        final long now = System.currentTimeMillis();
+	        if (crlSession.getLastCRLNumber(key.issuerDN, key.crlPartitionIndex, key.isDelta) == cached.crlNumber) {
+	            cached.checkTime = now;
+	        } else {
+	            load(key, now);
+	        }
+	    } catch (RuntimeException e) {
+	        log.info("Failed to check for a newer CRL with " + key + ": " + e.getMessage());
+	    } finally {
+	        cached.refreshing.set(false);
+	    }
+	}
+
+	/**
+	 * Reads the latest CRL from the database and caches it, unless a CRL with a higher CRL number was cached in the meantime.
+	 * If no CRL is found, the cached CRL (if any) is kept, and nothing is cached.
+	 */
+	private CRLEntity load(final CRLKey key, final long now) {
+	    final int crlNumber = crlSession.getLastCRLNumber(key.issuerDN, key.crlPartitionIndex, key.isDelta);
+	    final byte[] encoded = crlNumber == 0 ? null : crlSession.getCRL(key.issuerDN, key.crlPartitionIndex, crlNumber);
+	    if (encoded == null) {
+	        if (log.isDebugEnabled()) {
+	            log.debug("No CRL found with " + key + ", returning null.");
+	        }
+	        return new CRLEntity(0, null, now);
+	    }
+	    return cache(key, new CRLEntity(crlNumber, new CachedCRL(crlNumber, encoded), now));
+	}
+
+	private CRLEntity cache(final CRLKey key, final CRLEntity entity) {
+	    if (entity.getSize() > maxCacheSize) {
+	        crls.remove(key);
+	        return entity;
+	    }
+	    final CRLEntity cached = crls.merge(key, entity, (existing, loaded) -> loaded.crlNumber >= existing.crlNumber ? loaded : existing);
+	    if (cached == entity) {
+	        evict();
+	    }
+	    return cached;
+	}
+
+	/** Removes the least recently requested CRLs until the cached CRLs fit in the maximum cache size and number of entries. */
+	private void evict() {
+	    long size = 0;
+	    for (final CRLEntity entity : crls.values()) {
+	        size += entity.getSize();
+	    }
+	    int count = crls.size();
+	    if (size <= maxCacheSize && count <= maxEntries) {
+	        return;
+	    }
+	    final List<Map.Entry<CRLKey, CRLEntity>> entries = new ArrayList<>(crls.entrySet());
+	    entries.sort(Comparator.comparingLong(entry -> entry.getValue().accessTime));
+	    for (final Map.Entry<CRLKey, CRLEntity> entry : entries) {
+	        if (size <= maxCacheSize && count <= maxEntries) {
+	            break;
+	        }
+	        if (crls.remove(entry.getKey(), entry.getValue())) {
+	            size -= entry.getValue().getSize();
+	            count--;
+	            if (log.isDebugEnabled()) {
+	                log.debug("Evicted CRL with " + entry.getKey() + " from the cache.");
+	            }
+	        }
+	    }
 	}
 }
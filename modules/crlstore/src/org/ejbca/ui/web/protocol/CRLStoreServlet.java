@@ -30,6 +30,7 @@ import org.cesecore.certificates.certificate.HashID;
 import org.cesecore.certificates.crl.CrlStoreSessionLocal;
 import org.cesecore.util.StringTools;
 import org.ejbca.core.protocol.crlstore.CRLCache;
+import org.ejbca.core.protocol.crlstore.CRLCache.CachedCRL;
 import org.ejbca.util.HTMLTools;
 
 /** 
@@ -38,6 +39,7 @@ import org.ejbca.util.HTMLTools;
  * Addition to RFC 4387 is the ability to specify delta CRL with the parameter "delta="
  * Addition to RFC 4387 is the ability to specify download of a specific CRL by crlNumber with the parameter "crlnumber=<number>"
  * Addition to RFC 4387 is the ability to specify a CRL partition number with the parameter "partition=<number>"
+ * Addition to RFC 4387 is support for conditional (ETag, Last-Modified) and byte range requests
  * 
  * 
  * @version  $Id$
@@ -63,6 +65,18 @@ public class CRLStoreServlet extends StoreServletBase {
 		this.crlCache = CRLCache.getInstance(crlSession, certCache);		
 	}
 
+	@Override
+	public void destroy() {
+		CRLCache.shutdown();
+		super.destroy();
+	}
+
+	@Override
+	protected void reloadCaches() {
+		super.reloadCaches();
+		crlCache.clear();
+	}
+
 	@Override
 	public void sHash(String iHash, HttpServletResponse resp, HttpServletRequest req) throws IOException, ServletException {
 		// do nothing for CRLs
@@ -71,8 +85,8 @@ public class CRLStoreServlet extends StoreServletBase {
 	@Override
 	public void iHash(String iHash, HttpServletResponse resp, HttpServletRequest req) throws IOException, ServletException {
 	    final int crlPartitionIndex = getCrlPartitionIndex(req);
-	    final byte[] crlBytes = crlCache.findByIssuerDN(HashID.getFromB64(iHash), crlPartitionIndex, isDelta(req), getCrlNumber(req));
-		returnCrl(crlBytes, resp, iHash, crlPartitionIndex, isDelta(req));
+	    final CachedCRL crl = crlCache.findByIssuerDN(HashID.getFromB64(iHash), crlPartitionIndex, isDelta(req), getCrlNumber(req));
+		returnCrl(crl, req, resp, iHash, crlPartitionIndex, isDelta(req));
 	}
 
 	@Override
@@ -83,8 +97,8 @@ public class CRLStoreServlet extends StoreServletBase {
 	@Override
 	public void sKIDHash(String sKIDHash, HttpServletResponse resp, HttpServletRequest req, String name) throws IOException, ServletException {
 	    final int crlPartitionIndex = getCrlPartitionIndex(req);
-	    final byte[] crlBytes = crlCache.findBySubjectKeyIdentifier(HashID.getFromB64(sKIDHash), crlPartitionIndex, isDelta(req), getCrlNumber(req));
-		returnCrl(crlBytes, resp, name, crlPartitionIndex, isDelta(req));
+	    final CachedCRL crl = crlCache.findBySubjectKeyIdentifier(HashID.getFromB64(sKIDHash), crlPartitionIndex, isDelta(req), getCrlNumber(req));
+		returnCrl(crl, req, resp, name, crlPartitionIndex, isDelta(req));
 	}
 
 	@Override
@@ -122,8 +136,13 @@ public class CRLStoreServlet extends StoreServletBase {
         return CertificateConstants.NO_CRL_PARTITION;
     }
 
-	private void returnCrl( byte crl[], HttpServletResponse resp, String name, final int crlPartitionIndex, boolean isDelta) throws IOException {
-		if ( crl==null || crl.length<1 ) {
+	/**
+	 * Sends the CRL, or only the part of it the client asked for. Clients that already have the CRL, as given by its ETag or
+	 * Last-Modified header, get a 304 response.
+	 */
+	private void returnCrl(final CachedCRL crl, final HttpServletRequest req, final HttpServletResponse resp, final String name,
+	        final int crlPartitionIndex, final boolean isDelta) throws IOException {
+		if ( crl==null || crl.getEncoded().length<1 ) {
 		    if (log.isDebugEnabled()) {
 		        log.debug("CRL was not found. Hash=" + name + ", DeltaCRL=" + isDelta + ", Partition=" + crlPartitionIndex);
 		    }
@@ -136,7 +155,6 @@ public class CRLStoreServlet extends StoreServletBase {
 		        StringTools.stripFilename(name) +
 		        (crlPartitionIndex != CertificateConstants.NO_CRL_PARTITION ? "_partition" + crlPartitionIndex : "") +
 		        ".crl\"");
-		resp.setContentLength(crl.length);
-		resp.getOutputStream().write(crl);
+		ConditionalResponseWriter.write(req, resp, crl.getEncoded(), crl.getETag(), crl.getLastModified());
 	}
 }
@@ -0,0 +1,170 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.model.services.workers;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.cesecore.util.NetworkTools.ConditionalDownload;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Tests the conditional downloads and the bounded concurrency of {@link ConditionalCrlDownloader}, against a local HTTP server.
+ *
+ * @version $Id$
+ */
+public class ConditionalCrlDownloaderUnitTest {
+
+    private static final byte[] CRL = "not really a CRL".getBytes(StandardCharsets.US_ASCII);
+    private static final String ETAG = "\"crl-1\"";
+    private static final long LAST_MODIFIED = 1500000000000L;
+
+    private HttpServer httpServer;
+    /** The If-None-Match header of each request, or "-" if the request was not conditional */
+    private final List<String> conditions = Collections.synchronizedList(new ArrayList<String>());
+
+    @Before
+    public void startServer() throws IOException {
+        httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        httpServer.createContext("/crl", this::handleCrl);
+        httpServer.createContext("/error", exchange -> {
+            exchange.sendResponseHeaders(500, -1);
+            exchange.close();
+        });
+        httpServer.start();
+    }
+
+    @After
+    public void stopServer() {
+        httpServer.stop(0);
+    }
+
+    private void handleCrl(final HttpExchange exchange) throws IOException {
+        final String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+        conditions.add(ifNoneMatch == null ? "-" : ifNoneMatch);
+        if (ETAG.equals(ifNoneMatch)) {
+            exchange.sendResponseHeaders(304, -1);
+        } else {
+            exchange.getResponseHeaders().set("ETag", ETAG);
+            exchange.getResponseHeaders().set("Last-Modified", "Fri, 14 Jul 2017 02:40:00 GMT");
+            exchange.sendResponseHeaders(200, CRL.length);
+            try (final OutputStream outputStream = exchange.getResponseBody()) {
+                outputStream.write(CRL);
+            }
+        }
+        exchange.close();
+    }
+
+    private URL getUrl(final String path) throws IOException {
+        return new URL("http://" + httpServer.getAddress().getHostString() + ":" + httpServer.getAddress().getPort() + path);
+    }
+
+    @Test
+    public void testConditionalDownload() throws Exception {
+        final ConditionalCrlDownloader downloader = new ConditionalCrlDownloader();
+        final URL url = getUrl("/crl");
+        assertFalse("Nothing has been downloaded from the URL yet", downloader.isConditional(url, 0));
+        final ConditionalDownload first = downloader.download(url, 1024, 0);
+        assertNotNull(first);
+        assertTrue(first.isModified());
+        assertArrayEquals(CRL, first.getData());
+        assertEquals(ETAG, first.getETag());
+        assertEquals(LAST_MODIFIED, first.getLastModified());
+        downloader.setDownloaded(url, first, 7);
+        // The CRL with number 7 is still the last known one, so the server is asked whether it has changed
+        assertTrue(downloader.isConditional(url, 7));
+        final ConditionalDownload second = downloader.download(url, 1024, 7);
+        assertNotNull(second);
+        assertFalse("The CRL should not be transferred again", second.isModified());
+        assertEquals(ETAG, second.getETag());
+        // The last known CRL in the database is no longer the downloaded one, so the CRL is downloaded again
+        assertFalse(downloader.isConditional(url, 6));
+        final ConditionalDownload third = downloader.download(url, 1024, 6);
+        assertTrue(third.isModified());
+        assertEquals("Only the second request should be conditional", Arrays.asList("-", ETAG, "-"), conditions);
+    }
+
+    @Test
+    public void testDownloadStatesPerUrl() throws Exception {
+        final ConditionalCrlDownloader downloader = new ConditionalCrlDownloader();
+        final URL url = getUrl("/crl");
+        final URL otherUrl = getUrl("/crl?partition=1");
+        downloader.setDownloaded(url, downloader.download(url, 1024, 0), 3);
+        assertTrue(downloader.isConditional(url, 3));
+        assertFalse("The state of one URL should not be used for another", downloader.isConditional(otherUrl, 3));
+        // A newer CRL was imported, e.g. with a higher CRL number than the last one, so the state is replaced
+        downloader.setDownloaded(url, downloader.download(url, 1024, 3), 4);
+        assertFalse(downloader.isConditional(url, 3));
+        assertTrue(downloader.isConditional(url, 4));
+        assertFalse("Another downloader should not share the states", new ConditionalCrlDownloader().isConditional(url, 4));
+    }
+
+    @Test
+    public void testFailedDownload() throws Exception {
+        final ConditionalCrlDownloader downloader = new ConditionalCrlDownloader();
+        final URL url = getUrl("/error");
+        assertNull("A failed download should return null", downloader.download(url, 1024, 0));
+        assertFalse(downloader.isConditional(url, 0));
+        assertNull("A CRL larger than the maximum size should not be downloaded", downloader.download(getUrl("/crl"), CRL.length - 1, 0));
+    }
+
+    @Test
+    public void testDownloadConcurrently() throws Exception {
+        final int maxConcurrentDownloads = 3;
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final AtomicInteger completed = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(maxConcurrentDownloads);
+        final List<Callable<Void>> downloads = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            downloads.add(() -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                // The first downloads only complete when as many as allowed are running at the same time
+                started.countDown();
+                started.await(10, TimeUnit.SECONDS);
+                running.decrementAndGet();
+                completed.incrementAndGet();
+                return null;
+            });
+        }
+        ConditionalCrlDownloader.downloadConcurrently(downloads, maxConcurrentDownloads);
+        assertEquals("All downloads should complete", 10, completed.get());
+        assertEquals("The downloads should run concurrently, but not more than allowed", maxConcurrentDownloads, maxRunning.get());
+        // Nothing to download
+        ConditionalCrlDownloader.downloadConcurrently(Collections.<Callable<Void>>emptyList(), maxConcurrentDownloads);
+    }
+}
@@ -0,0 +1,84 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.ui.web.protocol;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link ConditionalResponseWriter}.
+ *
+ * @version $Id$
+ */
+public class ConditionalResponseWriterUnitTest {
+
+    private static final String ETAG = "\"0123456789abcdef\"";
+    private static final long LAST_MODIFIED = 1600000000123L;
+
+    @Test
+    public void testIfNoneMatch() {
+        assertTrue(ConditionalResponseWriter.isNotModified(ETAG, -1, ETAG, LAST_MODIFIED));
+        assertTrue(ConditionalResponseWriter.isNotModified("\"other\", " + ETAG, -1, ETAG, LAST_MODIFIED));
+        assertTrue(ConditionalResponseWriter.isNotModified("W/" + ETAG, -1, ETAG, LAST_MODIFIED));
+        assertTrue(ConditionalResponseWriter.isNotModified("*", -1, ETAG, LAST_MODIFIED));
+        assertFalse(ConditionalResponseWriter.isNotModified("\"other\"", -1, ETAG, LAST_MODIFIED));
+        assertFalse(ConditionalResponseWriter.isNotModified(ETAG, -1, null, LAST_MODIFIED));
+        // If-Modified-Since is ignored when If-None-Match is present
+        assertFalse(ConditionalResponseWriter.isNotModified("\"other\"", LAST_MODIFIED, ETAG, LAST_MODIFIED));
+    }
+
+    @Test
+    public void testIfModifiedSince() {
+        // HTTP dates have no milliseconds
+        assertTrue(ConditionalResponseWriter.isNotModified(null, 1600000000000L, ETAG, LAST_MODIFIED));
+        assertTrue(ConditionalResponseWriter.isNotModified(null, 1600000001000L, ETAG, LAST_MODIFIED));
+        assertFalse(ConditionalResponseWriter.isNotModified(null, 1599999999000L, ETAG, LAST_MODIFIED));
+        assertFalse(ConditionalResponseWriter.isNotModified(null, -1, ETAG, LAST_MODIFIED));
+        assertFalse(ConditionalResponseWriter.isNotModified(null, 1600000000000L, ETAG, -1));
+    }
+
+    @Test
+    public void testIfRange() {
+        assertTrue(ConditionalResponseWriter.isRangeApplicable(null, -1, ETAG, LAST_MODIFIED));
+        assertTrue(ConditionalResponseWriter.isRangeApplicable(ETAG, -1, ETAG, LAST_MODIFIED));
+        assertFalse(ConditionalResponseWriter.isRangeApplicable("\"other\"", -1, ETAG, LAST_MODIFIED));
+        // Weak entity tags never match in If-Range
+        assertFalse(ConditionalResponseWriter.isRangeApplicable("W/" + ETAG, -1, ETAG, LAST_MODIFIED));
+        assertTrue(ConditionalResponseWriter.isRangeApplicable("Sun, 13 Sep 2020 12:26:40 GMT", 1600000000000L, ETAG, LAST_MODIFIED));
+        assertFalse(ConditionalResponseWriter.isRangeApplicable("Sun, 13 Sep 2020 12:26:39 GMT", 1599999999000L, ETAG, LAST_MODIFIED));
+        assertFalse(ConditionalResponseWriter.isRangeApplicable("invalid", -1, ETAG, LAST_MODIFIED));
+    }
+
+    @Test
+    public void testParseRange() {
+        assertArrayEquals(new long[] { 0, 499 }, ConditionalResponseWriter.parseRange("bytes=0-499", 1000));
+        assertArrayEquals(new long[] { 500, 999 }, ConditionalResponseWriter.parseRange("bytes=500-", 1000));
+        assertArrayEquals(new long[] { 500, 999 }, ConditionalResponseWriter.parseRange("bytes=500-5000", 1000));
+        assertArrayEquals(new long[] { 900, 999 }, ConditionalResponseWriter.parseRange("bytes=-100", 1000));
+        assertArrayEquals(new long[] { 0, 999 }, ConditionalResponseWriter.parseRange("bytes=-5000", 1000));
+        // Unsatisfiable ranges
+        assertNull(ConditionalResponseWriter.parseRange("bytes=1000-", 1000));
+        assertNull(ConditionalResponseWriter.parseRange("bytes=-0", 1000));
+        // Ignored, so the whole content is sent
+        assertArrayEquals(new long[0], ConditionalResponseWriter.parseRange("bytes=0-1,5-6", 1000));
+        assertArrayEquals(new long[0], ConditionalResponseWriter.parseRange("items=0-1", 1000));
+        assertArrayEquals(new long[0], ConditionalResponseWriter.parseRange("bytes=5-1", 1000));
+        assertArrayEquals(new long[0], ConditionalResponseWriter.parseRange("bytes=-", 1000));
+        assertArrayEquals(new long[0], ConditionalResponseWriter.parseRange("bytes=a-b", 1000));
+        assertArrayEquals(new long[0], ConditionalResponseWriter.parseRange("bytes=0-99999999999999999999", 1000));
+    }
+}
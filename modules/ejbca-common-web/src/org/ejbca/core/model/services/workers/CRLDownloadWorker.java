@@ -12,15 +12,21 @@
  *************************************************************************/
 package org.ejbca.core.model.services.workers;
 
+import java.io.IOException;
+import java.math.BigInteger;
 import java.net.URL;
 import java.security.cert.CRLException;
 import java.security.cert.X509CRL;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.lang.math.IntRange;
 import org.apache.log4j.Logger;
@@ -33,9 +39,11 @@ import org.cesecore.certificates.certificate.CertificateConstants;
 import org.cesecore.certificates.crl.CrlImportException;
 import org.cesecore.certificates.crl.CrlStoreException;
 import org.cesecore.certificates.crl.CrlStoreSessionLocal;
+import org.cesecore.certificates.crl.StreamingCrlEncoder;
 import org.cesecore.certificates.util.cert.CrlExtensions;
 import org.cesecore.util.CertTools;
 import org.cesecore.util.NetworkTools;
+import org.cesecore.util.NetworkTools.ConditionalDownload;
 import org.cesecore.util.ValidityDate;
 import org.ejbca.core.ejb.crl.ImportCrlSessionLocal;
 import org.ejbca.core.model.services.BaseWorker;
@@ -51,6 +59,10 @@ import org.ejbca.core.model.services.ServiceExecutionResult.Result;
  * If the freshest CRL extension is present in a full CRL, the delta CRL will be downloaded and processed as well.
  * <p>
  * The worker can be configured to not respect the nextUpdate
+ * <p>
+ * The CRLs of the configured CAs and CRL partitions are downloaded concurrently by a bounded number of threads. Downloads use
+ * conditional GET requests, and a downloaded CRL is only parsed and imported if its CRL number is higher than that of the last
+ * known CRL.
  *
  * @version $Id$
  */
@@ -60,6 +72,11 @@ public class CRLDownloadWorker extends BaseWorker {
     public static final String PROP_IGNORE_NEXT_UPDATE = "ignoreNextUpdate";
     public static final String PROP_MAX_DOWNLOAD_SIZE = "maxDownloadSize";
     public static final int DEFAULT_MAX_DOWNLOAD_SIZE = 1 * 1024 * 1024;
+    public static final String PROP_MAX_CONCURRENT_DOWNLOADS = "maxConcurrentDownloads";
+    public static final int DEFAULT_MAX_CONCURRENT_DOWNLOADS = 4;
+
+    /** ETag and Last-Modified of the last imported CRL from each URL, used for conditional downloads */
+    private static final ConditionalCrlDownloader conditionalCrlDownloader = new ConditionalCrlDownloader();
 
     @Override
     public void canWorkerRun(Map<Class<?>, Object> ejbs) throws ServiceExecutionFailedException {
@@ -85,9 +102,8 @@ public class CRLDownloadWorker extends BaseWorker {
         if(caIdsToCheck.isEmpty()) {
             return new ServiceExecutionResult(Result.NO_ACTION, "CRL Download Worker " + serviceName + " ran, but has no CAs configured.");
         }
-        // Process all the configured CAs
-        List<String> failedCas = new ArrayList<>();
-        List<String> checkedCas = new ArrayList<>();
+        // Collect the CRLs of all the configured CAs, and then download them concurrently
+        final List<CrlDownloadTask> tasks = new ArrayList<>();
         for (final int caId : caIdsToCheck) {
             if (log.isTraceEnabled()) {
                 log.trace("Processing CA with Id " + caId);
@@ -106,30 +122,52 @@ public class CRLDownloadWorker extends BaseWorker {
                     log.info("Invalid HTTP URL '" + cdp + "' in external CDP configured for CA '" + caInfo.getName() + "'. Ignoring CA.");
                     continue;
                 }
-                final Date now = new Date();
+                tasks.add(new CrlDownloadTask(caInfo, caCertificate, url, CertificateConstants.NO_CRL_PARTITION));
                 IntRange crlPartitionIndexes = caInfo.getAllCrlPartitionIndexes();
-                try {
-                    getCrlAndUpdateIfNeeded(caInfo, caCertificate, url, CertificateConstants.NO_CRL_PARTITION, now, crlStoreSession,
-                            importCrlSession);
-                    checkedCas.add(caInfo.getName());
-                } catch (ServiceExecutionFailedException e) {
-                    failedCas.add(caInfo.getName());
-                }
                 if (crlPartitionIndexes != null) {
                     for (int i = crlPartitionIndexes.getMinimumInteger(); i <= crlPartitionIndexes.getMaximumInteger(); i++) {
                         final URL partitionUrl = NetworkTools.getValidHttpUrl(((X509CAInfo) caInfo).getCrlPartitionUrl(cdp, i));
-                        try {
-                            getCrlAndUpdateIfNeeded(caInfo, caCertificate, partitionUrl, i, now, crlStoreSession, importCrlSession);
-                        } catch (ServiceExecutionFailedException e) {
-                            failedCas.add(caInfo.getName());
+                        if (partitionUrl == null) {
+                            log.info("Invalid HTTP URL for CRL partition " + i + " of CA '" + caInfo.getName() + "'. Ignoring CRL partition.");
+                            continue;
                         }
+                        tasks.add(new CrlDownloadTask(caInfo, caCertificate, partitionUrl, i));
                     }
                 }
-               
             } else {
                 log.info("'" + (caInfo != null ? caInfo.getName() : caId) + "' is not an external X509 CA. Ignoring.");
             }
         }
+        final Set<String> failedCas = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        final Set<String> checkedCas = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        final Date now = new Date();
+        final List<Callable<Void>> callables = new ArrayList<>();
+        for (final CrlDownloadTask task : tasks) {
+            callables.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    try {
+                        getCrlAndUpdateIfNeeded(task.caInfo, task.caCertificate, task.url, task.crlPartitionIndex, now, crlStoreSession,
+                                importCrlSession);
+                        if (task.crlPartitionIndex == CertificateConstants.NO_CRL_PARTITION) {
+                            checkedCas.add(task.caInfo.getName());
+                        }
+                    } catch (ServiceExecutionFailedException e) {
+                        failedCas.add(task.caInfo.getName());
+                    } catch (RuntimeException e) {
+                        log.error("Unexpected error when downloading CRL for CA '" + task.caInfo.getName() + "' from " + task.url + ".", e);
+                        failedCas.add(task.caInfo.getName());
+                    }
+                    return null;
+                }
+            });
+        }
+        try {
+            ConditionalCrlDownloader.downloadConcurrently(callables, getMaxConcurrentDownloads());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.info("CRL Download Worker " + serviceName + " was interrupted before all CRLs were downloaded.");
+        }
         if (checkedCas.isEmpty()) {
             return new ServiceExecutionResult(Result.NO_ACTION, "CRL Download Worker " + serviceName + " ran, but has no external CAs exist.");
         } else {
@@ -138,7 +176,7 @@ public class CRLDownloadWorker extends BaseWorker {
             } else {
                 return new ServiceExecutionResult(Result.FAILURE,
                         "CRL Download Worker " + serviceName + " ran. All external CA's were checked for updated CRLs, but the following CA's CDPs were unreachable: "
-                                + constructNameList(failedCas));
+                                + constructNameList(new ArrayList<>(failedCas)));
             }
         }
     }
@@ -158,7 +196,7 @@ public class CRLDownloadWorker extends BaseWorker {
                 log.info("Next full CRL update for CA '" + caInfo.getName() + "' will be " + ValidityDate.formatAsISO8601(lastFullCrl.getNextUpdate(), null) + ". Skipping download.");
                 newestFullCrl = lastFullCrl;
             } else {
-                final X509CRL downloadedFullCrl = getAndProcessCrl(url, caCertificate, caInfo, importCrlSession, crlPartitionIndex);
+                final X509CRL downloadedFullCrl = getAndProcessCrl(url, caCertificate, caInfo, crlStoreSession, importCrlSession, crlPartitionIndex, false);
                 if (downloadedFullCrl == null) {
                     newestFullCrl = lastFullCrl;
                 } else {
@@ -177,18 +215,31 @@ public class CRLDownloadWorker extends BaseWorker {
                     if (!ignoreNextUpdate && lastDeltaCrl != null && now.before(lastDeltaCrl.getNextUpdate())) {
                         log.info("Next delta CRL update for CA '" + caInfo.getName() + "' will be " + ValidityDate.formatAsISO8601(lastDeltaCrl.getNextUpdate(), null) + ". Skipping download.");
                     } else {
-                        // Check for and process first delta CRL that can be reached over HTTP (if any)
+                        // Process the first newer delta CRL that can be reached over HTTP (if any), and try the next Freshest CDP
+                        // when a download fails or the delta CRL is not newer than the last known one
+                        ServiceExecutionFailedException lastFailure = null;
+                        boolean reached = false;
                         for (final String freshestCdp : freshestCdps) {
                             final URL freshestCdpUrl = NetworkTools.getValidHttpUrl(freshestCdp);
                             if (freshestCdpUrl == null) {
                                 log.info("Unusable Freshest CDP HTTP URL '" + freshestCdp + "' in CRL. Skipping download.");
                                 continue;
                             }
-                            final X509CRL newDeltaCrl = getAndProcessCrl(freshestCdpUrl, caCertificate, caInfo, importCrlSession, crlPartitionIndex);
-                            if (newDeltaCrl != null) {
-                                break;
+                            try {
+                                final X509CRL deltaCrl = getAndProcessCrl(freshestCdpUrl, caCertificate, caInfo, crlStoreSession, importCrlSession,
+                                        crlPartitionIndex, true);
+                                reached = true;
+                                if (deltaCrl != null) {
+                                    break;
+                                }
+                            } catch (ServiceExecutionFailedException e) {
+                                lastFailure = e;
                             }
                         }
+                        if (!reached && lastFailure != null) {
+                            // None of the Freshest CDPs could be reached
+                            throw lastFailure;
+                        }
                     }
                 }
             }
@@ -208,30 +259,76 @@ public class CRLDownloadWorker extends BaseWorker {
         return null;
     }
 
-    private X509CRL getAndProcessCrl(final URL cdpUrl, final X509Certificate caCertificate, final CAInfo caInfo,
-                                     final ImportCrlSessionLocal importCrlSession, final int crlPartitionIndex) throws CrlStoreException, CrlImportException, ServiceExecutionFailedException {
+    /**
+     * Download a CRL with a conditional GET request, and import it unless it was not modified or its CRL number is not higher than
+     * the CRL number of the last known CRL.
+     *
+     * @return the imported CRL, or null if no CRL was imported
+     * @throws ServiceExecutionFailedException if the CRL failed to download or could not be decoded
+     */
+    private X509CRL getAndProcessCrl(final URL cdpUrl, final X509Certificate caCertificate, final CAInfo caInfo, final CrlStoreSessionLocal crlStoreSession,
+            final ImportCrlSessionLocal importCrlSession, final int crlPartitionIndex, final boolean deltaCrl)
+            throws CrlStoreException, CrlImportException, ServiceExecutionFailedException {
         final int maxSize = Integer.parseInt(properties.getProperty(PROP_MAX_DOWNLOAD_SIZE, String.valueOf(DEFAULT_MAX_DOWNLOAD_SIZE)));
-        X509CRL newCrl = null;
-        final byte[] crlBytesNew = NetworkTools.downloadDataFromUrl(cdpUrl, maxSize);
-        if (crlBytesNew == null) {
-            String msg = "Unable to download CRL for " + CertTools.getSubjectDN(caCertificate) + "  with url: " + cdpUrl;
+        final String issuerDn = CertTools.getSubjectDN(caCertificate);
+        final int lastCrlNumber = crlStoreSession.getLastCRLNumber(issuerDn, crlPartitionIndex, deltaCrl);
+        // A conditional request is only sent if the last CRL downloaded from this URL is still the last known CRL in the database
+        final ConditionalDownload download = conditionalCrlDownloader.download(cdpUrl, maxSize, lastCrlNumber);
+        if (download == null) {
+            String msg = "Unable to download CRL for " + issuerDn + "  with url: " + cdpUrl;
             log.warn(msg);
             throw new ServiceExecutionFailedException(msg);
-        } else {
-            try {
-                newCrl = CertTools.getCRLfromByteArray(crlBytesNew);
-                importCrlSession.importCrl(admin, caInfo, crlBytesNew, crlPartitionIndex);
-            } catch (CRLException e) {
-                String msg = "Unable to decode downloaded CRL for '" + caInfo.getSubjectDN() + "'.";
-                log.warn(msg, e);
-                throw new ServiceExecutionFailedException(msg, e);
-            } catch (AuthorizationDeniedException e) {
-                log.error("Internal authentication token was deneied access to importing CRLs or revoking certificates.", e);
+        }
+        if (!download.isModified()) {
+            log.info("CRL for '" + caInfo.getName() + "' at " + cdpUrl + " has not been modified since the last download. Skipping import.");
+            return null;
+        }
+        final byte[] crlBytesNew = download.getData();
+        X509CRL newCrl = null;
+        try {
+            final BigInteger crlNumber = StreamingCrlEncoder.readCrlNumber(crlBytesNew);
+            if (crlNumber != null && lastCrlNumber > 0 && crlNumber.compareTo(BigInteger.valueOf(lastCrlNumber)) <= 0) {
+                log.info("Downloaded CRL for '" + caInfo.getName() + "' has CRL number " + crlNumber + ", which is not higher than the last known CRL number "
+                        + lastCrlNumber + ". Skipping import.");
+                conditionalCrlDownloader.setDownloaded(cdpUrl, download, lastCrlNumber);
                 return null;
             }
+            newCrl = CertTools.getCRLfromByteArray(crlBytesNew);
+            importCrlSession.importCrl(admin, caInfo, crlBytesNew, crlPartitionIndex);
+            conditionalCrlDownloader.setDownloaded(cdpUrl, download, crlStoreSession.getLastCRLNumber(issuerDn, crlPartitionIndex, deltaCrl));
+        } catch (IOException | CRLException e) {
+            String msg = "Unable to decode downloaded CRL for '" + caInfo.getSubjectDN() + "'.";
+            log.warn(msg, e);
+            throw new ServiceExecutionFailedException(msg, e);
+        } catch (AuthorizationDeniedException e) {
+            log.error("Internal authentication token was deneied access to importing CRLs or revoking certificates.", e);
+            return null;
         }
         return newCrl;
     }
 
+    private int getMaxConcurrentDownloads() {
+        try {
+            return Math.max(1, Integer.parseInt(properties.getProperty(PROP_MAX_CONCURRENT_DOWNLOADS, String.valueOf(DEFAULT_MAX_CONCURRENT_DOWNLOADS))));
+        } catch (NumberFormatException e) {
+            log.info("Invalid value for " + PROP_MAX_CONCURRENT_DOWNLOADS + " in CRL Download Worker " + serviceName + ". Using the default "
+                    + DEFAULT_MAX_CONCURRENT_DOWNLOADS + ".");
+            return DEFAULT_MAX_CONCURRENT_DOWNLOADS;
+        }
+    }
 
+    /** The CRL of a CA, or of one of its CRL partitions, to download */
+    private static class CrlDownloadTask {
+        private final CAInfo caInfo;
+        private final X509Certificate caCertificate;
+        private final URL url;
+        private final int crlPartitionIndex;
+
+        private CrlDownloadTask(final CAInfo caInfo, final X509Certificate caCertificate, final URL url, final int crlPartitionIndex) {
+            this.caInfo = caInfo;
+            this.caCertificate = caCertificate;
+            this.url = url;
+            this.crlPartitionIndex = crlPartitionIndex;
+        }
+    }
 }
@@ -0,0 +1,107 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.model.services.workers;
+
+import java.net.URL;
+import java.util.Collection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.cesecore.util.NetworkTools;
+import org.cesecore.util.NetworkTools.ConditionalDownload;
+
+/**
+ * Downloads CRLs with conditional GET requests for the {@link CRLDownloadWorker}.
+ * <p>
+ * The ETag and Last-Modified sent by the server with the last CRL imported from each URL are kept together with the CRL number that
+ * was stored for it. A conditional request is only sent while that CRL number is still the last known one, so a CRL that was
+ * deleted or replaced in the database is downloaded again.
+ *
+ * @version $Id$
+ */
+final class ConditionalCrlDownloader {
+
+    private final ConcurrentMap<String, DownloadState> downloadStates = new ConcurrentHashMap<>();
+
+    /**
+     * Download the CRL at the URL, unless it has not been modified since it was last imported.
+     *
+     * @param url the URL of the CRL
+     * @param maxSize the maximum allowed size of the CRL in bytes
+     * @param lastCrlNumber the CRL number of the last known CRL in the database
+     * @return the result of the download, or null if the download failed
+     */
+    ConditionalDownload download(final URL url, final int maxSize, final int lastCrlNumber) {
+        final DownloadState lastDownload = getConditionalState(url, lastCrlNumber);
+        return NetworkTools.downloadDataFromUrlIfModified(url, maxSize, lastDownload == null ? null : lastDownload.eTag,
+                lastDownload == null ? 0 : lastDownload.lastModified);
+    }
+
+    /**
+     * Remember what the server sent with a CRL, so that the next download from the URL can be conditional.
+     *
+     * @param url the URL the CRL was downloaded from
+     * @param download the download of the CRL
+     * @param crlNumber the CRL number of the last known CRL in the database after the CRL was handled
+     */
+    void setDownloaded(final URL url, final ConditionalDownload download, final int crlNumber) {
+        downloadStates.put(url.toString(), new DownloadState(download.getETag(), download.getLastModified(), crlNumber));
+    }
+
+    /** @return true if the next download from the URL will be a conditional request */
+    boolean isConditional(final URL url, final int lastCrlNumber) {
+        return getConditionalState(url, lastCrlNumber) != null;
+    }
+
+    private DownloadState getConditionalState(final URL url, final int lastCrlNumber) {
+        final DownloadState lastDownload = downloadStates.get(url.toString());
+        return lastDownload != null && lastDownload.crlNumber == lastCrlNumber ? lastDownload : null;
+    }
+
+    /**
+     * Run the downloads on a thread pool of at most the given size, and wait for all of them to complete.
+     *
+     * @param downloads the downloads to run
+     * @param maxConcurrentDownloads the maximum number of downloads running at the same time
+     * @throws InterruptedException if interrupted while waiting, in which case the downloads still running are interrupted
+     */
+    static void downloadConcurrently(final Collection<? extends Callable<Void>> downloads, final int maxConcurrentDownloads)
+            throws InterruptedException {
+        final int threads = Math.min(Math.max(1, maxConcurrentDownloads), downloads.size());
+        if (threads == 0) {
+            return;
+        }
+        final ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        try {
+            executorService.invokeAll(downloads);
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    /** What the server sent with the last CRL imported from a URL, and the CRL number that was stored for it */
+    private static class DownloadState {
+        private final String eTag;
+        private final long lastModified;
+        private final int crlNumber;
+
+        private DownloadState(final String eTag, final long lastModified, final int crlNumber) {
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+            this.crlNumber = crlNumber;
+        }
+    }
+}
@@ -0,0 +1,195 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.ui.web.protocol;
+
+import java.io.IOException;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+
+/**
+ * Writes static content, such as a CRL, with support for conditional requests (RFC 7232) and single byte range requests (RFC 7233).
+ * <p>
+ * Clients that already have the current content get a 304 response without body when they send If-None-Match with its entity tag, or
+ * If-Modified-Since with its modification time. Clients resuming an interrupted download get a 206 response with the requested range.
+ * Requests for multiple ranges are answered with the whole content, which RFC 7233 allows.
+ *
+ * @version $Id$
+ */
+public final class ConditionalResponseWriter {
+
+    private static final Logger log = Logger.getLogger(ConditionalResponseWriter.class);
+
+    private ConditionalResponseWriter() {}
+
+    /**
+     * Writes the content, or a 304 or 416 response, depending on the conditional and range headers of the request. The content type and
+     * any other headers should be set before calling this method.
+     *
+     * @param request the request
+     * @param response the response
+     * @param content the content to send
+     * @param eTag quoted strong entity tag of the content, or null if not known
+     * @param lastModified modification time of the content in milliseconds since epoch, or -1 if not known
+     * @throws IOException if the response could not be written
+     */
+    public static void write(final HttpServletRequest request, final HttpServletResponse response, final byte[] content, final String eTag,
+            final long lastModified) throws IOException {
+        response.setHeader("Accept-Ranges", "bytes");
+        if (eTag != null) {
+            response.setHeader("ETag", eTag);
+        }
+        if (lastModified >= 0) {
+            response.setDateHeader("Last-Modified", lastModified);
+        }
+        if (isNotModified(request.getHeader("If-None-Match"), getDateHeader(request, "If-Modified-Since"), eTag, lastModified)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+        final String range = request.getHeader("Range");
+        if (range != null && isRangeApplicable(request.getHeader("If-Range"), getDateHeader(request, "If-Range"), eTag, lastModified)) {
+            final long[] byteRange = parseRange(range, content.length);
+            if (byteRange == null) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Unsatisfiable range '" + range + "' requested for content of " + content.length + " bytes.");
+                }
+                response.setHeader("Content-Range", "bytes */" + content.length);
+                response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                return;
+            }
+            if (byteRange.length == 2) {
+                final int first = (int) byteRange[0];
+                final int length = (int) (byteRange[1] - byteRange[0] + 1);
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setHeader("Content-Range", "bytes " + byteRange[0] + "-" + byteRange[1] + "/" + content.length);
+                response.setContentLength(length);
+                response.getOutputStream().write(content, first, length);
+                return;
+            }
+        }
+        response.setContentLength(content.length);
+        response.getOutputStream().write(content);
+    }
+
+    /**
+     * Evaluates If-None-Match and If-Modified-Since as specified in RFC 7232 section 6. If-Modified-Since is ignored when If-None-Match
+     * is present.
+     *
+     * @param ifNoneMatch the If-None-Match header, or null
+     * @param ifModifiedSince the If-Modified-Since header in milliseconds since epoch, or -1 if not present or invalid
+     * @param eTag quoted entity tag of the content, or null if not known
+     * @param lastModified modification time of the content in milliseconds since epoch, or -1 if not known
+     * @return true if the client already has the current content
+     */
+    static boolean isNotModified(final String ifNoneMatch, final long ifModifiedSince, final String eTag, final long lastModified) {
+        if (ifNoneMatch != null) {
+            if (eTag == null) {
+                return false;
+            }
+            for (final String tag : StringUtils.split(ifNoneMatch, ',')) {
+                final String trimmed = tag.trim();
+                // Weak comparison, as required for If-None-Match
+                if ("*".equals(trimmed) || StringUtils.removeStart(trimmed, "W/").equals(eTag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        // HTTP dates have a resolution of seconds
+        return ifModifiedSince >= 0 && lastModified >= 0 && lastModified / 1000 <= ifModifiedSince / 1000;
+    }
+
+    /**
+     * Evaluates If-Range as specified in RFC 7233 section 3.2.
+     *
+     * @param ifRange the If-Range header, or null
+     * @param ifRangeDate the If-Range header in milliseconds since epoch, or -1 if it is not a valid date
+     * @param eTag quoted entity tag of the content, or null if not known
+     * @param lastModified modification time of the content in milliseconds since epoch, or -1 if not known
+     * @return true if the range should be sent, i.e. if there is no If-Range or it matches the current content
+     */
+    static boolean isRangeApplicable(final String ifRange, final long ifRangeDate, final String eTag, final long lastModified) {
+        if (ifRange == null) {
+            return true;
+        }
+        final String trimmed = ifRange.trim();
+        if (trimmed.startsWith("\"") || trimmed.startsWith("W/")) {
+            // Strong comparison, so a weak entity tag never matches
+            return eTag != null && trimmed.equals(eTag);
+        }
+        return ifRangeDate >= 0 && lastModified >= 0 && lastModified / 1000 == ifRangeDate / 1000;
+    }
+
+    /**
+     * Parses a Range header with a single byte range.
+     *
+     * @param range the Range header, e.g. "bytes=0-499", "bytes=500-" or "bytes=-500"
+     * @param length the length of the content
+     * @return the first and last byte position of the range, an empty array if the header should be ignored and the whole content sent,
+     *      or null if the range cannot be satisfied
+     */
+    static long[] parseRange(final String range, final int length) {
+        final String trimmed = range.trim();
+        if (!trimmed.startsWith("bytes=")) {
+            return new long[0];
+        }
+        final String spec = trimmed.substring("bytes=".length()).trim();
+        if (spec.indexOf(',') >= 0) {
+            // Multiple ranges would require a multipart/byteranges response
+            return new long[0];
+        }
+        final int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return new long[0];
+        }
+        final String firstPart = spec.substring(0, dash).trim();
+        final String lastPart = spec.substring(dash + 1).trim();
+        if ((!firstPart.isEmpty() && !StringUtils.isNumeric(firstPart)) || !StringUtils.isNumeric(lastPart) || (firstPart.isEmpty() && lastPart.isEmpty())) {
+            return new long[0];
+        }
+        try {
+            if (firstPart.isEmpty()) {
+                // Suffix range, the last N bytes
+                final long suffixLength = Long.parseLong(lastPart);
+                if (suffixLength == 0 || length == 0) {
+                    return null;
+                }
+                return new long[] { Math.max(0, length - suffixLength), length - 1 };
+            }
+            final long first = Long.parseLong(firstPart);
+            if (first >= length) {
+                return null;
+            }
+            final long last = lastPart.isEmpty() ? length - 1 : Math.min(Long.parseLong(lastPart), length - 1);
+            if (last < first) {
+                return new long[0];
+            }
+            return new long[] { first, last };
+        } catch (NumberFormatException e) {
+            // Too large to be a position in the content
+            return new long[0];
+        }
+    }
+
+    private static long getDateHeader(final HttpServletRequest request, final String name) {
+        try {
+            return request.getDateHeader(name);
+        } catch (IllegalArgumentException e) {
+            // Invalid dates are ignored, as required by RFC 7232
+            return -1;
+        }
+    }
+}
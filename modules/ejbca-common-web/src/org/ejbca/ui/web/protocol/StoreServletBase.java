@@ -217,10 +217,14 @@ public abstract class StoreServletBase extends HttpServlet {
             throw new IllegalStateException("Could not send error response", e);
         }
 		log.info("Reloading certificate and CRL caches due to request from "+req.getRemoteAddr());
-		// Reload CA certificates
-		certificateStoreSession.reloadCaCertificateCache();
+		reloadCaches();
 		return true;
 	}
+
+	/** Reloads the CA certificate cache. Servlets with caches of their own should override this to reload them as well. */
+	protected void reloadCaches() {
+		certificateStoreSession.reloadCaCertificateCache();
+	}
 	
 	/**
 	 * Checks if the request originates from localhost
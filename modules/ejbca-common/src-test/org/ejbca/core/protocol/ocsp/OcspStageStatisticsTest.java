@@ -0,0 +1,69 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.protocol.ocsp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.ejbca.util.LatencyHistogram;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests recording and exporting of {@link OcspStageStatistics}.
+ *
+ * @version $Id$
+ */
+public class OcspStageStatisticsTest {
+
+    @After
+    public void tearDown() {
+        OcspStageStatistics.INSTANCE.clear();
+    }
+
+    @Test
+    public void testDisabledTimerRecordsNothing() {
+        final OcspStageStatistics.Timer timer = OcspStageStatistics.DISABLED_TIMER;
+        timer.mark();
+        timer.lap(OcspStageStatistics.Stage.PARSE);
+        timer.finish();
+        assertTrue(OcspStageStatistics.INSTANCE.getHistograms().isEmpty());
+    }
+
+    @Test
+    public void testRecordedStagesAreExported() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            final OcspStageStatistics.Timer timer = new OcspStageStatistics.Timer(OcspStageStatistics.INSTANCE);
+            Thread.sleep(2);
+            timer.lap(OcspStageStatistics.Stage.PARSE);
+            timer.mark();
+            Thread.sleep(1);
+            timer.lap(OcspStageStatistics.Stage.SIGNING);
+            timer.finish();
+        }
+        final LatencyHistogram[] histograms = OcspStageStatistics.INSTANCE.getHistograms().get(OcspStageStatistics.NO_RESPONDER);
+        assertEquals(3, histograms[OcspStageStatistics.Stage.PARSE.ordinal()].getCount());
+        assertEquals(3, histograms[OcspStageStatistics.Stage.SIGNING.ordinal()].getCount());
+        assertEquals(3, histograms[OcspStageStatistics.Stage.TOTAL.ordinal()].getCount());
+        assertEquals("Stages that were not measured should not be recorded.", 0, histograms[OcspStageStatistics.Stage.EXTENSIONS.ordinal()].getCount());
+        assertTrue(histograms[OcspStageStatistics.Stage.PARSE.ordinal()].getMin() >= 2000);
+        final StringBuilder sb = new StringBuilder();
+        OcspStageStatistics.INSTANCE.writeMetrics(sb);
+        final String metrics = sb.toString();
+        assertTrue(metrics, metrics.contains("# TYPE " + OcspStageStatistics.METRIC_NAME + " summary\n"));
+        assertTrue(metrics, metrics.contains(OcspStageStatistics.METRIC_NAME + "{responder=\"none\",stage=\"parse\",quantile=\"0.999\"} 0.00"));
+        assertTrue(metrics, metrics.contains(OcspStageStatistics.METRIC_NAME + "_count{responder=\"none\",stage=\"total\"} 3\n"));
+        assertFalse(metrics, metrics.contains("stage=\"extensions\""));
+    }
+}
@@ -0,0 +1,81 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests the percentiles reported by {@link LatencyHistogram}.
+ *
+ * @version $Id$
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void testEmptyHistogram() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMin());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getValueAtPercentile(99), 0);
+    }
+
+    @Test
+    public void testSmallValuesAreExact() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+        assertEquals(100, histogram.getCount());
+        assertEquals(1, histogram.getMin());
+        assertEquals(100, histogram.getMax());
+        assertEquals(50, histogram.getValueAtPercentile(50));
+        assertEquals(99, histogram.getValueAtPercentile(99));
+        assertEquals(100, histogram.getValueAtPercentile(100));
+        assertEquals(50.5, histogram.getMean(), 0.001);
+    }
+
+    @Test
+    public void testRelativeErrorOfLargeValues() {
+        for (long value = 200; value < LatencyHistogram.HIGHEST_TRACKABLE_VALUE; value = value * 3 + 7) {
+            final int index = LatencyHistogram.getIndex(value);
+            final long highest = LatencyHistogram.getHighestEquivalentValue(index);
+            assertTrue("Value " + value + " is above its bucket.", value <= highest);
+            assertTrue("Bucket of value " + value + " is too wide.", highest - value <= value / 100);
+            assertEquals("Next value should be in the next bucket.", index + 1, LatencyHistogram.getIndex(highest + 1));
+        }
+    }
+
+    @Test
+    public void testTailPercentilesAndAdd() {
+        final LatencyHistogram fast = new LatencyHistogram();
+        for (int i = 0; i < 9990; i++) {
+            fast.record(1000);
+        }
+        final LatencyHistogram slow = new LatencyHistogram();
+        for (int i = 0; i < 10; i++) {
+            slow.record(2000000);
+        }
+        fast.add(slow);
+        assertEquals(10000, fast.getCount());
+        assertEquals(1000, fast.getValueAtPercentile(99.9), 10);
+        assertEquals(2000000, fast.getValueAtPercentile(99.95), 20000);
+        assertEquals(2000000, fast.getMax());
+        fast.reset();
+        assertEquals(0, fast.getCount());
+        assertEquals(0, fast.getMax());
+    }
+}
@@ -288,6 +288,46 @@ public final class EjbcaConfiguration {
         return getBooleanProperty("publish.parallel.enabled", true);
     }
 
+    /** @return the maximum number of CRLs for different CAs and CRL partitions to generate at the same time. */
+    public static int getCrlGenerationThreads() {
+        return Math.max(1, getIntProperty("crlgeneration.threads", 1));
+    }
+
+    /** @return the maximum number of CRLs to generate at the same time with keys in the same crypto token. */
+    public static int getCrlGenerationThreadsPerCryptoToken() {
+        return Math.max(1, getIntProperty("crlgeneration.threadspercryptotoken", 1));
+    }
+
+    /** @return true if base and delta CRLs should be created from the certificates whose status changed since the last base CRL. */
+    public static boolean isCrlGenerationIncremental() {
+        return getBooleanProperty("crlgeneration.incremental", false);
+    }
+
+    /** @return the maximum time in milliseconds that incrementally created CRLs are based on the same full read of revoked certificates. */
+    public static long getCrlGenerationIncrementalMaxAge() {
+        return Math.max(0L, getLongProperty("crlgeneration.incremental.maxage", 86400000L));
+    }
+
+    /** @return the number of new CRL entries to process in each transaction when importing a CRL. */
+    public static int getCrlImportBatchSize() {
+        return Math.max(1, getIntProperty("crlimport.batchsize", 1000));
+    }
+
+    /** @return how often in milliseconds the CRL store checks if a newer CRL than the cached one has been stored. */
+    public static long getCrlStoreCacheTime() {
+        return Math.max(0L, getLongProperty("crlstore.cachetime", 1000L));
+    }
+
+    /** @return the maximum total size in bytes of the CRLs cached by the CRL store. */
+    public static long getCrlStoreCacheMaxSize() {
+        return Math.max(0L, getLongProperty("crlstore.cachemaxsize", 134217728L));
+    }
+
+    /** @return the maximum number of CRLs cached by the CRL store. */
+    public static int getCrlStoreCacheMaxEntries() {
+        return Math.max(1, getIntProperty("crlstore.cachemaxentries", 1000));
+    }
+
     /** @return true if TCP keep alive should be used for outgoing peer connections. */
     @Deprecated // EJBCA 6.3.0 safety for the new PeerConnector feature. Remove when default is considered stable.
     public static boolean isPeerSoKeepAlive() {
@@ -0,0 +1,216 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.protocol.ocsp;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.cesecore.certificates.ocsp.cache.OcspSigningCacheEntry;
+import org.cesecore.config.OcspConfiguration;
+import org.ejbca.util.LatencyHistogram;
+
+/**
+ * Latency histograms for each stage of answering an OCSP request, kept per OCSP key binding or CA signing the responses.
+ * <p>
+ * Statistics are only recorded when enabled with ocsp.stagestatistics.enabled. When disabled, {@link #startTimer()} returns a shared
+ * timer that ignores all calls, so that the instrumented code does not allocate anything or read the clock.
+ *
+ * @version $Id$
+ */
+public enum OcspStageStatistics {
+    INSTANCE;
+
+    /** The stages of answering an OCSP request. */
+    public enum Stage {
+        /** Decoding the request and verifying its signature */
+        PARSE("parse"),
+        /** Finding the OCSP signing cache entry and any pre-produced response */
+        SIGNING_CACHE_LOOKUP("signingcachelookup"),
+        /** Looking up the status of the certificates */
+        STATUS_LOOKUP("statuslookup"),
+        /** Processing request and response extensions */
+        EXTENSIONS("extensions"),
+        /** Signing the response, including waiting for the signing key */
+        SIGNING("signing"),
+        /** Building and encoding the response */
+        ENCODING("encoding"),
+        /** The whole request */
+        TOTAL("total");
+
+        private final String label;
+
+        private Stage(final String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    /** Label used for requests that were not answered by any OCSP key binding or CA */
+    public static final String NO_RESPONDER = "none";
+    static final String METRIC_NAME = "ejbca_ocsp_stage_latency_seconds";
+    private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+    private static final String[] QUANTILE_LABELS = { "0.5", "0.9", "0.99", "0.999" };
+    /** Timer that ignores all calls, for requests that should not be included in the statistics */
+    public static final Timer DISABLED_TIMER = new Timer(null);
+
+    private final boolean enabled;
+    private final ConcurrentMap<String, LatencyHistogram[]> histograms = new ConcurrentHashMap<>();
+
+    private OcspStageStatistics() {
+        enabled = OcspConfiguration.isStageStatisticsEnabled();
+    }
+
+    /** @return true if statistics are recorded */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /** @return a timer for a new request, which does nothing if statistics are disabled */
+    public Timer startTimer() {
+        return enabled ? new Timer(this) : DISABLED_TIMER;
+    }
+
+    /** Forget all recorded statistics. */
+    public void clear() {
+        histograms.clear();
+    }
+
+    /** @return the histograms of each responder, indexed by {@link Stage#ordinal()}, sorted by responder */
+    public Map<String, LatencyHistogram[]> getHistograms() {
+        return new TreeMap<>(histograms);
+    }
+
+    /**
+     * Write the recorded statistics in the Prometheus text exposition format, as a summary with the latencies in seconds.
+     *
+     * @param sb the builder to append the statistics to
+     */
+    public void writeMetrics(final StringBuilder sb) {
+        sb.append("# HELP ").append(METRIC_NAME).append(" Time spent in each stage of answering OCSP requests.\n");
+        sb.append("# TYPE ").append(METRIC_NAME).append(" summary\n");
+        for (final Map.Entry<String, LatencyHistogram[]> entry : getHistograms().entrySet()) {
+            for (final Stage stage : Stage.values()) {
+                final LatencyHistogram histogram = entry.getValue()[stage.ordinal()];
+                if (histogram.getCount() == 0) {
+                    continue;
+                }
+                final String labels = "responder=\"" + escapeLabelValue(entry.getKey()) + "\",stage=\"" + stage.getLabel() + "\"";
+                for (int i = 0; i < PERCENTILES.length; i++) {
+                    sb.append(METRIC_NAME).append('{').append(labels).append(",quantile=\"").append(QUANTILE_LABELS[i]).append("\"} ")
+                            .append(toSeconds(histogram.getValueAtPercentile(PERCENTILES[i]))).append('\n');
+                }
+                sb.append(METRIC_NAME).append("_sum{").append(labels).append("} ")
+                        .append(histogram.getMean() * histogram.getCount() / 1000000.0).append('\n');
+                sb.append(METRIC_NAME).append("_count{").append(labels).append("} ").append(histogram.getCount()).append('\n');
+            }
+        }
+    }
+
+    private void record(final String responder, final long[] stageNanos) {
+        LatencyHistogram[] stageHistograms = histograms.get(responder);
+        if (stageHistograms == null) {
+            final LatencyHistogram[] created = new LatencyHistogram[Stage.values().length];
+            for (int i = 0; i < created.length; i++) {
+                created[i] = new LatencyHistogram();
+            }
+            final LatencyHistogram[] existing = histograms.putIfAbsent(responder, created);
+            stageHistograms = existing == null ? created : existing;
+        }
+        for (int i = 0; i < stageNanos.length; i++) {
+            if (stageNanos[i] > 0) {
+                stageHistograms[i].record(stageNanos[i] / 1000);
+            }
+        }
+    }
+
+    private static String toSeconds(final long microseconds) {
+        return String.valueOf(microseconds / 1000000.0);
+    }
+
+    /** @return the value escaped for use as a label value in the Prometheus text format */
+    public static String escapeLabelValue(final String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /**
+     * Measures the stages of one OCSP request. Not thread safe, a timer is used by the thread answering the request only.
+     */
+    public static final class Timer {
+        private final OcspStageStatistics statistics;
+        private final long[] stageNanos;
+        private final long startTime;
+        private long markTime;
+        private OcspSigningCacheEntry responder;
+
+        Timer(final OcspStageStatistics statistics) {
+            this.statistics = statistics;
+            if (statistics == null) {
+                stageNanos = null;
+                startTime = 0;
+            } else {
+                stageNanos = new long[Stage.values().length];
+                startTime = System.nanoTime();
+                markTime = startTime;
+            }
+        }
+
+        /** Start measuring a stage. */
+        public void mark() {
+            if (stageNanos != null) {
+                markTime = System.nanoTime();
+            }
+        }
+
+        /** Add the time since the last call to {@link #mark()} or this method to a stage, and start measuring the next stage. */
+        public void lap(final Stage stage) {
+            if (stageNanos != null) {
+                final long now = System.nanoTime();
+                stageNanos[stage.ordinal()] += now - markTime;
+                markTime = now;
+            }
+        }
+
+        /** Set the signing cache entry whose OCSP key binding or CA answers the request. */
+        public void setResponder(final OcspSigningCacheEntry responder) {
+            if (stageNanos != null) {
+                this.responder = responder;
+            }
+        }
+
+        /** Record the measured stages and the total time of the request. */
+        public void finish() {
+            if (stageNanos != null) {
+                stageNanos[Stage.TOTAL.ordinal()] = System.nanoTime() - startTime;
+                statistics.record(getResponderLabel(), stageNanos);
+            }
+        }
+
+        private String getResponderLabel() {
+            if (responder == null) {
+                return NO_RESPONDER;
+            }
+            if (responder.getOcspKeyBinding() != null) {
+                return responder.getOcspKeyBinding().getName();
+            }
+            if (responder.getSigningCertificate() != null) {
+                return responder.getSigningCertificate().getSubjectX500Principal().getName();
+            }
+            return NO_RESPONDER;
+        }
+    }
+}
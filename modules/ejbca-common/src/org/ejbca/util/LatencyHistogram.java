@@ -0,0 +1,156 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread safe latency histogram with a bounded relative error, in the style of HdrHistogram.
+ * <p>
+ * Values below 256 are counted exactly. Larger values are counted in buckets covering a power of two each, split into 128 linear
+ * sub-buckets, so any recorded value is reported with an error of less than 1%. Recording is lock free and the memory footprint
+ * is fixed, so histograms can be kept per operation and per stage without affecting what is measured.
+ *
+ * @version $Id$
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 8;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT / 2;
+    /** Values larger than this (about 19 hours in microseconds) are counted as this value. */
+    public static final long HIGHEST_TRACKABLE_VALUE = (1L << 36) - 1;
+    private static final int BUCKET_COUNT = getIndex(HIGHEST_TRACKABLE_VALUE) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong totalCount = new AtomicLong();
+    private final AtomicLong totalValue = new AtomicLong();
+    private final AtomicLong minValue = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong maxValue = new AtomicLong(0);
+
+    /** Record a value, e.g. a latency in microseconds. Negative values are recorded as 0. */
+    public void record(final long value) {
+        final long clamped = Math.min(Math.max(value, 0L), HIGHEST_TRACKABLE_VALUE);
+        counts.incrementAndGet(getIndex(clamped));
+        totalCount.incrementAndGet();
+        totalValue.addAndGet(clamped);
+        long current;
+        while (clamped < (current = minValue.get()) && !minValue.compareAndSet(current, clamped)) {
+            // Retry
+        }
+        while (clamped > (current = maxValue.get()) && !maxValue.compareAndSet(current, clamped)) {
+            // Retry
+        }
+    }
+
+    /** Add all values recorded by another histogram to this one. */
+    public void add(final LatencyHistogram other) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            final long count = other.counts.get(i);
+            if (count != 0) {
+                counts.addAndGet(i, count);
+            }
+        }
+        totalCount.addAndGet(other.totalCount.get());
+        totalValue.addAndGet(other.totalValue.get());
+        long current;
+        final long otherMin = other.minValue.get();
+        while (otherMin < (current = minValue.get()) && !minValue.compareAndSet(current, otherMin)) {
+            // Retry
+        }
+        final long otherMax = other.maxValue.get();
+        while (otherMax > (current = maxValue.get()) && !maxValue.compareAndSet(current, otherMax)) {
+            // Retry
+        }
+    }
+
+    /** Forget all recorded values. Values recorded concurrently with a reset may be partially lost. */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts.set(i, 0);
+        }
+        totalCount.set(0);
+        totalValue.set(0);
+        minValue.set(Long.MAX_VALUE);
+        maxValue.set(0);
+    }
+
+    /** @return the number of recorded values */
+    public long getCount() {
+        return totalCount.get();
+    }
+
+    /** @return the smallest recorded value, or 0 if nothing has been recorded */
+    public long getMin() {
+        final long min = minValue.get();
+        return min == Long.MAX_VALUE ? 0 : min;
+    }
+
+    /** @return the largest recorded value, or 0 if nothing has been recorded */
+    public long getMax() {
+        return maxValue.get();
+    }
+
+    /** @return the mean of the recorded values, or 0 if nothing has been recorded */
+    public double getMean() {
+        final long count = totalCount.get();
+        return count == 0 ? 0 : (double) totalValue.get() / count;
+    }
+
+    /**
+     * @param percentile a percentile between 0 and 100, e.g. 99.9
+     * @return the value that the specified percentage of all recorded values are less than or equal to, or 0 if nothing has been recorded
+     */
+    public long getValueAtPercentile(final double percentile) {
+        final long[] snapshot = new long[BUCKET_COUNT];
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            snapshot[i] = counts.get(i);
+            count += snapshot[i];
+        }
+        if (count == 0) {
+            return 0;
+        }
+        // Tolerate rounding errors, e.g. 99.9 / 100 * 10000 is slightly above 9990
+        final double exactRank = Math.min(100.0, Math.max(0.0, percentile)) * count / 100.0;
+        final long rank = Math.max(1L, (long) Math.ceil(exactRank - 1e-9));
+        long cumulative = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            cumulative += snapshot[i];
+            if (cumulative >= rank) {
+                return Math.min(getHighestEquivalentValue(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    static int getIndex(final long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        // Shift the value so that it falls in the upper half of the sub-buckets
+        final int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+        return SUB_BUCKET_COUNT + (shift - 1) * SUB_BUCKET_HALF + (int) (value >>> shift) - SUB_BUCKET_HALF;
+    }
+
+    /** @return the largest value that is counted in the same bucket as the value with the specified index */
+    static long getHighestEquivalentValue(final int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        final int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF + 1;
+        final long subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_HALF + SUB_BUCKET_HALF;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
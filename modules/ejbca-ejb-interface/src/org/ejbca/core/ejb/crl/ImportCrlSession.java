@@ -24,6 +24,9 @@ public interface ImportCrlSession {
 
     /**
      * Method used to import a CRL to the database if it is newer than any CRL it already has
+     * <p>
+     * The entries that are not on the previously imported CRL are processed in batches, each in its own transaction. The CRL itself is
+     * stored last, so if the import fails, the next import of a CRL from the CA processes the remaining entries again.
      * 
      * @param authenticationToken The administrator performing the operation
      * @param cainfo of the CA that issued the CRL
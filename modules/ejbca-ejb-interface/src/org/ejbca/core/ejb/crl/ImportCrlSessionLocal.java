@@ -12,9 +12,31 @@
  *************************************************************************/
 package org.ejbca.core.ejb.crl;
 
+import java.security.cert.X509CRLEntry;
+import java.util.List;
+
 import javax.ejb.Local;
 
+import org.cesecore.authentication.tokens.AuthenticationToken;
+import org.cesecore.authorization.AuthorizationDeniedException;
+import org.cesecore.certificates.ca.CAInfo;
+import org.cesecore.certificates.crl.CrlImportException;
+
 @Local
 public interface ImportCrlSessionLocal extends ImportCrlSession {
 
+    /**
+     * Updates the database with the status of a batch of entries from an imported CRL, in a new transaction. Used by
+     * {@link #importCrl(AuthenticationToken, CAInfo, byte[], int)}.
+     *
+     * @param authenticationToken The administrator performing the operation
+     * @param cainfo of the CA that issued the CRL
+     * @param issuerDn the subject DN of the CA certificate
+     * @param caFingerprint the fingerprint of the CA certificate
+     * @param crlEntries the entries to import
+     * @throws CrlImportException If a certificate could not be revoked
+     * @throws AuthorizationDeniedException If the administrator is not authorized to perform the required operations
+     */
+    void importCrlEntries(AuthenticationToken authenticationToken, CAInfo cainfo, String issuerDn, String caFingerprint, List<X509CRLEntry> crlEntries)
+            throws CrlImportException, AuthorizationDeniedException;
 }
@@ -13,6 +13,7 @@
 package org.ejbca.core.ejb.crl;
 
 import java.util.Collection;
+import java.util.Date;
 import java.util.Set;
 
 import javax.ejb.Local;
@@ -81,6 +82,20 @@ public interface PublishingCrlSessionLocal extends PublishingCrlSession {
      */
     boolean createDeltaCrlConditioned(AuthenticationToken admin, int caid, long crloverlaptime) throws CryptoTokenOfflineException, CAOfflineException, CADoesntExistsException, AuthorizationDeniedException;
 
+    /**
+     * Internal method, do not use. Needs to be here for transaction management.
+     * Creates the CRL for a CRL partition if it needs to be updated. The CA is assumed to be active.
+     */
+    boolean internalCreateCrlConditioned(AuthenticationToken admin, int caId, int crlPartitionIndex, Date now, long addToCrlOverlapTime)
+            throws CryptoTokenOfflineException, CAOfflineException, CADoesntExistsException, AuthorizationDeniedException;
+
+    /**
+     * Internal method, do not use. Needs to be here for transaction management.
+     * Creates the delta CRL for a CRL partition if it needs to be updated. The CA is assumed to be active.
+     */
+    boolean internalCreateDeltaCrlConditioned(AuthenticationToken admin, int caId, int crlPartitionIndex, Date now, long addToCrlOverlapTime)
+            throws CryptoTokenOfflineException, CAOfflineException, CADoesntExistsException, AuthorizationDeniedException;
+
     /** Internal method, do not use. Needs to be here for transaction management. */
     String internalCreateCRL(AuthenticationToken admin, CA ca, int crlPartitionIndex, CRLInfo lastBaseCrlInfo)
             throws CAOfflineException, CryptoTokenOfflineException, AuthorizationDeniedException;
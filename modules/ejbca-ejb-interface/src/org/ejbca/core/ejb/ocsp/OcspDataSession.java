@@ -12,7 +12,9 @@
  *************************************************************************/
 package org.ejbca.core.ejb.ocsp;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 import org.cesecore.oscp.OcspResponseData;
 
@@ -70,4 +72,13 @@ public interface OcspDataSession {
      * @return Serial numbers of the expired responses.
      */
     List<String> findExpiringOcpsData(Integer caId, long expirationDate, int maxNumberOfResults, int offset);
+
+    /**
+     * Returns the latest 'nextUpdate' of the stored OCSP responses for each of the given serial numbers.
+     *
+     * @param caId of the CA which signed the OCSP responses
+     * @param serialNumbers of the certificates which the OCSP responses represent. Should not contain more than 1000 entries.
+     * @return map from serial number to the latest nextUpdate. Serial numbers without any stored response are not included.
+     */
+    Map<String, Long> findLatestNextUpdates(Integer caId, Collection<String> serialNumbers);
 }
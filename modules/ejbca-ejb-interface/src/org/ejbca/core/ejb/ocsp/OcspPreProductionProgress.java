@@ -0,0 +1,105 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.ejb.ocsp;
+
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Progress and throughput of a single run of OCSP response pre-production for one CA.
+ *
+ * @version $Id$
+ */
+public class OcspPreProductionProgress implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int caId;
+    private final String caName;
+    private final long startTime;
+    private volatile long endTime = 0;
+    private final AtomicLong certificatesChecked = new AtomicLong();
+    private final AtomicLong responsesProduced = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    public OcspPreProductionProgress(final int caId, final String caName, final long startTime) {
+        this.caId = caId;
+        this.caName = caName;
+        this.startTime = startTime;
+    }
+
+    public int getCaId() {
+        return caId;
+    }
+
+    public String getCaName() {
+        return caName;
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /** @return when the run completed, or 0 if the run is still in progress */
+    public long getEndTime() {
+        return endTime;
+    }
+
+    public boolean isCompleted() {
+        return endTime != 0;
+    }
+
+    /** @return the number of certificates checked for a valid stored response so far */
+    public long getCertificatesChecked() {
+        return certificatesChecked.get();
+    }
+
+    /** @return the number of responses produced and stored so far */
+    public long getResponsesProduced() {
+        return responsesProduced.get();
+    }
+
+    /** @return the number of responses that could not be produced so far */
+    public long getFailures() {
+        return failures.get();
+    }
+
+    /** @return the average number of responses produced per second during the run */
+    public double getResponsesPerSecond() {
+        final long elapsed = (isCompleted() ? endTime : System.currentTimeMillis()) - startTime;
+        return elapsed <= 0 ? 0 : responsesProduced.get() * 1000.0 / elapsed;
+    }
+
+    public void addCertificatesChecked(final int count) {
+        certificatesChecked.addAndGet(count);
+    }
+
+    public void addResponseProduced() {
+        responsesProduced.incrementAndGet();
+    }
+
+    public void addFailure() {
+        failures.incrementAndGet();
+    }
+
+    public void setCompleted(final long endTime) {
+        this.endTime = endTime;
+    }
+
+    @Override
+    public String toString() {
+        return "CA '" + caName + "' (" + caId + "): " + getCertificatesChecked() + " certificates checked, " + getResponsesProduced()
+                + " responses produced, " + getFailures() + " failures, " + String.format("%.1f", getResponsesPerSecond()) + " responses/s"
+                + (isCompleted() ? " in " + (endTime - startTime) + " ms" : " (in progress)");
+    }
+}
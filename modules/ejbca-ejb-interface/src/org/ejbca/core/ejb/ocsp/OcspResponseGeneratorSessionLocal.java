@@ -14,6 +14,7 @@ package org.ejbca.core.ejb.ocsp;
 
 import java.math.BigInteger;
 import java.security.cert.X509Certificate;
+import java.util.Map;
 
 import javax.ejb.Local;
 
@@ -30,6 +31,14 @@ public interface OcspResponseGeneratorSessionLocal extends OcspResponseGenerator
 
     void initTimers();
 
+    /**
+     * Reloads the OCSP signing cache in the background after requests for issuers missing in the cache, and tries to find
+     * OCSP key bindings for the issuers still missing. Only one reload runs at a time.
+     *
+     * @see org.cesecore.certificates.ocsp.cache.OcspSigningCacheMisses
+     */
+    void reloadOcspSigningCacheForMissingIssuers();
+
     /** One-time load and conversion of configured keystores to CryptoTokens and OcspKeyBindings */
     void adhocUpgradeFromPre60(char[] activationPassword);
 
@@ -38,6 +47,12 @@ public interface OcspResponseGeneratorSessionLocal extends OcspResponseGenerator
     /** @see org.cesecore.certificates.ocsp.cache.OcspRequestSignerStatusCache#flush() */
     void clearOcspRequestSignerRevocationStatusCache();
 
+    /**
+     * @return statistics of the signing of OCSP responses on this node per signing key, identified by serial number and issuer DN of
+     *         the signing certificate
+     */
+    Map<String, OcspSigningKeyStatistics> getSigningStatistics();
+
     /**
      * Pre-produces and OCSP response for the proivded CA and serial number. The response will 
      * be signed according to current OCSP Key Binding settings and OCSP config if applicable.
@@ -45,6 +60,7 @@ public interface OcspResponseGeneratorSessionLocal extends OcspResponseGenerator
      * @param serialNr of the certificate to produce a response for.
      * @param issueFinalResponse TODO
      * @param certIDHashAlgorithm of the certId
+     * @return true if a successful response was produced, false if an error response was produced or the request failed.
      */
-    void preSignOcspResponse(X509Certificate cacert, BigInteger serialNr, boolean issueFinalResponse, String certIDHashAlgorithm);
+    boolean preSignOcspResponse(X509Certificate cacert, BigInteger serialNr, boolean issueFinalResponse, String certIDHashAlgorithm);
 }
@@ -28,6 +28,7 @@ import org.bouncycastle.cert.ocsp.SingleResp;
 import org.bouncycastle.cert.ocsp.UnknownStatus;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.bouncycastle.util.encoders.Hex;
+import org.cesecore.certificates.ocsp.cache.OcspResponseCacheEntry;
 import org.cesecore.certificates.ocsp.exception.OcspFailureException;
 
 /**
@@ -104,6 +105,17 @@ public class OcspResponseInformation implements Serializable {
         }
     }
 
+    /** Creates a response from the OCSP response cache. Only cacheable responses are cached, so there is no need to parse it again. */
+    public OcspResponseInformation(final OcspResponseCacheEntry cacheEntry) {
+        this.ocspResponse = cacheEntry.getOcspResponse();
+        this.maxAge = cacheEntry.getMaxAge();
+        this.signerCert = cacheEntry.getSignerCert();
+        this.status = OCSPResp.SUCCESSFUL;
+        this.nextUpdate = cacheEntry.getNextUpdate();
+        this.thisUpdate = cacheEntry.getThisUpdate();
+        this.responseHeader = cacheEntry.getResponseHeader();
+    }
+
     public byte[] getOcspResponse() {
         return ocspResponse;
     }
@@ -0,0 +1,38 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.ejb.ocsp;
+
+import java.util.Collection;
+
+import javax.ejb.Local;
+
+/**
+ * Background production of OCSP responses for CAs with pre-production of OCSP responses enabled.
+ *
+ * @version $Id$
+ */
+@Local
+public interface OcspResponsePreProductionSessionLocal {
+
+    /** Schedule the first pre-production run, if enabled by ocsp.preproduction.enabled. Invoked at startup. */
+    void initTimers();
+
+    /**
+     * Produce and store OCSP responses for all unexpired certificates issued by the CAs with pre-production enabled,
+     * that do not have a stored response valid for longer than the configured refresh margin.
+     */
+    void preProduceOcspResponses();
+
+    /** @return the progress of the ongoing or latest pre-production run of each CA */
+    Collection<OcspPreProductionProgress> getProgress();
+}
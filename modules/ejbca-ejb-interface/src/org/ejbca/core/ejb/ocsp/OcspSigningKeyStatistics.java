@@ -0,0 +1,91 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.ejb.ocsp;
+
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Statistics of the signing of OCSP responses with a single key, since the pool of the key was created.
+ *
+ * @version $Id$
+ */
+public class OcspSigningKeyStatistics implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final LongAdder signed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder queueWaitNanos = new LongAdder();
+    private final LongAdder signNanos = new LongAdder();
+    private final AtomicLong maxQueueWaitNanos = new AtomicLong();
+    private final AtomicLong maxSignNanos = new AtomicLong();
+
+    /**
+     * Record a completed signing task.
+     *
+     * @param queueWait the time in nanoseconds the task waited before signing started
+     * @param signTime the time in nanoseconds the signing took
+     */
+    public void record(final long queueWait, final long signTime) {
+        signed.increment();
+        queueWaitNanos.add(queueWait);
+        signNanos.add(signTime);
+        maxQueueWaitNanos.accumulateAndGet(queueWait, Math::max);
+        maxSignNanos.accumulateAndGet(signTime, Math::max);
+    }
+
+    /** @return the number of signing tasks completed */
+    public long getSignedCount() {
+        return signed.sum();
+    }
+
+    /** @return the number of signing tasks rejected since the queue was full */
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    /** Record a signing task rejected since the queue was full */
+    public void addRejected() {
+        rejected.increment();
+    }
+
+    /** @return the average time in milliseconds tasks waited before signing started */
+    public double getAverageQueueWaitMs() {
+        final long count = signed.sum();
+        return count == 0 ? 0 : queueWaitNanos.sum() / 1000000.0 / count;
+    }
+
+    /** @return the longest time in milliseconds a task waited before signing started */
+    public double getMaxQueueWaitMs() {
+        return maxQueueWaitNanos.get() / 1000000.0;
+    }
+
+    /** @return the average time in milliseconds the signing took */
+    public double getAverageSignTimeMs() {
+        final long count = signed.sum();
+        return count == 0 ? 0 : signNanos.sum() / 1000000.0 / count;
+    }
+
+    /** @return the longest time in milliseconds the signing took */
+    public double getMaxSignTimeMs() {
+        return maxSignNanos.get() / 1000000.0;
+    }
+
+    @Override
+    public String toString() {
+        return "signed=" + getSignedCount() + ", rejected=" + getRejectedCount() + ", avgQueueWaitMs=" + getAverageQueueWaitMs()
+                + ", maxQueueWaitMs=" + getMaxQueueWaitMs() + ", avgSignTimeMs=" + getAverageSignTimeMs() + ", maxSignTimeMs=" + getMaxSignTimeMs();
+    }
+}
@@ -0,0 +1,112 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.ejb.crl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.cesecore.certificates.ca.CAOfflineException;
+import org.ejbca.core.ejb.crl.CrlGenerationScheduler.CrlGenerationResult;
+import org.ejbca.core.ejb.crl.CrlGenerationScheduler.CrlGenerationTask;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link CrlGenerationScheduler}.
+ *
+ * @version $Id$
+ */
+public class CrlGenerationSchedulerUnitTest {
+
+    @Test
+    public void testSingleThreadRunsInCallingThread() throws Exception {
+        final Thread callingThread = Thread.currentThread();
+        final List<CrlGenerationTask> tasks = createTasks(5, 2);
+        final List<CrlGenerationResult> results = new CrlGenerationScheduler(1, 1).run(tasks, "CRL", task -> {
+            assertSame(callingThread, Thread.currentThread());
+            return task.getCrlPartitionIndex() % 2 == 0;
+        });
+        assertEquals(5, results.size());
+        for (int i = 0; i < results.size(); i++) {
+            assertSame(tasks.get(i), results.get(i).getTask());
+            assertEquals(i % 2 == 0, results.get(i).isCreated());
+            assertNull(results.get(i).getException());
+        }
+    }
+
+    @Test
+    public void testLimitsAreRespected() throws Exception {
+        final int cryptoTokens = 3;
+        final List<CrlGenerationTask> tasks = createTasks(30, cryptoTokens);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final ConcurrentMap<Integer, AtomicInteger> runningByCryptoToken = new ConcurrentHashMap<>();
+        final ConcurrentMap<Integer, AtomicInteger> maxRunningByCryptoToken = new ConcurrentHashMap<>();
+        final List<CrlGenerationResult> results = new CrlGenerationScheduler(5, 2).run(tasks, "CRL", task -> {
+            final AtomicInteger forCryptoToken = runningByCryptoToken.computeIfAbsent(task.getCryptoTokenId(), id -> new AtomicInteger());
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            maxRunningByCryptoToken.computeIfAbsent(task.getCryptoTokenId(), id -> new AtomicInteger())
+                    .accumulateAndGet(forCryptoToken.incrementAndGet(), Math::max);
+            Thread.sleep(10);
+            forCryptoToken.decrementAndGet();
+            running.decrementAndGet();
+            return true;
+        });
+        assertEquals(30, results.size());
+        for (int i = 0; i < results.size(); i++) {
+            assertSame(tasks.get(i), results.get(i).getTask());
+            assertTrue(results.get(i).isCreated());
+        }
+        assertTrue("Too many CRLs were generated concurrently: " + maxRunning.get(), maxRunning.get() <= 5);
+        assertTrue("CRLs were not generated concurrently.", maxRunning.get() > 1);
+        for (final AtomicInteger maxForCryptoToken : maxRunningByCryptoToken.values()) {
+            assertTrue("Too many CRLs were signed with the same crypto token concurrently: " + maxForCryptoToken.get(), maxForCryptoToken.get() <= 2);
+        }
+    }
+
+    @Test
+    public void testFailureDoesNotAffectOtherTasks() throws Exception {
+        final List<CrlGenerationTask> tasks = createTasks(10, 2);
+        final List<CrlGenerationResult> results = new CrlGenerationScheduler(4, 1).run(tasks, "delta CRL", task -> {
+            if (task.getCrlPartitionIndex() == 3) {
+                throw new CAOfflineException("offline");
+            }
+            return true;
+        });
+        for (final CrlGenerationResult result : results) {
+            if (result.getTask().getCrlPartitionIndex() == 3) {
+                assertFalse(result.isCreated());
+                assertTrue(result.getException() instanceof CAOfflineException);
+            } else {
+                assertTrue(result.isCreated());
+                assertNull(result.getException());
+            }
+        }
+    }
+
+    private static List<CrlGenerationTask> createTasks(final int count, final int cryptoTokens) {
+        final List<CrlGenerationTask> tasks = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            tasks.add(new CrlGenerationTask(1000 + i % cryptoTokens, "CA" + i % cryptoTokens, i, i % cryptoTokens));
+        }
+        return tasks;
+    }
+}
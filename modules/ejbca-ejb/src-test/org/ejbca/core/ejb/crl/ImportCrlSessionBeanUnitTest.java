@@ -0,0 +1,81 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.ejb.crl;
+
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.cert.X509CRL;
+import java.security.cert.X509CRLEntry;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.CRLReason;
+import org.bouncycastle.cert.X509v2CRLBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.cesecore.util.CertTools;
+import org.cesecore.util.CryptoProviderTools;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Unit tests for the parts of {@link ImportCrlSessionBean} that do not need a database.
+ *
+ * @version $Id$
+ */
+public class ImportCrlSessionBeanUnitTest {
+
+    private static KeyPair keyPair;
+
+    @BeforeClass
+    public static void beforeClass() throws Exception {
+        CryptoProviderTools.installBCProviderIfNotAvailable();
+        final KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+        keyPairGenerator.initialize(1024);
+        keyPair = keyPairGenerator.generateKeyPair();
+    }
+
+    @Test
+    public void testGetNewEntries() throws Exception {
+        final X509CRL lastCrl = createCrl(new long[][] { { 1, 1000, CRLReason.keyCompromise }, { 2, 2000, CRLReason.certificateHold },
+                { 3, 3000, CRLReason.superseded } });
+        // Serial 2 is revoked permanently, serial 4 is new, and serial 3 is no longer on the CRL
+        final X509CRL crl = createCrl(new long[][] { { 1, 1000, CRLReason.keyCompromise }, { 2, 2000, CRLReason.keyCompromise },
+                { 4, 4000, CRLReason.unspecified } });
+        final List<X509CRLEntry> newEntries = ImportCrlSessionBean.getNewEntries(crl.getRevokedCertificates(), lastCrl.getRevokedCertificates());
+        final Set<BigInteger> newSerialNumbers = new HashSet<>();
+        for (final X509CRLEntry crlEntry : newEntries) {
+            newSerialNumbers.add(crlEntry.getSerialNumber());
+        }
+        assertEquals(2, newEntries.size());
+        assertEquals(new HashSet<>(Arrays.asList(BigInteger.valueOf(2), BigInteger.valueOf(4))), newSerialNumbers);
+        // Without a previous CRL, all entries are new
+        assertEquals(3, ImportCrlSessionBean.getNewEntries(crl.getRevokedCertificates(), null).size());
+    }
+
+    /** @param entries serial number, revocation date and reason of each entry */
+    private static X509CRL createCrl(final long[][] entries) throws Exception {
+        final X509v2CRLBuilder builder = new X509v2CRLBuilder(new X500Name("CN=Import CRL Test CA"), new Date());
+        for (final long[] entry : entries) {
+            builder.addCRLEntry(BigInteger.valueOf(entry[0]), new Date(1600000000000L + entry[1]), (int) entry[2]);
+        }
+        final byte[] encoded = builder.build(new JcaContentSignerBuilder("SHA256WithRSA").build(keyPair.getPrivate())).getEncoded();
+        return CertTools.getCRLfromByteArray(encoded);
+    }
+}
@@ -0,0 +1,94 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.ejb.crl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.cesecore.certificates.certificate.CertificateConstants;
+import org.cesecore.certificates.crl.RevokedCertInfo;
+import org.cesecore.certificates.crl.RevokedCertInfoCollection;
+import org.ejbca.core.ejb.crl.RevocationSnapshotCache.RevocationSnapshot;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link RevocationSnapshotCache}.
+ *
+ * @version $Id$
+ */
+public class RevocationSnapshotCacheUnitTest {
+
+    private static final String ISSUER_DN = "CN=Revocation Snapshot Test CA";
+
+    @After
+    public void tearDown() {
+        RevocationSnapshotCache.INSTANCE.clear();
+    }
+
+    @Test
+    public void testApplyChanges() {
+        final RevokedCertInfoCollection revoked = new RevokedCertInfoCollection();
+        for (int i = 1; i <= 5; i++) {
+            revoked.add(createEntry(i, 1000 * i, i == 2 ? RevokedCertInfo.REVOCATION_REASON_CERTIFICATEHOLD : RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE));
+        }
+        final RevocationSnapshot snapshot = new RevocationSnapshot(revoked, 100, 200);
+        final RevokedCertInfoCollection changes = new RevokedCertInfoCollection();
+        // Serial 2 is revoked permanently, serial 3 is archived or released from hold, and serial 6 is newly revoked
+        changes.add(createEntry(2, 2000, RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE));
+        changes.add(createEntry(3, 3000, RevokedCertInfo.REVOCATION_REASON_REMOVEFROMCRL));
+        changes.add(createEntry(6, 6000, RevokedCertInfo.REVOCATION_REASON_SUPERSEDED));
+        // Serial 7 was not revoked in the snapshot, and still isn't
+        changes.add(createEntry(7, 7000, RevokedCertInfo.REVOCATION_REASON_REMOVEFROMCRL));
+        final RevocationSnapshot newSnapshot = snapshot.applyChanges(changes, 300);
+        assertEquals(300, newSnapshot.getJournalPosition());
+        assertEquals("The time of the last full read should be kept", 200, newSnapshot.getFullReadTime());
+        assertEquals("The old snapshot should not be modified", 5, snapshot.getRevokedCertificates().size());
+        final Map<BigInteger, RevokedCertInfo> entries = new HashMap<>();
+        for (final RevokedCertInfo revokedCertInfo : newSnapshot.getRevokedCertificates()) {
+            entries.put(revokedCertInfo.getUserCertificate(), revokedCertInfo);
+        }
+        assertEquals(5, entries.size());
+        assertEquals(RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE, entries.get(BigInteger.valueOf(2)).getReason());
+        assertNull(entries.get(BigInteger.valueOf(3)));
+        assertEquals(RevokedCertInfo.REVOCATION_REASON_SUPERSEDED, entries.get(BigInteger.valueOf(6)).getReason());
+        assertNull(entries.get(BigInteger.valueOf(7)));
+        for (final int unchanged : new int[] { 1, 4, 5 }) {
+            assertEquals(1000L * unchanged, entries.get(BigInteger.valueOf(unchanged)).getRevocationDate().getTime());
+        }
+    }
+
+    @Test
+    public void testTake() {
+        final long now = System.currentTimeMillis();
+        final RevocationSnapshot snapshot = new RevocationSnapshot(new RevokedCertInfoCollection(), now, now);
+        RevocationSnapshotCache.INSTANCE.put(ISSUER_DN, CertificateConstants.NO_CRL_PARTITION, snapshot);
+        assertNull(RevocationSnapshotCache.INSTANCE.get(ISSUER_DN, 1));
+        assertSame(snapshot, RevocationSnapshotCache.INSTANCE.get(ISSUER_DN, CertificateConstants.NO_CRL_PARTITION));
+        assertSame(snapshot, RevocationSnapshotCache.INSTANCE.take(ISSUER_DN, CertificateConstants.NO_CRL_PARTITION, 60000));
+        assertNull("A snapshot should only be taken once", RevocationSnapshotCache.INSTANCE.take(ISSUER_DN, CertificateConstants.NO_CRL_PARTITION, 60000));
+        // A snapshot that is too old is not used
+        RevocationSnapshotCache.INSTANCE.put(ISSUER_DN, CertificateConstants.NO_CRL_PARTITION, new RevocationSnapshot(new RevokedCertInfoCollection(), 0, now - 120000));
+        assertNull(RevocationSnapshotCache.INSTANCE.take(ISSUER_DN, CertificateConstants.NO_CRL_PARTITION, 60000));
+    }
+
+    private static RevokedCertInfo createEntry(final long serialNumber, final long revocationDate, final int reason) {
+        final String fingerprint = String.format("%040x", serialNumber);
+        return new RevokedCertInfo(fingerprint.getBytes(), BigInteger.valueOf(serialNumber).toByteArray(), revocationDate, reason, 0);
+    }
+}
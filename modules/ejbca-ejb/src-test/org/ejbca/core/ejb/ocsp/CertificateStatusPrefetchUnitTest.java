@@ -0,0 +1,98 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.ejb.ocsp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.cesecore.certificates.certificate.CertificateStatus;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link CertificateStatusPrefetch}.
+ *
+ * @version $Id$
+ */
+public class CertificateStatusPrefetchUnitTest {
+
+    private static final String ISSUER1 = "CN=Issuer 1";
+    private static final String ISSUER2 = "CN=Issuer 2";
+
+    @Test
+    public void testIndexedSerialNumbersAreNotQueried() {
+        final Map<String, List<BigInteger>> serialNumbersByIssuer = new LinkedHashMap<>();
+        serialNumbersByIssuer.put(ISSUER1, Arrays.asList(BigInteger.valueOf(1), BigInteger.valueOf(2), BigInteger.valueOf(3)));
+        serialNumbersByIssuer.put(ISSUER2, Arrays.asList(BigInteger.valueOf(1), BigInteger.valueOf(4)));
+        final Map<String, List<BigInteger>> queried = new HashMap<>();
+        final CertificateStatusPrefetch prefetch = new CertificateStatusPrefetch(serialNumbersByIssuer, (issuerDn, serialNumber) -> {
+            // The index knows that serial number 2 of issuer 1 is revoked, and all certificates of issuer 2
+            if (ISSUER1.equals(issuerDn)) {
+                return BigInteger.valueOf(2).equals(serialNumber) ? CertificateStatus.REVOKED : null;
+            }
+            return CertificateStatus.OK;
+        }, (issuerDn, serialNumbers) -> {
+            queried.put(issuerDn, new ArrayList<>(serialNumbers));
+            final Map<BigInteger, CertificateStatus> ret = new HashMap<>();
+            for (final BigInteger serialNumber : serialNumbers) {
+                ret.put(serialNumber, CertificateStatus.NOT_AVAILABLE);
+            }
+            return ret;
+        });
+        assertEquals("Only the serial numbers the index can not answer should be queried", Collections.singleton(ISSUER1), queried.keySet());
+        assertEquals(Arrays.asList(BigInteger.valueOf(1), BigInteger.valueOf(3)), queried.get(ISSUER1));
+        assertEquals(2, prefetch.getQueriedCount());
+        // The statuses from the index and the database are merged
+        assertSame(CertificateStatus.NOT_AVAILABLE, prefetch.getStatus(ISSUER1, BigInteger.valueOf(1)));
+        assertSame(CertificateStatus.REVOKED, prefetch.getStatus(ISSUER1, BigInteger.valueOf(2)));
+        assertSame(CertificateStatus.NOT_AVAILABLE, prefetch.getStatus(ISSUER1, BigInteger.valueOf(3)));
+        assertSame(CertificateStatus.OK, prefetch.getStatus(ISSUER2, BigInteger.valueOf(1)));
+        assertSame(CertificateStatus.OK, prefetch.getStatus(ISSUER2, BigInteger.valueOf(4)));
+        assertNull("Entries that were not prefetched should be looked up by the caller", prefetch.getStatus(ISSUER2, BigInteger.valueOf(5)));
+        assertNull(prefetch.getStatus("CN=Unknown", BigInteger.valueOf(1)));
+    }
+
+    @Test
+    public void testOneQueryPerIssuer() {
+        final Map<String, List<BigInteger>> serialNumbersByIssuer = new LinkedHashMap<>();
+        serialNumbersByIssuer.put(ISSUER1, Arrays.asList(BigInteger.valueOf(1), BigInteger.valueOf(2), BigInteger.valueOf(1)));
+        serialNumbersByIssuer.put(ISSUER2, Collections.singletonList(BigInteger.valueOf(1)));
+        final List<String> queries = new ArrayList<>();
+        final CertificateStatusPrefetch prefetch = new CertificateStatusPrefetch(serialNumbersByIssuer, (issuerDn, serialNumber) -> null,
+                (issuerDn, serialNumbers) -> {
+                    queries.add(issuerDn + ":" + serialNumbers);
+                    // A certificate that is not in the database is left out, and looked up by the caller
+                    return Collections.singletonMap(BigInteger.valueOf(1), CertificateStatus.OK);
+                });
+        assertEquals("Each issuer should be queried once, without duplicate serial numbers", Arrays.asList(ISSUER1 + ":[1, 2]", ISSUER2 + ":[1]"),
+                queries);
+        assertEquals(3, prefetch.getQueriedCount());
+        assertSame(CertificateStatus.OK, prefetch.getStatus(ISSUER1, BigInteger.valueOf(1)));
+        assertNull(prefetch.getStatus(ISSUER1, BigInteger.valueOf(2)));
+    }
+
+    @Test
+    public void testEmpty() {
+        assertNull(CertificateStatusPrefetch.EMPTY.getStatus(ISSUER1, BigInteger.ONE));
+        assertEquals(0, CertificateStatusPrefetch.EMPTY.getQueriedCount());
+    }
+}
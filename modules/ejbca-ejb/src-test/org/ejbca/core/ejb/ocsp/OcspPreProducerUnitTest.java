@@ -0,0 +1,194 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.ejb.ocsp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the batching and scheduling of OCSP response pre-production in {@link OcspPreProducer}.
+ *
+ * @version $Id$
+ */
+public class OcspPreProducerUnitTest {
+
+    private static final long REFRESH_MARGIN = 3600000L;
+
+    private ExecutorService executorService;
+    /** The serial numbers of the CA, in serial number order */
+    private final List<String> serialNumbers = new ArrayList<>();
+    /** The lastSerialNumber of each batch read */
+    private final List<String> batchesRead = Collections.synchronizedList(new ArrayList<String>());
+    private final Set<String> signed = Collections.synchronizedSet(new HashSet<String>());
+
+    @Before
+    public void setUp() {
+        executorService = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        executorService.shutdownNow();
+    }
+
+    private void addSerialNumbers(final int count) {
+        for (int i = 1; i <= count; i++) {
+            serialNumbers.add(String.format("%05d", i));
+        }
+    }
+
+    private List<String> findSerialNumbers(final String lastSerialNumber, final int batchSize) {
+        batchesRead.add(lastSerialNumber);
+        final List<String> ret = new ArrayList<>();
+        for (final String serialNumber : serialNumbers) {
+            if ((lastSerialNumber == null || serialNumber.compareTo(lastSerialNumber) > 0) && ret.size() < batchSize) {
+                ret.add(serialNumber);
+            }
+        }
+        return ret;
+    }
+
+    private OcspPreProducer getPreProducer(final Map<String, Long> nextUpdates, final int batchSize) {
+        return new OcspPreProducer((now, lastSerialNumber, size) -> findSerialNumbers(lastSerialNumber, size), batch -> {
+            final Map<String, Long> ret = new HashMap<>();
+            for (final String serialNumber : batch) {
+                if (nextUpdates.containsKey(serialNumber)) {
+                    ret.put(serialNumber, nextUpdates.get(serialNumber));
+                }
+            }
+            return ret;
+        }, serialNumber -> signed.add(serialNumber), batchSize, REFRESH_MARGIN);
+    }
+
+    @Test
+    public void testBatches() throws InterruptedException {
+        addSerialNumbers(1250);
+        final OcspPreProductionProgress progress = new OcspPreProductionProgress(1, "CA", System.currentTimeMillis());
+        getPreProducer(Collections.<String, Long> emptyMap(), 500).run(executorService, progress);
+        assertEquals("Each batch should continue after the last serial number of the previous one, and the last batch is not full",
+                Arrays.asList(null, "00500", "01000"), batchesRead);
+        assertEquals(1250, signed.size());
+        assertEquals(1250, progress.getCertificatesChecked());
+        assertEquals(1250, progress.getResponsesProduced());
+        assertEquals(0, progress.getFailures());
+        // When the last batch is full, the next one is read and is empty
+        batchesRead.clear();
+        signed.clear();
+        serialNumbers.remove(serialNumbers.size() - 1);
+        getPreProducer(Collections.<String, Long> emptyMap(), 1249).run(executorService, progress);
+        assertEquals(Arrays.asList(null, "01249"), batchesRead);
+        assertEquals(1249, signed.size());
+    }
+
+    @Test
+    public void testOnlyDueResponsesAreProduced() throws InterruptedException {
+        addSerialNumbers(4);
+        final long now = System.currentTimeMillis();
+        final Map<String, Long> nextUpdates = new HashMap<>();
+        // 00001 has no stored response
+        nextUpdates.put("00002", now + 10 * REFRESH_MARGIN);
+        nextUpdates.put("00003", now + REFRESH_MARGIN / 2);
+        nextUpdates.put("00004", now - 1);
+        final OcspPreProducer preProducer = getPreProducer(nextUpdates, 10);
+        assertEquals(Arrays.asList("00001", "00003", "00004"), preProducer.getDueSerialNumbers(serialNumbers, now));
+        final OcspPreProductionProgress progress = new OcspPreProductionProgress(1, "CA", now);
+        preProducer.run(executorService, progress);
+        assertEquals(new HashSet<>(Arrays.asList("00001", "00003", "00004")), signed);
+        assertEquals("All certificates should be checked, including those with a fresh response", 4, progress.getCertificatesChecked());
+        assertEquals(3, progress.getResponsesProduced());
+    }
+
+    @Test
+    public void testFailuresAreCounted() throws InterruptedException {
+        addSerialNumbers(6);
+        final OcspPreProductionProgress progress = new OcspPreProductionProgress(1, "CA", System.currentTimeMillis());
+        new OcspPreProducer((now, lastSerialNumber, size) -> findSerialNumbers(lastSerialNumber, size), batch -> Collections.<String, Long> emptyMap(),
+                serialNumber -> {
+                    if ("00002".equals(serialNumber)) {
+                        throw new IllegalStateException("Signing failed");
+                    }
+                    return !"00003".equals(serialNumber);
+                }, 4, REFRESH_MARGIN).run(executorService, progress);
+        assertEquals(6, progress.getCertificatesChecked());
+        assertEquals(4, progress.getResponsesProduced());
+        assertEquals("A response that could not be produced should not stop the run", 2, progress.getFailures());
+    }
+
+    @Test
+    public void testBatchIsSignedInParallel() throws InterruptedException {
+        addSerialNumbers(8);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final AtomicInteger completed = new AtomicInteger();
+        final List<Integer> completedWhenRead = Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch allThreadsBusy = new CountDownLatch(4);
+        final OcspPreProductionProgress progress = new OcspPreProductionProgress(1, "CA", System.currentTimeMillis());
+        new OcspPreProducer((now, lastSerialNumber, size) -> {
+            completedWhenRead.add(completed.get());
+            return findSerialNumbers(lastSerialNumber, size);
+        }, batch -> Collections.<String, Long> emptyMap(), serialNumber -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            // The first responses are only signed when all threads are signing at the same time
+            allThreadsBusy.countDown();
+            try {
+                allThreadsBusy.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            running.decrementAndGet();
+            completed.incrementAndGet();
+            return true;
+        }, 4, REFRESH_MARGIN).run(executorService, progress);
+        assertEquals("A batch should be signed by all threads of the pool", 4, maxRunning.get());
+        assertEquals("The next batch should only be read when the previous one has been signed", Arrays.asList(0, 4, 8), completedWhenRead);
+        assertEquals(8, progress.getResponsesProduced());
+    }
+
+    @Test
+    public void testExecutorServiceIsResized() {
+        final ThreadPoolExecutor created = OcspPreProducer.getResizedExecutorService(null, 2);
+        try {
+            assertEquals(2, created.getCorePoolSize());
+            assertEquals(2, created.getMaximumPoolSize());
+            assertTrue("Threads should not be kept between runs", created.allowsCoreThreadTimeOut());
+            assertSame(created, OcspPreProducer.getResizedExecutorService(created, 6));
+            assertEquals(6, created.getCorePoolSize());
+            assertEquals(6, created.getMaximumPoolSize());
+            assertSame(created, OcspPreProducer.getResizedExecutorService(created, 1));
+            assertEquals(1, created.getCorePoolSize());
+            assertEquals(1, created.getMaximumPoolSize());
+        } finally {
+            created.shutdownNow();
+        }
+    }
+}
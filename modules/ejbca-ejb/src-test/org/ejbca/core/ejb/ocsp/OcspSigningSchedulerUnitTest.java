@@ -0,0 +1,135 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.ejb.ocsp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.cesecore.certificates.ocsp.exception.OcspSigningBusyException;
+import org.cesecore.config.ConfigurationHolder;
+import org.cesecore.config.OcspConfiguration;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link OcspSigningScheduler}.
+ *
+ * @version $Id$
+ */
+public class OcspSigningSchedulerUnitTest {
+
+    @After
+    public void tearDown() {
+        ConfigurationHolder.updateConfiguration(OcspConfiguration.SIGNING_THREADS_PER_KEY, "16");
+        ConfigurationHolder.updateConfiguration(OcspConfiguration.SIGNING_QUEUE_SIZE_PER_KEY, "1000");
+        OcspSigningScheduler.INSTANCE.retainKeyIds(Collections.<String>emptySet());
+    }
+
+    @Test
+    public void testScheduling() throws Exception {
+        final List<Future<Integer>> futures = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            final int value = i;
+            futures.add(OcspSigningScheduler.INSTANCE.submit("key1", () -> value));
+        }
+        futures.add(OcspSigningScheduler.INSTANCE.submit("key2", () -> -1));
+        for (int i = 0; i < 20; i++) {
+            assertEquals(Integer.valueOf(i), futures.get(i).get(10, TimeUnit.SECONDS));
+        }
+        assertEquals(Integer.valueOf(-1), futures.get(20).get(10, TimeUnit.SECONDS));
+        final OcspSigningKeyStatistics statistics = OcspSigningScheduler.INSTANCE.getStatistics().get("key1");
+        assertNotNull("Statistics should be kept per key", statistics);
+        assertEquals(20, statistics.getSignedCount());
+        assertEquals(0, statistics.getRejectedCount());
+        assertEquals(1, OcspSigningScheduler.INSTANCE.getStatistics().get("key2").getSignedCount());
+        // Pools of keys no longer in use are removed
+        OcspSigningScheduler.INSTANCE.retainKeyIds(Collections.singleton("key2"));
+        assertNull(OcspSigningScheduler.INSTANCE.getStatistics().get("key1"));
+        assertNotNull(OcspSigningScheduler.INSTANCE.getStatistics().get("key2"));
+    }
+
+    @Test
+    public void testRejectedWhenQueueIsFull() throws Exception {
+        ConfigurationHolder.updateConfiguration(OcspConfiguration.SIGNING_THREADS_PER_KEY, "1");
+        ConfigurationHolder.updateConfiguration(OcspConfiguration.SIGNING_QUEUE_SIZE_PER_KEY, "1");
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Future<Boolean> running = OcspSigningScheduler.INSTANCE.submit("key", () -> {
+            started.countDown();
+            return release.await(10, TimeUnit.SECONDS);
+        });
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        final Future<Boolean> queued = OcspSigningScheduler.INSTANCE.submit("key", () -> true);
+        try {
+            OcspSigningScheduler.INSTANCE.submit("key", () -> true);
+            fail("The task should be rejected when the only thread is busy and the queue is full");
+        } catch (OcspSigningBusyException e) {
+            // Expected
+        }
+        release.countDown();
+        assertTrue(running.get(10, TimeUnit.SECONDS));
+        assertTrue(queued.get(10, TimeUnit.SECONDS));
+        final OcspSigningKeyStatistics statistics = OcspSigningScheduler.INSTANCE.getStatistics().get("key");
+        assertEquals(2, statistics.getSignedCount());
+        assertEquals(1, statistics.getRejectedCount());
+    }
+
+    @Test
+    public void testNotRejectedWhileKeysAreRetained() throws Exception {
+        final AtomicBoolean stop = new AtomicBoolean(false);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        // Removes and shuts down the pool over and over, as a reload of the OCSP signing cache does
+        final Thread reloader = new Thread(() -> {
+            while (!stop.get()) {
+                OcspSigningScheduler.INSTANCE.retainKeyIds(Collections.<String>emptySet());
+            }
+        });
+        final List<Thread> submitters = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            submitters.add(new Thread(() -> {
+                try {
+                    for (int j = 0; j < 2000; j++) {
+                        final int value = j;
+                        assertEquals(Integer.valueOf(value), OcspSigningScheduler.INSTANCE.submit("key", () -> value).get(10, TimeUnit.SECONDS));
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }));
+        }
+        reloader.start();
+        for (final Thread submitter : submitters) {
+            submitter.start();
+        }
+        for (final Thread submitter : submitters) {
+            submitter.join(60000);
+        }
+        stop.set(true);
+        reloader.join(10000);
+        if (failure.get() != null) {
+            throw new AssertionError("A task submitted while the pool was shut down should run on the new pool", failure.get());
+        }
+    }
+}
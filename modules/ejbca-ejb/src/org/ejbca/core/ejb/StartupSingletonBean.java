@@ -47,6 +47,7 @@ import org.ejbca.core.ejb.authorization.AuthorizationSystemSessionLocal;
 import org.ejbca.core.ejb.ca.caadmin.CAAdminSessionLocal;
 import org.ejbca.core.ejb.ocsp.OcspKeyRenewalSessionLocal;
 import org.ejbca.core.ejb.ocsp.OcspResponseCleanupSessionLocal;
+import org.ejbca.core.ejb.ocsp.OcspResponsePreProductionSessionLocal;
 import org.ejbca.core.ejb.ocsp.OcspResponseGeneratorSessionLocal;
 import org.ejbca.core.ejb.ra.EndEntityAccessSessionLocal;
 import org.ejbca.core.ejb.ra.EndEntityManagementSessionLocal;
@@ -131,6 +132,8 @@ public class StartupSingletonBean {
     private ServiceSessionLocal serviceSession;
     @EJB
     private OcspResponseCleanupSessionLocal ocspResponseCleanupSession;
+    @EJB
+    private OcspResponsePreProductionSessionLocal ocspResponsePreProductionSession;
 
     @PreDestroy
     private void shutdown() {
@@ -379,6 +382,9 @@ public class StartupSingletonBean {
         // Start the clean up job to remove old OCSP responses
         log.debug(">startup start OCSP clean up job");
         ocspResponseCleanupSession.start();
+        // Start background pre-production of OCSP responses, if enabled
+        log.debug(">startup start OCSP response pre-production");
+        ocspResponsePreProductionSession.initTimers();
 
         log.debug(">startup completed");
     }
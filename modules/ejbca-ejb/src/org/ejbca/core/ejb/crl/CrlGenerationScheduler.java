@@ -0,0 +1,220 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.ejb.crl;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.log4j.Logger;
+import org.cesecore.certificates.certificate.CertificateConstants;
+
+/**
+ * Generates CRLs for independent (CA, CRL partition) pairs concurrently.
+ * <p>
+ * At most <code>maxThreads</code> CRLs are generated at the same time, and at most <code>maxThreadsPerCryptoToken</code> of them are
+ * signed by CAs using the same crypto token, so that a slow or session limited HSM does not occupy all threads. Each task is expected to
+ * run in its own transaction. With <code>maxThreads</code> set to 1, the tasks are run one at a time in the calling thread.
+ *
+ * @version $Id$
+ */
+public class CrlGenerationScheduler {
+
+    private static final Logger log = Logger.getLogger(CrlGenerationScheduler.class);
+
+    /** Generates the CRL of a task, if needed. */
+    public interface CrlGenerator {
+        /** @return true if a CRL was created */
+        boolean generate(CrlGenerationTask task) throws Exception;
+    }
+
+    /** The CRL (or delta CRL) of one CA and CRL partition. */
+    public static class CrlGenerationTask {
+        private final int caId;
+        private final String caName;
+        private final int crlPartitionIndex;
+        private final int cryptoTokenId;
+
+        public CrlGenerationTask(final int caId, final String caName, final int crlPartitionIndex, final int cryptoTokenId) {
+            this.caId = caId;
+            this.caName = caName;
+            this.crlPartitionIndex = crlPartitionIndex;
+            this.cryptoTokenId = cryptoTokenId;
+        }
+
+        public int getCaId() { return caId; }
+        public String getCaName() { return caName; }
+        public int getCrlPartitionIndex() { return crlPartitionIndex; }
+        public int getCryptoTokenId() { return cryptoTokenId; }
+
+        @Override
+        public String toString() {
+            return "CA '" + caName + "' (" + caId + ")" + (crlPartitionIndex != CertificateConstants.NO_CRL_PARTITION ? " partition " + crlPartitionIndex : "");
+        }
+    }
+
+    /** The outcome of a task. */
+    public static class CrlGenerationResult {
+        private final CrlGenerationTask task;
+        private final boolean created;
+        private final long durationMs;
+        private final Exception exception;
+
+        CrlGenerationResult(final CrlGenerationTask task, final boolean created, final long durationMs, final Exception exception) {
+            this.task = task;
+            this.created = created;
+            this.durationMs = durationMs;
+            this.exception = exception;
+        }
+
+        public CrlGenerationTask getTask() { return task; }
+        /** @return true if a CRL was created */
+        public boolean isCreated() { return created; }
+        /** @return the time spent checking and generating the CRL, not including the time waiting for a thread */
+        public long getDurationMs() { return durationMs; }
+        /** @return the exception thrown by the task, or null if it completed normally */
+        public Exception getException() { return exception; }
+    }
+
+    private final int maxThreads;
+    private final int maxThreadsPerCryptoToken;
+
+    /**
+     * @param maxThreads the maximum number of CRLs to generate at the same time
+     * @param maxThreadsPerCryptoToken the maximum number of CRLs to generate at the same time with keys from the same crypto token
+     */
+    public CrlGenerationScheduler(final int maxThreads, final int maxThreadsPerCryptoToken) {
+        this.maxThreads = Math.max(1, maxThreads);
+        this.maxThreadsPerCryptoToken = Math.max(1, maxThreadsPerCryptoToken);
+    }
+
+    /**
+     * Runs all tasks and waits for them to complete. Exceptions thrown by a task do not affect the other tasks, but are returned in
+     * its result.
+     *
+     * @param tasks the tasks to run, started in this order as far as the limits allow
+     * @param crlType description of the generated CRLs for logging, e.g. "CRL" or "delta CRL"
+     * @param generator generates the CRL of each task
+     * @return the results, in the same order as the tasks
+     * @throws InterruptedException if interrupted while waiting for the tasks, in which case tasks that have not started are skipped
+     */
+    public List<CrlGenerationResult> run(final List<CrlGenerationTask> tasks, final String crlType, final CrlGenerator generator)
+            throws InterruptedException {
+        final long startTime = System.currentTimeMillis();
+        final CrlGenerationResult[] results = new CrlGenerationResult[tasks.size()];
+        final int threads = Math.min(maxThreads, tasks.size());
+        if (threads <= 1) {
+            for (int i = 0; i < results.length; i++) {
+                results[i] = runTask(tasks.get(i), crlType, generator);
+            }
+        } else {
+            final ExecutorService executorService = Executors.newFixedThreadPool(threads);
+            try {
+                runConcurrently(tasks, crlType, generator, executorService, threads, results);
+            } finally {
+                executorService.shutdownNow();
+            }
+        }
+        final List<CrlGenerationResult> resultList = Arrays.asList(results);
+        logSummary(resultList, crlType, threads, System.currentTimeMillis() - startTime);
+        return resultList;
+    }
+
+    private void runConcurrently(final List<CrlGenerationTask> tasks, final String crlType, final CrlGenerator generator,
+            final ExecutorService executorService, final int threads, final CrlGenerationResult[] results) throws InterruptedException {
+        final CompletionService<Integer> completionService = new ExecutorCompletionService<>(executorService);
+        final LinkedList<Integer> pending = new LinkedList<>();
+        for (int i = 0; i < tasks.size(); i++) {
+            pending.add(i);
+        }
+        final Map<Integer, Integer> runningByCryptoToken = new HashMap<>();
+        int running = 0;
+        while (!pending.isEmpty() || running > 0) {
+            // Start the first pending tasks whose crypto token has threads left
+            for (final Iterator<Integer> iterator = pending.iterator(); iterator.hasNext() && running < threads;) {
+                final int index = iterator.next();
+                final CrlGenerationTask task = tasks.get(index);
+                final int runningForCryptoToken = runningByCryptoToken.getOrDefault(task.getCryptoTokenId(), 0);
+                if (runningForCryptoToken >= maxThreadsPerCryptoToken) {
+                    continue;
+                }
+                iterator.remove();
+                runningByCryptoToken.put(task.getCryptoTokenId(), runningForCryptoToken + 1);
+                running++;
+                completionService.submit(() -> {
+                    results[index] = runTask(task, crlType, generator);
+                    return index;
+                });
+            }
+            final int completed;
+            try {
+                completed = completionService.take().get();
+            } catch (ExecutionException e) {
+                // runTask catches everything except errors
+                throw new IllegalStateException(e.getCause());
+            }
+            running--;
+            runningByCryptoToken.merge(tasks.get(completed).getCryptoTokenId(), -1, Integer::sum);
+        }
+    }
+
+    private static CrlGenerationResult runTask(final CrlGenerationTask task, final String crlType, final CrlGenerator generator) {
+        final long startTime = System.currentTimeMillis();
+        boolean created = false;
+        Exception exception = null;
+        try {
+            created = generator.generate(task);
+        } catch (Exception e) {
+            exception = e;
+        }
+        final CrlGenerationResult result = new CrlGenerationResult(task, created, System.currentTimeMillis() - startTime, exception);
+        if (created) {
+            log.info("Created " + crlType + " for " + task + " in " + result.getDurationMs() + " ms.");
+        } else if (log.isDebugEnabled()) {
+            log.debug("Checked " + crlType + " for " + task + " in " + result.getDurationMs() + " ms, " + (exception != null ? "failed." : "no update needed."));
+        }
+        return result;
+    }
+
+    private static void logSummary(final List<CrlGenerationResult> results, final String crlType, final int threads, final long durationMs) {
+        int created = 0;
+        CrlGenerationResult slowest = null;
+        int failed = 0;
+        for (final CrlGenerationResult result : results) {
+            if (result.isCreated()) {
+                created++;
+                if (slowest == null || result.getDurationMs() > slowest.getDurationMs()) {
+                    slowest = result;
+                }
+            }
+            if (result.getException() != null) {
+                failed++;
+            }
+        }
+        if (created > 0 || failed > 0) {
+            log.info("Created " + created + " " + crlType + "s and checked " + results.size() + " CAs and CRL partitions in " + durationMs
+                    + " ms using " + threads + " thread(s)." + (failed > 0 ? " Failed: " + failed + "." : "")
+                    + (slowest != null ? " Slowest: " + slowest.getTask() + " in " + slowest.getDurationMs() + " ms." : ""));
+        } else if (log.isDebugEnabled()) {
+            log.debug("Checked " + results.size() + " CAs and CRL partitions for " + crlType + " updates in " + durationMs + " ms.");
+        }
+    }
+}
@@ -21,11 +21,17 @@ import java.security.cert.CRLException;
 import java.security.cert.X509CRL;
 import java.security.cert.X509CRLEntry;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
 import javax.ejb.EJB;
+import javax.ejb.SessionContext;
 import javax.ejb.Stateless;
 import javax.ejb.TransactionAttribute;
 import javax.ejb.TransactionAttributeType;
@@ -36,7 +42,6 @@ import org.cesecore.authorization.AuthorizationDeniedException;
 import org.cesecore.certificates.ca.CAInfo;
 import org.cesecore.certificates.certificate.CertificateConstants;
 import org.cesecore.certificates.certificate.CertificateData;
-import org.cesecore.certificates.certificate.CertificateDataWrapper;
 import org.cesecore.certificates.certificate.CertificateStoreSessionLocal;
 import org.cesecore.certificates.crl.CrlImportException;
 import org.cesecore.certificates.crl.CrlStoreException;
@@ -45,6 +50,7 @@ import org.cesecore.certificates.crl.RevokedCertInfo;
 import org.cesecore.certificates.util.cert.CrlExtensions;
 import org.cesecore.jndi.JndiConstants;
 import org.cesecore.util.CertTools;
+import org.ejbca.config.EjbcaConfiguration;
 import org.ejbca.core.ejb.ra.EndEntityManagementSessionLocal;
 import org.ejbca.core.ejb.ra.NoSuchEndEntityException;
 import org.ejbca.core.model.approval.ApprovalException;
@@ -65,7 +71,19 @@ public class ImportCrlSessionBean implements ImportCrlSessionLocal, ImportCrlSes
     @EJB
     private EndEntityManagementSessionLocal endentityManagementSession;
     
+    @Resource
+    private SessionContext sessionContext;
+
+    private ImportCrlSessionLocal importCrlSession;
+
+    @PostConstruct
+    public void postConstruct() {
+        importCrlSession = sessionContext.getBusinessObject(ImportCrlSessionLocal.class);
+    }
+
     @Override
+    // The entries are imported in batches with one transaction each, so a large CRL does not need to be imported in one transaction
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
     public void importCrl(final AuthenticationToken authenticationToken, final CAInfo cainfo, final byte[] crlbytes, final int crlPartitionIndex)
             throws CrlImportException, CrlStoreException, CRLException, AuthorizationDeniedException {
 
@@ -100,53 +118,27 @@ public class ImportCrlSessionBean implements ImportCrlSessionLocal, ImportCrlSes
         if (x509crl.getRevokedCertificates()==null) {
             log.info("No revoked certificates in " + (isDeltaCrl?"delta":"full") + " CRL for CA '" + cainfo.getName() + "'");
         } else {
-            final Set<X509CRLEntry> crlEntries = new HashSet<X509CRLEntry>();
-            crlEntries.addAll(x509crl.getRevokedCertificates());
             if (log.isDebugEnabled()) {
-                log.debug("Downloaded CRL contains " + crlEntries.size() + " entries.");
+                log.debug("Downloaded CRL contains " + x509crl.getRevokedCertificates().size() + " entries.");
             }
-            
-            if(lastCrlOfSameType != null && lastCrlOfSameType.getRevokedCertificates()!=null) {
-                if (log.isDebugEnabled()) {
-                    log.debug("Last known CRL contains " + lastCrlOfSameType.getRevokedCertificates().size() + " entries.");
-                }
-                // Remove all entries that were processed last time
-                crlEntries.removeAll(lastCrlOfSameType.getRevokedCertificates());
+            final Set<? extends X509CRLEntry> lastCrlEntries = lastCrlOfSameType == null ? null : lastCrlOfSameType.getRevokedCertificates();
+            if (lastCrlEntries != null && log.isDebugEnabled()) {
+                log.debug("Last known CRL contains " + lastCrlEntries.size() + " entries.");
             }
-        
+            // Remove all entries that were processed last time
+            final List<X509CRLEntry> crlEntries = getNewEntries(x509crl.getRevokedCertificates(), lastCrlEntries);
             log.info("Found " + crlEntries.size() + " new entires in " + (isDeltaCrl?"delta":"full")+ " CRL number " + downloadedCrlNumber + " issued by '" + issuerDn + "' compared to previous.");
             // For each entry that was updated after the last known CRL, create/update a new database entry with the new status
-            for (final X509CRLEntry crlEntry : crlEntries) {
-                final Date revocationDate = crlEntry.getRevocationDate();
-                final BigInteger serialNumber = crlEntry.getSerialNumber();
-                final int reasonCode = CrlExtensions.extractReasonCode(crlEntry);
-                if (crlEntry.getCertificateIssuer()!=null) {
-                    final String entryIssuerDn = CertTools.stringToBCDNString(crlEntry.getCertificateIssuer().getName());
-                    if (!issuerDn.equals(entryIssuerDn)) {
-                        log.warn("CA's subjectDN does not match CRL entry's issuerDn '"+entryIssuerDn+"' and entry with serialNumber " + serialNumber + " will be ignored.");
-                    }
-                }
-                
-                final CertificateDataWrapper cdw = certStoreSession.getCertificateDataByIssuerAndSerno(issuerDn, serialNumber);
-                if(isLimitedCertificate(issuerDn, serialNumber, cdw)) {
-                    // Store as much as possible about what we know about the certificate and its status (which is limited) in the database
-                    certStoreSession.updateLimitedCertificateDataStatus(authenticationToken, cainfo.getCAId(), issuerDn, serialNumber, revocationDate, reasonCode, caFingerprint);
-                } else {
-                    final String serialHex = serialNumber.toString(16).toUpperCase();
-                    if (isCertAlreadyRevoked(reasonCode, cdw)) {
-                        log.info("Certificate '" + serialHex + "' is already revoked");
-                        continue;
-                    }
-                    log.info("Revoking '" + serialHex + "' " + "(" + serialNumber.toString() + ")");
-                    try {
-                        //log.info("Reason code: " + reason);
-                        endentityManagementSession.revokeCert(authenticationToken, serialNumber, crlEntry.getRevocationDate(), issuerDn, reasonCode, false);
-                    } catch (AlreadyRevokedException e) {
-                        log.warn("Failed to revoke '" + serialHex + "'. (Status might be 'Archived'.) Error message was: " + e.getMessage());
-                    } catch (ApprovalException | RevokeBackDateNotAllowedForProfileException | NoSuchEndEntityException | WaitingForApprovalException e) {
-                        throw new CrlImportException("Failed to revoke certificate with serial number " + serialHex, e);
-                    }
-                    
+            final int batchSize = EjbcaConfiguration.getCrlImportBatchSize();
+            final long startTime = System.currentTimeMillis();
+            for (int i = 0; i < crlEntries.size(); i += batchSize) {
+                final List<X509CRLEntry> batch = crlEntries.subList(i, Math.min(i + batchSize, crlEntries.size()));
+                importCrlSession.importCrlEntries(authenticationToken, cainfo, issuerDn, caFingerprint, batch);
+                if (crlEntries.size() > batchSize) {
+                    final int processed = i + batch.size();
+                    log.info("Processed " + processed + " of " + crlEntries.size() + " new entries (" + (processed * 100L / crlEntries.size())
+                            + "%) in CRL number " + downloadedCrlNumber + " issued by '" + issuerDn + "' in "
+                            + (System.currentTimeMillis() - startTime) + " ms.");
                 }
             }
         }
@@ -163,9 +155,100 @@ public class ImportCrlSessionBean implements ImportCrlSessionLocal, ImportCrlSes
     
     }
     
-    private boolean isCertAlreadyRevoked(final int revocationReason, final CertificateDataWrapper cdw) {
-        if(cdw != null) {
-            final CertificateData certData = cdw.getCertificateData();
+    @Override
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public void importCrlEntries(final AuthenticationToken authenticationToken, final CAInfo cainfo, final String issuerDn, final String caFingerprint,
+            final List<X509CRLEntry> crlEntries) throws CrlImportException, AuthorizationDeniedException {
+        final List<BigInteger> serialNumbers = new ArrayList<>(crlEntries.size());
+        for (final X509CRLEntry crlEntry : crlEntries) {
+            serialNumbers.add(crlEntry.getSerialNumber());
+        }
+        final Map<BigInteger, CertificateData> certificateDatas = certStoreSession.getCertificateDataByIssuerAndSernos(issuerDn, serialNumbers);
+        for (final X509CRLEntry crlEntry : crlEntries) {
+            final Date revocationDate = crlEntry.getRevocationDate();
+            final BigInteger serialNumber = crlEntry.getSerialNumber();
+            final int reasonCode = CrlExtensions.extractReasonCode(crlEntry);
+            if (crlEntry.getCertificateIssuer()!=null) {
+                final String entryIssuerDn = CertTools.stringToBCDNString(crlEntry.getCertificateIssuer().getName());
+                if (!issuerDn.equals(entryIssuerDn)) {
+                    log.warn("CA's subjectDN does not match CRL entry's issuerDn '"+entryIssuerDn+"' and entry with serialNumber " + serialNumber + " will be ignored.");
+                }
+            }
+            final CertificateData certData = certificateDatas.get(serialNumber);
+            if(isLimitedCertificate(issuerDn, serialNumber, certData)) {
+                // Store as much as possible about what we know about the certificate and its status (which is limited) in the database
+                certStoreSession.updateLimitedCertificateDataStatus(authenticationToken, cainfo.getCAId(), issuerDn, serialNumber, revocationDate, reasonCode, caFingerprint);
+            } else {
+                final String serialHex = serialNumber.toString(16).toUpperCase();
+                if (isCertAlreadyRevoked(reasonCode, certData)) {
+                    log.info("Certificate '" + serialHex + "' is already revoked");
+                    continue;
+                }
+                log.info("Revoking '" + serialHex + "' " + "(" + serialNumber.toString() + ")");
+                try {
+                    endentityManagementSession.revokeCert(authenticationToken, serialNumber, revocationDate, issuerDn, reasonCode, false);
+                } catch (AlreadyRevokedException e) {
+                    log.warn("Failed to revoke '" + serialHex + "'. (Status might be 'Archived'.) Error message was: " + e.getMessage());
+                } catch (ApprovalException | RevokeBackDateNotAllowedForProfileException | NoSuchEndEntityException | WaitingForApprovalException e) {
+                    throw new CrlImportException("Failed to revoke certificate with serial number " + serialHex, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the entries of a CRL that were not on the previous CRL, with the same revocation date and reason. Entries are compared by
+     * serial number, revocation date and reason code only, using hash sets instead of comparing encoded entries.
+     *
+     * @param crlEntries the entries of the CRL
+     * @param lastCrlEntries the entries of the previous CRL of the same type, or null if there was none
+     * @return the new entries, in the iteration order of <code>crlEntries</code>
+     */
+    static List<X509CRLEntry> getNewEntries(final Set<? extends X509CRLEntry> crlEntries, final Set<? extends X509CRLEntry> lastCrlEntries) {
+        final Set<CrlEntryKey> processed = new HashSet<>();
+        if (lastCrlEntries != null) {
+            for (final X509CRLEntry crlEntry : lastCrlEntries) {
+                processed.add(new CrlEntryKey(crlEntry));
+            }
+        }
+        final List<X509CRLEntry> ret = new ArrayList<>(crlEntries.size());
+        for (final X509CRLEntry crlEntry : crlEntries) {
+            if (!processed.contains(new CrlEntryKey(crlEntry))) {
+                ret.add(crlEntry);
+            }
+        }
+        return ret;
+    }
+
+    /** The fields of a CRL entry that are stored in the database when it is imported */
+    private static final class CrlEntryKey {
+        private final BigInteger serialNumber;
+        private final long revocationDate;
+        private final int reasonCode;
+
+        private CrlEntryKey(final X509CRLEntry crlEntry) {
+            this.serialNumber = crlEntry.getSerialNumber();
+            this.revocationDate = crlEntry.getRevocationDate().getTime();
+            this.reasonCode = CrlExtensions.extractReasonCode(crlEntry);
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (!(o instanceof CrlEntryKey)) {
+                return false;
+            }
+            final CrlEntryKey other = (CrlEntryKey) o;
+            return serialNumber.equals(other.serialNumber) && revocationDate == other.revocationDate && reasonCode == other.reasonCode;
+        }
+
+        @Override
+        public int hashCode() {
+            return serialNumber.hashCode() * 31 + Long.hashCode(revocationDate) * 7 + reasonCode;
+        }
+    }
+
+    private boolean isCertAlreadyRevoked(final int revocationReason, final CertificateData certData) {
+        if(certData != null) {
             if(certData.getStatus()==CertificateConstants.CERT_REVOKED) {
                 final int storedRevocationReason = certData.getRevocationReason();
                 if(storedRevocationReason==RevokedCertInfo.REVOCATION_REASON_CERTIFICATEHOLD) {
@@ -204,9 +287,9 @@ public class ImportCrlSessionBean implements ImportCrlSessionLocal, ImportCrlSes
         return lastCrlOfSameType;
     }
     
-    private boolean isLimitedCertificate(final String issuerDn, final BigInteger serialNumber, final CertificateDataWrapper cdw) {
+    private boolean isLimitedCertificate(final String issuerDn, final BigInteger serialNumber, final CertificateData certData) {
         final String limitedFingerprint = CertTools.getFingerprintAsString((issuerDn+";"+serialNumber).getBytes());
-        return (cdw==null) || (limitedFingerprint.equals(cdw.getCertificateData().getFingerprint()));
+        return (certData==null) || (limitedFingerprint.equals(certData.getFingerprint()));
     }
 
 }
@@ -12,6 +12,9 @@
  *************************************************************************/
 package org.ejbca.core.ejb.crl;
 
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.security.cert.CRLException;
 import java.security.cert.Certificate;
 import java.security.cert.X509CRL;
@@ -64,13 +67,18 @@ import org.cesecore.certificates.crl.CrlCreateSessionLocal;
 import org.cesecore.certificates.crl.CrlStoreSessionLocal;
 import org.cesecore.certificates.crl.RevocationReasons;
 import org.cesecore.certificates.crl.RevokedCertInfo;
+import org.cesecore.certificates.crl.RevokedCertInfoCollection;
+import org.cesecore.certificates.crl.StreamingCrlEncoder;
 import org.cesecore.internal.InternalResources;
 import org.cesecore.jndi.JndiConstants;
 import org.cesecore.keys.token.CryptoTokenOfflineException;
 import org.cesecore.util.CertTools;
-import org.cesecore.util.CompressedCollection;
 import org.cesecore.util.CryptoProviderTools;
+import org.ejbca.config.EjbcaConfiguration;
 import org.ejbca.core.ejb.ca.publisher.PublisherSessionLocal;
+import org.ejbca.core.ejb.crl.CrlGenerationScheduler.CrlGenerationResult;
+import org.ejbca.core.ejb.crl.CrlGenerationScheduler.CrlGenerationTask;
+import org.ejbca.core.ejb.crl.RevocationSnapshotCache.RevocationSnapshot;
 
 /**
  * This session bean provides a bridge between EJBCA and CESecore by incorporating CRL creation (CESeCore) with publishing (EJBCA)
@@ -127,118 +135,204 @@ public class PublishingCrlSessionBean implements PublishingCrlSessionLocal, Publ
 
     @Override
     public Set<Integer> createCRLs(final AuthenticationToken admin, final Collection<Integer> caids, final long addtocrloverlaptime) throws AuthorizationDeniedException {
+        return createCrls(admin, caids, addtocrloverlaptime, false);
+    }
+
+    @Override
+    public Set<Integer> createDeltaCRLs(final AuthenticationToken admin, final Collection<Integer> caids, long crloverlaptime) throws AuthorizationDeniedException {
+        return createCrls(admin, caids, crloverlaptime, true);
+    }
+
+    /**
+     * Creates the CRLs or delta CRLs that need to be updated for the given CAs. The CRL of each CA and CRL partition is created by a separate
+     * call through the local interface, so that each one gets its own transaction, and up to crlgeneration.threads of them are created
+     * concurrently.
+     */
+    private Set<Integer> createCrls(final AuthenticationToken admin, final Collection<Integer> caids, final long addToCrlOverlapTime, final boolean delta)
+            throws AuthorizationDeniedException {
         final Collection<Integer> caIdsToProcess;
         if (caids==null || caids.contains(Integer.valueOf(CAConstants.ALLCAS))) {
             caIdsToProcess = caSession.getAllCaIds();
         } else {
             caIdsToProcess = caids;
         }
-        Set<Integer> createdcrls = new HashSet<>();
+        final Date now = new Date();
+        final List<CrlGenerationTask> tasks = new ArrayList<>();
         for (final int caid : caIdsToProcess) {
             if (log.isDebugEnabled()) {
-                log.debug("createCRLs for caid: " + caid);
+                log.debug((delta ? "createDeltaCRLs" : "createCRLs") + " for caid: " + caid);
             }
-            try {
-                if (publishingCrlSession.createCRLNewConditioned(admin, caid, addtocrloverlaptime)) {
-                    createdcrls.add(caid);
-                }
-            } catch (CryptoTokenOfflineException | CAOfflineException | CADoesntExistsException e) {
+            final CA ca = (CA) caSession.getCA(admin, caid);
+            if (ca == null) {
+                logCrlCreationFailure(admin, caid, new CADoesntExistsException("CA with id " + caid + " does not exist."), delta);
+                continue;
+            }
+            for (final int crlPartitionIndex : getCrlPartitionIndexesToCheck(ca, now, delta)) {
+                tasks.add(new CrlGenerationTask(caid, ca.getName(), crlPartitionIndex, ca.getCAToken().getCryptoTokenId()));
+            }
+        }
+        final CrlGenerationScheduler scheduler = new CrlGenerationScheduler(EjbcaConfiguration.getCrlGenerationThreads(),
+                EjbcaConfiguration.getCrlGenerationThreadsPerCryptoToken());
+        final List<CrlGenerationResult> results;
+        try {
+            results = scheduler.run(tasks, delta ? "delta CRL" : "CRL", task -> delta
+                    ? publishingCrlSession.internalCreateDeltaCrlConditioned(admin, task.getCaId(), task.getCrlPartitionIndex(), now, addToCrlOverlapTime)
+                    : publishingCrlSession.internalCreateCrlConditioned(admin, task.getCaId(), task.getCrlPartitionIndex(), now, addToCrlOverlapTime));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new EJBException("Interrupted while creating CRLs.", e);
+        }
+        // Like when the partitions are created one at a time, a CA is only reported when all of its CRLs were created
+        final Map<Integer, Boolean> createdByCaId = new LinkedHashMap<>();
+        AuthorizationDeniedException authorizationDeniedException = null;
+        RuntimeException runtimeException = null;
+        for (final CrlGenerationResult result : results) {
+            final int caid = result.getTask().getCaId();
+            final Exception e = result.getException();
+            if (e instanceof CesecoreException) {
                 // Don't fail all generation just because one of the CAs had token offline or similar.
                 // Continue working with the others, but log an error message in system logs, use error logging
                 // since it might be something that should call for attention of the operators, CRL generation is important.
-                String msg = intres.getLocalizedMessage("createcrl.errorcreate", caid, e.getMessage());
-                log.error(msg, e);
+                createdByCaId.put(caid, false);
+                logCrlCreationFailure(admin, caid, (CesecoreException) e, delta);
+            } else if (e instanceof AuthorizationDeniedException) {
+                authorizationDeniedException = (AuthorizationDeniedException) e;
+            } else if (e instanceof RuntimeException) {
+                if (runtimeException == null) {
+                    runtimeException = (RuntimeException) e;
+                } else {
+                    log.error("Error creating CRL for " + result.getTask() + ": " + e.getMessage(), e);
+                }
+            } else if (e != null) {
+                throw new EJBException(e);
+            } else {
+                createdByCaId.merge(caid, result.isCreated(), Boolean::logicalAnd);
+            }
+        }
+        if (authorizationDeniedException != null) {
+            throw authorizationDeniedException;
+        }
+        if (runtimeException != null) {
+            throw runtimeException;
+        }
+        final Set<Integer> createdcrls = new HashSet<>();
+        for (final Map.Entry<Integer, Boolean> entry : createdByCaId.entrySet()) {
+            if (entry.getValue()) {
+                createdcrls.add(entry.getKey());
             }
         }
         return createdcrls;
     }
 
-    @Override
-    public Set<Integer> createDeltaCRLs(final AuthenticationToken admin, final Collection<Integer> caids, long crloverlaptime) throws AuthorizationDeniedException {
-        final Collection<Integer> caIdsToProcess;
-        if (caids==null || caids.contains(Integer.valueOf(CAConstants.ALLCAS))) {
-            caIdsToProcess = caSession.getAllCaIds();
-        } else {
-            caIdsToProcess = caids;
+    private void logCrlCreationFailure(final AuthenticationToken admin, final int caid, final CesecoreException e, final boolean delta) {
+        final String msg = intres.getLocalizedMessage("createcrl.errorcreate", caid, e.getMessage());
+        log.error(msg, e);
+        if (delta) {
+            final Map<String, Object> details = new LinkedHashMap<>();
+            details.put("msg", msg);
+            logSession.log(EventTypes.CRL_CREATION, EventStatus.FAILURE, ModuleTypes.CRL, ServiceTypes.CORE, admin.toString(), String.valueOf(caid), null, null, details);
         }
-        Set<Integer> createddeltacrls = new HashSet<>();
-        for (final int caid : caIdsToProcess) {
+    }
+
+    /**
+     * Returns the CRL partitions of a CA that should be checked for CRL updates, starting with the main CRL. No partitions are returned for CAs
+     * that should not have CRLs created at the moment, e.g. because they are offline, expired or external.
+     *
+     * @param ca the CA
+     * @param now the current time
+     * @param delta true if delta CRLs should be checked
+     * @return CRL partition indexes, with CertificateConstants.NO_CRL_PARTITION first, or an empty list
+     */
+    private List<Integer> getCrlPartitionIndexesToCheck(final CA ca, final Date now, final boolean delta) {
+        final CAInfo cainfo = ca.getCAInfo();
+        final String crlType = delta ? "delta CRL" : "CRL";
+        final List<Integer> crlPartitionIndexes = new ArrayList<>();
+        if (cainfo.getStatus() == CAConstants.CA_EXTERNAL) {
+            if (log.isDebugEnabled()) {
+                log.debug("Not trying to generate " + crlType + " for external CA "+cainfo.getName());
+            }
+        } else if (cainfo.getStatus() == CAConstants.CA_WAITING_CERTIFICATE_RESPONSE) {
+            if (log.isDebugEnabled()) {
+                log.debug("Not trying to generate " + crlType + " for CA "+cainfo.getName() +" awaiting certificate response.");
+            }
+        } else if (cainfo.getStatus() == CAConstants.CA_REVOKED) {
+            if (log.isDebugEnabled()) {
+                log.debug("Not trying to generate " + crlType + " for CA "+cainfo.getName() +" that is revoked.");
+            }
+        } else if (cainfo.getStatus() == CAConstants.CA_UNINITIALIZED) {
             if (log.isDebugEnabled()) {
-                log.debug("createDeltaCRLs for caid: " + caid);
+                log.debug("Not trying to generate " + crlType + " for CA "+cainfo.getName() +" that is uninitialized.");
             }
-            try {
-                if (publishingCrlSession.createDeltaCrlConditioned(admin, caid, crloverlaptime)) {
-                    createddeltacrls.add(caid);
+        } else if (cainfo instanceof X509CAInfo) {
+            final Certificate cacert = getCaCertificate(cainfo);
+            // Don't create CRLs if the CA has expired
+            if (cacert != null && CertTools.getNotAfter(cacert).after(now)) {
+                if (delta && cainfo.getDeltaCRLPeriod() <= 0) {
+                    // Delta CRLs are not used by this CA
+                } else if (cainfo.getStatus() == CAConstants.CA_OFFLINE) {
+                    // Normal event to not create CRLs for CAs that are deliberately set off line
+                    String msg = intres.getLocalizedMessage("createcrl.caoffline", cainfo.getName(), Integer.valueOf(cainfo.getCAId()));
+                    log.info(msg);
+                } else {
+                    crlPartitionIndexes.add(CertificateConstants.NO_CRL_PARTITION);
+                    final IntRange crlPartitions = cainfo.getAllCrlPartitionIndexes();
+                    if (crlPartitions != null) {
+                        for (int crlPartitionIndex = crlPartitions.getMinimumInteger(); crlPartitionIndex <= crlPartitions.getMaximumInteger(); crlPartitionIndex++) {
+                            crlPartitionIndexes.add(crlPartitionIndex);
+                        }
+                    }
                 }
-            } catch (CesecoreException e) {
-                // Don't fail all generation just because one of the CAs had token offline or similar.
-                // Continue working with the others, but log a warning message in system logs.
-                final String msg = intres.getLocalizedMessage("createcrl.errorcreate", caid, e.getMessage());
-                log.error(msg, e);
-                final Map<String, Object> details = new LinkedHashMap<>();
-                details.put("msg", msg);
-                logSession.log(EventTypes.CRL_CREATION, EventStatus.FAILURE, ModuleTypes.CRL, ServiceTypes.CORE, admin.toString(), String.valueOf(caid), null, null, details);
+            } else if (log.isDebugEnabled() && cacert != null) {
+                log.debug("Not creating " + crlType + " for expired CA "+cainfo.getName()+". CA subjectDN='"+CertTools.getSubjectDN(cacert)+"', expired: "+CertTools.getNotAfter(cacert));
+            } else if (log.isDebugEnabled()) {
+                log.debug("Not creating " + crlType + " for CA without CA certificate: "+cainfo.getName());
             }
         }
-        return createddeltacrls;
+        return crlPartitionIndexes;
     }
 
     @Override
     public boolean createCRLNewConditioned(AuthenticationToken admin, int caId, long addToCrlOverlapTime) throws CryptoTokenOfflineException, CADoesntExistsException, AuthorizationDeniedException, CAOfflineException {
         final Date now = new Date();
         // Get CA checks authorization to the CA
-        final CA ca = (CA) caSession.getCA(admin, caId);
-        final CAInfo cainfo = ca.getCAInfo();
+        final CA ca = getCaForCrlCreation(admin, caId);
         try {
-            if (cainfo.getStatus() == CAConstants.CA_EXTERNAL) {
-                if (log.isDebugEnabled()) {
-                    log.debug("Not trying to generate CRL for external CA "+cainfo.getName());
-                }
-            } else if (cainfo.getStatus() == CAConstants.CA_WAITING_CERTIFICATE_RESPONSE) {
-                if (log.isDebugEnabled()) {
-                    log.debug("Not trying to generate CRL for CA "+cainfo.getName() +" awaiting certificate response.");
-                }
-            } else if (cainfo.getStatus() == CAConstants.CA_REVOKED) {
-                if (log.isDebugEnabled()) {
-                    log.debug("Not trying to generate CRL for CA "+cainfo.getName() +" that is revoked.");
-                }
-            } else if (cainfo.getStatus() == CAConstants.CA_UNINITIALIZED) {
-                if (log.isDebugEnabled()) {
-                    log.debug("Not trying to generate CRL for CA "+cainfo.getName() +" that is uninitialized.");
-                }
-            } else {
-                if (cainfo instanceof X509CAInfo) {
-                    final Certificate cacert = getCaCertificate(cainfo);
-                    // Don't create CRLs if the CA has expired
-                    if (cacert != null && CertTools.getNotAfter(cacert).after(now)) {
-                        if (cainfo.getStatus() == CAConstants.CA_OFFLINE )  {
-                            // Normal event to not create CRLs for CAs that are deliberately set off line
-                            String msg = intres.getLocalizedMessage("createcrl.caoffline", cainfo.getName(), Integer.valueOf(cainfo.getCAId()));
-                            log.info(msg);
-                        } else {
-                            boolean result = createCrlForActiveCa(admin, ca, cacert, CertificateConstants.NO_CRL_PARTITION, now, addToCrlOverlapTime);
-                            final IntRange crlPartitions = cainfo.getAllCrlPartitionIndexes();
-                            if (crlPartitions != null) {
-                                for (int crlPartitionIndex = crlPartitions.getMinimumInteger(); crlPartitionIndex <= crlPartitions.getMaximumInteger(); crlPartitionIndex++) {
-                                    result &= createCrlForActiveCa(admin, ca, cacert, crlPartitionIndex, now, addToCrlOverlapTime);
-                                }
-                            }
-                            return result;
-                        }
-                    } else if (log.isDebugEnabled() && cacert != null) {
-                        log.debug("Not creating CRL for expired CA "+cainfo.getName()+". CA subjectDN='"+CertTools.getSubjectDN(cacert)+"', expired: "+CertTools.getNotAfter(cacert));
-                    } else if (log.isDebugEnabled()) {
-                        log.debug("Not creating CRL for CA without CA certificate: "+cainfo.getName());
-                    }
-                }
+            final List<Integer> crlPartitionIndexes = getCrlPartitionIndexesToCheck(ca, now, false);
+            if (crlPartitionIndexes.isEmpty()) {
+                return false;
             }
-            return false;
+            final Certificate cacert = getCaCertificate(ca.getCAInfo());
+            boolean result = true;
+            for (final int crlPartitionIndex : crlPartitionIndexes) {
+                result &= createCrlForActiveCa(admin, ca, cacert, crlPartitionIndex, now, addToCrlOverlapTime);
+            }
+            return result;
         } catch (CryptoTokenOfflineException e) {
             log.warn("Crypto token is offline for CA "+caId+" generating CRL.");
             throw e;
         }
     }
 
+    @Override
+    public boolean internalCreateCrlConditioned(final AuthenticationToken admin, final int caId, final int crlPartitionIndex, final Date now,
+            final long addToCrlOverlapTime) throws CryptoTokenOfflineException, CAOfflineException, CADoesntExistsException, AuthorizationDeniedException {
+        final CA ca = getCaForCrlCreation(admin, caId);
+        try {
+            return createCrlForActiveCa(admin, ca, getCaCertificate(ca.getCAInfo()), crlPartitionIndex, now, addToCrlOverlapTime);
+        } catch (CryptoTokenOfflineException e) {
+            log.warn("Crypto token is offline for CA "+caId+" generating CRL.");
+            throw e;
+        }
+    }
+
+    private CA getCaForCrlCreation(final AuthenticationToken admin, final int caId) throws CADoesntExistsException, AuthorizationDeniedException {
+        final CA ca = (CA) caSession.getCA(admin, caId);
+        if (ca == null) {
+            throw new CADoesntExistsException("CA with id " + caId + " does not exist.");
+        }
+        return ca;
+    }
+
     /** Creates a CRL for a CRL partition. The CA is assumed to be active (no checks are performed) */
     private boolean createCrlForActiveCa(final AuthenticationToken admin, final CA ca, final Certificate cacert, final int crlPartitionIndex, final Date now, final long addToCrlOverlapTime) throws CryptoTokenOfflineException, CAOfflineException, AuthorizationDeniedException {
         final CAInfo cainfo = ca.getCAInfo();
@@ -307,60 +401,35 @@ public class PublishingCrlSessionBean implements PublishingCrlSessionLocal, Publ
 
     @Override
     public boolean createDeltaCrlConditioned(AuthenticationToken admin, int caid, long addToCrlOverlapTime) throws CryptoTokenOfflineException, CAOfflineException, CADoesntExistsException, AuthorizationDeniedException {
-        boolean ret = false;
         final Date now = new Date();
-        final CA ca = (CA) caSession.getCA(admin, caid);
-        final CAInfo cainfo = ca.getCAInfo();
-        try{
-            if (cainfo.getStatus() == CAConstants.CA_EXTERNAL) {
-                if (log.isDebugEnabled()) {
-                    log.debug("Not trying to generate delta CRL for external CA "+cainfo.getName());
-                }
-            } else if (cainfo.getStatus() == CAConstants.CA_WAITING_CERTIFICATE_RESPONSE) {
-                if (log.isDebugEnabled()) {
-                    log.debug("Not trying to generate delta CRL for CA "+cainfo.getName() +" awaiting certificate response.");
-                }
-            } else if (cainfo.getStatus() == CAConstants.CA_REVOKED) {
-                if (log.isDebugEnabled()) {
-                    log.debug("Not trying to generate delta CRL for CA "+cainfo.getName() +" that is revoked.");
-                }
-            } else if (cainfo.getStatus() == CAConstants.CA_UNINITIALIZED) {
-                if (log.isDebugEnabled()) {
-                    log.debug("Not trying to generate delta CRL for CA "+cainfo.getName() +" that is uninitialized.");
-                }
-            } else {
-                if (cainfo instanceof X509CAInfo) {
-                    final Certificate cacert = getCaCertificate(cainfo);
-                    // Don't create CRLs if the CA has expired
-                    if (cacert != null && CertTools.getNotAfter(cacert).after(now)) {
-                        if (cainfo.getDeltaCRLPeriod() > 0) {
-                            if (cainfo.getStatus() == CAConstants.CA_OFFLINE) {
-                                // Normal event to not create CRLs for CAs that are deliberately set off line
-                                String msg = intres.getLocalizedMessage("createcrl.caoffline", cainfo.getName(), Integer.valueOf(cainfo.getCAId()));
-                                log.info(msg);
-                            } else {
-                                boolean result = createDeltaCrlForActiveCa(admin, ca, cacert, CertificateConstants.NO_CRL_PARTITION, now, addToCrlOverlapTime);
-                                final IntRange crlPartitions = cainfo.getAllCrlPartitionIndexes();
-                                if (crlPartitions != null) {
-                                    for (int crlPartitionIndex = crlPartitions.getMinimumInteger(); crlPartitionIndex <= crlPartitions.getMaximumInteger(); crlPartitionIndex++) {
-                                        result &= createDeltaCrlForActiveCa(admin, ca, cacert, crlPartitionIndex, now, addToCrlOverlapTime);
-                                    }
-                                }
-                                return result;
-                            }
-                        }
-                    } else if (log.isDebugEnabled() && cacert != null) {
-                        log.debug("Not creating delta CRL for expired CA "+cainfo.getName()+". CA subjectDN='"+CertTools.getSubjectDN(cacert)+"', expired: "+CertTools.getNotAfter(cacert));
-                    } else if (log.isDebugEnabled()) {
-                        log.debug("Not creating delta CRL for CA without CA certificate: "+cainfo.getName());
-                    }
-                }
+        final CA ca = getCaForCrlCreation(admin, caid);
+        try {
+            final List<Integer> crlPartitionIndexes = getCrlPartitionIndexesToCheck(ca, now, true);
+            if (crlPartitionIndexes.isEmpty()) {
+                return false;
+            }
+            final Certificate cacert = getCaCertificate(ca.getCAInfo());
+            boolean result = true;
+            for (final int crlPartitionIndex : crlPartitionIndexes) {
+                result &= createDeltaCrlForActiveCa(admin, ca, cacert, crlPartitionIndex, now, addToCrlOverlapTime);
             }
+            return result;
         } catch (CryptoTokenOfflineException e) {
             log.warn("Crypto token is offline for CA "+caid+" generating CRL.");
             throw e;
         }
-        return ret;
+    }
+
+    @Override
+    public boolean internalCreateDeltaCrlConditioned(final AuthenticationToken admin, final int caId, final int crlPartitionIndex, final Date now,
+            final long addToCrlOverlapTime) throws CryptoTokenOfflineException, CAOfflineException, CADoesntExistsException, AuthorizationDeniedException {
+        final CA ca = getCaForCrlCreation(admin, caId);
+        try {
+            return createDeltaCrlForActiveCa(admin, ca, getCaCertificate(ca.getCAInfo()), crlPartitionIndex, now, addToCrlOverlapTime);
+        } catch (CryptoTokenOfflineException e) {
+            log.warn("Crypto token is offline for CA "+caId+" generating CRL.");
+            throw e;
+        }
     }
 
     /** Creates a Delta CRL for a CRL partition. The CA is assumed to be active (no checks are performed) */
@@ -478,7 +547,9 @@ public class PublishingCrlSessionBean implements PublishingCrlSessionLocal, Publ
         }
         final CAInfo cainfo = ca.getCAInfo();
         String ret = null;
-        Collection<RevokedCertInfo> revokedCertificates = null;
+        RevokedCertInfoCollection revokedCertificates = null;
+        RevocationSnapshot snapshot = null;
+        boolean snapshotStored = false;
         try {
             final Certificate cacert = getCaCertificate(cainfo);
             // DN from the CA issuing the CRL to be used when searching for the CRL in the database.
@@ -490,7 +561,25 @@ public class PublishingCrlSessionBean implements PublishingCrlSessionLocal, Publ
                     final long freeMemory = Runtime.getRuntime().maxMemory() - Runtime.getRuntime().totalMemory() + Runtime.getRuntime().freeMemory();
                     log.debug("Listing revoked certificates. Free memory=" + freeMemory);
                 }
-                revokedCertificates = noConflictCertificateStoreSession.listRevokedCertInfo(caCertSubjectDN, crlPartitionIndex, -1);
+                final long journalPosition = System.currentTimeMillis() - RevocationSnapshotCache.JOURNAL_OVERLAP_MILLIS;
+                final RevocationSnapshot lastSnapshot = isIncrementalCrlGeneration(ca) ? RevocationSnapshotCache.INSTANCE.take(caCertSubjectDN,
+                        crlPartitionIndex, EjbcaConfiguration.getCrlGenerationIncrementalMaxAge()) : null;
+                if (lastSnapshot != null) {
+                    // Apply the status changes since the last base CRL to its revoked certificates, instead of reading all of them
+                    final RevokedCertInfoCollection changes = RevokedCertInfoCollection.valueOf(
+                            certificateStoreSession.listRevocationChanges(caCertSubjectDN, crlPartitionIndex, lastSnapshot.getJournalPosition()));
+                    snapshot = lastSnapshot.applyChanges(changes, journalPosition);
+                    revokedCertificates = snapshot.getRevokedCertificates();
+                    if (log.isDebugEnabled()) {
+                        log.debug("Applied " + changes.size() + " status changes to the " + lastSnapshot.getRevokedCertificates().size()
+                                + " revoked certificates of the last base CRL.");
+                    }
+                } else {
+                    revokedCertificates = RevokedCertInfoCollection.valueOf(noConflictCertificateStoreSession.listRevokedCertInfo(caCertSubjectDN, crlPartitionIndex, -1));
+                    if (isIncrementalCrlGeneration(ca)) {
+                        snapshot = new RevocationSnapshot(revokedCertificates, journalPosition, journalPosition + RevocationSnapshotCache.JOURNAL_OVERLAP_MILLIS);
+                    }
+                }
 
                 //if X509 CA is marked as it has gone through Name Change add certificates revoked with old names
                 if(ca.getCAType()==CAInfo.CATYPE_X509 && ((X509CA)ca).getNameChanged()){
@@ -514,7 +603,7 @@ public class PublishingCrlSessionBean implements PublishingCrlSessionLocal, Publ
                     }
                     //Make sure new compressed collection is created if revokedCertificatesBeforeLastCANameChange need to be added!
                     Collection<RevokedCertInfo> revokedCertificatesAfterLastCANameChange = revokedCertificates;
-                    revokedCertificates = new CompressedCollection<>(RevokedCertInfo.class);
+                    revokedCertificates = new RevokedCertInfoCollection(revokedCertificatesBeforeLastCANameChange.size() + revokedCertificatesAfterLastCANameChange.size());
                     if(!revokedCertificatesBeforeLastCANameChange.isEmpty()){
                         revokedCertificates.addAll(revokedCertificatesBeforeLastCANameChange);
                     }
@@ -544,29 +633,33 @@ public class PublishingCrlSessionBean implements PublishingCrlSessionLocal, Publ
                 if (keepexpiredcertsoncrl) {
                     log.info("KeepExpiredCertsOnCRL is enabled, we will not archive expired certificate but will keep them on the CRL (for ever growing): " + keepexpiredcertsoncrl);
                 }
-                for (final RevokedCertInfo revokedCertInfo : revokedCertificates) {
+                // Read the columns by index, to avoid creating a RevokedCertInfo for each entry
+                for (int i = 0; i < revokedCertificates.size(); i++) {
                     // We want to include certificates that was revoked after the last CRL was issued, but before this one
                     // so the revoked certs are included in ONE CRL at least. See RFC5280 section 3.3.
                     // If chosen to keep expired certificates on CRL, we will NOT do this but keep them (ISO 9594-8 par. 8.5.2.12)
-                    if ( !keepexpiredcertsoncrl && revokedCertInfo.getExpireDate() != null && revokedCertInfo.getExpireDate().before(lastCrlCreationDate) ) {
+                    final long expireDate = revokedCertificates.getExpireDate(i);
+                    if ( !keepexpiredcertsoncrl && expireDate != 0 && expireDate < lastCrlCreationDate.getTime() ) {
                         // Certificate has expired, set status to archived in the database
+                        final String fingerprint = revokedCertificates.getCertificateFingerprint(i);
                         if (log.isDebugEnabled()) {
                             final long freeMemory = Runtime.getRuntime().maxMemory() - Runtime.getRuntime().totalMemory() + Runtime.getRuntime().freeMemory();
-                            log.debug("Archiving certificate with fp="+revokedCertInfo.getCertificateFingerprint()+". Free memory=" + freeMemory);
+                            log.debug("Archiving certificate with fp="+fingerprint+". Free memory=" + freeMemory);
                         }
-                        noConflictCertificateStoreSession.setStatus(archiveAdmin, revokedCertInfo.getCertificateFingerprint(), CertificateConstants.CERT_ARCHIVED);
+                        noConflictCertificateStoreSession.setStatus(archiveAdmin, fingerprint, CertificateConstants.CERT_ARCHIVED);
                     } else {
-                        if (!revokedCertInfo.isRevocationDateSet()) {
-                            revokedCertInfo.setRevocationDate(now);
+                        if (revokedCertificates.getRevocationDate(i) == 0) {
+                            final String fingerprint = revokedCertificates.getCertificateFingerprint(i);
+                            revokedCertificates.setRevocationDate(i, now.getTime());
                             /*
                              * FIXME should use noConflictCertificateStoreSession (add a new method). the method there should also update to database. 
                              * (or can we skip this code? when can isRevocationDateSet return false?)
                              * ECA-7992
                              */
-//                            noConflictCertificateStoreSession.setRevocationDate(revokedCertInfo.getCertificateFingerprint(), now);
-                            CertificateData certdata = certificateDataSession.findByFingerprint(revokedCertInfo.getCertificateFingerprint());
+//                            noConflictCertificateStoreSession.setRevocationDate(fingerprint, now);
+                            CertificateData certdata = certificateDataSession.findByFingerprint(fingerprint);
                             if (certdata == null) {
-                                throw new FinderException("No certificate with fingerprint " + revokedCertInfo.getCertificateFingerprint());
+                                throw new FinderException("No certificate with fingerprint " + fingerprint);
                             }
                             // Set revocation date in the database
                             certdata.setRevocationDate(now);
@@ -577,6 +670,9 @@ public class PublishingCrlSessionBean implements PublishingCrlSessionLocal, Publ
                 final byte[] crlBytes = generateAndStoreCRL(admin, ca, crlPartitionIndex, revokedCertificates, lastBaseCrlInfo, false);
                 if (crlBytes != null) {
                     ret = CertTools.getFingerprintAsString(crlBytes);
+                    if (snapshot != null) {
+                        snapshotStored = storeRevocationSnapshot(caCertSubjectDN, crlPartitionIndex, snapshot, crlBytes);
+                    }
                 }
                 // This debug logging is very very heavy if you have large CRLs. Please don't use it :-)
                 //              if (log.isDebugEnabled()) {
@@ -596,8 +692,8 @@ public class PublishingCrlSessionBean implements PublishingCrlSessionLocal, Publ
             log.error(e);
             throw new EJBException(e);
         } finally {
-            // Special treatment of our CompressedCollection to ensure that we release all resources
-            if (revokedCertificates!=null) {
+            // Release the revoked certificates right away, as there may be many of them, unless kept for the next CRL
+            if (revokedCertificates!=null && !snapshotStored) {
                 revokedCertificates.clear();
             }
         }
@@ -640,14 +736,26 @@ public class PublishingCrlSessionBean implements PublishingCrlSessionLocal, Publ
         }
         byte[] crlBytes = null;
         Collection<RevokedCertInfo> revcertinfos = null;
-        CompressedCollection<RevokedCertInfo> certs = null;
+        RevokedCertInfoCollection certs = null;
         try {
             final Certificate cacert = getCaCertificate(cainfo);
             final String caCertSubjectDN = cacert==null ? null : CertTools.getSubjectDN(cacert);
             // We can not create a CRL for a CA that is waiting for certificate response
             if ( caCertSubjectDN!=null && cainfo.getStatus()==CAConstants.CA_ACTIVE ) {
                 // Find all revoked certificates
-                revcertinfos = noConflictCertificateStoreSession.listRevokedCertInfo(caCertSubjectDN, crlPartitionIndex, lastBaseCrlInfo.getCreateDate().getTime());
+                RevocationSnapshot baseCrlSnapshot = null;
+                if (isIncrementalCrlGeneration(ca)) {
+                    // Read the status changes since the base CRL was created, preferably from the journal position of its snapshot
+                    baseCrlSnapshot = RevocationSnapshotCache.INSTANCE.get(caCertSubjectDN, crlPartitionIndex);
+                    if (baseCrlSnapshot != null && baseCrlSnapshot.getCrlNumber() != lastBaseCrlInfo.getLastCRLNumber()) {
+                        baseCrlSnapshot = null;
+                    }
+                    final long journalPosition = baseCrlSnapshot != null ? baseCrlSnapshot.getJournalPosition()
+                            : lastBaseCrlInfo.getCreateDate().getTime() - RevocationSnapshotCache.JOURNAL_OVERLAP_MILLIS;
+                    revcertinfos = certificateStoreSession.listRevocationChanges(caCertSubjectDN, crlPartitionIndex, journalPosition);
+                } else {
+                    revcertinfos = noConflictCertificateStoreSession.listRevokedCertInfo(caCertSubjectDN, crlPartitionIndex, lastBaseCrlInfo.getCreateDate().getTime());
+                }
 
                 // if X509 CA is marked as it has gone through Name Change add certificates revoked with old names
                 if(ca.getCAType()==CAInfo.CATYPE_X509 && ((X509CA)ca).getNameChanged()){
@@ -676,7 +784,7 @@ public class PublishingCrlSessionBean implements PublishingCrlSessionLocal, Publ
                     }
                     //Make sure new compressed collection is created if revokedCertificatesBeforeLastCANameChange need to be added!
                     Collection<RevokedCertInfo> revokedCertificatesAfterLastCANameChange = revcertinfos;
-                    revcertinfos = new CompressedCollection<>(RevokedCertInfo.class);
+                    revcertinfos = new RevokedCertInfoCollection(revokedCertificatesBeforeLastCANameChange.size() + revokedCertificatesAfterLastCANameChange.size());
                     if(!revokedCertificatesBeforeLastCANameChange.isEmpty()){
                         revcertinfos.addAll(revokedCertificatesBeforeLastCANameChange);
                     }
@@ -687,10 +795,20 @@ public class PublishingCrlSessionBean implements PublishingCrlSessionLocal, Publ
                     log.debug("Found "+revcertinfos.size()+" revoked certificates.");
                 }
                 // Go through them and create a CRL, i.e. add to cert list to be included in CRL
-                certs = new CompressedCollection<>(RevokedCertInfo.class);
+                certs = new RevokedCertInfoCollection(revcertinfos.size());
+                Set<ByteBuffer> baseCrlSerialNumbers = null;
                 for (final RevokedCertInfo ci : revcertinfos) {
                     final boolean certificateIsReleasedFromHold = ci.getReason() == RevocationReasons.REMOVEFROMCRL.getDatabaseValue();
-                    final boolean certificateAppearsOnBaseCrl = lastBaseCrlInfo.getCrl().getRevokedCertificate(ci.getUserCertificate()) != null;
+                    final boolean certificateAppearsOnBaseCrl;
+                    if (certificateIsReleasedFromHold && baseCrlSnapshot != null) {
+                        // The snapshot has the same entries as the base CRL, and is faster to search than the CRL
+                        if (baseCrlSerialNumbers == null) {
+                            baseCrlSerialNumbers = getSerialNumbers(baseCrlSnapshot.getRevokedCertificates());
+                        }
+                        certificateAppearsOnBaseCrl = baseCrlSerialNumbers.contains(ByteBuffer.wrap(ci.getUserCertificate().toByteArray()));
+                    } else {
+                        certificateAppearsOnBaseCrl = lastBaseCrlInfo.getCrl().getRevokedCertificate(ci.getUserCertificate()) != null;
+                    }
                     if (certificateIsReleasedFromHold && !certificateAppearsOnBaseCrl) {
                         if (log.isTraceEnabled()) {
                             log.trace("Not adding " + ci + " to CRL.");
@@ -722,7 +840,7 @@ public class PublishingCrlSessionBean implements PublishingCrlSessionLocal, Publ
             log.error(e);
             throw new EJBException(e);
         } finally {
-            // Special treatment of our CompressedCollections to ensure that we release all resources
+            // Release the revoked certificates right away, as there may be many of them
             if (revcertinfos!=null) {
                 revcertinfos.clear();
             }
@@ -780,6 +898,37 @@ public class PublishingCrlSessionBean implements PublishingCrlSessionLocal, Publ
         return crlBytes;
     }
 
+    /** @return true if CRLs of the CA should be created from the status changes since the last base CRL. See {@link RevocationSnapshotCache}. */
+    private boolean isIncrementalCrlGeneration(final CA ca) {
+        return EjbcaConfiguration.isCrlGenerationIncremental() && !ca.getCAInfo().isUseNoConflictCertificateData()
+                && !(ca.getCAType() == CAInfo.CATYPE_X509 && ((X509CA) ca).getNameChanged());
+    }
+
+    /** Keep the revoked certificates of a base CRL for the next CRL. @return true if the snapshot was stored */
+    private boolean storeRevocationSnapshot(final String caCertSubjectDN, final int crlPartitionIndex, final RevocationSnapshot snapshot, final byte[] crlBytes) {
+        try {
+            final BigInteger crlNumber = StreamingCrlEncoder.readCrlNumber(crlBytes);
+            if (crlNumber == null) {
+                return false;
+            }
+            snapshot.setCrlNumber(crlNumber.intValue());
+        } catch (IOException e) {
+            log.info("Unable to read the CRL number of the created CRL. All revoked certificates will be read for the next CRL: " + e.getMessage());
+            return false;
+        }
+        RevocationSnapshotCache.INSTANCE.put(caCertSubjectDN, crlPartitionIndex, snapshot);
+        return true;
+    }
+
+    private static Set<ByteBuffer> getSerialNumbers(final RevokedCertInfoCollection revokedCertificates) {
+        final Set<ByteBuffer> ret = new HashSet<>();
+        for (int i = 0; i < revokedCertificates.size(); i++) {
+            ret.add(ByteBuffer.wrap(revokedCertificates.getSerialNumberBuffer(), revokedCertificates.getSerialNumberOffset(i),
+                    revokedCertificates.getSerialNumberLength(i)));
+        }
+        return ret;
+    }
+
     private Certificate getCaCertificate(final CAInfo caInfo) {
         final Collection<Certificate> certificateChain = caInfo.getCertificateChain();
         return certificateChain.isEmpty() ? null : certificateChain.iterator().next();
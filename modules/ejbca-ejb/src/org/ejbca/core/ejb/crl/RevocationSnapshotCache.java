@@ -0,0 +1,148 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.ejb.crl;
+
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.cesecore.certificates.crl.RevokedCertInfo;
+import org.cesecore.certificates.crl.RevokedCertInfoCollection;
+
+/**
+ * The revoked certificates of each CA and CRL partition as of the last base CRL created on this node, used for incremental CRL
+ * generation (crlgeneration.incremental=true).
+ * <p>
+ * The database records every status change of a certificate in CertificateData.updateTime, which serves as the journal of changes.
+ * A snapshot holds all revoked certificates as they were at its journal position, so the revoked certificates of the next base CRL
+ * are the snapshot with the changes since the journal position applied. Changes are read a while before the time the snapshot
+ * was read, to cover transactions that were committed late and clock differences between nodes. Applying a change twice has no
+ * effect, so the overlap only costs some extra rows.
+ * <p>
+ * A snapshot is removed from the cache while a CRL is created from it, so that only one thread at a time uses it, and a concurrent
+ * CRL generation for the same CRL partition reads all revoked certificates instead.
+ *
+ * @version $Id$
+ */
+public enum RevocationSnapshotCache {
+    INSTANCE;
+
+    /** How long before the read of the revoked certificates the journal position is set */
+    static final long JOURNAL_OVERLAP_MILLIS = 5 * 60 * 1000L;
+
+    private final Map<String, RevocationSnapshot> snapshots = new ConcurrentHashMap<>();
+
+    /**
+     * Remove and return the snapshot of a CRL partition.
+     *
+     * @param issuerDn the subject DN of the CA certificate
+     * @param crlPartitionIndex CRL partition index, or CertificateConstants.NO_CRL_PARTITION if partitioning is not used.
+     * @param maxAge the maximum time in milliseconds since all revoked certificates were read for the snapshot
+     * @return the snapshot, or null if there is none or it is older than maxAge
+     */
+    RevocationSnapshot take(final String issuerDn, final int crlPartitionIndex, final long maxAge) {
+        final RevocationSnapshot snapshot = snapshots.remove(getKey(issuerDn, crlPartitionIndex));
+        if (snapshot == null || snapshot.getFullReadTime() + maxAge < System.currentTimeMillis()) {
+            return null;
+        }
+        return snapshot;
+    }
+
+    /** @return the snapshot of a CRL partition without removing it, or null if there is none. The snapshot must not be modified. */
+    RevocationSnapshot get(final String issuerDn, final int crlPartitionIndex) {
+        return snapshots.get(getKey(issuerDn, crlPartitionIndex));
+    }
+
+    /** Store the snapshot of a CRL partition, replacing any existing one */
+    void put(final String issuerDn, final int crlPartitionIndex, final RevocationSnapshot snapshot) {
+        snapshots.put(getKey(issuerDn, crlPartitionIndex), snapshot);
+    }
+
+    /** Remove all snapshots */
+    public void clear() {
+        snapshots.clear();
+    }
+
+    private static String getKey(final String issuerDn, final int crlPartitionIndex) {
+        return crlPartitionIndex + ";" + issuerDn;
+    }
+
+    /** The revoked certificates of a CRL partition at a position in the journal */
+    static final class RevocationSnapshot {
+        private final RevokedCertInfoCollection revokedCertificates;
+        private final long journalPosition;
+        private final long fullReadTime;
+        private int crlNumber = -1;
+
+        /**
+         * @param revokedCertificates all revoked certificates of the CRL partition
+         * @param journalPosition the earliest updateTime of changes that may not be included in revokedCertificates
+         * @param fullReadTime the time when all revoked certificates were last read from the database
+         */
+        RevocationSnapshot(final RevokedCertInfoCollection revokedCertificates, final long journalPosition, final long fullReadTime) {
+            this.revokedCertificates = revokedCertificates;
+            this.journalPosition = journalPosition;
+            this.fullReadTime = fullReadTime;
+        }
+
+        RevokedCertInfoCollection getRevokedCertificates() { return revokedCertificates; }
+
+        long getJournalPosition() { return journalPosition; }
+
+        long getFullReadTime() { return fullReadTime; }
+
+        /** @return the number of the base CRL created from the snapshot, or -1 if none has been created yet */
+        int getCrlNumber() { return crlNumber; }
+
+        void setCrlNumber(final int crlNumber) { this.crlNumber = crlNumber; }
+
+        /**
+         * Apply changes read from the journal to the revoked certificates of the snapshot. The snapshot itself is not modified.
+         *
+         * @param changes the certificates whose status changed since the journal position. Certificates that are no longer revoked have the
+         *      reason {@link RevokedCertInfo#REVOCATION_REASON_REMOVEFROMCRL}.
+         * @param journalPosition the journal position of the new snapshot
+         * @return a new snapshot with the revoked certificates of this one, except those in changes, followed by the revoked certificates
+         *      in changes
+         */
+        RevocationSnapshot applyChanges(final RevokedCertInfoCollection changes, final long journalPosition) {
+            final Set<ByteBuffer> changedSerialNumbers = new HashSet<>();
+            int revokedChanges = 0;
+            for (int i = 0; i < changes.size(); i++) {
+                changedSerialNumbers.add(getSerialNumberKey(changes, i));
+                if (changes.getReason(i) != RevokedCertInfo.REVOCATION_REASON_REMOVEFROMCRL) {
+                    revokedChanges++;
+                }
+            }
+            final RevokedCertInfoCollection merged = new RevokedCertInfoCollection(revokedCertificates.size() + revokedChanges);
+            for (int i = 0; i < revokedCertificates.size(); i++) {
+                if (changedSerialNumbers.isEmpty() || !changedSerialNumbers.contains(getSerialNumberKey(revokedCertificates, i))) {
+                    merged.add(revokedCertificates, i);
+                }
+            }
+            for (int i = 0; i < changes.size(); i++) {
+                if (changes.getReason(i) != RevokedCertInfo.REVOCATION_REASON_REMOVEFROMCRL) {
+                    merged.add(changes, i);
+                }
+            }
+            merged.closeForWrite();
+            return new RevocationSnapshot(merged, journalPosition, fullReadTime);
+        }
+
+        private static ByteBuffer getSerialNumberKey(final RevokedCertInfoCollection collection, final int index) {
+            return ByteBuffer.wrap(collection.getSerialNumberBuffer(), collection.getSerialNumberOffset(index), collection.getSerialNumberLength(index));
+        }
+    }
+}
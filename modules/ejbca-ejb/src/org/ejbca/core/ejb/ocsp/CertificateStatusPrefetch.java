@@ -0,0 +1,91 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.ejb.ocsp;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiFunction;
+
+import org.cesecore.certificates.certificate.CertificateStatus;
+
+/**
+ * The status of the certificates in an OCSP request with several entries, looked up with one database query per issuer instead of
+ * one per entry.
+ * <p>
+ * Each serial number is first looked up in the revocation status index, and only the serial numbers the index can not answer are
+ * included in the database query. The status from the index is kept, so that each entry is answered with the same status that
+ * decided whether it was queried.
+ *
+ * @version $Id$
+ */
+final class CertificateStatusPrefetch {
+
+    /** No prefetched statuses, for requests with a single entry */
+    static final CertificateStatusPrefetch EMPTY = new CertificateStatusPrefetch();
+
+    /** Status by serial number for each issuer DN */
+    private final Map<String, Map<BigInteger, CertificateStatus>> statuses;
+    private int queriedCount = 0;
+
+    private CertificateStatusPrefetch() {
+        statuses = Collections.emptyMap();
+    }
+
+    /**
+     * @param serialNumbersByIssuer the serial numbers to look up for each issuer DN (as returned by CertTools.getSubjectDN)
+     * @param statusIndex lookup in the revocation status index, which returns null when the database has to be queried
+     * @param certificateStore lookup of the status of several certificates of an issuer in the database
+     */
+    CertificateStatusPrefetch(final Map<String, ? extends Collection<BigInteger>> serialNumbersByIssuer,
+            final BiFunction<String, BigInteger, CertificateStatus> statusIndex,
+            final BiFunction<String, List<BigInteger>, Map<BigInteger, CertificateStatus>> certificateStore) {
+        statuses = new HashMap<>();
+        for (final Map.Entry<String, ? extends Collection<BigInteger>> entry : serialNumbersByIssuer.entrySet()) {
+            final Map<BigInteger, CertificateStatus> issuerStatuses = new HashMap<>();
+            final List<BigInteger> notIndexed = new ArrayList<>();
+            for (final BigInteger serialNumber : entry.getValue()) {
+                final CertificateStatus indexedStatus = statusIndex.apply(entry.getKey(), serialNumber);
+                if (indexedStatus != null) {
+                    issuerStatuses.put(serialNumber, indexedStatus);
+                } else if (!notIndexed.contains(serialNumber)) {
+                    notIndexed.add(serialNumber);
+                }
+            }
+            if (!notIndexed.isEmpty()) {
+                issuerStatuses.putAll(certificateStore.apply(entry.getKey(), notIndexed));
+                queriedCount += notIndexed.size();
+            }
+            statuses.put(entry.getKey(), issuerStatuses);
+        }
+    }
+
+    /**
+     * @param issuerDn the issuer DN, as returned by CertTools.getSubjectDN
+     * @param serialNumber the serial number of the certificate
+     * @return the prefetched status, or null if the status was not prefetched
+     */
+    CertificateStatus getStatus(final String issuerDn, final BigInteger serialNumber) {
+        final Map<BigInteger, CertificateStatus> issuerStatuses = statuses.get(issuerDn);
+        return issuerStatuses == null ? null : issuerStatuses.get(serialNumber);
+    }
+
+    /** @return the number of serial numbers that were looked up in the database */
+    int getQueriedCount() {
+        return queriedCount;
+    }
+}
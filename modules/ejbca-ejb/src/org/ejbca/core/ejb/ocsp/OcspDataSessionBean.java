@@ -12,7 +12,12 @@
  *************************************************************************/
 package org.ejbca.core.ejb.ocsp;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 import javax.ejb.Asynchronous;
@@ -28,6 +33,7 @@ import org.apache.log4j.Logger;
 import org.cesecore.config.CesecoreConfiguration;
 import org.cesecore.jndi.JndiConstants;
 import org.cesecore.oscp.OcspResponseData;
+import org.cesecore.util.ValueExtractor;
 
 /**
  * 
@@ -39,6 +45,8 @@ import org.cesecore.oscp.OcspResponseData;
 public class OcspDataSessionBean implements OcspDataSessionLocal, OcspDataSessionRemote {
 
     private static final Logger log = Logger.getLogger(OcspDataSessionBean.class);
+    /** Oracle does not allow more than 1000 expressions in an IN list */
+    private static final int MAX_SERIAL_NUMBERS_PER_QUERY = 1000;
 
     @PersistenceContext(unitName = CesecoreConfiguration.PERSISTENCE_UNIT)
     private EntityManager entityManager;
@@ -118,6 +126,31 @@ public class OcspDataSessionBean implements OcspDataSessionLocal, OcspDataSessio
                            .collect(Collectors.toList());
     }
     
+    @Override
+    public Map<String, Long> findLatestNextUpdates(final Integer caId, final Collection<String> serialNumbers) {
+        final Map<String, Long> result = new HashMap<>();
+        if (serialNumbers.isEmpty()) {
+            return result;
+        }
+        final List<String> batch = new ArrayList<>(new HashSet<>(serialNumbers));
+        for (int i = 0; i < batch.size(); i += MAX_SERIAL_NUMBERS_PER_QUERY) {
+            final List<String> page = batch.subList(i, Math.min(i + MAX_SERIAL_NUMBERS_PER_QUERY, batch.size()));
+            final TypedQuery<Object[]> query = this.entityManager.createQuery("SELECT a.serialNumber, MAX(a.nextUpdate) FROM OcspResponseData a"
+                    + " WHERE a.caId = :caId AND a.serialNumber IN (:serialNumbers) GROUP BY a.serialNumber", Object[].class);
+            query.setParameter("caId", caId);
+            query.setParameter("serialNumbers", page);
+            for (final Object[] row : query.getResultList()) {
+                if (row[1] != null) {
+                    result.put((String) row[0], ValueExtractor.extractLongValue(row[1]));
+                }
+            }
+        }
+        if (log.isTraceEnabled()) {
+            log.trace("findLatestNextUpdates(" + caId + ") found responses for " + result.size() + " of " + serialNumbers.size() + " serial numbers.");
+        }
+        return result;
+    }
+
     @Override
     public void deleteOcspDataByCaId(final Integer caId) {
         log.trace(">deleteOcspDataByCaId");
@@ -0,0 +1,50 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.ejb.ocsp;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+
+import org.cesecore.certificates.ocsp.logging.PatternLogger;
+
+/**
+ * Ties the background writer of the OCSP transaction and audit logs (ocsp.log-async) to the life cycle of the application, so that
+ * the log lines handed over to it are written and the thread is stopped when the application is undeployed.
+ *
+ * @version $Id$
+ */
+@Singleton
+@Startup
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+@TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+public class OcspLogWriterShutdownBean {
+
+    /** Time to wait for the log lines handed over to be written when the application is undeployed */
+    private static final long SHUTDOWN_TIMEOUT_MS = 30000L;
+
+    @PostConstruct
+    public void startup() {
+        PatternLogger.startAsyncWriter();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        PatternLogger.stopAsyncWriter(SHUTDOWN_TIMEOUT_MS);
+    }
+}
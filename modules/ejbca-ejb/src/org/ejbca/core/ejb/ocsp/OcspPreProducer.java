@@ -0,0 +1,155 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.ejb.ocsp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Pre-produces the OCSP responses of one CA for the {@link OcspResponsePreProductionSessionBean}.
+ * <p>
+ * The unexpired certificates of the CA are walked in serial number order, one batch at a time. For each batch, the latest
+ * nextUpdate of the stored responses is looked up, and responses are signed in parallel for the certificates whose latest
+ * response is missing or expires within the refresh margin. The next batch is read when the whole batch has been signed.
+ *
+ * @version $Id$
+ */
+final class OcspPreProducer {
+
+    private static final Logger log = Logger.getLogger(OcspPreProducer.class);
+
+    private static final long IDLE_THREAD_KEEPALIVE_SECONDS = 60;
+
+    /** Reads the serial numbers of the unexpired certificates of the CA, in serial number order */
+    interface SerialNumberSource {
+        /**
+         * @param now the current time, certificates expiring before this are skipped
+         * @param lastSerialNumber the last serial number of the previous batch, or null for the first batch
+         * @param batchSize the maximum number of serial numbers to return
+         * @return the serial numbers following lastSerialNumber
+         */
+        List<String> findSerialNumbers(long now, String lastSerialNumber, int batchSize);
+    }
+
+    private final SerialNumberSource serialNumberSource;
+    private final Function<List<String>, Map<String, Long>> latestNextUpdates;
+    private final Predicate<String> preSigner;
+    private final int batchSize;
+    private final long refreshMargin;
+
+    /**
+     * @param serialNumberSource reads the serial numbers of the CA
+     * @param latestNextUpdates looks up the latest nextUpdate of the stored responses by serial number
+     * @param preSigner signs and stores a response for a serial number, and returns true if a response was produced
+     * @param batchSize the number of serial numbers in each batch
+     * @param refreshMargin responses expiring within this many milliseconds are produced again
+     */
+    OcspPreProducer(final SerialNumberSource serialNumberSource, final Function<List<String>, Map<String, Long>> latestNextUpdates,
+            final Predicate<String> preSigner, final int batchSize, final long refreshMargin) {
+        this.serialNumberSource = serialNumberSource;
+        this.latestNextUpdates = latestNextUpdates;
+        this.preSigner = preSigner;
+        this.batchSize = batchSize;
+        this.refreshMargin = refreshMargin;
+    }
+
+    /**
+     * Pre-produce the responses that are due, and report the progress.
+     *
+     * @param executorService the thread pool signing the responses
+     * @throws InterruptedException if interrupted while waiting for a batch to be signed
+     */
+    void run(final ExecutorService executorService, final OcspPreProductionProgress progress) throws InterruptedException {
+        String lastSerialNumber = null;
+        while (true) {
+            final long now = System.currentTimeMillis();
+            final List<String> serialNumbers = serialNumberSource.findSerialNumbers(now, lastSerialNumber, batchSize);
+            if (serialNumbers.isEmpty()) {
+                return;
+            }
+            lastSerialNumber = serialNumbers.get(serialNumbers.size() - 1);
+            final List<Callable<Void>> tasks = new ArrayList<>();
+            for (final String serialNumber : getDueSerialNumbers(serialNumbers, now)) {
+                tasks.add(() -> {
+                    boolean produced = false;
+                    try {
+                        produced = preSigner.test(serialNumber);
+                    } catch (RuntimeException e) {
+                        log.info("Failed to pre-produce OCSP response for serial number " + serialNumber + ": " + e.getMessage());
+                    }
+                    if (produced) {
+                        progress.addResponseProduced();
+                    } else {
+                        progress.addFailure();
+                    }
+                    return null;
+                });
+            }
+            executorService.invokeAll(tasks);
+            progress.addCertificatesChecked(serialNumbers.size());
+            if (log.isDebugEnabled()) {
+                log.debug("OCSP response pre-production progress for " + progress);
+            }
+            if (serialNumbers.size() < batchSize) {
+                return;
+            }
+        }
+    }
+
+    /** @return the serial numbers whose latest stored response is missing or expires within the refresh margin */
+    List<String> getDueSerialNumbers(final List<String> serialNumbers, final long now) {
+        final Map<String, Long> nextUpdates = latestNextUpdates.apply(serialNumbers);
+        final List<String> ret = new ArrayList<>();
+        for (final String serialNumber : serialNumbers) {
+            final Long nextUpdate = nextUpdates.get(serialNumber);
+            if (nextUpdate == null || nextUpdate <= now + refreshMargin) {
+                ret.add(serialNumber);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @param executorService the thread pool used by the previous run, or null
+     * @param threads the number of threads from the current configuration
+     * @return the thread pool, created if needed and resized to the number of threads
+     */
+    static ThreadPoolExecutor getResizedExecutorService(final ThreadPoolExecutor executorService, final int threads) {
+        if (executorService == null) {
+            final ThreadPoolExecutor ret = (ThreadPoolExecutor) Executors.newFixedThreadPool(threads);
+            ret.setKeepAliveTime(IDLE_THREAD_KEEPALIVE_SECONDS, TimeUnit.SECONDS);
+            // Don't keep threads between runs
+            ret.allowCoreThreadTimeOut(true);
+            return ret;
+        }
+        // The core pool size must never exceed the maximum pool size
+        if (executorService.getMaximumPoolSize() < threads) {
+            executorService.setMaximumPoolSize(threads);
+            executorService.setCorePoolSize(threads);
+        } else if (executorService.getMaximumPoolSize() > threads) {
+            executorService.setCorePoolSize(threads);
+            executorService.setMaximumPoolSize(threads);
+        }
+        return executorService;
+    }
+}
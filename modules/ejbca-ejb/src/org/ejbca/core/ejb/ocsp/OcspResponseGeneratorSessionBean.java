@@ -54,14 +54,13 @@ import java.util.TimeZone;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
+import javax.ejb.Asynchronous;
 import javax.ejb.EJB;
 import javax.ejb.EJBException;
 import javax.ejb.SessionContext;
@@ -143,12 +142,17 @@ import org.cesecore.certificates.ocsp.cache.OcspDataConfigCache;
 import org.cesecore.certificates.ocsp.cache.OcspDataConfigCacheEntry;
 import org.cesecore.certificates.ocsp.cache.OcspExtensionsCache;
 import org.cesecore.certificates.ocsp.cache.OcspRequestSignerStatusCache;
+import org.cesecore.certificates.ocsp.cache.OcspResponseCache;
+import org.cesecore.certificates.ocsp.cache.OcspResponseCacheEntry;
 import org.cesecore.certificates.ocsp.cache.OcspSigningCache;
 import org.cesecore.certificates.ocsp.cache.OcspSigningCacheEntry;
+import org.cesecore.certificates.ocsp.cache.OcspSigningCacheMisses;
+import org.cesecore.certificates.ocsp.cache.RevocationStatusIndex;
 import org.cesecore.certificates.ocsp.exception.CryptoProviderException;
 import org.cesecore.certificates.ocsp.exception.IllegalNonceException;
 import org.cesecore.certificates.ocsp.exception.MalformedRequestException;
 import org.cesecore.certificates.ocsp.exception.OcspFailureException;
+import org.cesecore.certificates.ocsp.exception.OcspSigningBusyException;
 import org.cesecore.certificates.ocsp.extension.OCSPExtension;
 import org.cesecore.certificates.ocsp.extension.OCSPExtensionType;
 import org.cesecore.certificates.ocsp.logging.AuditLogger;
@@ -196,6 +200,7 @@ import org.cesecore.util.log.SaferDailyRollingFileAppender;
 import org.cesecore.util.provider.EkuPKIXCertPathChecker;
 import org.ejbca.core.ejb.ca.publisher.PublisherSessionLocal;
 import org.ejbca.core.model.ca.publisher.PublisherException;
+import org.ejbca.core.protocol.ocsp.OcspStageStatistics;
 
 
 /**
@@ -214,8 +219,6 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
 
     private static final InternalResources intres = InternalResources.getInstance();
     
-    private static volatile ExecutorService service = Executors.newCachedThreadPool();
-    
     @Resource
     private SessionContext sessionContext;
     /* When the sessionContext is injected, the timerService should be looked up.
@@ -244,6 +247,7 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
     private PublisherSessionLocal publisherSession;
 
     private JcaX509CertificateConverter certificateConverter = new JcaX509CertificateConverter();
+    private OcspResponseGeneratorSessionLocal ocspResponseGeneratorSession;
 
     @PostConstruct
     public void init() {
@@ -252,6 +256,7 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
             log.info("Added us as subscriber: " + SaferDailyRollingFileAppender.class.getCanonicalName());
         }
         timerService = sessionContext.getTimerService();
+        ocspResponseGeneratorSession = sessionContext.getBusinessObject(OcspResponseGeneratorSessionLocal.class);
     }
     
     @Override
@@ -286,6 +291,12 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
         OcspRequestSignerStatusCache.INSTANCE.flush();
     }
 
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public Map<String, OcspSigningKeyStatistics> getSigningStatistics() {
+        return OcspSigningScheduler.INSTANCE.getStatistics();
+    }
+
     @Override
     @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
     public void reloadOcspSigningCache() {
@@ -481,6 +492,9 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
                 }
                 OcspSigningCache.INSTANCE.stagingCommit(ocspConfiguration.getOcspDefaultResponderReference());
                 OcspDataConfigCache.INSTANCE.stagingCommit();
+                OcspSigningScheduler.INSTANCE.retainKeys(OcspSigningCache.INSTANCE.getEntries());
+                // Cached responses may be signed by responders that were removed, or with a configuration that has changed
+                OcspResponseCache.INSTANCE.flush();
             } finally {
                 OcspSigningCache.INSTANCE.stagingRelease();
             }
@@ -490,6 +504,37 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
         }
     } 
     
+    @Override
+    @Asynchronous
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public void reloadOcspSigningCacheForMissingIssuers() {
+        boolean reloadAgain = true;
+        while (reloadAgain) {
+            final List<CertificateID> certIds = OcspSigningCacheMisses.INSTANCE.startReload();
+            try {
+                reloadOcspSigningCache();
+                final GlobalOcspConfiguration ocspConfiguration = (GlobalOcspConfiguration) globalConfigurationSession
+                        .getCachedConfiguration(GlobalOcspConfiguration.OCSP_CONFIGURATION_ID);
+                if (ocspConfiguration.getOcspSigningCacheUpdateEnabled()) {
+                    for (final CertificateID certId : certIds) {
+                        if (OcspSigningCache.INSTANCE.getEntry(certId) == null) {
+                            // Now try to update the cache from internal key bindings
+                            final OcspDataConfigCacheEntry ocspDataConfig = OcspDataConfigCache.INSTANCE.getEntry(certId);
+                            findAndAddMissingCacheEntry(certId, ocspDataConfig != null && ocspDataConfig.isMsCaCompatible());
+                        }
+                    }
+                }
+            } catch (CertificateEncodingException | RuntimeException e) {
+                log.warn("Failed to reload OCSP signing cache for missing issuers: " + e.getMessage());
+                if (log.isDebugEnabled()) {
+                    log.debug("Failed to reload OCSP signing cache for missing issuers.", e);
+                }
+            } finally {
+                reloadAgain = OcspSigningCacheMisses.INSTANCE.finishReload();
+            }
+        }
+    }
+
     private byte[] getAuthorityKeyIdentifier(X509Certificate certificate) {
         byte[] fullExtValue = certificate.getExtensionValue(Extension.authorityKeyIdentifier.getId());
         byte[] extValue = ASN1OctetString.getInstance(fullExtValue).getOctets();
@@ -1253,6 +1298,8 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
         }
         byte[] respBytes = null;
         final Date startTime = new Date();
+        // Responses produced in the background are not included in the statistics
+        final OcspStageStatistics.Timer stageTimer = isPreSigning ? OcspStageStatistics.DISABLED_TIMER : OcspStageStatistics.INSTANCE.startTimer();
         OCSPResp ocspResponse = null;
         // Start logging process time after we have received the request
         if (!isPreSigning && transactionLogger.isEnabled()) {
@@ -1268,8 +1315,11 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
         X509Certificate signerCert = null;
         String serialNrForResponseStore = null;
         int caIdForResponseStore = 0;
+        // Set when the response only depends on the certificate status in the database and may be put in the response cache
+        CertificateID cacheableCertId = null;
         try {
             req = translateRequestFromByteArray(request, remoteAddress, transactionLogger);
+            stageTimer.lap(OcspStageStatistics.Stage.PARSE);
             // Get the certificate status requests that are inside this OCSP req
             Req[] ocspRequests = req.getRequestList();
             if (ocspRequests.length <= 0) {
@@ -1297,6 +1347,11 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
             long nextUpdate = OcspConfiguration.getUntilNextUpdate(CertificateProfileConstants.CERTPROFILE_NO_PROFILE);
             Map<ASN1ObjectIdentifier, Extension> responseExtensions = new HashMap<>();
             
+            // Look up the status of all certificates at once when there are several of them
+            stageTimer.mark();
+            final CertificateStatusPrefetch prefetchedStatuses = ocspRequests.length > 1 && !isPreSigning
+                    ? prefetchCertificateStatuses(ocspRequests) : CertificateStatusPrefetch.EMPTY;
+            stageTimer.lap(OcspStageStatistics.Stage.STATUS_LOOKUP);
             // Look over the status requests
             List<OCSPResponseItem> responseList = new ArrayList<>();
             // If the Extended Revoked Definition should be added for certificates that we can not find in the database, see RFC6960 4.4.8
@@ -1328,36 +1383,28 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
                     log.info(intres.getLocalizedMessage("ocsp.inforeceivedrequestwxff", certId.getSerialNumber().toString(16), hash, remoteAddress, xForwardedFor));
                 }
                 
+                stageTimer.mark();
                 ocspSigningCacheEntry = OcspSigningCache.INSTANCE.getEntry(certId);
                 OcspDataConfigCacheEntry ocspDataConfig = OcspDataConfigCache.INSTANCE.getEntry(certId);
 
                 // Locate the CA which gave out the certificate
                 if (Objects.isNull(ocspSigningCacheEntry)) {
-
-                    GlobalOcspConfiguration ocspConfiguration = (GlobalOcspConfiguration) globalConfigurationSession
-                            .getCachedConfiguration(GlobalOcspConfiguration.OCSP_CONFIGURATION_ID);
-
-                    // An extra cache reload in case we are on an MS compatible CA
-                    reloadOcspSigningCache();
-                    ocspSigningCacheEntry = OcspSigningCache.INSTANCE.getEntry(certId);
-                    ocspDataConfig = OcspDataConfigCache.INSTANCE.getEntry(certId);
-
-                    if (Objects.isNull(ocspSigningCacheEntry) && ocspConfiguration.getOcspSigningCacheUpdateEnabled()) {
-                        // Now try to update the cache from internal key bindings
-
-                        //Could it be that we haven't updated the OCSP Signing Cache?
-                        if (ocspDataConfig != null && ocspDataConfig.isMsCaCompatible()) {
-                            ocspSigningCacheEntry = findAndAddMissingCacheEntry(certId, true);
-                        } else {
-                            ocspSigningCacheEntry = findAndAddMissingCacheEntry(certId, false);
+                    // Reload the cache in the background (e.g. in case we are on an MS compatible CA) and answer from the current cache meanwhile
+                    if (OcspSigningCacheMisses.INSTANCE.addMiss(certId, System.currentTimeMillis(), OcspConfiguration.getSigningCacheNegativeCacheTimeMs())) {
+                        try {
+                            ocspResponseGeneratorSession.reloadOcspSigningCacheForMissingIssuers();
+                        } catch (RuntimeException e) {
+                            // The reload was never started, so let the next miss start one instead of waiting for this one forever
+                            OcspSigningCacheMisses.INSTANCE.flush();
+                            log.warn("Failed to start reload of OCSP signing cache for missing issuers: " + e.getMessage());
                         }
-
                     }
                 }
                 // We only store pre-produced single responses
                 if (ocspRequests.length == 1 && ocspDataConfig != null && ocspDataConfig.isPreProductionEnabled()) {
                     
                     final OcspResponseData ocspResponseData = ocspDataSession.findOcspDataByCaIdSerialNumber(ocspDataConfig.getCaId(), certId.getSerialNumber().toString());
+                    stageTimer.lap(OcspStageStatistics.Stage.SIGNING_CACHE_LOOKUP);
 
                     // 1. If no stored response exists. Skip this, produce and new one and store it later on (if storing on-demand is enabled)
                     // 2. If a response is stored, still valid and request has only supported extensions: return it.
@@ -1401,6 +1448,8 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
                                 transactionLogger.writeln();
                                 transactionLogger.flush();
                             }
+                            stageTimer.setResponder(ocspSigningCacheEntry);
+                            stageTimer.finish();
                             return new OcspResponseInformation(ocspResp, maxAge, signerCert);
                         } catch (IOException e) {
                             log.warn("Pre-produced OCSP response for certificate with serialNr '" + certId.getSerialNumber()
@@ -1427,6 +1476,7 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
                         }
                     }
                 } else {
+                    stageTimer.lap(OcspStageStatistics.Stage.SIGNING_CACHE_LOOKUP);
                     if (log.isDebugEnabled()) {
                         if (ocspDataConfig != null) {
                             log.debug("Pre-production of OCSP responses is not enabled (" + ocspDataConfig.isPreProductionEnabled() + ") for CA " + ocspDataConfig.getCaId());
@@ -1478,6 +1528,7 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
                                     transactionLogger.paramPut(TransactionLogger.STATUS, OCSPRespBuilder.UNAUTHORIZED);
                                 }
                                 log.info(intres.getLocalizedMessage("ocsp.errorfindcacertusedefault", StringTools.hex(certId.getIssuerNameHash()), "Unauthorized"));
+                                stageTimer.finish();
                                 // Return early here
                                 return new OcspResponseInformation(ocspResponse, maxAge, null);
                             }
@@ -1545,13 +1596,26 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
                      * any OIDs defined (default case), but if there are we'll probably need the certificate as well. If that's the case, we'll grab
                      * the certificate in the same transaction.
                      */
+                    stageTimer.mark();
                     final CertificateStatus status;
                     if (extensionOids.isEmpty()) {
-                        status = certificateStoreSession.getStatus(caCertificateSubjectDn, certId.getSerialNumber());
+                        // The prefetched status is from the revocation status index or the database, whichever answered first
+                        final CertificateStatus prefetchedStatus = prefetchedStatuses.getStatus(caCertificateSubjectDn, certId.getSerialNumber());
+                        // Use the in-memory revocation status index when enabled, it returns null when the database has to be queried
+                        final CertificateStatus indexedStatus = prefetchedStatus != null || isPreSigning ? null
+                                : RevocationStatusIndex.INSTANCE.getStatus(caCertificateSubjectDn, certId.getSerialNumber());
+                        if (prefetchedStatus != null) {
+                            status = prefetchedStatus;
+                        } else if (indexedStatus != null) {
+                            status = indexedStatus;
+                        } else {
+                            status = certificateStoreSession.getStatus(caCertificateSubjectDn, certId.getSerialNumber());
+                        }
                     } else {
                         certificateStatusHolder = certificateStoreSession.getCertificateAndStatus(caCertificateSubjectDn, certId.getSerialNumber());
                         status = certificateStatusHolder.getCertificateStatus();
                     }
+                    stageTimer.lap(OcspStageStatistics.Stage.STATUS_LOOKUP);
                     if (!isPreSigning && transactionLogger.isEnabled()) {
                         transactionLogger.paramPut(TransactionLogger.CERT_PROFILE_ID, String.valueOf(status.certificateProfileId));
                     }
@@ -1625,6 +1689,8 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
                                 transactionLogger.paramPut(TransactionLogger.STATUS, OCSPRespBuilder.UNAUTHORIZED);
                             }
                             log.info(intres.getLocalizedMessage("ocsp.errorfindcert", certId.getSerialNumber().toString(16), caCertificateSubjectDn));
+                            stageTimer.setResponder(ocspSigningCacheEntry);
+                            stageTimer.finish();
                             //Return early here
                             return new OcspResponseInformation(ocspResponse, maxAge, null);
                         } else {
@@ -1688,12 +1754,18 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
                         nextUpdate = cal.getTimeInMillis();
                     }
                     respItem = new OCSPResponseItem(certId, certStatus, nextUpdate);
+                    if (!isPreSigning && ocspRequests.length == 1 && extensionOids.isEmpty() && !status.equals(CertificateStatus.NOT_AVAILABLE)
+                            && !req.hasExtensions() && !req.isSigned() && OcspConfiguration.isResponseCacheEnabled()) {
+                        // Without a nonce or other extensions, identical requests get identical responses until the status changes
+                        cacheableCertId = certId;
+                    }
                     final OcspKeyBinding ocspKeyBinding = ocspSigningCacheEntry.getOcspKeyBinding();
                     if (ocspKeyBinding != null && ocspKeyBinding.getOcspExtensions().contains(OCSPObjectIdentifiers.id_pkix_ocsp_archive_cutoff.getId())) {
                         addArchiveCutoff(respItem, ocspSigningCacheEntry.getIssuerCaCertificate(), ocspKeyBinding);
                     }
                 }
  
+                stageTimer.mark();
                 for (String oidstr : extensionOids) {
                     boolean useAlways = false;
                     if (oidstr.equals(alwaysUseOid)) {
@@ -1736,6 +1808,7 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
                         }
                     }
                 }
+                stageTimer.lap(OcspStageStatistics.Stage.EXTENSIONS);
                 responseList.add(respItem);
             }
             if (addExtendedRevokedExtension) { 
@@ -1748,15 +1821,20 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
                 }
             }
             if (ocspSigningCacheEntry != null) {
+                stageTimer.setResponder(ocspSigningCacheEntry);
+                stageTimer.mark();
                 // Add standard response extensions
                 responseExtensions.putAll(getStandardResponseExtensions(req, ocspSigningCacheEntry));
                 
                 // Add responseExtensions
                 Extensions exts = new Extensions(responseExtensions.values().toArray(new Extension[0]));
+                stageTimer.lap(OcspStageStatistics.Stage.EXTENSIONS);
                 // generate the signed response object
                 BasicOCSPResp basicresp = signOcspResponse(req, responseList, exts, ocspSigningCacheEntry, producedAt);
+                stageTimer.lap(OcspStageStatistics.Stage.SIGNING);
                 signerCert = ocspSigningCacheEntry.getSigningCertificate();
                 ocspResponse = responseGenerator.build(OCSPRespBuilder.SUCCESSFUL, basicresp);
+                stageTimer.lap(OcspStageStatistics.Stage.ENCODING);
                 if (!isPreSigning && auditLogger.isEnabled()) {
                     auditLogger.paramPut(AuditLogger.STATUS, OCSPRespBuilder.SUCCESSFUL);
                 }
@@ -1844,11 +1922,30 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
             if (!isPreSigning && auditLogger.isEnabled()) {
                 auditLogger.paramPut(AuditLogger.STATUS, OCSPRespBuilder.MALFORMED_REQUEST);
             }
+        } catch (OcspSigningBusyException e) {
+            if (!isPreSigning && transactionLogger.isEnabled()) {
+                transactionLogger.paramPut(PatternLogger.PROCESS_TIME, PatternLogger.PROCESS_TIME);
+            }
+            if (!isPreSigning && auditLogger.isEnabled()) {
+                auditLogger.paramPut(PatternLogger.PROCESS_TIME, PatternLogger.PROCESS_TIME);
+            }
+            String errMsg = intres.getLocalizedMessage("ocsp.errorprocessreq", e.getMessage());
+            log.info(errMsg); // No need to log the full exception here
+            // RFC 2560: responseBytes are not set on error.
+            ocspResponse = responseGenerator.build(OCSPRespBuilder.TRY_LATER, null);
+            if (!isPreSigning && transactionLogger.isEnabled()) {
+                transactionLogger.paramPut(TransactionLogger.STATUS, OCSPRespBuilder.TRY_LATER);
+            }
+            if (!isPreSigning && auditLogger.isEnabled()) {
+                auditLogger.paramPut(AuditLogger.STATUS, OCSPRespBuilder.TRY_LATER);
+            }
         } catch (NoSuchAlgorithmException | CertificateException | CryptoTokenOfflineException e) {
             ocspResponse = processDefaultError(isPreSigning, responseGenerator, transactionLogger, auditLogger, e);
         }
         try {
+            stageTimer.mark();
             respBytes = ocspResponse.getEncoded();
+            stageTimer.lap(OcspStageStatistics.Stage.ENCODING);
             if (!isPreSigning && auditLogger.isEnabled()) {
                 auditLogger.paramPut(AuditLogger.OCSPRESPONSE, StringTools.hex(respBytes));
                 auditLogger.writeln();
@@ -1894,9 +1991,53 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
                 log.warn("Error storing OCSP response for certificate with serialNr '" + serialNrForResponseStore);
             }
         }
-        return new OcspResponseInformation(ocspResponse, maxAge, signerCert);
+        final OcspResponseInformation ocspResponseInformation = new OcspResponseInformation(ocspResponse, maxAge, signerCert);
+        if (cacheableCertId != null) {
+            putInResponseCache(cacheableCertId, ocspResponseInformation, startTime.getTime());
+        }
+        stageTimer.finish();
+        return ocspResponseInformation;
+    }
+
+    /** Put a response in the OCSP response cache, if it may be cached by HTTP caches as well. */
+    private void putInResponseCache(final CertificateID certId, final OcspResponseInformation ocspResponseInformation, final long requestTime) {
+        if (ocspResponseInformation.getStatus() != OCSPRespBuilder.SUCCESSFUL || !ocspResponseInformation.shouldAddCacheHeaders()
+                || ocspResponseInformation.isExplicitNoCache() || ocspResponseInformation.getMaxAge() <= 0) {
+            return;
+        }
+        final long expireTime = Math.min(ocspResponseInformation.getNextUpdate(), requestTime + ocspResponseInformation.getMaxAge());
+        final OcspResponseCacheEntry entry = new OcspResponseCacheEntry(certId, ocspResponseInformation.getOcspResponse(),
+                ocspResponseInformation.getThisUpdate(), ocspResponseInformation.getNextUpdate(), ocspResponseInformation.getMaxAge(),
+                ocspResponseInformation.getResponseHeader(), ocspResponseInformation.getSignerCert(), expireTime);
+        OcspResponseCache.INSTANCE.put(certId, entry, requestTime, OcspConfiguration.getResponseCacheMaxSize());
     }
     
+    /**
+     * Look up the status of the certificates in a request with several entries, with one database query per issuer instead of one
+     * per entry. Entries that can be answered from the revocation status index are not included in the queries.
+     *
+     * @param ocspRequests the entries of the request
+     * @return the status of the entries with an issuer in the OCSP signing cache
+     */
+    private CertificateStatusPrefetch prefetchCertificateStatuses(final Req[] ocspRequests) {
+        final Map<String, List<BigInteger>> serialNumbersByIssuer = new HashMap<>();
+        for (final Req ocspRequest : ocspRequests) {
+            final CertificateID certId = ocspRequest.getCertID();
+            final OcspSigningCacheEntry ocspSigningCacheEntry = OcspSigningCache.INSTANCE.getEntry(certId);
+            if (ocspSigningCacheEntry == null || ocspSigningCacheEntry.getIssuerCaCertificate() == null) {
+                continue;
+            }
+            final String issuerDn = CertTools.getSubjectDN(ocspSigningCacheEntry.getIssuerCaCertificate());
+            serialNumbersByIssuer.computeIfAbsent(issuerDn, k -> new ArrayList<>()).add(certId.getSerialNumber());
+        }
+        final CertificateStatusPrefetch ret = new CertificateStatusPrefetch(serialNumbersByIssuer, RevocationStatusIndex.INSTANCE::getStatus,
+                certificateStoreSession::getStatuses);
+        if (log.isDebugEnabled()) {
+            log.debug("Looked up the status of " + ret.getQueriedCount() + " of " + ocspRequests.length + " request entries in the database.");
+        }
+        return ret;
+    }
+
     private int fetchCertStatus(org.bouncycastle.cert.ocsp.CertificateStatus certStatus) {
         if (Objects.isNull(certStatus)) {
             return OCSPResponseItem.OCSP_GOOD;
@@ -2079,7 +2220,7 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
     }
     
     @Override
-    public void preSignOcspResponse(X509Certificate cacert, final BigInteger serialNr, boolean issueFinalResponse, String certIDHashAlgorithm) {
+    public boolean preSignOcspResponse(X509Certificate cacert, final BigInteger serialNr, boolean issueFinalResponse, String certIDHashAlgorithm) {
         final OCSPReq req;
         final OCSPReqBuilder gen = new OCSPReqBuilder();
         final int localTransactionId = TransactionCounter.INSTANCE.getTransactionNumber();
@@ -2098,7 +2239,9 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
 
             gen.addRequest(certId);
             req = gen.build();
-            getOcspResponse(req.getEncoded(), null, remoteAddress, null, null, auditLogger, transactionLogger, true, issueFinalResponse);
+            final OcspResponseInformation ocspResponseInformation = getOcspResponse(req.getEncoded(), null, remoteAddress, null, null, auditLogger,
+                    transactionLogger, true, issueFinalResponse);
+            return ocspResponseInformation.getStatus() == OCSPRespBuilder.SUCCESSFUL;
         } catch (Throwable e) {
             final String errMsg = intres.getLocalizedMessage("ocsp.errorprocessreq", e.getMessage());
             log.info(errMsg);
@@ -2106,7 +2249,7 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
                 log.debug(errMsg, e);
             }
         }
-        
+        return false;
     }
 
     private boolean isSHA1(String algorithmName) {
@@ -2114,7 +2257,7 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
     }
     
     private BasicOCSPResp signOcspResponse(OCSPReq req, List<OCSPResponseItem> responseList, Extensions exts, 
-            final OcspSigningCacheEntry ocspSigningCacheEntry, Date producedAt) throws CryptoTokenOfflineException {
+            final OcspSigningCacheEntry ocspSigningCacheEntry, Date producedAt) throws CryptoTokenOfflineException, OcspSigningBusyException {
         assertAcceptableResponseExtension(req);
         if (!ocspSigningCacheEntry.isSigningCertificateForOcspSigning()) {
             log.warn("Signing with non OCSP certificate (no 'OCSP Signing' Extended Key Usage) bound by OcspKeyBinding '" + ocspSigningCacheEntry.getOcspKeyBinding().getName() + "'.");
@@ -2142,7 +2285,7 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
     
     private BasicOCSPResp generateBasicOcspResp(Extensions exts, List<OCSPResponseItem> responses, String sigAlg,
                         X509Certificate signerCert, OcspSigningCacheEntry ocspSigningCacheEntry, Date producedAt)
-                                throws OCSPException, CryptoTokenOfflineException {
+                                throws OCSPException, CryptoTokenOfflineException, OcspSigningBusyException {
         final PrivateKey signerKey = ocspSigningCacheEntry.getPrivateKey();
         final String provider = ocspSigningCacheEntry.getSignatureProviderName();
         BasicOCSPResp returnval = null;
@@ -2171,8 +2314,11 @@ public class OcspResponseGeneratorSessionBean implements OcspResponseGeneratorSe
          * 
          * Note that this does in no way break the spirit of the EJB standard, which is to not interrupt EJB's transaction handling by 
          * competing with its own thread pool, since these operations have no database impact.
+         * 
+         * The thread pool is bounded per signing key, and the task is rejected if too many responses are already waiting for the key.
          */
-        final Future<BasicOCSPResp> task = service.submit(new HsmResponseThread(basicRes, sigAlg, signerKey, chain, provider, producedAt));
+        final Future<BasicOCSPResp> task = OcspSigningScheduler.INSTANCE.submit(ocspSigningCacheEntry,
+                new HsmResponseThread(basicRes, sigAlg, signerKey, chain, provider, producedAt));
         try {
             returnval = task.get(HsmResponseThread.HSM_TIMEOUT_SECONDS, TimeUnit.SECONDS);
         } catch (InterruptedException e) {
@@ -0,0 +1,212 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.ejb.ocsp;
+
+import java.math.BigInteger;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.ejb.EJB;
+import javax.ejb.SessionContext;
+import javax.ejb.Stateless;
+import javax.ejb.Timeout;
+import javax.ejb.Timer;
+import javax.ejb.TimerConfig;
+import javax.ejb.TimerService;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+
+import org.apache.log4j.Logger;
+import org.cesecore.certificates.ca.CAConstants;
+import org.cesecore.certificates.ca.CAInfo;
+import org.cesecore.certificates.ca.CaSessionLocal;
+import org.cesecore.certificates.ca.X509CAInfo;
+import org.cesecore.certificates.certificate.CertificateDataSessionLocal;
+import org.cesecore.config.OcspConfiguration;
+import org.cesecore.util.CertTools;
+
+/**
+ * Produces OCSP responses in the background for the CAs with pre-production of OCSP responses enabled, so that
+ * requests can be answered from OcspResponseData instead of being signed on request.
+ * <p>
+ * Each run walks the unexpired certificates of each CA in serial number order, one batch at a time, and signs new
+ * responses in parallel for the certificates whose latest stored response is missing or expires within the refresh margin,
+ * see {@link OcspPreProducer}. Runs never overlap, since the next run is scheduled when the previous one has completed.
+ *
+ * @version $Id$
+ */
+@Stateless
+@TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+public class OcspResponsePreProductionSessionBean implements OcspResponsePreProductionSessionLocal {
+
+    private static final Logger log = Logger.getLogger(OcspResponsePreProductionSessionBean.class);
+
+    private static final String TIMER_INFO = "OcspResponsePreProduction";
+
+    /** Progress of the ongoing or latest run for each CA. Shared between bean instances. */
+    private static final Map<Integer, OcspPreProductionProgress> progressByCaId = new ConcurrentHashMap<>();
+    private static final ReentrantLock executorServiceLock = new ReentrantLock(false);
+    private static final AtomicInteger beanInstanceCount = new AtomicInteger(0);
+    private static volatile ThreadPoolExecutor executorService = null;
+
+    @Resource
+    private SessionContext sessionContext;
+    private TimerService timerService;
+
+    @EJB
+    private CaSessionLocal caSession;
+    @EJB
+    private CertificateDataSessionLocal certificateDataSession;
+    @EJB
+    private OcspDataSessionLocal ocspDataSession;
+    @EJB
+    private OcspResponseGeneratorSessionLocal ocspResponseGeneratorSession;
+
+    @PostConstruct
+    public void postConstruct() {
+        timerService = sessionContext.getTimerService();
+        // Keep track of number of instances of this bean, so we can free the executorService thread pool when the last is destroyed
+        beanInstanceCount.incrementAndGet();
+    }
+
+    @PreDestroy
+    public void preDestroy() {
+        // Shut down the thread pool when the last instance of this SSB is destroyed
+        if (beanInstanceCount.decrementAndGet() == 0) {
+            executorServiceLock.lock();
+            try {
+                if (executorService != null) {
+                    executorService.shutdownNow();
+                    executorService = null;
+                }
+            } finally {
+                executorServiceLock.unlock();
+            }
+        }
+    }
+
+    /** @return a reference to the thread pool shared by all runs (creating one if needed), sized after the current configuration */
+    private ThreadPoolExecutor getExecutorService() {
+        final int threads = OcspConfiguration.getPreProductionThreads();
+        executorServiceLock.lock();
+        try {
+            executorService = OcspPreProducer.getResizedExecutorService(executorService, threads);
+            return executorService;
+        } finally {
+            executorServiceLock.unlock();
+        }
+    }
+
+    @Override
+    public void initTimers() {
+        cancelTimers();
+        if (OcspConfiguration.isPreProductionEnabled()) {
+            log.info("OCSP response pre-production enabled. First run in " + OcspConfiguration.getPreProductionIntervalMs() + " ms.");
+            // Let the OCSP signing cache be loaded before the first run
+            timerService.createSingleActionTimer(OcspConfiguration.getPreProductionIntervalMs(), new TimerConfig(TIMER_INFO, false));
+        }
+    }
+
+    /**
+     * According to JSR 220 FR (18.2.2), this method may not throw any exceptions.
+     *
+     * @param timer The timer whose expiration caused this notification.
+     */
+    @Timeout
+    public void timeoutHandler(final Timer timer) {
+        if (log.isTraceEnabled()) {
+            log.trace(">timeoutHandler: " + timer.getInfo());
+        }
+        cancelTimers();
+        if (!OcspConfiguration.isPreProductionEnabled()) {
+            return;
+        }
+        try {
+            preProduceOcspResponses();
+        } catch (RuntimeException e) {
+            log.warn("OCSP response pre-production failed: " + e.getMessage(), e);
+        } finally {
+            timerService.createSingleActionTimer(OcspConfiguration.getPreProductionIntervalMs(), new TimerConfig(TIMER_INFO, false));
+        }
+        if (log.isTraceEnabled()) {
+            log.trace("<timeoutHandler");
+        }
+    }
+
+    @Override
+    public void preProduceOcspResponses() {
+        final int batchSize = OcspConfiguration.getPreProductionBatchSize();
+        final long refreshMargin = OcspConfiguration.getPreProductionRefreshMarginMs();
+        final String certIdHashAlgorithm = OcspConfiguration.getPreProductionCertIdHashAlgorithm();
+        final ExecutorService executorService = getExecutorService();
+        for (final Integer caId : caSession.getAllCaIds()) {
+            final CAInfo caInfo = caSession.getCAInfoInternal(caId);
+            if (!(caInfo instanceof X509CAInfo) || !((X509CAInfo) caInfo).isDoPreProduceOcspResponses()
+                    || caInfo.getStatus() != CAConstants.CA_ACTIVE) {
+                progressByCaId.remove(caId);
+                continue;
+            }
+            final List<Certificate> caCertificateChain = caInfo.getCertificateChain();
+            if (caCertificateChain == null || caCertificateChain.isEmpty()) {
+                continue;
+            }
+            final OcspPreProductionProgress progress = new OcspPreProductionProgress(caId, caInfo.getName(), System.currentTimeMillis());
+            progressByCaId.put(caId, progress);
+            try {
+                preProduceOcspResponses(caId, (X509Certificate) caCertificateChain.get(0), batchSize, refreshMargin, certIdHashAlgorithm,
+                        executorService, progress);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                log.info("OCSP response pre-production was interrupted.");
+                return;
+            } finally {
+                progress.setCompleted(System.currentTimeMillis());
+            }
+            log.info("Pre-produced OCSP responses for " + progress);
+        }
+    }
+
+    private void preProduceOcspResponses(final int caId, final X509Certificate caCertificate, final int batchSize, final long refreshMargin,
+            final String certIdHashAlgorithm, final ExecutorService executorService, final OcspPreProductionProgress progress)
+            throws InterruptedException {
+        final String issuerDn = CertTools.getSubjectDN(caCertificate);
+        new OcspPreProducer(
+                (now, lastSerialNumber, size) -> certificateDataSession.findSerialNumbersByIssuerDNAndExpireDate(issuerDn, now, lastSerialNumber, size),
+                serialNumbers -> ocspDataSession.findLatestNextUpdates(caId, serialNumbers),
+                serialNumber -> ocspResponseGeneratorSession.preSignOcspResponse(caCertificate, new BigInteger(serialNumber), false, certIdHashAlgorithm),
+                batchSize, refreshMargin).run(executorService, progress);
+    }
+
+    @Override
+    public Collection<OcspPreProductionProgress> getProgress() {
+        return new ArrayList<>(progressByCaId.values());
+    }
+
+    private void cancelTimers() {
+        for (final Timer timer : timerService.getTimers()) {
+            timer.cancel();
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.ejb.ocsp;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.cesecore.certificates.ocsp.cache.OcspSigningCacheEntry;
+import org.cesecore.certificates.ocsp.exception.OcspSigningBusyException;
+import org.cesecore.config.OcspConfiguration;
+import org.cesecore.util.CertTools;
+
+/**
+ * Runs the signing of OCSP responses on a bounded thread pool per signing key, so that a burst of requests cannot create an
+ * unbounded number of threads competing for the same HSM key. When all threads of a key are busy and its queue is full, new
+ * signing tasks are rejected so the responder can answer "tryLater" instead of piling up requests.
+ * <p>
+ * The time each task spends waiting in the queue and signing is recorded per key.
+ *
+ * @version $Id$
+ */
+public enum OcspSigningScheduler {
+    INSTANCE;
+
+    private static final Logger log = Logger.getLogger(OcspSigningScheduler.class);
+    private static final long IDLE_THREAD_KEEPALIVE_SECONDS = 60;
+
+    private final Map<String, KeyExecutor> executors = new ConcurrentHashMap<>();
+    private final AtomicInteger threadNumber = new AtomicInteger();
+
+    private static final class KeyExecutor {
+        private final ThreadPoolExecutor executor;
+        private final int queueSize;
+        private final OcspSigningKeyStatistics statistics = new OcspSigningKeyStatistics();
+
+        private KeyExecutor(final ThreadPoolExecutor executor, final int queueSize) {
+            this.executor = executor;
+            this.queueSize = queueSize;
+        }
+
+        private boolean isConfigured(final int threads, final int queueSize) {
+            return executor.getMaximumPoolSize() == threads && this.queueSize == queueSize;
+        }
+    }
+
+    /**
+     * Submit a signing task to the pool of the key it signs with.
+     *
+     * @param ocspSigningCacheEntry the entry holding the key the task signs with
+     * @param task the signing task
+     * @return the future result of the task
+     * @throws OcspSigningBusyException if the queue of the key is full
+     */
+    public <T> Future<T> submit(final OcspSigningCacheEntry ocspSigningCacheEntry, final Callable<T> task) throws OcspSigningBusyException {
+        return submit(getKeyId(ocspSigningCacheEntry), task);
+    }
+
+    /** @see #submit(OcspSigningCacheEntry, Callable) */
+    <T> Future<T> submit(final String keyId, final Callable<T> task) throws OcspSigningBusyException {
+        final long submitTime = System.nanoTime();
+        while (true) {
+            final KeyExecutor keyExecutor = executors.computeIfAbsent(keyId, this::createKeyExecutor);
+            try {
+                return keyExecutor.executor.submit(() -> {
+                    final long startTime = System.nanoTime();
+                    try {
+                        return task.call();
+                    } finally {
+                        final long endTime = System.nanoTime();
+                        keyExecutor.statistics.record(startTime - submitTime, endTime - startTime);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                if (keyExecutor.executor.isShutdown()) {
+                    // The pool was replaced by retainKeys after it was looked up, and is removed before it is shut down, so use the new pool
+                    continue;
+                }
+                keyExecutor.statistics.addRejected();
+                throw new OcspSigningBusyException("Too many OCSP responses waiting to be signed with key '" + keyId + "'.");
+            }
+        }
+    }
+
+    /** @return signing statistics per key, identified by serial number and issuer DN of the signing certificate */
+    public Map<String, OcspSigningKeyStatistics> getStatistics() {
+        final Map<String, OcspSigningKeyStatistics> ret = new HashMap<>();
+        for (final Map.Entry<String, KeyExecutor> entry : executors.entrySet()) {
+            ret.put(entry.getKey(), entry.getValue().statistics);
+        }
+        return ret;
+    }
+
+    /**
+     * Shut down the pools of keys no longer used, and of keys where the configured pool size has changed, e.g. after the OCSP signing
+     * cache has been reloaded. Tasks already submitted are allowed to complete.
+     *
+     * @param ocspSigningCacheEntries the entries of the keys still in use
+     */
+    public void retainKeys(final Collection<OcspSigningCacheEntry> ocspSigningCacheEntries) {
+        final Set<String> keyIds = new HashSet<>();
+        for (final OcspSigningCacheEntry entry : ocspSigningCacheEntries) {
+            if (entry.getSigningCertificate() != null) {
+                keyIds.add(getKeyId(entry));
+            }
+        }
+        retainKeyIds(keyIds);
+    }
+
+    /** @see #retainKeys(Collection) */
+    void retainKeyIds(final Set<String> keyIds) {
+        final int threads = OcspConfiguration.getSigningThreadsPerKey();
+        final int queueSize = OcspConfiguration.getSigningQueueSizePerKey();
+        for (final Map.Entry<String, KeyExecutor> entry : executors.entrySet()) {
+            if (keyIds.contains(entry.getKey()) && entry.getValue().isConfigured(threads, queueSize)) {
+                continue;
+            }
+            // Remove the pool before shutting it down, so that a task rejected by the shut down pool can be submitted to a new one
+            if (executors.remove(entry.getKey(), entry.getValue())) {
+                entry.getValue().executor.shutdown();
+                if (log.isDebugEnabled()) {
+                    log.debug("Removed OCSP signing pool for key '" + entry.getKey() + "': " + entry.getValue().statistics);
+                }
+            }
+        }
+    }
+
+    private KeyExecutor createKeyExecutor(final String keyId) {
+        final int threads = OcspConfiguration.getSigningThreadsPerKey();
+        final int queueSize = OcspConfiguration.getSigningQueueSizePerKey();
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, IDLE_THREAD_KEEPALIVE_SECONDS, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueSize), runnable -> {
+                    final Thread thread = new Thread(runnable, "OcspSigner-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        // Don't keep threads for keys that are rarely used
+        executor.allowCoreThreadTimeOut(true);
+        if (log.isDebugEnabled()) {
+            log.debug("Created OCSP signing pool with " + threads + " threads and a queue of " + queueSize + " for key '" + keyId + "'.");
+        }
+        return new KeyExecutor(executor, queueSize);
+    }
+
+    /** @return an identifier of the key, since the signing certificate is unique for each key */
+    private static String getKeyId(final OcspSigningCacheEntry ocspSigningCacheEntry) {
+        return CertTools.getSerialNumberAsString(ocspSigningCacheEntry.getSigningCertificate()) + ","
+                + ocspSigningCacheEntry.getSigningCertificateIssuerDn();
+    }
+}
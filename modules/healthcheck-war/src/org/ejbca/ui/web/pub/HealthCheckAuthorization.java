@@ -0,0 +1,46 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.ui.web.pub;
+
+import java.util.Arrays;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.apache.commons.lang.ArrayUtils;
+import org.apache.log4j.Logger;
+import org.ejbca.config.EjbcaConfiguration;
+
+/**
+ * Authorization of requests to the servlets used by monitoring systems, based on the IP addresses in the property
+ * <code>healthcheck.authorizedips</code>.
+ *
+ * @version $Id$
+ */
+public final class HealthCheckAuthorization {
+    private static final Logger log = Logger.getLogger(HealthCheckAuthorization.class);
+
+    private HealthCheckAuthorization() {}
+
+    /**
+     * @param request the request to a monitoring servlet
+     * @return true if the remote address of the request is authorized, or all addresses are authorized with "ANY"
+     */
+    public static boolean isAuthorized(final HttpServletRequest request) {
+        final String[] authorizedIps = EjbcaConfiguration.getHealthCheckAuthorizedIps().split(";");
+        if (log.isDebugEnabled()) {
+            log.debug("Performing authorisation check for " + request.getRemoteAddr() +
+                    ". The following IPs are authorized to this servlet: " + Arrays.toString(authorizedIps));
+        }
+        return ArrayUtils.contains(authorizedIps, "ANY") || ArrayUtils.contains(authorizedIps, request.getRemoteAddr());
+    }
+}
@@ -0,0 +1,150 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.ui.web.pub;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.ejb.EJB;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.log4j.Logger;
+import org.ejbca.core.ejb.ocsp.OcspPreProductionProgress;
+import org.ejbca.core.ejb.ocsp.OcspResponseGeneratorSessionLocal;
+import org.ejbca.core.ejb.ocsp.OcspResponsePreProductionSessionLocal;
+import org.ejbca.core.ejb.ocsp.OcspSigningKeyStatistics;
+import org.ejbca.core.protocol.ocsp.OcspStageStatistics;
+
+/**
+ * <p>Servlet used by monitoring systems to read the time spent in each stage of answering OCSP requests on this node, per OCSP key
+ * binding or CA signing the responses. Statistics are only recorded when <code>ocsp.stagestatistics.enabled</code> is set to true.</p>
+ *
+ * <p>The statistics are written in the Prometheus text format, as a summary of the latencies in seconds since the application server
+ * was started. Example of request and response:</p>
+ * <pre>
+ * curl -s http://localhost:8080/ejbca/publicweb/healthcheck/ocspstats
+ * # HELP ejbca_ocsp_stage_latency_seconds Time spent in each stage of answering OCSP requests.
+ * # TYPE ejbca_ocsp_stage_latency_seconds summary
+ * ejbca_ocsp_stage_latency_seconds{responder="OcspKeyBinding",stage="signing",quantile="0.5"} 0.000412
+ * ...
+ * ejbca_ocsp_stage_latency_seconds_sum{responder="OcspKeyBinding",stage="signing"} 12.3
+ * ejbca_ocsp_stage_latency_seconds_count{responder="OcspKeyBinding",stage="signing"} 28000
+ * # HELP ejbca_ocsp_signing_tasks_total Signing tasks per signing key, since the signing pool of the key was created.
+ * # TYPE ejbca_ocsp_signing_tasks_total counter
+ * ejbca_ocsp_signing_tasks_total{key="1A2B3C,CN=OCSP Signer",result="signed"} 28000
+ * ejbca_ocsp_signing_tasks_total{key="1A2B3C,CN=OCSP Signer",result="rejected"} 12
+ * ...
+ * </pre>
+ *
+ * <p>The signing statistics per key are always written, including the average and longest time signing tasks waited for a signing
+ * thread and took to sign. When OCSP responses are pre-produced on this node, the progress of the ongoing or latest run for each CA
+ * is written as well.</p>
+ *
+ * <p>Authentication to the servlet is controlled by the property <code>healthcheck.authorizedips</code>.</p>
+ *
+ * @version $Id$
+ */
+public class OcspStatisticsServlet extends HttpServlet {
+    private static final Logger log = Logger.getLogger(OcspStatisticsServlet.class);
+    private static final long serialVersionUID = 1L;
+
+    private static final String SIGNING_TASKS_METRIC_NAME = "ejbca_ocsp_signing_tasks_total";
+    private static final String SIGNING_QUEUE_WAIT_METRIC_NAME = "ejbca_ocsp_signing_queue_wait_seconds";
+    private static final String SIGNING_TIME_METRIC_NAME = "ejbca_ocsp_signing_time_seconds";
+    private static final String PREPRODUCTION_CERTIFICATES_METRIC_NAME = "ejbca_ocsp_preproduction_certificates";
+    private static final String PREPRODUCTION_RATE_METRIC_NAME = "ejbca_ocsp_preproduction_responses_per_second";
+    private static final String PREPRODUCTION_RUNNING_METRIC_NAME = "ejbca_ocsp_preproduction_running";
+
+    @EJB
+    private OcspResponseGeneratorSessionLocal ocspResponseGeneratorSession;
+    @EJB
+    private OcspResponsePreProductionSessionLocal ocspResponsePreProductionSession;
+
+    @Override
+    public void doGet(final HttpServletRequest request, final HttpServletResponse response) throws IOException {
+        response.setContentType("text/plain; version=0.0.4; charset=UTF-8");
+        if (!HealthCheckAuthorization.isAuthorized(request)) {
+            log.error("The IP " + request.getRemoteAddr() + " is not authorized.");
+            response.sendError(HttpServletResponse.SC_UNAUTHORIZED, "Requests from " + request.getRemoteAddr() + " are not authorized.");
+            return;
+        }
+        final StringBuilder sb = new StringBuilder();
+        if (!OcspStageStatistics.INSTANCE.isEnabled()) {
+            sb.append("# OCSP stage statistics are disabled, set ocsp.stagestatistics.enabled=true to enable them.\n");
+        }
+        OcspStageStatistics.INSTANCE.writeMetrics(sb);
+        writeSigningMetrics(sb);
+        writePreProductionMetrics(sb);
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.getWriter().write(sb.toString());
+    }
+
+    private void writeSigningMetrics(final StringBuilder sb) {
+        final Map<String, OcspSigningKeyStatistics> signingStatistics = new TreeMap<>(ocspResponseGeneratorSession.getSigningStatistics());
+        sb.append("# HELP ").append(SIGNING_TASKS_METRIC_NAME).append(" Signing tasks per signing key, since the signing pool of the key was created.\n");
+        sb.append("# TYPE ").append(SIGNING_TASKS_METRIC_NAME).append(" counter\n");
+        for (final Map.Entry<String, OcspSigningKeyStatistics> entry : signingStatistics.entrySet()) {
+            final String key = "key=\"" + OcspStageStatistics.escapeLabelValue(entry.getKey()) + "\"";
+            sb.append(SIGNING_TASKS_METRIC_NAME).append('{').append(key).append(",result=\"signed\"} ").append(entry.getValue().getSignedCount()).append('\n');
+            sb.append(SIGNING_TASKS_METRIC_NAME).append('{').append(key).append(",result=\"rejected\"} ").append(entry.getValue().getRejectedCount()).append('\n');
+        }
+        sb.append("# HELP ").append(SIGNING_QUEUE_WAIT_METRIC_NAME).append(" Time signing tasks waited for a signing thread, per signing key.\n");
+        sb.append("# TYPE ").append(SIGNING_QUEUE_WAIT_METRIC_NAME).append(" gauge\n");
+        for (final Map.Entry<String, OcspSigningKeyStatistics> entry : signingStatistics.entrySet()) {
+            final String key = "key=\"" + OcspStageStatistics.escapeLabelValue(entry.getKey()) + "\"";
+            sb.append(SIGNING_QUEUE_WAIT_METRIC_NAME).append('{').append(key).append(",statistic=\"avg\"} ").append(entry.getValue().getAverageQueueWaitMs() / 1000).append('\n');
+            sb.append(SIGNING_QUEUE_WAIT_METRIC_NAME).append('{').append(key).append(",statistic=\"max\"} ").append(entry.getValue().getMaxQueueWaitMs() / 1000).append('\n');
+        }
+        sb.append("# HELP ").append(SIGNING_TIME_METRIC_NAME).append(" Time signing tasks took to sign, per signing key.\n");
+        sb.append("# TYPE ").append(SIGNING_TIME_METRIC_NAME).append(" gauge\n");
+        for (final Map.Entry<String, OcspSigningKeyStatistics> entry : signingStatistics.entrySet()) {
+            final String key = "key=\"" + OcspStageStatistics.escapeLabelValue(entry.getKey()) + "\"";
+            sb.append(SIGNING_TIME_METRIC_NAME).append('{').append(key).append(",statistic=\"avg\"} ").append(entry.getValue().getAverageSignTimeMs() / 1000).append('\n');
+            sb.append(SIGNING_TIME_METRIC_NAME).append('{').append(key).append(",statistic=\"max\"} ").append(entry.getValue().getMaxSignTimeMs() / 1000).append('\n');
+        }
+    }
+
+    private void writePreProductionMetrics(final StringBuilder sb) {
+        final List<OcspPreProductionProgress> progresses = new ArrayList<>(ocspResponsePreProductionSession.getProgress());
+        if (progresses.isEmpty()) {
+            return;
+        }
+        progresses.sort(Comparator.comparing(OcspPreProductionProgress::getCaName));
+        sb.append("# HELP ").append(PREPRODUCTION_CERTIFICATES_METRIC_NAME).append(" Certificates handled by the ongoing or latest OCSP response pre-production run, per CA.\n");
+        sb.append("# TYPE ").append(PREPRODUCTION_CERTIFICATES_METRIC_NAME).append(" gauge\n");
+        for (final OcspPreProductionProgress progress : progresses) {
+            final String ca = "ca=\"" + OcspStageStatistics.escapeLabelValue(progress.getCaName()) + "\"";
+            sb.append(PREPRODUCTION_CERTIFICATES_METRIC_NAME).append('{').append(ca).append(",result=\"checked\"} ").append(progress.getCertificatesChecked()).append('\n');
+            sb.append(PREPRODUCTION_CERTIFICATES_METRIC_NAME).append('{').append(ca).append(",result=\"produced\"} ").append(progress.getResponsesProduced()).append('\n');
+            sb.append(PREPRODUCTION_CERTIFICATES_METRIC_NAME).append('{').append(ca).append(",result=\"failed\"} ").append(progress.getFailures()).append('\n');
+        }
+        sb.append("# HELP ").append(PREPRODUCTION_RATE_METRIC_NAME).append(" Average number of responses produced per second by the ongoing or latest run, per CA.\n");
+        sb.append("# TYPE ").append(PREPRODUCTION_RATE_METRIC_NAME).append(" gauge\n");
+        for (final OcspPreProductionProgress progress : progresses) {
+            sb.append(PREPRODUCTION_RATE_METRIC_NAME).append("{ca=\"").append(OcspStageStatistics.escapeLabelValue(progress.getCaName())).append("\"} ")
+                    .append(progress.getResponsesPerSecond()).append('\n');
+        }
+        sb.append("# HELP ").append(PREPRODUCTION_RUNNING_METRIC_NAME).append(" 1 if an OCSP response pre-production run is in progress, per CA.\n");
+        sb.append("# TYPE ").append(PREPRODUCTION_RUNNING_METRIC_NAME).append(" gauge\n");
+        for (final OcspPreProductionProgress progress : progresses) {
+            sb.append(PREPRODUCTION_RUNNING_METRIC_NAME).append("{ca=\"").append(OcspStageStatistics.escapeLabelValue(progress.getCaName())).append("\"} ")
+                    .append(progress.isCompleted() ? 0 : 1).append('\n');
+        }
+    }
+}
@@ -13,11 +13,9 @@
 
 package org.ejbca.ui.web.pub;
 
-import org.apache.commons.lang.ArrayUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
 import org.cesecore.configuration.GlobalConfigurationSessionLocal;
-import org.ejbca.config.EjbcaConfiguration;
 import org.ejbca.config.GlobalConfiguration;
 import org.ejbca.core.ejb.ca.publisher.PublisherQueueSessionLocal;
 import org.ejbca.core.ejb.ca.publisher.PublisherSessionLocal;
@@ -108,7 +106,7 @@ public class VaPeerStatusServlet extends HttpServlet {
     public void doGet(final HttpServletRequest request, final HttpServletResponse response) throws IOException, ServletException {
         final long startTime = System.currentTimeMillis();
         response.setContentType("application/json");
-        if (isAuthorized(request)) {
+        if (HealthCheckAuthorization.isAuthorized(request)) {
             try {
                 final AbstractMap.SimpleEntry<JSONObject, Integer> jsonAndResponseCode = createResponse(request.getParameter("name"));
                 response.getWriter().write(jsonAndResponseCode.getKey().toJSONString());
@@ -151,15 +149,6 @@ public class VaPeerStatusServlet extends HttpServlet {
         errorResponse.put("message", errorMessage);
         return errorResponse.toJSONString();
     }
-    
-    private boolean isAuthorized(final HttpServletRequest request) {
-        final String[] authorizedIps = EjbcaConfiguration.getHealthCheckAuthorizedIps().split(";");
-        if (log.isDebugEnabled()) {
-            log.debug("Performing authorisation check for " + request.getRemoteAddr() +
-                    ". The following IPs are authorized to this servlet: " + Arrays.toString(authorizedIps));
-        }
-        return ArrayUtils.contains(authorizedIps, "ANY") || ArrayUtils.contains(authorizedIps, request.getRemoteAddr());
-    }
 
     /**
      * Create a JSON response and an HTTP status code.
@@ -0,0 +1,275 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.core.ejb.crl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.math.BigInteger;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.cert.Certificate;
+import java.security.cert.X509CRL;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+import org.bouncycastle.jce.X509KeyUsage;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.cesecore.certificates.ca.CAConstants;
+import org.cesecore.certificates.ca.CAFactory;
+import org.cesecore.certificates.ca.CAInfo;
+import org.cesecore.certificates.ca.X509CA;
+import org.cesecore.certificates.ca.X509CAInfo;
+import org.cesecore.certificates.ca.catoken.CAToken;
+import org.cesecore.certificates.ca.catoken.CATokenConstants;
+import org.cesecore.certificates.certificate.CertificateConstants;
+import org.cesecore.certificates.certificateprofile.CertificateProfileConstants;
+import org.cesecore.certificates.crl.RevokedCertInfo;
+import org.cesecore.certificates.crl.RevokedCertInfoCollection;
+import org.cesecore.certificates.util.AlgorithmConstants;
+import org.cesecore.keys.token.CryptoToken;
+import org.cesecore.keys.token.CryptoTokenFactory;
+import org.cesecore.keys.token.SoftCryptoToken;
+import org.cesecore.util.CertTools;
+import org.cesecore.util.CompressedCollection;
+import org.cesecore.util.CryptoProviderTools;
+import org.cesecore.util.StringTools;
+import org.ejbca.performance.MicroBenchmark;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Benchmarks of CRL generation, parsing and import with synthetic CRLs, run locally with soft crypto tokens. No application server
+ * or database is needed. Run with "ant test:runcrlperf", which passes the following system properties on to the test:
+ * <ul>
+ * <li>crlbenchmark.sizes - comma separated numbers of CRL entries. Default: 10000,100000,1000000. 10000000 entries need a heap
+ * of about 8 GB, set in tests.jvmargs.</li>
+ * <li>crlbenchmark.keys - comma separated key types of the CA, RSA (2048 bits) and/or EC (P-256). Default: RSA,EC</li>
+ * <li>crlbenchmark.warmup and crlbenchmark.iterations - the number of warmup and measured iterations. Default: 2 and 5</li>
+ * <li>crlbenchmark.results - file to write the results to as CSV</li>
+ * <li>crlbenchmark.baseline - results of an earlier run. The test fails if any median time is more than crlbenchmark.maxregression
+ * (default 0.2, i.e. 20%) higher than in the baseline.</li>
+ * </ul>
+ * Compare runs on the same hardware only.
+ *
+ * @version $Id$
+ */
+public class CrlPerformanceTest {
+
+    private static final Logger log = Logger.getLogger(CrlPerformanceTest.class);
+
+    private static final String CADN = "CN=CRL Performance Test CA";
+    /** Share of the entries of a CRL that are new or changed compared to the previous CRL, in the import benchmark */
+    private static final double CHANGED_ENTRIES = 0.01;
+    /** Expiration date of the revoked certificates, in 2100 */
+    private static final long EXPIRE_DATE = 4102444800000L;
+
+    private static final int[] SIZES = getIntegers("crlbenchmark.sizes", "10000,100000,1000000");
+    private static final String[] KEY_TYPES = StringUtils.split(System.getProperty("crlbenchmark.keys", "RSA,EC"), ',');
+    private static final MicroBenchmark benchmark = new MicroBenchmark(Integer.getInteger("crlbenchmark.warmup", 2),
+            Integer.getInteger("crlbenchmark.iterations", 5));
+
+    @BeforeClass
+    public static void beforeClass() {
+        CryptoProviderTools.installBCProviderIfNotAvailable();
+    }
+
+    @AfterClass
+    public static void afterClass() throws Exception {
+        log.info("Benchmark sink value: " + benchmark.getSink());
+        final String resultsFile = System.getProperty("crlbenchmark.results");
+        if (StringUtils.isNotEmpty(resultsFile)) {
+            benchmark.writeResults(new File(resultsFile));
+            log.info("Wrote benchmark results to " + resultsFile);
+        }
+        final String baselineFile = System.getProperty("crlbenchmark.baseline");
+        if (StringUtils.isNotEmpty(baselineFile)) {
+            final double maxRegression = Double.parseDouble(System.getProperty("crlbenchmark.maxregression", "0.2"));
+            final List<String> regressions = benchmark.findRegressions(new File(baselineFile), maxRegression);
+            for (final String regression : regressions) {
+                log.error("Performance regression: " + regression);
+            }
+            assertTrue("Performance regressions compared to " + baselineFile + ": " + regressions, regressions.isEmpty());
+        }
+    }
+
+    /** Signing and encoding of a CRL with {@link X509CA#generateEncodedCRL}, for each key type */
+    @Test
+    public void benchmarkGenerateCrl() throws Exception {
+        for (final String keyType : KEY_TYPES) {
+            final CryptoToken cryptoToken = createCryptoToken();
+            final X509CA ca = createCa(cryptoToken, keyType);
+            for (final int size : SIZES) {
+                final RevokedCertInfoCollection revokedCertificates = createRevokedCertificates(size, 0);
+                benchmark.run("generateCRL:" + keyType + ":" + size, () -> ca.generateEncodedCRL(cryptoToken, CertificateConstants.NO_CRL_PARTITION,
+                        revokedCertificates, 1, null));
+            }
+        }
+    }
+
+    /** Writing and iterating over the revoked certificates of a CRL, in {@link CompressedCollection} and {@link RevokedCertInfoCollection} */
+    @Test
+    public void benchmarkRevokedCertificateCollections() throws Exception {
+        for (final int size : SIZES) {
+            final RevokedCertInfoCollection source = createRevokedCertificates(size, 0);
+            benchmark.run("CompressedCollection.write:" + size, () -> {
+                final CompressedCollection<RevokedCertInfo> collection = new CompressedCollection<>(RevokedCertInfo.class);
+                for (final RevokedCertInfo revokedCertInfo : source) {
+                    collection.add(revokedCertInfo);
+                }
+                collection.closeForWrite();
+                return collection;
+            });
+            final CompressedCollection<RevokedCertInfo> compressedCollection = new CompressedCollection<>(RevokedCertInfo.class);
+            compressedCollection.addAll(source);
+            compressedCollection.closeForWrite();
+            benchmark.run("CompressedCollection.iterate:" + size, () -> iterate(compressedCollection.iterator()));
+            benchmark.run("RevokedCertInfoCollection.write:" + size, () -> {
+                final RevokedCertInfoCollection collection = new RevokedCertInfoCollection();
+                for (final RevokedCertInfo revokedCertInfo : source) {
+                    collection.add(revokedCertInfo);
+                }
+                collection.closeForWrite();
+                return collection;
+            });
+            benchmark.run("RevokedCertInfoCollection.iterate:" + size, () -> iterate(source.iterator()));
+        }
+    }
+
+    /** Parsing of a CRL with {@link CertTools#getCRLfromByteArray}, including its entries */
+    @Test
+    public void benchmarkParseCrl() throws Exception {
+        final CryptoToken cryptoToken = createCryptoToken();
+        final X509CA ca = createCa(cryptoToken, KEY_TYPES[0]);
+        for (final int size : SIZES) {
+            final byte[] crl = ca.generateEncodedCRL(cryptoToken, CertificateConstants.NO_CRL_PARTITION, createRevokedCertificates(size, 0), 1, null);
+            benchmark.run("getCRLfromByteArray:" + size, () -> {
+                final X509CRL x509crl = CertTools.getCRLfromByteArray(crl);
+                return x509crl.getRevokedCertificates().size();
+            });
+        }
+    }
+
+    /** Finding the new entries of a downloaded CRL compared to the previous one, as done by {@link ImportCrlSessionBean} */
+    @Test
+    public void benchmarkImportCrlDiff() throws Exception {
+        final CryptoToken cryptoToken = createCryptoToken();
+        final X509CA ca = createCa(cryptoToken, KEY_TYPES[0]);
+        for (final int size : SIZES) {
+            final int changed = (int) (size * CHANGED_ENTRIES);
+            final X509CRL lastCrl = CertTools.getCRLfromByteArray(ca.generateEncodedCRL(cryptoToken, CertificateConstants.NO_CRL_PARTITION,
+                    createRevokedCertificates(size - changed, 0), 1, null));
+            final X509CRL crl = CertTools.getCRLfromByteArray(ca.generateEncodedCRL(cryptoToken, CertificateConstants.NO_CRL_PARTITION,
+                    createRevokedCertificates(size, changed), 2, null));
+            assertEquals(changed * 2, ImportCrlSessionBean.getNewEntries(crl.getRevokedCertificates(), lastCrl.getRevokedCertificates()).size());
+            benchmark.run("getNewEntries:" + size, () -> ImportCrlSessionBean.getNewEntries(crl.getRevokedCertificates(), lastCrl.getRevokedCertificates()));
+        }
+    }
+
+    private static long iterate(final Iterator<RevokedCertInfo> iterator) {
+        long sum = 0;
+        while (iterator.hasNext()) {
+            sum += iterator.next().getReason();
+        }
+        return sum;
+    }
+
+    /**
+     * Creates revoked certificates with random serial numbers of 127 bits. Every tenth certificate is on hold, the others are revoked
+     * with the reason unspecified. Entries with the same index are the same in all collections, unless changed.
+     *
+     * @param size the number of revoked certificates
+     * @param changed the number of entries, from the start, whose reason is changed to key compromise. A collection of size N contains
+     *      2 * changed entries that are not in the collection of size N - changed without changes.
+     */
+    private static RevokedCertInfoCollection createRevokedCertificates(final int size, final int changed) {
+        final Random random = new Random(4711);
+        final RevokedCertInfoCollection ret = new RevokedCertInfoCollection(size);
+        for (int i = 0; i < size; i++) {
+            final BigInteger serialNumber = new BigInteger(127, random);
+            final int reason;
+            if (i < changed) {
+                reason = RevokedCertInfo.REVOCATION_REASON_KEYCOMPROMISE;
+            } else if (i % 10 == 0) {
+                reason = RevokedCertInfo.REVOCATION_REASON_CERTIFICATEHOLD;
+            } else {
+                reason = RevokedCertInfo.REVOCATION_REASON_UNSPECIFIED;
+            }
+            final String fingerprint = String.format("%040x", serialNumber);
+            ret.add(new RevokedCertInfo(fingerprint.getBytes(), serialNumber.toByteArray(), 1600000000000L + i * 1000L, reason, EXPIRE_DATE));
+        }
+        ret.closeForWrite();
+        return ret;
+    }
+
+    private static CryptoToken createCryptoToken() throws Exception {
+        final Properties cryptoTokenProperties = new Properties();
+        cryptoTokenProperties.setProperty(CryptoToken.AUTOACTIVATE_PIN_PROPERTY, "foo123");
+        return CryptoTokenFactory.createCryptoToken(SoftCryptoToken.class.getName(), cryptoTokenProperties, null, 17, "CrlPerformanceTest");
+    }
+
+    /** Creates a self signed CA with a soft key of the given type, RSA or EC */
+    private static X509CA createCa(final CryptoToken cryptoToken, final String keyType) throws Exception {
+        final String keySpec;
+        final String sigAlg;
+        if ("RSA".equalsIgnoreCase(keyType)) {
+            keySpec = "2048";
+            sigAlg = AlgorithmConstants.SIGALG_SHA256_WITH_RSA;
+        } else if ("EC".equalsIgnoreCase(keyType)) {
+            keySpec = "prime256v1";
+            sigAlg = AlgorithmConstants.SIGALG_SHA256_WITH_ECDSA;
+        } else {
+            throw new IllegalArgumentException("Unsupported key type in crlbenchmark.keys: " + keyType);
+        }
+        cryptoToken.generateKeyPair(keySpec, CAToken.SOFTPRIVATESIGNKEYALIAS);
+        cryptoToken.generateKeyPair("1024", CAToken.SOFTPRIVATEDECKEYALIAS);
+        final Properties caTokenProperties = new Properties();
+        caTokenProperties.setProperty(CATokenConstants.CAKEYPURPOSE_CERTSIGN_STRING, CAToken.SOFTPRIVATESIGNKEYALIAS);
+        caTokenProperties.setProperty(CATokenConstants.CAKEYPURPOSE_CRLSIGN_STRING, CAToken.SOFTPRIVATESIGNKEYALIAS);
+        caTokenProperties.setProperty(CATokenConstants.CAKEYPURPOSE_DEFAULT_STRING, CAToken.SOFTPRIVATEDECKEYALIAS);
+        final CAToken caToken = new CAToken(cryptoToken.getId(), caTokenProperties);
+        caToken.setKeySequence(CAToken.DEFAULT_KEYSEQUENCE);
+        caToken.setKeySequenceFormat(StringTools.KEY_SEQUENCE_FORMAT_NUMERIC);
+        caToken.setSignatureAlgorithm(sigAlg);
+        caToken.setEncryptionAlgorithm(AlgorithmConstants.SIGALG_SHA256_WITH_RSA);
+        final X509CAInfo cainfo = X509CAInfo.getDefaultX509CAInfo(CADN, "CrlPerformanceTest", CAConstants.CA_ACTIVE,
+                CertificateProfileConstants.CERTPROFILE_FIXED_ROOTCA, "3650d", CAInfo.SELFSIGNED, null, caToken);
+        final X509CA x509ca = (X509CA) CAFactory.INSTANCE.getX509CAImpl(cainfo);
+        x509ca.setCAToken(caToken);
+        final PublicKey publicKey = cryptoToken.getPublicKey(CAToken.SOFTPRIVATESIGNKEYALIAS);
+        final PrivateKey privateKey = cryptoToken.getPrivateKey(CAToken.SOFTPRIVATESIGNKEYALIAS);
+        final X509Certificate cacert = CertTools.genSelfCertForPurpose(CADN, 10L, "1.1.1.1", privateKey, publicKey, sigAlg, true,
+                X509KeyUsage.keyCertSign + X509KeyUsage.cRLSign, null, null, BouncyCastleProvider.PROVIDER_NAME);
+        final List<Certificate> cachain = new ArrayList<>();
+        cachain.add(cacert);
+        x509ca.setCertificateChain(cachain);
+        return x509ca;
+    }
+
+    private static int[] getIntegers(final String property, final String defaultValue) {
+        final String[] values = StringUtils.split(System.getProperty(property, defaultValue), ',');
+        final int[] ret = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            ret[i] = Integer.parseInt(values[i].trim());
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,158 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.performance;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.ejbca.util.LatencyHistogram;
+
+/**
+ * Minimal benchmark harness for performance tests that run in a single JVM without an application server.
+ * <p>
+ * Each benchmark runs a number of warmup iterations, to let the JIT compiler optimize the code, followed by measured iterations
+ * whose times are recorded in a {@link LatencyHistogram}. The result of every iteration is consumed, so the JIT compiler can not
+ * remove the work as dead code. Results can be written as CSV and compared with the CSV of an earlier run, to detect regressions.
+ *
+ * @version $Id$
+ */
+public class MicroBenchmark {
+
+    private static final Logger log = Logger.getLogger(MicroBenchmark.class);
+
+    private static final String CSV_HEADER = "benchmark;iterations;mean_us;p50_us;p99_us;max_us";
+
+    /** An operation to benchmark */
+    public interface Operation {
+        /** @return the result of the operation, which is consumed by the harness */
+        Object run() throws Exception;
+    }
+
+    /** The measured times of a benchmark, in microseconds */
+    public static final class Result {
+        private final String name;
+        private final LatencyHistogram histogram;
+
+        private Result(final String name, final LatencyHistogram histogram) {
+            this.name = name;
+            this.histogram = histogram;
+        }
+
+        public String getName() { return name; }
+
+        public long getMedian() { return histogram.getValueAtPercentile(50); }
+
+        public LatencyHistogram getHistogram() { return histogram; }
+
+        private String toCsv() {
+            return String.format(Locale.ROOT, "%s;%d;%.0f;%d;%d;%d", name, histogram.getCount(), histogram.getMean(), histogram.getValueAtPercentile(50),
+                    histogram.getValueAtPercentile(99), histogram.getMax());
+        }
+    }
+
+    private final int warmupIterations;
+    private final int measurementIterations;
+    private final List<Result> results = new ArrayList<>();
+    private int sink;
+
+    /**
+     * @param warmupIterations the number of iterations to run before measuring
+     * @param measurementIterations the number of measured iterations
+     */
+    public MicroBenchmark(final int warmupIterations, final int measurementIterations) {
+        this.warmupIterations = warmupIterations;
+        this.measurementIterations = Math.max(1, measurementIterations);
+    }
+
+    /**
+     * Run a benchmark and keep its result.
+     *
+     * @param name the unique name of the benchmark, e.g. the operation followed by its parameters, without semicolons
+     * @param operation the operation to measure
+     * @return the measured times
+     */
+    public Result run(final String name, final Operation operation) throws Exception {
+        for (int i = 0; i < warmupIterations; i++) {
+            consume(operation.run());
+        }
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < measurementIterations; i++) {
+            final long start = System.nanoTime();
+            final Object result = operation.run();
+            histogram.record((System.nanoTime() - start) / 1000);
+            consume(result);
+        }
+        final Result result = new Result(name, histogram);
+        results.add(result);
+        log.info(String.format(Locale.ROOT, "%s: mean %.1f ms, median %.1f ms, max %.1f ms (%d iterations)", name, histogram.getMean() / 1000.0,
+                histogram.getValueAtPercentile(50) / 1000.0, histogram.getMax() / 1000.0, histogram.getCount()));
+        return result;
+    }
+
+    private void consume(final Object result) {
+        sink ^= System.identityHashCode(result);
+    }
+
+    /** @return a value derived from all results, which callers may log to make sure that no work is optimized away */
+    public int getSink() {
+        return sink;
+    }
+
+    public List<Result> getResults() {
+        return results;
+    }
+
+    /** Write the results of all benchmarks run so far as CSV */
+    public void writeResults(final File file) throws IOException {
+        final List<String> lines = new ArrayList<>();
+        lines.add(CSV_HEADER);
+        for (final Result result : results) {
+            lines.add(result.toCsv());
+        }
+        Files.write(file.toPath(), lines, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Compare the median times of the results with those of an earlier run. Benchmarks that are not in the baseline are ignored.
+     *
+     * @param baseline a file written by {@link #writeResults(File)}
+     * @param maxRegression the allowed relative increase of the median time, e.g. 0.2 for 20%
+     * @return a description of each benchmark that is slower than allowed, or an empty list
+     */
+    public List<String> findRegressions(final File baseline, final double maxRegression) throws IOException {
+        final Map<String, Long> baselineMedians = new HashMap<>();
+        for (final String line : Files.readAllLines(baseline.toPath(), StandardCharsets.UTF_8)) {
+            final String[] columns = line.split(";");
+            if (columns.length >= 4 && !line.equals(CSV_HEADER)) {
+                baselineMedians.put(columns[0], Long.valueOf(columns[3]));
+            }
+        }
+        final List<String> regressions = new ArrayList<>();
+        for (final Result result : results) {
+            final Long baselineMedian = baselineMedians.get(result.getName());
+            if (baselineMedian != null && result.getMedian() > baselineMedian * (1 + maxRegression)) {
+                regressions.add(String.format(Locale.ROOT, "%s: median %d us, baseline %d us (+%.0f%%)", result.getName(), result.getMedian(),
+                        baselineMedian, (result.getMedian() - baselineMedian) * 100.0 / Math.max(1, baselineMedian)));
+            }
+        }
+        return regressions;
+    }
+}
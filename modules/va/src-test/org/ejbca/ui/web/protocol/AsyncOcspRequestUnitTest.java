@@ -0,0 +1,372 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.ui.web.protocol;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncListener;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.bouncycastle.cert.ocsp.OCSPResp;
+import org.bouncycastle.cert.ocsp.OCSPRespBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the asynchronous processing of OCSP requests by {@link AsyncOcspRequest}, with the container simulated by the test.
+ *
+ * @version $Id$
+ */
+public class AsyncOcspRequestUnitTest {
+
+    private static final long TIMEOUT = 1234;
+    private static final byte[] RESPONSE = "not really an OCSP response".getBytes(StandardCharsets.US_ASCII);
+
+    private ThreadPoolExecutor executor;
+    private final FakeInputStream in = new FakeInputStream();
+    private final FakeOutputStream out = new FakeOutputStream();
+    private final List<AsyncListener> listeners = Collections.synchronizedList(new ArrayList<AsyncListener>());
+    private final AtomicInteger completions = new AtomicInteger();
+    private final CountDownLatch completed = new CountDownLatch(1);
+    private volatile long timeout = 0;
+    private volatile String contentType = null;
+    private HttpServletRequest request;
+    private HttpServletResponse response;
+
+    @Before
+    public void setUp() {
+        executor = new ThreadPoolExecutor(1, 1, 60L, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(1));
+        response = (HttpServletResponse) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { HttpServletResponse.class },
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                    case "getOutputStream":
+                        return out;
+                    case "setContentType":
+                        contentType = (String) args[0];
+                        return null;
+                    default:
+                        return null;
+                    }
+                });
+        final AsyncContext asyncContext = (AsyncContext) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { AsyncContext.class },
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                    case "getRequest":
+                        return request;
+                    case "getResponse":
+                        return response;
+                    case "setTimeout":
+                        timeout = (Long) args[0];
+                        return null;
+                    case "addListener":
+                        listeners.add((AsyncListener) args[0]);
+                        return null;
+                    case "complete":
+                        completions.incrementAndGet();
+                        for (final AsyncListener listener : listeners) {
+                            listener.onComplete(null);
+                        }
+                        completed.countDown();
+                        return null;
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+        request = (HttpServletRequest) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { HttpServletRequest.class },
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                    case "startAsync":
+                        return asyncContext;
+                    case "getInputStream":
+                        return in;
+                    case "getRemoteAddr":
+                        return "127.0.0.1";
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    /** A processor that writes {@link #RESPONSE} and records the request bodies it got */
+    private AsyncOcspRequest.Processor getProcessor(final List<byte[]> requestBodies) {
+        return (asyncRequest, requestBody) -> {
+            requestBodies.add(requestBody);
+            try {
+                asyncRequest.write(RESPONSE);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        };
+    }
+
+    private void awaitCompleted() throws InterruptedException {
+        assertTrue("The asynchronous processing should be completed", completed.await(10, TimeUnit.SECONDS));
+    }
+
+    /** Occupy the only thread of the executor until the returned latch is released */
+    private CountDownLatch blockExecutor() throws InterruptedException {
+        final CountDownLatch running = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        executor.execute(() -> {
+            running.countDown();
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertTrue(running.await(10, TimeUnit.SECONDS));
+        return release;
+    }
+
+    private void awaitExecutorIdle() throws InterruptedException {
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    private static int getOcspResponseStatus(final byte[] responseBytes) throws IOException {
+        return new OCSPResp(responseBytes).getStatus();
+    }
+
+    @Test
+    public void testGet() throws Exception {
+        final List<byte[]> requestBodies = Collections.synchronizedList(new ArrayList<byte[]>());
+        AsyncOcspRequest.start(request, response, false, executor, TIMEOUT, getProcessor(requestBodies));
+        assertEquals("The timeout should be set explicitly", TIMEOUT, timeout);
+        assertEquals("A listener should be registered for timeouts and errors", 1, listeners.size());
+        awaitCompleted();
+        assertEquals(1, requestBodies.size());
+        assertNull("A GET request has no body", requestBodies.get(0));
+        assertArrayEquals(RESPONSE, out.toByteArray());
+        assertEquals(1, completions.get());
+    }
+
+    @Test
+    public void testPostBodyRead() throws Exception {
+        final List<byte[]> requestBodies = Collections.synchronizedList(new ArrayList<byte[]>());
+        AsyncOcspRequest.start(request, response, true, executor, TIMEOUT, getProcessor(requestBodies));
+        // The body arrives in several parts, one of which is larger than the chunks it is read in
+        final byte[] part1 = new byte[100];
+        final byte[] part2 = new byte[10000];
+        Arrays.fill(part1, (byte) 1);
+        Arrays.fill(part2, (byte) 2);
+        in.deliver(part1);
+        in.deliver(part2);
+        assertTrue("The request should not be processed before all of it has been read", requestBodies.isEmpty());
+        in.deliverEnd();
+        awaitCompleted();
+        assertEquals(1, requestBodies.size());
+        final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write(part1);
+        expected.write(part2);
+        assertArrayEquals(expected.toByteArray(), requestBodies.get(0));
+        assertArrayEquals(RESPONSE, out.toByteArray());
+    }
+
+    @Test
+    public void testPostReadError() throws Exception {
+        final List<byte[]> requestBodies = Collections.synchronizedList(new ArrayList<byte[]>());
+        AsyncOcspRequest.start(request, response, true, executor, TIMEOUT, getProcessor(requestBodies));
+        in.deliver(new byte[10]);
+        in.readListener.onError(new IOException("Connection reset"));
+        awaitCompleted();
+        // A late timeout must not answer the request again
+        listeners.get(0).onTimeout(null);
+        awaitExecutorIdle();
+        assertTrue("A request that could not be read should not be processed", requestBodies.isEmpty());
+        assertEquals(0, out.toByteArray().length);
+        assertEquals(1, completions.get());
+    }
+
+    @Test
+    public void testExecutorRejection() throws Exception {
+        final List<byte[]> requestBodies = Collections.synchronizedList(new ArrayList<byte[]>());
+        final CountDownLatch release = blockExecutor();
+        // Fill the queue
+        executor.execute(() -> { });
+        AsyncOcspRequest.start(request, response, false, executor, TIMEOUT, getProcessor(requestBodies));
+        awaitCompleted();
+        assertEquals("application/ocsp-response", contentType);
+        assertEquals(OCSPRespBuilder.TRY_LATER, getOcspResponseStatus(out.toByteArray()));
+        release.countDown();
+        awaitExecutorIdle();
+        assertTrue(requestBodies.isEmpty());
+        assertEquals(1, completions.get());
+    }
+
+    @Test
+    public void testTimeoutWhileQueued() throws Exception {
+        final List<byte[]> requestBodies = Collections.synchronizedList(new ArrayList<byte[]>());
+        final CountDownLatch release = blockExecutor();
+        AsyncOcspRequest.start(request, response, false, executor, TIMEOUT, getProcessor(requestBodies));
+        // The container times out while the request is waiting for a thread
+        listeners.get(0).onTimeout(null);
+        awaitCompleted();
+        assertEquals("application/ocsp-response", contentType);
+        assertEquals(OCSPRespBuilder.TRY_LATER, getOcspResponseStatus(out.toByteArray()));
+        release.countDown();
+        awaitExecutorIdle();
+        assertTrue("A request that was answered with tryLater should not be processed", requestBodies.isEmpty());
+        assertEquals(1, completions.get());
+    }
+
+    @Test
+    public void testTimeoutWhileProcessing() throws Exception {
+        final CountDownLatch processing = new CountDownLatch(1);
+        final CountDownLatch timedOut = new CountDownLatch(1);
+        AsyncOcspRequest.start(request, response, false, executor, TIMEOUT, (asyncRequest, requestBody) -> {
+            processing.countDown();
+            try {
+                // E.g. signing in an HSM that does not respond in time
+                timedOut.await(10, TimeUnit.SECONDS);
+                asyncRequest.write(RESPONSE);
+            } catch (InterruptedException | IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        assertTrue(processing.await(10, TimeUnit.SECONDS));
+        listeners.get(0).onTimeout(null);
+        awaitCompleted();
+        timedOut.countDown();
+        awaitExecutorIdle();
+        assertEquals("Nothing should be written to an abandoned request", 0, out.toByteArray().length);
+        assertFalse("No write listener should be set for an abandoned request", out.hasWriteListener());
+        assertEquals(1, completions.get());
+    }
+
+    /** An input stream where the test decides when data is available */
+    private static final class FakeInputStream extends ServletInputStream {
+        private final Queue<byte[]> parts = new ArrayDeque<>();
+        private int offset = 0;
+        private boolean allRead = false;
+        private ReadListener readListener;
+
+        void deliver(final byte[] part) throws IOException {
+            parts.add(part);
+            readListener.onDataAvailable();
+        }
+
+        void deliverEnd() throws IOException {
+            allRead = true;
+            readListener.onAllDataRead();
+        }
+
+        @Override
+        public int read() throws IOException {
+            final byte[] b = new byte[1];
+            return read(b) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            final byte[] part = parts.peek();
+            if (part == null) {
+                throw new IllegalStateException("Read when not ready");
+            }
+            final int length = Math.min(len, part.length - offset);
+            System.arraycopy(part, offset, b, off, length);
+            offset += length;
+            if (offset == part.length) {
+                parts.remove();
+                offset = 0;
+            }
+            return length;
+        }
+
+        @Override
+        public boolean isFinished() {
+            return allRead;
+        }
+
+        @Override
+        public boolean isReady() {
+            return !parts.isEmpty();
+        }
+
+        @Override
+        public void setReadListener(final ReadListener readListener) {
+            this.readListener = readListener;
+        }
+    }
+
+    /** An output stream that is always ready */
+    private static final class FakeOutputStream extends ServletOutputStream {
+        private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+        private volatile boolean writeListenerSet = false;
+
+        synchronized byte[] toByteArray() {
+            return written.toByteArray();
+        }
+
+        boolean hasWriteListener() {
+            return writeListenerSet;
+        }
+
+        @Override
+        public synchronized void write(final int b) {
+            written.write(b);
+        }
+
+        @Override
+        public synchronized void write(final byte[] b, final int off, final int len) {
+            written.write(b, off, len);
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void setWriteListener(final WriteListener writeListener) {
+            writeListenerSet = true;
+            try {
+                writeListener.onWritePossible();
+            } catch (IOException e) {
+                writeListener.onError(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,294 @@
+/*************************************************************************
+ *                                                                       *
+ *  EJBCA Community: The OpenSource Certificate Authority                *
+ *                                                                       *
+ *  This software is free software; you can redistribute it and/or       *
+ *  modify it under the terms of the GNU Lesser General Public           *
+ *  License as published by the Free Software Foundation; either         *
+ *  version 2.1 of the License, or any later version.                    *
+ *                                                                       *
+ *  See terms of license at gnu.org.                                     *
+ *                                                                       *
+ *************************************************************************/
+package org.ejbca.ui.web.protocol;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.log4j.Logger;
+import org.bouncycastle.cert.ocsp.OCSPException;
+import org.bouncycastle.cert.ocsp.OCSPRespBuilder;
+import org.ejbca.ui.web.LimitLengthASN1Reader;
+
+/**
+ * An OCSP request processed asynchronously by the {@link OCSPServlet}. The body of a POST request is read without blocking, the
+ * response is generated on a thread of the executor and written without blocking.
+ * <p>
+ * The request is answered with "tryLater" if the executor rejects it, or if it is still waiting for a thread when the asynchronous
+ * processing times out. If the response is being generated when the processing times out or fails, the request is abandoned, and
+ * the response generated afterwards is not written.
+ *
+ * @version $Id$
+ */
+final class AsyncOcspRequest implements AsyncListener {
+
+    private static final Logger log = Logger.getLogger(AsyncOcspRequest.class);
+
+    /** Size of the chunks request bodies are read in and responses are written in */
+    private static final int ASYNC_IO_CHUNK_SIZE = 4096;
+
+    /** Generates the response to an OCSP request, and writes it with {@link AsyncOcspRequest#write(byte[])} */
+    interface Processor {
+        /**
+         * @param asyncRequest the request
+         * @param requestBody the body of a POST request, or null for a GET request
+         */
+        void process(AsyncOcspRequest asyncRequest, byte[] requestBody);
+    }
+
+    private final AsyncContext asyncContext;
+    private final ThreadPoolExecutor executor;
+    private final Processor processor;
+    private final long timeout;
+    /** Set once the request is answered with "tryLater", or a thread has started generating its response */
+    private final AtomicBoolean started = new AtomicBoolean();
+    /** Set once the asynchronous processing has been completed, timed out or failed */
+    private final AtomicBoolean finished = new AtomicBoolean();
+
+    private AsyncOcspRequest(final AsyncContext asyncContext, final ThreadPoolExecutor executor, final Processor processor, final long timeout) {
+        this.asyncContext = asyncContext;
+        this.executor = executor;
+        this.processor = processor;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Start asynchronous processing of an OCSP request. The container thread is released once this method returns.
+     *
+     * @param isPost true if the request body should be read
+     * @param executor the executor generating the response
+     * @param timeout the time in milliseconds the request may take to read, wait for a thread and generate the response
+     * @param processor generates and writes the response
+     * @throws IOException if the request body could not be read
+     */
+    static void start(final HttpServletRequest request, final HttpServletResponse response, final boolean isPost, final ThreadPoolExecutor executor,
+            final long timeout, final Processor processor) throws IOException {
+        final AsyncContext asyncContext = request.startAsync(request, response);
+        asyncContext.setTimeout(timeout);
+        final AsyncOcspRequest asyncRequest = new AsyncOcspRequest(asyncContext, executor, processor, timeout);
+        asyncContext.addListener(asyncRequest);
+        if (isPost) {
+            final ServletInputStream in = request.getInputStream();
+            in.setReadListener(asyncRequest.new RequestReader(in));
+        } else {
+            asyncRequest.submit(null);
+        }
+    }
+
+    HttpServletRequest getRequest() {
+        return (HttpServletRequest) asyncContext.getRequest();
+    }
+
+    HttpServletResponse getResponse() {
+        return (HttpServletResponse) asyncContext.getResponse();
+    }
+
+    /** @return true if the asynchronous processing has been completed, timed out or failed, so nothing should be written */
+    boolean isFinished() {
+        return finished.get();
+    }
+
+    /**
+     * Write the response without blocking, and complete the asynchronous processing once it has been written. Nothing is written
+     * if the request has been abandoned.
+     */
+    void write(final byte[] responseBytes) throws IOException {
+        if (isFinished()) {
+            if (log.isDebugEnabled()) {
+                log.debug("Not writing OCSP response to " + getRequest().getRemoteAddr() + ", since the request was abandoned.");
+            }
+            return;
+        }
+        getResponse().getOutputStream().setWriteListener(new ResponseWriter(responseBytes));
+    }
+
+    /** Complete the asynchronous processing, unless it has already been completed, e.g. after a timeout. */
+    void complete() {
+        if (finished.compareAndSet(false, true)) {
+            try {
+                asyncContext.complete();
+            } catch (IllegalStateException e) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Asynchronous processing of OCSP request was already completed: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void submit(final byte[] requestBody) {
+        try {
+            executor.execute(() -> {
+                if (!started.compareAndSet(false, true)) {
+                    // Already answered with tryLater after a timeout
+                    return;
+                }
+                try {
+                    processor.process(this, requestBody);
+                } catch (RuntimeException e) {
+                    log.error("", e);
+                    complete();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            if (started.compareAndSet(false, true)) {
+                log.info("Answering OCSP request from " + getRequest().getRemoteAddr() + " with tryLater, since "
+                        + executor.getQueue().size() + " requests are already waiting to be processed.");
+                try {
+                    final byte[] tryLater = getTryLaterResponse();
+                    getResponse().setContentType("application/ocsp-response");
+                    getResponse().setContentLength(tryLater.length);
+                    write(tryLater);
+                } catch (OCSPException | IOException | RuntimeException e2) {
+                    log.error("", e2);
+                    complete();
+                }
+            }
+        }
+    }
+
+    private static byte[] getTryLaterResponse() throws OCSPException, IOException {
+        return new OCSPRespBuilder().build(OCSPRespBuilder.TRY_LATER, null).getEncoded();
+    }
+
+    @Override
+    public void onTimeout(final AsyncEvent event) {
+        if (started.compareAndSet(false, true)) {
+            log.info("Answering OCSP request from " + getRequest().getRemoteAddr() + " with tryLater, since it was not processed within "
+                    + timeout + " ms.");
+            try {
+                // The response is small, and no write listener has been set, so it is written directly
+                final byte[] tryLater = getTryLaterResponse();
+                getResponse().setContentType("application/ocsp-response");
+                getResponse().setContentLength(tryLater.length);
+                getResponse().getOutputStream().write(tryLater);
+            } catch (OCSPException | IOException | RuntimeException e) {
+                log.info("Failed to write tryLater response to " + getRequest().getRemoteAddr() + ": " + e.getMessage());
+            }
+        } else {
+            log.info("Abandoning OCSP request from " + getRequest().getRemoteAddr() + ", since its response was not generated within "
+                    + timeout + " ms.");
+        }
+        complete();
+    }
+
+    @Override
+    public void onError(final AsyncEvent event) {
+        log.info("Asynchronous processing of OCSP request from " + getRequest().getRemoteAddr() + " failed: "
+                + (event.getThrowable() == null ? "" : event.getThrowable().getMessage()));
+        started.set(true);
+        complete();
+    }
+
+    @Override
+    public void onComplete(final AsyncEvent event) {
+        finished.set(true);
+    }
+
+    @Override
+    public void onStartAsync(final AsyncEvent event) {
+        // Not dispatched again
+    }
+
+    /**
+     * Reads the body of a POST request without blocking, and submits the request for processing once it has been read. The
+     * container never invokes the methods of a listener concurrently.
+     */
+    private final class RequestReader implements ReadListener {
+        private final ServletInputStream in;
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        private final byte[] buffer = new byte[ASYNC_IO_CHUNK_SIZE];
+        private boolean done = false;
+
+        private RequestReader(final ServletInputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public void onDataAvailable() throws IOException {
+            while (!done && in.isReady()) {
+                final int length = in.read(buffer);
+                if (length < 0) {
+                    // onAllDataRead is invoked next
+                    return;
+                }
+                body.write(buffer, 0, length);
+                if (body.size() > LimitLengthASN1Reader.MAX_REQUEST_SIZE) {
+                    // Never read more than a blocking read would, the request is rejected if its first ASN.1 object is too large
+                    done = true;
+                    submit(body.toByteArray());
+                }
+            }
+        }
+
+        @Override
+        public void onAllDataRead() {
+            if (!done) {
+                done = true;
+                submit(body.toByteArray());
+            }
+        }
+
+        @Override
+        public void onError(final Throwable t) {
+            log.info("Failed to read OCSP request from " + getRequest().getRemoteAddr() + ": " + t.getMessage());
+            if (!done) {
+                done = true;
+                started.set(true);
+                complete();
+            }
+        }
+    }
+
+    /** Writes a response without blocking, and completes the asynchronous processing once it has been written. */
+    private final class ResponseWriter implements WriteListener {
+        private final byte[] responseBytes;
+        private int offset = 0;
+
+        private ResponseWriter(final byte[] responseBytes) {
+            this.responseBytes = responseBytes;
+        }
+
+        @Override
+        public void onWritePossible() throws IOException {
+            final ServletOutputStream out = getResponse().getOutputStream();
+            while (out.isReady()) {
+                if (offset == responseBytes.length) {
+                    complete();
+                    return;
+                }
+                final int length = Math.min(ASYNC_IO_CHUNK_SIZE, responseBytes.length - offset);
+                out.write(responseBytes, offset, length);
+                offset += length;
+            }
+        }
+
+        @Override
+        public void onError(final Throwable t) {
+            log.info("Failed to write OCSP response to " + getRequest().getRemoteAddr() + ": " + t.getMessage());
+            complete();
+        }
+    }
+}
@@ -15,10 +15,14 @@ package org.ejbca.ui.web.protocol;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
+import org.bouncycastle.cert.ocsp.OCSPReq;
 import org.bouncycastle.cert.ocsp.OCSPResp;
 import org.bouncycastle.cert.ocsp.OCSPRespBuilder;
+import org.bouncycastle.cert.ocsp.Req;
 import org.cesecore.certificates.certificateprofile.CertificateProfileConstants;
 import org.cesecore.certificates.ocsp.cache.OcspConfigurationCache;
+import org.cesecore.certificates.ocsp.cache.OcspResponseCache;
+import org.cesecore.certificates.ocsp.cache.OcspResponseCacheEntry;
 import org.cesecore.certificates.ocsp.exception.MalformedRequestException;
 import org.cesecore.certificates.ocsp.logging.AuditLogger;
 import org.cesecore.certificates.ocsp.logging.GuidHolder;
@@ -44,16 +48,23 @@ import org.ejbca.util.HTMLTools;
 import org.ejbca.util.IPatternLogger;
 
 import javax.ejb.EJB;
+import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
 import javax.servlet.ServletInputStream;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URLDecoder;
 import java.security.InvalidKeyException;
 import java.security.cert.X509Certificate;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /** 
  * Servlet implementing server side of the Online Certificate Status Protocol (OCSP)
@@ -67,6 +78,11 @@ public class OCSPServlet extends HttpServlet {
     
     private final String sessionID = GUIDGenerator.generateGUID(this);
     private enum HttpMethod { GET, POST, OTHER};
+
+    private static final AtomicInteger asyncThreadNumber = new AtomicInteger();
+
+    /** Generates the responses to requests processed asynchronously, or null if requests are processed on the container threads */
+    private transient volatile ThreadPoolExecutor asyncExecutor = null;
     
     @EJB
     private OcspResponseGeneratorSessionLocal integratedOcspResponseGeneratorSession;
@@ -75,6 +91,34 @@ public class OCSPServlet extends HttpServlet {
     @EJB
     private GlobalConfigurationSessionLocal globalConfigurationSession;
 
+    @Override
+    public void init(ServletConfig config) throws ServletException {
+        super.init(config);
+        if (OcspConfiguration.isAsyncServletEnabled()) {
+            final int threads = OcspConfiguration.getAsyncServletThreads();
+            final int queueSize = OcspConfiguration.getAsyncServletQueueSize();
+            final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(queueSize), runnable -> {
+                        final Thread thread = new Thread(runnable, "OcspServlet-" + asyncThreadNumber.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            executor.allowCoreThreadTimeOut(true);
+            asyncExecutor = executor;
+            log.info("Processing OCSP requests asynchronously with " + threads + " threads and a queue of " + queueSize + ".");
+        }
+    }
+
+    @Override
+    public void destroy() {
+        final ThreadPoolExecutor executor = asyncExecutor;
+        asyncExecutor = null;
+        if (executor != null) {
+            executor.shutdown();
+        }
+        super.destroy();
+    }
+
     @Override
     public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException {
         try {
@@ -219,7 +263,59 @@ public class OCSPServlet extends HttpServlet {
         }
     }
 
-    private void processOcspRequest(HttpServletRequest request, HttpServletResponse response, final HttpMethod httpMethod) throws ServletException {
+    /**
+     * @return the response from the OCSP response cache for a single unsigned request without nonce or other extensions,
+     *         or null if the request must be processed by the OCSP response generator.
+     */
+    private OcspResponseInformation getCachedOcspResponse(final byte[] requestBytes) {
+        // Responses cached before the cache was disabled must not be served
+        if (!OcspConfiguration.isResponseCacheEnabled() || OcspResponseCache.INSTANCE.isEmpty()) {
+            return null;
+        }
+        final OCSPReq ocspRequest;
+        try {
+            ocspRequest = new OCSPReq(requestBytes);
+        } catch (IOException | RuntimeException e) {
+            // Let the response generator deal with malformed requests
+            return null;
+        }
+        if (ocspRequest.isSigned() || ocspRequest.hasExtensions()) {
+            return null;
+        }
+        final Req[] requests = ocspRequest.getRequestList();
+        if (requests.length != 1 || requests[0].getSingleRequestExtensions() != null) {
+            return null;
+        }
+        final OcspResponseCacheEntry entry = OcspResponseCache.INSTANCE.get(requests[0].getCertID(), System.currentTimeMillis());
+        if (entry == null) {
+            return null;
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Answering OCSP request for serial number " + requests[0].getCertID().getSerialNumber().toString(16) + " from the response cache.");
+        }
+        return new OcspResponseInformation(entry);
+    }
+
+    private void processOcspRequest(HttpServletRequest request, HttpServletResponse response, final HttpMethod httpMethod) throws IOException {
+        final ThreadPoolExecutor executor = asyncExecutor;
+        if (executor != null && request.isAsyncSupported()) {
+            // Release the container thread while the request body is read and the response is generated and written
+            AsyncOcspRequest.start(request, response, HttpMethod.POST.equals(httpMethod), executor, OcspConfiguration.getAsyncServletTimeout(),
+                    (asyncRequest, requestBody) -> processOcspRequest(asyncRequest.getRequest(), asyncRequest.getResponse(), httpMethod,
+                            requestBody, asyncRequest));
+            return;
+        }
+        processOcspRequest(request, response, httpMethod, null, null);
+    }
+
+    /**
+     * Generate and write the response to an OCSP request.
+     *
+     * @param requestBody the already read body of a POST request, or null to read it from the request
+     * @param asyncRequest the request if it is processed asynchronously, or null
+     */
+    private void processOcspRequest(HttpServletRequest request, HttpServletResponse response, final HttpMethod httpMethod,
+            final byte[] requestBody, final AsyncOcspRequest asyncRequest) {
         final String remoteAddress = request.getRemoteAddr();
         final String xForwardedFor = StringTools.getCleanXForwardedFor(request.getHeader("X-Forwarded-For"));
         StringBuffer requestUrl = request.getRequestURL();
@@ -247,10 +343,16 @@ public class OCSPServlet extends HttpServlet {
             OCSPRespBuilder responseGenerator = new OCSPRespBuilder();
             OcspResponseInformation ocspResponseInformation = null;
             try {
-                byte[] requestBytes = checkAndGetRequestBytes(request, httpMethod);
-                X509Certificate[] requestCertificates = (X509Certificate[]) request.getAttribute("javax.servlet.request.X509Certificate");
-                ocspResponseInformation = integratedOcspResponseGeneratorSession.getOcspResponse(
-                        requestBytes, requestCertificates, remoteAddress, xForwardedFor, requestUrl, auditLogger, transactionLogger, false, false);
+                byte[] requestBytes = checkAndGetRequestBytes(request, httpMethod, requestBody);
+                // Cache hits are not logged, so only use the response cache when transaction and audit logging is disabled
+                if (!transactionLogger.isEnabled() && !auditLogger.isEnabled()) {
+                    ocspResponseInformation = getCachedOcspResponse(requestBytes);
+                }
+                if (ocspResponseInformation == null) {
+                    X509Certificate[] requestCertificates = (X509Certificate[]) request.getAttribute("javax.servlet.request.X509Certificate");
+                    ocspResponseInformation = integratedOcspResponseGeneratorSession.getOcspResponse(
+                            requestBytes, requestCertificates, remoteAddress, xForwardedFor, requestUrl, auditLogger, transactionLogger, false, false);
+                }
             } catch (MalformedRequestException e) {
                 if (transactionLogger.isEnabled()) {
                     transactionLogger.paramPut(PatternLogger.PROCESS_TIME, PatternLogger.PROCESS_TIME);
@@ -321,15 +423,22 @@ public class OCSPServlet extends HttpServlet {
                 addOcspPostHeaders(response, ocspResponseInformation);
             }
             
-            response.getOutputStream().write(ocspResponseBytes);
-            response.getOutputStream().flush();
+            if (asyncRequest == null) {
+                response.getOutputStream().write(ocspResponseBytes);
+                response.getOutputStream().flush();
+            } else {
+                asyncRequest.write(ocspResponseBytes);
+            }
         } catch (Exception e) {
             log.error("", e);
             transactionLogger.flush();
             auditLogger.flush();
+            if (asyncRequest != null) {
+                asyncRequest.complete();
+            }
         }
     }
-    
+
     private void addOcspPostHeaders(HttpServletResponse response, OcspResponseInformation ocspResponseInformation) {
         
         if (!ocspResponseInformation.shouldAddCacheHeaders()) {
@@ -417,11 +526,12 @@ public class OCSPServlet extends HttpServlet {
      * 
      * @param request
      * @param httpMethod
+     * @param requestBody the already read body of a POST request, or null to read it from the request
      * @return the request bytes or null if an error occured.
      * @throws IOException In case there is no stream to read
      * @throws MalformedRequestException 
      */
-    private byte[] checkAndGetRequestBytes(HttpServletRequest request, HttpMethod httpMethod) throws IOException, MalformedRequestException {
+    private byte[] checkAndGetRequestBytes(HttpServletRequest request, HttpMethod httpMethod, final byte[] requestBody) throws IOException, MalformedRequestException {
         final byte[] ret;
         // Get the request data
         final int n = request.getContentLength();
@@ -437,7 +547,8 @@ public class OCSPServlet extends HttpServlet {
         // So we passed basic tests, now we can read the bytes, but still keep an eye on the size
         // we can not fully trust the sent content length.
         if (HttpMethod.POST.equals(httpMethod)) {
-            final ServletInputStream in = request.getInputStream(); // ServletInputStream does not have to be closed, container handles this
+            // ServletInputStream does not have to be closed, container handles this
+            final InputStream in = requestBody == null ? request.getInputStream() : new ByteArrayInputStream(requestBody);
             LimitLengthASN1Reader limitLengthASN1Reader = new LimitLengthASN1Reader(in, n);
             try {
                 ret = limitLengthASN1Reader.readFirstASN1Object();